@@ -1,21 +1,45 @@
 package controller;
 
+import entities.RetentionPolicy;
 import entities.Topic;
 import entities.User;
 import entities.alert.Alert;
+import entities.alert.AlertCursor;
+import entities.alert.AlertDestination;
+import entities.alert.AlertPage;
+import entities.alert.AlertStore;
 import entities.alert.AlertType;
+import metrics.ControllerMetrics;
+import metrics.Operation;
+import persistence.Journal;
+import persistence.JournalRecord;
+import persistence.RecordLog;
+import persistence.ReplicationFollower;
+import persistence.ReplicationLeader;
+import persistence.Snapshot;
+import service.AlertDeduplicator;
+import service.AlertDispatcher;
 import service.AlertsService;
+import service.ExpirationService;
+import service.PushService;
 import service.TopicsService;
 import service.UsersService;
+import util.MillisClock;
+import util.SegmentTrie;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Clase controladora del sistema, sirve para relacionar los distintos servicios
  * @author Albano Zupichiatti
  */
-public class Controller {
+public class Controller implements AutoCloseable {
 
     private UsersService usersService;
 
@@ -23,13 +47,112 @@ public class Controller {
 
     private AlertsService alertsService;
 
+    private ExpirationService expirationService;
+
+    private PushService pushService;
+
+    private ControllerBuilder configuration;
+
+    private volatile AlertDispatcher dispatcher;
+
+    private ControllerMetrics metrics;
+
+    private Journal journal;
+
+    private ReplicationLeader replicationLeader;
+
+    private ReplicationFollower replicationFollower;
+
+    private RecordLog recordLog;
+
+    private MillisClock clock;
+
+    private final Object snapshotLock = new Object();
+
     /**
-     * Construye el controlador con todos los servicios instanciados
+     * Construye el controlador con todos los servicios instanciados y la configuracion por defecto
      */
     public Controller() {
+        this(new ControllerBuilder());
+    }
+
+    /**
+     * Construye el controlador con todos los servicios instanciados y la configuracion de ControllerBuilder,
+     * si se configuro una instantanea o un diario reconstruye el estado cargando la instantanea
+     * y reproduciendo la cola del diario posterior a ella
+     * @param configuration Configuracion del controlador
+     * @throws UncheckedIOException si no se puede leer o escribir el diario
+     */
+    Controller(ControllerBuilder configuration) {
         this.usersService = new UsersService();
         this.topicsService = new TopicsService();
         this.alertsService = new AlertsService();
+        this.configuration = configuration;
+        this.clock = configuration.getClock();
+        alertsService.setClock(clock);
+        topicsService.setDefaultRetention(configuration.getDefaultRetention());
+        this.expirationService = new ExpirationService(alertsService, ExpirationService.DEFAULT_TICK_MILLIS,
+                clock.millis());
+        this.metrics = new ControllerMetrics();
+        this.pushService = new PushService(configuration.getPushBufferSize(), configuration.getPushOverflowPolicy(),
+                configuration.getPushExecutor());
+        usersService.setPushService(pushService);
+
+        if (configuration.isOffHeapStore()) {
+            alertsService.setAlertStore(new AlertStore());
+        }
+
+        if (configuration.getDeduplicationWindowMillis() > 0) {
+            alertsService.setDeduplicator(new AlertDeduplicator(configuration.getDeduplicationCapacity(),
+                    configuration.getDeduplicationWindowMillis()));
+        }
+
+        long journalPosition = 0;
+
+        if (configuration.getSnapshotPath() != null) {
+            try {
+                journalPosition = Math.max(0, Snapshot.load(configuration.getSnapshotPath(), usersService,
+                        topicsService, alertsService, expirationService));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        if (configuration.getJournalPath() != null) {
+            try {
+                this.journal = Journal.open(configuration.getJournalPath(), configuration.getSyncPolicy(),
+                        configuration.getSyncIntervalMillis(), journalPosition, this::replay);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        RecordLog log = journal;
+
+        if (configuration.getReplicationListener() != null) {
+            this.replicationLeader = new ReplicationLeader(journal,
+                    path -> Snapshot.write(path, 0, usersService, topicsService, alertsService));
+            replicationLeader.listen(configuration.getReplicationListener());
+            log = replicationLeader;
+        }
+
+        this.recordLog = log;
+
+        if (log != null) {
+            usersService.setJournal(log);
+            topicsService.setJournal(log);
+            alertsService.setJournal(log);
+        }
+
+        if (configuration.getReplicationSource() != null) {
+            this.replicationFollower = new ReplicationFollower(configuration.getReplicationSource(),
+                    path -> Snapshot.load(path, usersService, topicsService, alertsService, expirationService),
+                    this::replay);
+        }
+
+        if (configuration.getJmxName() != null) {
+            metrics.registerMBeans(configuration.getJmxName());
+        }
     }
 
     /**
@@ -39,49 +162,215 @@ public class Controller {
      */
     public boolean registerUser(String userName){
 
-        if(usersService.registerUser(userName) != null){
-            return true;
-        }
-        else{
+        if(isFollower()){
             return false;
         }
 
+        long start = System.nanoTime();
+        deferSync();
+        try {
+            if(usersService.registerUser(userName) != null){
+                return true;
+            }
+            else{
+                return false;
+            }
+        } finally {
+            awaitDeferredSync();
+            metrics.recordLatency(Operation.REGISTER_USER, start);
+        }
     }
 
     /**
-     * Registra un tema (funcionalidad 2)
-     * @param name Nombre de tema
+     * Registra un tema (funcionalidad 2), los usuarios con un patron que coincide con el nombre quedan suscriptos
+     * @param name Nombre de tema, jerarquico separado por punto y sin segmentos comodin
      * @return true si se registro exitosamente
      */
     public boolean registerTopic(String name){
 
-        if(topicsService.registerTopic(name) != null){
-            return true;
-        }
-        else{
+        if(isFollower()){
             return false;
         }
 
+        long start = System.nanoTime();
+        deferSync();
+        try {
+            Topic topic = topicsService.registerTopic(name);
+
+            if(topic != null){
+                usersService.subscribeByPatterns(topic);
+                return true;
+            }
+            else{
+                return false;
+            }
+        } finally {
+            awaitDeferredSync();
+            metrics.recordLatency(Operation.REGISTER_TOPIC, start);
+        }
     }
 
     /**
      * Suscribe a un usuario a un tema (funcionalidad 3)
+     * El nombre puede ser un patron, * coincide con un segmento y # con cero o mas (programming.* o programming.#),
+     * en ese caso se suscribe a los temas que coinciden y a los que se registren despues
      * @param userName Nombre de usuario a suscribir
-     * @param topicName Nombre de tema a suscribir
-     * @return true si se suscribio correctamente, existe el tema y el usuario
+     * @param topicName Nombre o patron de tema a suscribir
+     * @return true si se suscribio correctamente, existe el tema y el usuario, o si el patron es nuevo
      */
     public boolean selectTopic(String userName, String topicName){
 
+        if(isFollower()){
+            return false;
+        }
 
-        Topic topic = topicsService.findTopic(topicName);
+        long start = System.nanoTime();
+        deferSync();
+        try {
+            if(topicName != null && SegmentTrie.isPattern(topicName)){
+                return selectPattern(userName, topicName);
+            }
 
-        if(topic != null){
-            return usersService.selectTopic(userName, topic);
+            Topic topic = topicsService.findTopic(topicName);
+
+            if(topic != null){
+                return usersService.selectTopic(userName, topic);
+            }
+            else{
+                return false;
+            }
+        } finally {
+            awaitDeferredSync();
+            metrics.recordLatency(Operation.SELECT_TOPIC, start);
         }
-        else{
+    }
+
+    /**
+     * Registra varios usuarios en una sola operacion
+     * @param userNames Nombres de usuario
+     * @return Cantidad de usuarios registrados, los que ya existian no se cuentan
+     */
+    public int registerUsers(Collection<String> userNames){
+
+        if(isFollower()){
+            return 0;
+        }
+
+        long start = System.nanoTime();
+        deferSync();
+        try {
+            return usersService.registerUsers(userNames);
+        } finally {
+            awaitDeferredSync();
+            metrics.recordLatency(Operation.REGISTER_USERS, start);
+        }
+    }
+
+    /**
+     * Suscribe a un usuario a varios temas en una sola operacion
+     * @param userName Nombre de usuario a suscribir
+     * @param topicNames Nombres de temas a suscribir, los que no existen se ignoran
+     * @return Cantidad de suscripciones nuevas, 0 si no existe el usuario
+     */
+    public int selectTopics(String userName, Collection<String> topicNames){
+
+        if(isFollower()){
+            return 0;
+        }
+
+        long start = System.nanoTime();
+        deferSync();
+        try {
+            User user = usersService.findUser(userName);
+
+            if(user == null){
+                return 0;
+            }
+
+            List<Topic> topics = new ArrayList<>(topicNames.size());
+            for (String topicName : topicNames) {
+                Topic topic = topicsService.findTopic(topicName);
+                if (topic != null) {
+                    topics.add(topic);
+                }
+            }
+
+            return usersService.selectTopics(user, topics);
+        } finally {
+            awaitDeferredSync();
+            metrics.recordLatency(Operation.SELECT_TOPICS, start);
+        }
+    }
+
+    /**
+     * Suscribe a varios usuarios a un tema en una sola operacion
+     * @param topicName Nombre de tema a suscribir
+     * @param userNames Nombres de usuarios a suscribir, los que no existen se ignoran
+     * @return Cantidad de suscripciones nuevas, 0 si no existe el tema
+     */
+    public int subscribeUsers(String topicName, Collection<String> userNames){
+
+        if(isFollower()){
+            return 0;
+        }
+
+        long start = System.nanoTime();
+        deferSync();
+        try {
+            Topic topic = topicsService.findTopic(topicName);
+
+            if(topic != null){
+                return usersService.subscribeUsers(topic, userNames);
+            }
+            else{
+                return 0;
+            }
+        } finally {
+            awaitDeferredSync();
+            metrics.recordLatency(Operation.SUBSCRIBE_USERS, start);
+        }
+    }
+
+    /**
+     * Desuscribe a un usuario de un tema
+     * Si el nombre es un patron se quita y se desuscribe de los temas que coinciden con el y con ningun
+     * otro patron del usuario
+     * @param userName Nombre de usuario a desuscribir
+     * @param topicName Nombre o patron de tema a desuscribir
+     * @return true si existe el tema, el usuario y estaba suscripto, o si el usuario tenia el patron
+     */
+    public boolean unselectTopic(String userName, String topicName){
+
+        if(isFollower()){
             return false;
         }
 
+        long start = System.nanoTime();
+        deferSync();
+        try {
+            if(topicName != null && SegmentTrie.isPattern(topicName)){
+                User user = usersService.findUser(userName);
+
+                if(user != null){
+                    return usersService.unselectPattern(user, topicName, topicsService.findTopics(topicName));
+                }
+                else{
+                    return false;
+                }
+            }
+
+            Topic topic = topicsService.findTopic(topicName);
+
+            if(topic != null){
+                return usersService.unselectTopic(userName, topic);
+            }
+            else{
+                return false;
+            }
+        } finally {
+            awaitDeferredSync();
+            metrics.recordLatency(Operation.UNSELECT_TOPIC, start);
+        }
     }
 
     /**
@@ -110,27 +399,134 @@ public class Controller {
     }
 
     /**
-     * Envia una alerta por tema a todos sus usuarios con fecha de expiracion (funcionalidad 6)
+     * Envia una alerta por tema a todos sus usuarios con fecha de expiracion (funcionalidad 6),
+     * la alerta queda guardada en el tema y los suscriptores la leen desde ahi
+     * Si se configuro la deduplicacion y el tema tiene una alerta igual dentro de la ventana no se crea otra,
+     * se suma una ocurrencia a la existente (ver ControllerBuilder.setDeduplicationWindowMillis)
      * @param message Mensaje a enviar
      * @param type Tipo de alerta
      * @param topicName Nombre de tema
      * @param expirationDate Fecha de expiracion
-     * @return Id de la alerta
+     * @return Id de la alerta, o de la alerta igual existente
      */
     public int sendAlertByTopic(String message, AlertType type, String topicName, LocalDateTime expirationDate){
+        return sendAlertByTopic(0, message, type, topicName, toMillis(expirationDate));
+    }
 
-        Topic topic = topicsService.findTopic(topicName);
+    /**
+     * Envia una alerta por tema con un id asignado por fuera, se usa cuando varios controladores comparten
+     * la secuencia de ids como las particiones de PartitionedController
+     * @param alertId Id de la alerta, 0 para reservar uno nuevo
+     * @param message Mensaje a enviar
+     * @param type Tipo de alerta
+     * @param topicName Nombre de tema
+     * @param expirationMillis Expiracion en milisegundos desde epoch, Alert.NEVER_EXPIRES si no vence
+     * @return Id de la alerta, 0 si no existe el tema
+     */
+    int sendAlertByTopic(int alertId, String message, AlertType type, String topicName, long expirationMillis){
 
-        if(topic != null){
-            Set<User> subscribedUsers = usersService.findUsersByTopic(topic);
-            Alert alert = alertsService.sendAlert(message, type, subscribedUsers, expirationDate);
-            topic.addAlert(alert);
-            return alert.getId();
-        }
-        else{
+        if(isFollower()){
             return 0;
         }
 
+        long start = System.nanoTime();
+        deferSync();
+        try {
+            expireAlerts();
+            Topic topic = topicsService.findTopic(topicName);
+
+            if(topic != null){
+                Alert alert;
+                if(alertId == 0){
+                    Alert duplicate;
+                    // El lock del tema se mantiene entre la busqueda y el envio para que dos envios iguales
+                    // a la vez no creen dos alertas
+                    topic.getLock().writeLock().lock();
+                    try {
+                        duplicate = alertsService.coalesceAlert(message, type, topic);
+                        alert = duplicate != null ? duplicate : alertsService.sendAlert(message, type, topic,
+                                expirationMillis);
+                    } finally {
+                        topic.getLock().writeLock().unlock();
+                    }
+                    if(duplicate != null){
+                        return duplicate.getId();
+                    }
+                }
+                else{
+                    alert = alertsService.sendAssignedAlert(alertId, message, type, topic, null, expirationMillis);
+                }
+                expirationService.schedule(alert);
+                expirationService.evict(topic);
+                pushService.publish(alert);
+                metrics.recordAlertSent(type, AlertDestination.GENERAL, usersService.countSubscribers(topic));
+                return alert.getId();
+            }
+            else{
+                return 0;
+            }
+        } finally {
+            awaitDeferredSync();
+            metrics.recordLatency(Operation.SEND_ALERT_BY_TOPIC, start);
+        }
+    }
+
+    /**
+     * Envia una alerta por tema a todos sus usuarios de forma asincronica sin fecha de expiracion,
+     * delega al metodo con fecha de expiracion ya que coinciden en comportamiento
+     * @param message Mensaje a enviar
+     * @param type Tipo de alerta
+     * @param topicName Nombre de tema
+     * @return Futuro con el id de la alerta, o con 0 si no existe el tema
+     */
+    public CompletableFuture<Integer> sendAlertByTopicAsync(String message, AlertType type, String topicName){
+        return sendAlertByTopicAsync(message, type, topicName, null);
+    }
+
+    /**
+     * Envia una alerta por tema a todos sus usuarios de forma asincronica con fecha de expiracion,
+     * encola la alerta y vuelve sin esperar la entrega, el id se asigna al entregarla
+     * @param message Mensaje a enviar
+     * @param type Tipo de alerta
+     * @param topicName Nombre de tema
+     * @param expirationDate Fecha de expiracion
+     * @return Futuro que se completa con el id de la alerta cuando es visible para los suscriptores,
+     * con el de la alerta igual existente si se agrupo por deduplicacion, o con 0 si no existe el tema
+     */
+    public CompletableFuture<Integer> sendAlertByTopicAsync(String message, AlertType type, String topicName,
+                                                            LocalDateTime expirationDate){
+
+        if(isFollower()){
+            return CompletableFuture.completedFuture(0);
+        }
+
+        long start = System.nanoTime();
+        try {
+            expireAlerts();
+            Topic topic = topicsService.findTopic(topicName);
+
+            if(topic != null){
+                return dispatcher().dispatch(message, type, topic, toMillis(expirationDate));
+            }
+            else{
+                return CompletableFuture.completedFuture(0);
+            }
+        } finally {
+            metrics.recordLatency(Operation.SEND_ALERT_BY_TOPIC_ASYNC, start);
+        }
+    }
+
+    /**
+     * Espera a que se entreguen todas las alertas enviadas de forma asincronica hasta el momento
+     * @param timeout Tiempo maximo de espera
+     * @param unit Unidad del tiempo de espera
+     * @return true si no quedan alertas pendientes, false si se agoto el tiempo
+     * @throws InterruptedException si el hilo se interrumpe mientras espera
+     */
+    public boolean awaitDispatch(long timeout, TimeUnit unit) throws InterruptedException {
+
+        AlertDispatcher current = dispatcher;
+        return current == null || current.awaitQuiescence(timeout, unit);
     }
 
     /**
@@ -143,19 +539,54 @@ public class Controller {
      * @return Id de la alerta
      */
     public int sendAlertByUser(String message, AlertType type, String topicName, String userName, LocalDateTime expirationDate){
+        return sendAlertByUser(0, message, type, topicName, userName, toMillis(expirationDate));
+    }
 
-        User user = usersService.findUser(userName);
-        Topic topic = topicsService.findTopic(topicName);
+    /**
+     * Envia una alerta por tema a un usuario con un id asignado por fuera
+     * @param alertId Id de la alerta, 0 para reservar uno nuevo
+     * @param message Mensaje a enviar
+     * @param type Tipo de alerta
+     * @param topicName Nombre de tema
+     * @param userName Nombre de usuario
+     * @param expirationMillis Expiracion en milisegundos desde epoch, Alert.NEVER_EXPIRES si no vence
+     * @return Id de la alerta, 0 si no existe el tema, el usuario o no esta suscripto
+     */
+    int sendAlertByUser(int alertId, String message, AlertType type, String topicName, String userName,
+                        long expirationMillis){
 
-        if(user != null && topic != null && user.isSubscribed(topic)){
-            Alert alert = alertsService.sendAlert(message, type, user, expirationDate);
-            topic.addAlert(alert);
-            return alert.getId();
-        }
-        else{
+        if(isFollower()){
             return 0;
         }
 
+        long start = System.nanoTime();
+        deferSync();
+        try {
+            expireAlerts();
+            User user = usersService.findUser(userName);
+            Topic topic = topicsService.findTopic(topicName);
+
+            if(user != null && topic != null && user.isSubscribed(topic)){
+                Alert alert;
+                if(alertId == 0){
+                    alert = alertsService.sendAlert(message, type, topic, user, expirationMillis);
+                }
+                else{
+                    alert = alertsService.sendAssignedAlert(alertId, message, type, topic, user, expirationMillis);
+                }
+                expirationService.schedule(alert);
+                expirationService.evict(topic);
+                pushService.publish(alert);
+                metrics.recordAlertSent(type, AlertDestination.PERSONAL, 1);
+                return alert.getId();
+            }
+            else{
+                return 0;
+            }
+        } finally {
+            awaitDeferredSync();
+            metrics.recordLatency(Operation.SEND_ALERT_BY_USER, start);
+        }
     }
 
     /**
@@ -166,93 +597,704 @@ public class Controller {
      */
     public boolean markAlertAsRead(String userName, int alertId){
 
-        User user = usersService.findUser(userName);
-        Alert alert = alertsService.findAlertById(alertId);
+        if(isFollower()){
+            return false;
+        }
 
-        if(user != null && alert != null){
-            return usersService.markAlertAsRead(user, alert);
+        long start = System.nanoTime();
+        deferSync();
+        try {
+            expireAlerts();
+            User user = usersService.findUser(userName);
+            Alert alert = alertsService.findAlertById(alertId);
+
+            if(user != null && alert != null){
+                return usersService.markAlertAsRead(user, alert);
+            }
+            else{
+                return false;
+            }
+        } finally {
+            awaitDeferredSync();
+            metrics.recordLatency(Operation.MARK_ALERT_AS_READ, start);
         }
-        else{
-            return false;
+    }
+
+    /**
+     * Marca varias alertas de un usuario como leidas en una sola operacion
+     * @param userName Nombre de usuario
+     * @param alertIds Ids de alertas, las que no existen se ignoran
+     * @return Cantidad de alertas marcadas como leidas, 0 si no existe el usuario
+     */
+    public int markAlertsAsRead(String userName, int... alertIds){
+
+        if(isFollower()){
+            return 0;
         }
 
+        long start = System.nanoTime();
+        deferSync();
+        try {
+            expireAlerts();
+            User user = usersService.findUser(userName);
+
+            if(user == null){
+                return 0;
+            }
+
+            List<Alert> alerts = new ArrayList<>(alertIds.length);
+            for (int alertId : alertIds) {
+                Alert alert = alertsService.findAlertById(alertId);
+                if (alert != null) {
+                    alerts.add(alert);
+                }
+            }
+
+            return usersService.markAlertsAsRead(user, alerts);
+        } finally {
+            awaitDeferredSync();
+            metrics.recordLatency(Operation.MARK_ALERTS_AS_READ, start);
+        }
     }
 
     /**
-     * Devuelve la lista de alertas no leidas y no expiradas de un usuario (funcionalidad 9 y 11)
+     * Marca todas las alertas pendientes de un usuario como leidas
      * @param userName Nombre de usuario
-     * @return Lista de alertas no leidas ni expiradas
-     * ordenadas por LIFO para las urgentes y luego FIFO para las informativas
+     * @return Cantidad de alertas marcadas como leidas, 0 si no existe el usuario
      */
-    public ArrayList<Alert> getUnexpiredAlertsByUser(String userName){
+    public int markAllAsRead(String userName){
+
+        if(isFollower()){
+            return 0;
+        }
+
+        long start = System.nanoTime();
+        deferSync();
+        try {
+            expireAlerts();
+            User user = usersService.findUser(userName);
+
+            if(user != null){
+                return usersService.markAllAsRead(user);
+            }
+            else{
+                return 0;
+            }
+        } finally {
+            awaitDeferredSync();
+            metrics.recordLatency(Operation.MARK_ALL_AS_READ, start);
+        }
+    }
+
+    /**
+     * Cuenta los usuarios que leyeron una alerta general sin recorrer a los suscriptores
+     * @param alertId Id de la alerta
+     * @return Cantidad de lectores, 0 si no existe la alerta o es personal
+     */
+    public int countAlertReaders(int alertId){
+
+        long start = System.nanoTime();
+        try {
+            Alert alert = alertsService.findAlertById(alertId);
+
+            if(alert != null){
+                return alert.countReaders();
+            }
+            else{
+                return 0;
+            }
+        } finally {
+            metrics.recordLatency(Operation.COUNT_ALERT_READERS, start);
+        }
+    }
+
+    /**
+     * Devuelve el publicador de las alertas nuevas de un usuario, personales y generales de sus temas suscriptos,
+     * para recibirlas sin consultar. Cada suscriptor tiene su buffer y recibe segun la demanda que pida,
+     * un suscriptor lento no demora los envios
+     * @param userName Nombre de usuario
+     * @return Publicador de alertas o null si no existe el usuario
+     */
+    public Flow.Publisher<Alert> getAlertPublisherByUser(String userName){
 
         User user = usersService.findUser(userName);
 
         if(user != null){
-            ArrayList<Alert> alerts = user.getUnexpiredAlerts();
-            orderAlerts(alerts);
-            return alerts;
+            return pushService.getPublisher(user);
+        }
+        else{
+            return null;
+        }
+    }
+
+    /**
+     * Devuelve el publicador de las alertas nuevas de un tema, generales y personales
+     * @param topicName Nombre de tema
+     * @return Publicador de alertas o null si no existe el tema
+     */
+    public Flow.Publisher<Alert> getAlertPublisherByTopic(String topicName){
+
+        Topic topic = topicsService.findTopic(topicName);
+
+        if(topic != null){
+            return pushService.getPublisher(topic);
         }
         else{
             return null;
         }
+    }
+
+    /**
+     * Cuenta las alertas no leidas de un usuario sin armar la lista, las cuentas se actualizan al enviar,
+     * leer y vencer las alertas por lo que el costo solo depende de la cantidad de temas suscriptos
+     * Puede incluir alertas vencidas desde el ultimo avance del planificador de vencimientos
+     * @param userName Nombre de usuario
+     * @return Cantidad de alertas no leidas, 0 si no existe el usuario
+     */
+    public int countUnread(String userName){
+
+        long start = System.nanoTime();
+        try {
+            expireAlerts();
+            User user = usersService.findUser(userName);
+
+            if(user != null){
+                return user.countUnread();
+            }
+            else{
+                return 0;
+            }
+        } finally {
+            metrics.recordLatency(Operation.COUNT_UNREAD, start);
+        }
+    }
+
+    /**
+     * Cuenta las alertas no leidas de un tipo de un usuario sin armar la lista
+     * @param userName Nombre de usuario
+     * @param type Tipo de alerta
+     * @return Cantidad de alertas no leidas del tipo, 0 si no existe el usuario
+     */
+    public int countUnread(String userName, AlertType type){
+
+        long start = System.nanoTime();
+        try {
+            expireAlerts();
+            User user = usersService.findUser(userName);
+
+            if(user != null){
+                return user.countUnread(type);
+            }
+            else{
+                return 0;
+            }
+        } finally {
+            metrics.recordLatency(Operation.COUNT_UNREAD, start);
+        }
+    }
+
+    /**
+     * Cuenta las alertas vigentes de un tema, generales y personales, en O(1)
+     * @param topicName Nombre de tema
+     * @return Cantidad de alertas vigentes, 0 si no existe el tema
+     */
+    public int countLive(String topicName){
 
+        long start = System.nanoTime();
+        try {
+            expireAlerts();
+            Topic topic = topicsService.findTopic(topicName);
+
+            if(topic != null){
+                return topic.countLive();
+            }
+            else{
+                return 0;
+            }
+        } finally {
+            metrics.recordLatency(Operation.COUNT_LIVE, start);
+        }
     }
 
     /**
-     * Devuelve la lista de alertas no expiradas relacionadas a un tema (funcionalidad 10 y 11)
+     * Devuelve la lista de alertas no leidas y no expiradas de un usuario (funcionalidad 9 y 11),
+     * las alertas ya se guardan ordenadas por lo que no se ordenan al leer
+     * @param userName Nombre de usuario
+     * @return Lista de alertas no leidas ni expiradas
+     * ordenadas por LIFO para las urgentes y luego FIFO para las informativas
+     */
+    public ArrayList<Alert> getUnexpiredAlertsByUser(String userName){
+
+        long start = System.nanoTime();
+        try {
+            expireAlerts();
+            User user = usersService.findUser(userName);
+
+            if(user != null){
+                ArrayList<Alert> alerts = user.getUnexpiredAlerts(clock.millis());
+                metrics.recordInboxDepth(alerts.size());
+                return alerts;
+            }
+            else{
+                return null;
+            }
+        } finally {
+            metrics.recordLatency(Operation.GET_UNEXPIRED_ALERTS_BY_USER, start);
+        }
+    }
+
+    /**
+     * Devuelve la lista de alertas no expiradas relacionadas a un tema (funcionalidad 10 y 11),
+     * las alertas ya se guardan ordenadas por lo que no se ordenan al leer
      * @param topicName Nombre de tema
      * @return Lista de alertas no leidas ni expiradas
      * ordenadas por LIFO para las urgentes y luego FIFO para las informativas
      */
     public ArrayList<Alert> getUnexpiredAlertsByTopic(String topicName){
 
-        Topic topic = topicsService.findTopic(topicName);
+        long start = System.nanoTime();
+        try {
+            expireAlerts();
+            Topic topic = topicsService.findTopic(topicName);
 
-        if(topic != null){
-            ArrayList<Alert> alerts = topic.getUnexpiredAlerts();
-            orderAlerts(alerts);
-            return alerts;
+            if(topic != null){
+                return topic.getUnexpiredAlerts(clock.millis());
+            }
+            else{
+                return null;
+            }
+        } finally {
+            metrics.recordLatency(Operation.GET_UNEXPIRED_ALERTS_BY_TOPIC, start);
+        }
+    }
+
+    /**
+     * Devuelve una pagina de alertas no leidas y no expiradas de un usuario en el orden de
+     * getUnexpiredAlertsByUser, solo recorre las alertas de la pagina sin importar el tamaño de la bandeja
+     * @param userName Nombre de usuario
+     * @param cursor Cursor de la pagina, AlertCursor.start() para la primera
+     * @param limit Cantidad maxima de alertas de la pagina
+     * @return Pagina de alertas o null si no existe el usuario
+     */
+    public AlertPage getUnexpiredAlertsByUser(String userName, AlertCursor cursor, int limit){
+
+        long start = System.nanoTime();
+        try {
+            expireAlerts();
+            User user = usersService.findUser(userName);
+
+            if(user != null){
+                return user.getUnexpiredAlerts(cursor, limit, clock.millis());
+            }
+            else{
+                return null;
+            }
+        } finally {
+            metrics.recordLatency(Operation.GET_UNEXPIRED_ALERTS_BY_USER, start);
+        }
+    }
+
+    /**
+     * Devuelve una pagina de alertas no expiradas de un tema en el orden de getUnexpiredAlertsByTopic,
+     * solo recorre las alertas de la pagina sin importar la cantidad de alertas del tema
+     * @param topicName Nombre de tema
+     * @param cursor Cursor de la pagina, AlertCursor.start() para la primera
+     * @param limit Cantidad maxima de alertas de la pagina
+     * @return Pagina de alertas o null si no existe el tema
+     */
+    public AlertPage getUnexpiredAlertsByTopic(String topicName, AlertCursor cursor, int limit){
+
+        long start = System.nanoTime();
+        try {
+            expireAlerts();
+            Topic topic = topicsService.findTopic(topicName);
+
+            if(topic != null){
+                return topic.getUnexpiredAlerts(cursor, limit, clock.millis());
+            }
+            else{
+                return null;
+            }
+        } finally {
+            metrics.recordLatency(Operation.GET_UNEXPIRED_ALERTS_BY_TOPIC, start);
+        }
+    }
+
+    /**
+     * Cambia la politica de retencion de un tema, si el tema tiene mas alertas que las que permite
+     * la nueva politica se descartan las mas viejas
+     * @param topicName Nombre de tema
+     * @param retention Politica de retencion, RetentionPolicy.UNBOUNDED para quitar los limites
+     * @return true si existe el tema y se cambio su retencion
+     */
+    public boolean setTopicRetention(String topicName, RetentionPolicy retention){
+
+        if(isFollower()){
+            return false;
+        }
+
+        long start = System.nanoTime();
+        deferSync();
+        try {
+            Topic topic = topicsService.findTopic(topicName);
+
+            if(topic != null && retention != null){
+                topicsService.setRetention(topic, retention, clock.millis());
+                expirationService.evict(topic);
+                return true;
+            }
+            else{
+                return false;
+            }
+        } finally {
+            awaitDeferredSync();
+            metrics.recordLatency(Operation.SET_TOPIC_RETENTION, start);
+        }
+    }
+
+    /**
+     * Devuelve la politica de retencion de un tema
+     * @param topicName Nombre de tema
+     * @return Politica de retencion o null si no existe el tema
+     */
+    public RetentionPolicy getTopicRetention(String topicName){
+
+        long start = System.nanoTime();
+        try {
+            Topic topic = topicsService.findTopic(topicName);
+
+            if(topic != null){
+                return topic.getRetention();
+            }
+            else{
+                return null;
+            }
+        } finally {
+            metrics.recordLatency(Operation.GET_TOPIC_RETENTION, start);
+        }
+    }
+
+    /**
+     * Escribe una instantanea del estado en el archivo configurado sin detener las demas operaciones,
+     * al reiniciar se carga la instantanea y solo se reproduce el diario posterior a ella
+     * @return true si se escribio correctamente, false si no hay archivo configurado o fallo la escritura
+     */
+    public boolean snapshot(){
+
+        if(configuration.getSnapshotPath() == null){
+            return false;
+        }
+
+        long start = System.nanoTime();
+        try {
+            synchronized (snapshotLock) {
+                // La posicion se toma antes de empezar la captura, los cambios que la captura no vea quedan despues
+                long journalPosition = journal != null ? journal.position() : 0;
+                try {
+                    Snapshot.write(configuration.getSnapshotPath(), journalPosition, usersService, topicsService,
+                            alertsService);
+                    return true;
+                } catch (IOException e) {
+                    return false;
+                }
+            }
+        } finally {
+            metrics.recordLatency(Operation.SNAPSHOT, start);
+        }
+    }
+
+    /**
+     * Escribe una instantanea del estado en un hilo aparte
+     * @return Futuro que se completa con el resultado de snapshot()
+     */
+    public CompletableFuture<Boolean> snapshotAsync(){
+
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        Thread writer = new Thread(() -> future.complete(snapshot()), "snapshot-writer");
+        writer.setDaemon(true);
+        writer.start();
+
+        return future;
+    }
+
+    /**
+     * Devuelve el numero de secuencia de la replicacion, en el lider el del ultimo registro enviado
+     * y en un seguidor el del ultimo registro del lider aplicado
+     * @return Numero de secuencia, 0 si el controlador no replica
+     */
+    public long getReplicationSequence(){
+
+        if(replicationLeader != null){
+            return replicationLeader.getSequence();
+        }
+        else if(replicationFollower != null){
+            return replicationFollower.getSequence();
         }
         else{
-            return null;
+            return 0;
+        }
+    }
+
+    /**
+     * Espera a que un seguidor aplique un registro del lider, por ejemplo para leer lo que se acaba de escribir
+     * @param sequence Numero de secuencia devuelto por getReplicationSequence del lider
+     * @param timeout Tiempo maximo de espera
+     * @param unit Unidad del tiempo de espera
+     * @return true si se aplico o el controlador no es seguidor, false si se agoto el tiempo o se perdio la conexion
+     * @throws InterruptedException si el hilo se interrumpe mientras espera
+     */
+    public boolean awaitReplication(long sequence, long timeout, TimeUnit unit) throws InterruptedException {
+        return replicationFollower == null || replicationFollower.awaitSequence(sequence, timeout, unit);
+    }
+
+    /**
+     * Devuelve el ultimo id de alerta asignado, incluido el recuperado de la instantanea y el diario
+     * @return Ultimo id de alerta
+     */
+    int getLastAlertId(){
+        return alertsService.getLastAlertId();
+    }
+
+    /**
+     * Devuelve las metricas del controlador, se consultan con snapshot() o por JMX si se configuro un nombre
+     * @return Metricas del controlador
+     */
+    public ControllerMetrics getMetrics(){
+        return metrics;
+    }
+
+    /**
+     * Espera a que se entreguen las alertas asincronicas pendientes, libera los hilos del despachador,
+     * completa a los suscriptores push, corta la replicacion, cierra el diario y quita los MXBeans de las metricas
+     */
+    @Override
+    public void close() {
+
+        AlertDispatcher current = dispatcher;
+        if (current != null) {
+            current.close();
+        }
+        pushService.close();
+        if (replicationLeader != null) {
+            replicationLeader.close();
+        }
+        if (replicationFollower != null) {
+            replicationFollower.close();
+        }
+        if (journal != null) {
+            journal.close();
         }
+        metrics.unregisterMBeans();
+    }
 
+    /**
+     * Devuelve true si el controlador es seguidor de replicacion, los seguidores solo aplican los cambios
+     * que reciben del lider y rechazan los propios, que divergirian del lider o repetirian sus ids de alerta
+     * @return true si es seguidor
+     */
+    private boolean isFollower(){
+        return replicationFollower != null;
     }
 
     /**
-     * Ordena las alertas delegando la logica de comparacion a la clase AlertComparator
-     * @param alerts Lista de alertas a ordenar
+     * Devuelve true si el tema esta registrado, se usa para no reservar ids de envios que no se van a hacer
+     * @param topicName Nombre de tema
+     * @return true si existe el tema
      */
-    private void orderAlerts(ArrayList<Alert> alerts){
-        Collections.sort(alerts, new AlertComparator());
+    boolean hasTopic(String topicName){
+        return topicsService.findTopic(topicName) != null;
     }
 
     /**
-     * Clase que se encarga de la comparar las alertas para su ordenamiento
+     * Devuelve true si el usuario esta suscripto al tema
+     * @param userName Nombre de usuario
+     * @param topicName Nombre de tema
+     * @return true si existen el usuario y el tema y esta suscripto
      */
-    private static class AlertComparator implements Comparator<Alert> {
+    boolean isSubscribed(String userName, String topicName){
 
-        /**
-         * Compara las alertas para ordenarlas primero por LIFO para las urgentes y luego por FIFO las informativas
-         * @param alert1 the first object to be compared.
-         * @param alert2 the second object to be compared.
-         * @return Comparacion para ordenar
-         */
-        @Override
-        public int compare(Alert alert1, Alert alert2) {
+        User user = usersService.findUser(userName);
+        Topic topic = topicsService.findTopic(topicName);
+
+        return user != null && topic != null && user.isSubscribed(topic);
+    }
 
-            if (alert1.getType() == AlertType.URGENT && alert2.getType() == AlertType.URGENT) {
-                return Integer.compare(alert2.getId(), alert1.getId());
-            } else if (alert1.getType() == AlertType.URGENT) {
-                return -1;
-            } else if (alert2.getType() == AlertType.URGENT) {
-                return 1;
-            } else {
-                return Integer.compare(alert1.getId(), alert2.getId());
+    /**
+     * Devuelve las alertas generales no expiradas con id mayor a uno dado en orden de id, se usa para
+     * completar las particiones que no llegaron a registrar un envio por tema antes de una caida
+     * @param alertId Id desde el cual se buscan alertas (exclusivo)
+     * @return Alertas generales posteriores al id
+     */
+    List<Alert> getGeneralAlertsAfter(int alertId){
+
+        List<Alert> alerts = new ArrayList<>();
+        long nowMillis = clock.millis();
+
+        for (Topic topic : topicsService.getTopics()) {
+            for (Alert alert : topic.getUnexpiredAlerts(nowMillis)) {
+                if (alert.getDestination() == AlertDestination.GENERAL && alert.getId() > alertId) {
+                    alerts.add(alert);
+                }
             }
         }
 
+        alerts.sort(Comparator.comparingInt(Alert::getId));
+        return alerts;
+    }
+
+    /**
+     * Devuelve el despachador de alertas asincronicas, lo crea en el primer uso
+     * para no iniciar hilos si solo se usan los envios sincronicos
+     * @return Despachador de alertas
+     */
+    private AlertDispatcher dispatcher(){
+
+        AlertDispatcher current = dispatcher;
+
+        if (current == null) {
+            synchronized (this) {
+                current = dispatcher;
+                if (current == null) {
+                    current = new AlertDispatcher(alertsService, expirationService, pushService, usersService, metrics,
+                            configuration.getDispatchQueueCapacity(), configuration.getDispatchBatchSize(),
+                            configuration.getBackpressurePolicy(), configuration.getDispatchExecutor());
+                    dispatcher = current;
+                }
+            }
+        }
+
+        return current;
+    }
+
+    /**
+     * Agrega un patron al usuario y lo suscribe a los temas que ya coinciden, el patron se agrega antes de
+     * buscar los temas asi un tema registrado a la vez lo encuentra en el trie o aparece en la busqueda
+     * @param userName Nombre de usuario
+     * @param pattern Patron de temas
+     * @return true si existe el usuario y no tenia el patron
+     */
+    private boolean selectPattern(String userName, String pattern){
+
+        User user = usersService.findUser(userName);
+
+        if(user != null && usersService.selectPattern(user, pattern)){
+            usersService.selectTopics(user, topicsService.findTopics(pattern));
+            return true;
+        }
+        else{
+            return false;
+        }
+    }
+
+    /**
+     * Aplica un registro del diario directamente sobre los servicios
+     * Aplicar un registro ya incluido en la instantanea no tiene efecto, y como los registros de usuarios
+     * y temas se agregan luego de registrarlos, los que se referencian antes de su registro se crean
+     * @param record Registro a aplicar
+     */
+    private void replay(JournalRecord record){
+
+        if (record.getUserName() != null) {
+            usersService.registerUser(record.getUserName());
+        }
+        if (record.getTopicName() != null) {
+            topicsService.registerTopic(record.getTopicName());
+        }
+
+        User user = usersService.findUser(record.getUserName());
+        Topic topic = topicsService.findTopic(record.getTopicName());
+
+        switch (record.getType()) {
+            case SELECT_TOPIC:
+                usersService.restoreSubscription(user, topic, record.getAlertId());
+                break;
+            case UNSELECT_TOPIC:
+                usersService.unselectTopic(record.getUserName(), topic);
+                break;
+            case SELECT_PATTERN:
+                // Las suscripciones a los temas que coincidian tienen sus propios registros
+                usersService.selectPattern(user, record.getTopicName());
+                break;
+            case UNSELECT_PATTERN:
+                usersService.unselectPattern(user, record.getTopicName(), Collections.emptyList());
+                break;
+            case SEND_ALERT:
+                if (alertsService.findAlertById(record.getAlertId()) == null) {
+                    Alert alert = alertsService.restoreAlert(record.getAlertId(), record.getMessage(),
+                            record.getAlertType(), topic, user, record.getExpirationMillis());
+                    expirationService.schedule(alert);
+                    expirationService.evict(topic);
+                }
+                break;
+            case COALESCE_ALERT:
+                Alert coalesced = alertsService.findAlertById(record.getAlertId());
+                if (coalesced != null) {
+                    coalesced.restoreOccurrences(record.getOccurrences());
+                }
+                break;
+            case SET_RETENTION:
+                topicsService.setRetention(topic, record.getRetention(), clock.millis());
+                expirationService.evict(topic);
+                break;
+            case MARK_AS_READ:
+                for (int alertId : record.getAlertIds()) {
+                    Alert alert = alertsService.findAlertById(alertId);
+                    if (alert != null) {
+                        usersService.markAlertAsRead(user, alert);
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Empieza una operacion que modifica el estado, con SyncPolicy.ALWAYS el fsync de sus registros se espera
+     * en awaitDeferredSync, luego de soltar los locks de usuarios y temas
+     */
+    private void deferSync(){
+        if(recordLog != null){
+            recordLog.deferSync();
+        }
+    }
+
+    /**
+     * Termina la operacion empezada con deferSync y espera a que sus registros esten en disco
+     */
+    private void awaitDeferredSync(){
+        if(recordLog != null){
+            recordLog.awaitDeferredSync();
+        }
+    }
+
+    /**
+     * Convierte una fecha de expiracion recibida por el controlador a milisegundos desde epoch
+     * @param expirationDate Fecha de expiracion (puede ser null)
+     * @return Milisegundos desde epoch o Alert.NEVER_EXPIRES si no vence
+     */
+    private static long toMillis(LocalDateTime expirationDate){
+        return MillisClock.toMillis(expirationDate, Alert.NEVER_EXPIRES);
+    }
+
+    /**
+     * Vence las alertas cuya fecha de expiracion ya paso, se llama antes de cada operacion sobre alertas
+     * para que los indices solo contengan alertas vigentes
+     */
+    private void expireAlerts(){
+
+        long start = System.nanoTime();
+        long now = clock.millis();
+        int expired = expirationService.expireAlerts(now);
+
+        for (Topic topic : topicsService.enforceRetention(now)) {
+            expirationService.evict(topic);
+        }
+
+        if(expired > 0){
+            metrics.recordExpiredAlerts(expired);
+            metrics.recordLatency(Operation.EXPIRE_ALERTS, start);
+        }
     }
 
 }
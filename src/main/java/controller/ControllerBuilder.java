@@ -0,0 +1,403 @@
+package controller;
+
+import entities.RetentionPolicy;
+import persistence.SyncPolicy;
+import service.BackpressurePolicy;
+import service.PushOverflowPolicy;
+import util.MillisClock;
+
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Path;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Esta clase se utiliza para la construccion del controlador con configuracion no predeterminada,
+ * implementacion del patron Builder sin director como AlertBuilder
+ * @author Albano Zupichiatti
+ */
+public class ControllerBuilder {
+
+    private int dispatchQueueCapacity = 65_536;
+
+    private int dispatchBatchSize = 256;
+
+    private BackpressurePolicy backpressurePolicy = BackpressurePolicy.BLOCK;
+
+    private Executor dispatchExecutor;
+
+    private String jmxName;
+
+    private Path journalPath;
+
+    private SyncPolicy syncPolicy = SyncPolicy.INTERVAL;
+
+    private long syncIntervalMillis = 50;
+
+    private Path snapshotPath;
+
+    private boolean offHeapStore;
+
+    private MillisClock clock = MillisClock.SYSTEM;
+
+    private RetentionPolicy defaultRetention = RetentionPolicy.UNBOUNDED;
+
+    private int pushBufferSize = 1024;
+
+    private PushOverflowPolicy pushOverflowPolicy = PushOverflowPolicy.DROP_OLDEST_INFORMATIVE;
+
+    private Executor pushExecutor = ForkJoinPool.commonPool();
+
+    private int partitions = Runtime.getRuntime().availableProcessors();
+
+    private ServerSocketChannel replicationListener;
+
+    private ReadableByteChannel replicationSource;
+
+    private long deduplicationWindowMillis;
+
+    private int deduplicationCapacity = 4096;
+
+    /**
+     * Establece la cantidad maxima de alertas encoladas sin despachar en los envios asincronicos
+     * @param dispatchQueueCapacity Capacidad de la cola de despacho
+     * @return ControllerBuilder con la capacidad establecida
+     */
+    public ControllerBuilder setDispatchQueueCapacity(int dispatchQueueCapacity) {
+        this.dispatchQueueCapacity = dispatchQueueCapacity;
+        return this;
+    }
+
+    /**
+     * Establece la cantidad maxima de alertas que se despachan por lote
+     * @param dispatchBatchSize Tamaño de lote
+     * @return ControllerBuilder con el tamaño de lote establecido
+     */
+    public ControllerBuilder setDispatchBatchSize(int dispatchBatchSize) {
+        this.dispatchBatchSize = dispatchBatchSize;
+        return this;
+    }
+
+    /**
+     * Establece que hacer cuando la cola de despacho esta llena
+     * @param backpressurePolicy Politica de contrapresion
+     * @return ControllerBuilder con la politica establecida
+     */
+    public ControllerBuilder setBackpressurePolicy(BackpressurePolicy backpressurePolicy) {
+        this.backpressurePolicy = backpressurePolicy;
+        return this;
+    }
+
+    /**
+     * Establece el ejecutor de las entregas asincronicas, por defecto uno de hilos virtuales si hay soporte
+     * @param dispatchExecutor Ejecutor de entregas
+     * @return ControllerBuilder con el ejecutor establecido
+     */
+    public ControllerBuilder setDispatchExecutor(Executor dispatchExecutor) {
+        this.dispatchExecutor = dispatchExecutor;
+        return this;
+    }
+
+    /**
+     * Establece el nombre con el que se registran las metricas por JMX, por defecto no se registran
+     * @param jmxName Nombre del controlador en JMX
+     * @return ControllerBuilder con el nombre establecido
+     */
+    public ControllerBuilder setJmxName(String jmxName) {
+        this.jmxName = jmxName;
+        return this;
+    }
+
+    /**
+     * Establece el archivo del diario de cambios, al construir el controlador se reconstruye el estado
+     * a partir del diario, por defecto no se usa diario y el estado se pierde al reiniciar
+     * @param journalPath Archivo del diario
+     * @return ControllerBuilder con el diario establecido
+     */
+    public ControllerBuilder setJournalPath(Path journalPath) {
+        this.journalPath = journalPath;
+        return this;
+    }
+
+    /**
+     * Establece cuando se fuerzan a disco los registros del diario
+     * @param syncPolicy Politica de sincronizacion
+     * @return ControllerBuilder con la politica establecida
+     */
+    public ControllerBuilder setSyncPolicy(SyncPolicy syncPolicy) {
+        this.syncPolicy = syncPolicy;
+        return this;
+    }
+
+    /**
+     * Establece cada cuanto se escriben los registros del diario con SyncPolicy.INTERVAL y SyncPolicy.NONE
+     * @param syncIntervalMillis Intervalo en milisegundos
+     * @return ControllerBuilder con el intervalo establecido
+     */
+    public ControllerBuilder setSyncIntervalMillis(long syncIntervalMillis) {
+        this.syncIntervalMillis = syncIntervalMillis;
+        return this;
+    }
+
+    /**
+     * Establece el archivo de la instantanea del estado, al construir el controlador se carga la instantanea
+     * y luego se reproduce la cola del diario posterior a ella
+     * @param snapshotPath Archivo de la instantanea
+     * @return ControllerBuilder con la instantanea establecida
+     */
+    public ControllerBuilder setSnapshotPath(Path snapshotPath) {
+        this.snapshotPath = snapshotPath;
+        return this;
+    }
+
+    /**
+     * Establece si los mensajes y fechas de expiracion de las alertas se guardan en slabs fuera del heap,
+     * reduce el trabajo del recolector de basura con muchas alertas retenidas, por defecto se guardan en el heap
+     * @param offHeapStore true para guardarlos fuera del heap
+     * @return ControllerBuilder con el almacen establecido
+     */
+    public ControllerBuilder setOffHeapStore(boolean offHeapStore) {
+        this.offHeapStore = offHeapStore;
+        return this;
+    }
+
+    /**
+     * Establece el reloj con el que se vencen y filtran las alertas, por defecto el del sistema
+     * Un CachedClock evita leer la hora del sistema en cada operacion y un ManualClock permite controlar
+     * el tiempo en los test, el controlador no cierra el reloj
+     * @param clock Reloj en milisegundos desde epoch
+     * @return ControllerBuilder con el reloj establecido
+     */
+    public ControllerBuilder setClock(MillisClock clock) {
+        this.clock = clock;
+        return this;
+    }
+
+    /**
+     * Establece la politica de retencion de los temas al registrarlos, se cambia por tema
+     * con Controller.setTopicRetention. Por defecto los temas no tienen limites
+     * @param defaultRetention Politica de retencion
+     * @return ControllerBuilder con la retencion establecida
+     */
+    public ControllerBuilder setDefaultRetention(RetentionPolicy defaultRetention) {
+        this.defaultRetention = defaultRetention;
+        return this;
+    }
+
+    /**
+     * Establece la cantidad maxima de alertas sin entregar por suscriptor push, las urgentes pueden superarla
+     * @param pushBufferSize Tamaño del buffer de cada suscriptor
+     * @return ControllerBuilder con el tamaño establecido
+     */
+    public ControllerBuilder setPushBufferSize(int pushBufferSize) {
+        this.pushBufferSize = pushBufferSize;
+        return this;
+    }
+
+    /**
+     * Establece que hacer cuando el buffer de un suscriptor push esta lleno,
+     * por defecto se descarta la alerta informativa mas vieja
+     * @param pushOverflowPolicy Politica de desborde
+     * @return ControllerBuilder con la politica establecida
+     */
+    public ControllerBuilder setPushOverflowPolicy(PushOverflowPolicy pushOverflowPolicy) {
+        this.pushOverflowPolicy = pushOverflowPolicy;
+        return this;
+    }
+
+    /**
+     * Establece el ejecutor de las entregas push, por defecto el ForkJoinPool comun
+     * @param pushExecutor Ejecutor de entregas push
+     * @return ControllerBuilder con el ejecutor establecido
+     */
+    public ControllerBuilder setPushExecutor(Executor pushExecutor) {
+        this.pushExecutor = pushExecutor;
+        return this;
+    }
+
+    /**
+     * Establece la cantidad de particiones del controlador particionado, por defecto una por procesador
+     * @param partitions Cantidad de particiones, al menos 1
+     * @return ControllerBuilder con la cantidad establecida
+     */
+    public ControllerBuilder setPartitions(int partitions) {
+        this.partitions = partitions;
+        return this;
+    }
+
+    /**
+     * Hace del controlador un lider de replicacion que acepta seguidores en el canal dado, cada seguidor
+     * recibe una instantanea y luego cada cambio en orden
+     * @param replicationListener Canal de servidor ya enlazado, por ejemplo a localhost, se cierra al cerrar el controlador
+     * @return ControllerBuilder con el canal establecido
+     */
+    public ControllerBuilder setReplicationListener(ServerSocketChannel replicationListener) {
+        this.replicationListener = replicationListener;
+        return this;
+    }
+
+    /**
+     * Hace del controlador un seguidor que aplica los cambios que recibe de un lider por el canal dado,
+     * el seguidor debe empezar vacio y rechaza los cambios propios, que devuelven false o 0
+     * @param replicationSource Canal conectado al lider, por ejemplo un SocketChannel, se cierra al cerrar el controlador
+     * @return ControllerBuilder con el canal establecido
+     */
+    public ControllerBuilder setReplicationSource(ReadableByteChannel replicationSource) {
+        this.replicationSource = replicationSource;
+        return this;
+    }
+
+    /**
+     * Agrupa las alertas generales enviadas al mismo tema con el mismo tipo y mensaje dentro de la ventana,
+     * el envio repetido devuelve el id de la primera alerta y le suma una ocurrencia en lugar de crear otra
+     * No se aplica a las alertas personales ni a las particiones de PartitionedController
+     * @param deduplicationWindowMillis Ventana en milisegundos desde la primera ocurrencia, 0 para no agrupar
+     * @return ControllerBuilder con la ventana establecida
+     */
+    public ControllerBuilder setDeduplicationWindowMillis(long deduplicationWindowMillis) {
+        this.deduplicationWindowMillis = deduplicationWindowMillis;
+        return this;
+    }
+
+    /**
+     * Establece cuantas alertas recientes se recuerdan para agruparlas, acota la memoria de la deduplicacion
+     * @param deduplicationCapacity Cantidad de alertas recordadas, se redondea a una potencia de dos
+     * @return ControllerBuilder con la capacidad establecida
+     */
+    public ControllerBuilder setDeduplicationCapacity(int deduplicationCapacity) {
+        this.deduplicationCapacity = deduplicationCapacity;
+        return this;
+    }
+
+    int getDispatchQueueCapacity() {
+        return dispatchQueueCapacity;
+    }
+
+    int getDispatchBatchSize() {
+        return dispatchBatchSize;
+    }
+
+    BackpressurePolicy getBackpressurePolicy() {
+        return backpressurePolicy;
+    }
+
+    Executor getDispatchExecutor() {
+        return dispatchExecutor;
+    }
+
+    String getJmxName() {
+        return jmxName;
+    }
+
+    Path getJournalPath() {
+        return journalPath;
+    }
+
+    SyncPolicy getSyncPolicy() {
+        return syncPolicy;
+    }
+
+    long getSyncIntervalMillis() {
+        return syncIntervalMillis;
+    }
+
+    Path getSnapshotPath() {
+        return snapshotPath;
+    }
+
+    boolean isOffHeapStore() {
+        return offHeapStore;
+    }
+
+    MillisClock getClock() {
+        return clock;
+    }
+
+    RetentionPolicy getDefaultRetention() {
+        return defaultRetention;
+    }
+
+    int getPushBufferSize() {
+        return pushBufferSize;
+    }
+
+    PushOverflowPolicy getPushOverflowPolicy() {
+        return pushOverflowPolicy;
+    }
+
+    Executor getPushExecutor() {
+        return pushExecutor;
+    }
+
+    int getPartitions() {
+        return partitions;
+    }
+
+    ServerSocketChannel getReplicationListener() {
+        return replicationListener;
+    }
+
+    ReadableByteChannel getReplicationSource() {
+        return replicationSource;
+    }
+
+    long getDeduplicationWindowMillis() {
+        return deduplicationWindowMillis;
+    }
+
+    int getDeduplicationCapacity() {
+        return deduplicationCapacity;
+    }
+
+    /**
+     * Construye el controlador con la configuracion establecida
+     * @return Controlador construido
+     */
+    public Controller build() {
+        return new Controller(this);
+    }
+
+    /**
+     * Construye un controlador particionado por usuario con la configuracion establecida, cada particion
+     * usa la misma configuracion con su propio diario, instantanea y nombre JMX
+     * @return Controlador particionado construido
+     * @throws IllegalArgumentException si la cantidad de particiones es menor a 1
+     */
+    public PartitionedController buildPartitioned() {
+
+        if (partitions < 1) {
+            throw new IllegalArgumentException("partitions must be at least 1");
+        }
+
+        return new PartitionedController(this);
+    }
+
+    /**
+     * Copia la configuracion para una particion, los archivos y el nombre JMX llevan el numero de particion
+     * @param index Numero de particion
+     * @return Configuracion de la particion
+     */
+    ControllerBuilder forPartition(int index) {
+
+        ControllerBuilder partition = new ControllerBuilder();
+        partition.dispatchQueueCapacity = dispatchQueueCapacity;
+        partition.dispatchBatchSize = dispatchBatchSize;
+        partition.backpressurePolicy = backpressurePolicy;
+        partition.dispatchExecutor = dispatchExecutor;
+        partition.jmxName = jmxName == null ? null : jmxName + "-p" + index;
+        partition.journalPath = journalPath == null ? null : journalPath.resolveSibling(journalPath.getFileName() + ".p" + index);
+        partition.syncPolicy = syncPolicy;
+        partition.syncIntervalMillis = syncIntervalMillis;
+        partition.snapshotPath = snapshotPath == null ? null : snapshotPath.resolveSibling(snapshotPath.getFileName() + ".p" + index);
+        partition.offHeapStore = offHeapStore;
+        partition.clock = clock;
+        partition.defaultRetention = defaultRetention;
+        partition.pushBufferSize = pushBufferSize;
+        partition.pushOverflowPolicy = pushOverflowPolicy;
+        partition.pushExecutor = pushExecutor;
+        partition.partitions = 1;
+        return partition;
+    }
+
+}
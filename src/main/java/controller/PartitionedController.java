@@ -0,0 +1,588 @@
+package controller;
+
+import entities.RetentionPolicy;
+import entities.alert.Alert;
+import entities.alert.AlertComparator;
+import entities.alert.AlertCursor;
+import entities.alert.AlertDestination;
+import entities.alert.AlertPage;
+import entities.alert.AlertType;
+import util.MillisClock;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Controlador que reparte los usuarios en particiones independientes segun el hash del nombre de usuario,
+ * cada particion es un Controller con su propio estado de usuarios, temas y alertas y un unico hilo escritor
+ * Los cambios de un usuario se ejecutan en el hilo de su particion y sus lecturas solo tocan su particion,
+ * asi usuarios de particiones distintas no compiten por los mismos locks
+ * Los temas se registran en todas las particiones y un envio por tema se parte en un envio por particion que
+ * se ejecutan en paralelo, cada particion guarda la alerta una unica vez para sus propios suscriptores
+ * Los ids de alerta se asignan aca y se encolan en todas las particiones en el mismo orden, por lo que una
+ * alerta general tiene el mismo id en todas y los ids de un tema llegan en orden creciente a cada una
+ * Como la fan-out es al leer, cada particion guarda su propia copia de cada alerta general: la memoria y el
+ * diario de las alertas generales crecen con la cantidad de particiones, solo escalan los envios personales,
+ * las suscripciones y las lecturas de usuarios
+ * Cada particion registra el envio general en su propio diario, no hay atomicidad entre particiones: si el
+ * proceso cae a mitad de un envio algunas particiones tienen la alerta y otras no. Como cada particion aplica
+ * los envios en orden, a las que les falta una alerta les faltan todas las posteriores, asi que al iniciar
+ * se les reenvian con el mismo id las alertas generales no expiradas que tengan las demas (ver reconcile)
+ * La retencion por cantidad de un tema se aplica en cada particion contando sus propias alertas personales
+ * No ofrece el envio asincronico, countLive, el publicador de un tema ni la lectura paginada de un tema
+ * @author Albano Zupichiatti
+ */
+public class PartitionedController implements AutoCloseable {
+
+    private final Controller[] partitions;
+
+    private final ExecutorService[] writers;
+
+    private final Object sendLock = new Object();
+
+    private int lastAlertId;
+
+    /**
+     * Construye las particiones con la configuracion de ControllerBuilder, cada una recupera su estado
+     * de su propia instantanea y diario si se configuraron
+     * @param configuration Configuracion del controlador
+     */
+    PartitionedController(ControllerBuilder configuration) {
+
+        int count = configuration.getPartitions();
+        this.partitions = new Controller[count];
+        this.writers = new ExecutorService[count];
+
+        try {
+            for (int i = 0; i < count; i++) {
+                partitions[i] = configuration.forPartition(i).build();
+
+                String name = "alert-partition-" + i;
+                writers[i] = Executors.newSingleThreadExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, name);
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            reconcile();
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Completa las particiones que no llegaron a registrar los ultimos envios por tema antes de una caida,
+     * reenviandoles con el mismo id las alertas generales que tienen las demas, y toma el ultimo id asignado
+     * Se ejecuta antes de aceptar cambios, por lo que no usa los hilos escritores
+     */
+    private void reconcile(){
+
+        int firstMissing = Integer.MAX_VALUE;
+
+        for (Controller partition : partitions) {
+            lastAlertId = Math.max(lastAlertId, partition.getLastAlertId());
+            firstMissing = Math.min(firstMissing, partition.getLastAlertId());
+        }
+
+        if (firstMissing == lastAlertId) {
+            return;
+        }
+
+        Map<Integer, Alert> generalAlerts = new TreeMap<>();
+        for (Controller partition : partitions) {
+            for (Alert alert : partition.getGeneralAlertsAfter(firstMissing)) {
+                generalAlerts.putIfAbsent(alert.getId(), alert);
+            }
+        }
+
+        for (Controller partition : partitions) {
+            int partitionLastId = partition.getLastAlertId();
+            for (Alert alert : generalAlerts.values()) {
+                if (alert.getId() > partitionLastId) {
+                    String topicName = alert.getTopic().getName();
+                    if (!partition.hasTopic(topicName)) {
+                        partition.registerTopic(topicName);
+                    }
+                    partition.sendAlertByTopic(alert.getId(), alert.getMessage(), alert.getType(), topicName,
+                            alert.getExpirationMillis());
+                }
+            }
+        }
+    }
+
+    /**
+     * Devuelve la cantidad de particiones
+     * @return Cantidad de particiones
+     */
+    public int countPartitions(){
+        return partitions.length;
+    }
+
+    /**
+     * Devuelve la particion de un usuario
+     * @param userName Nombre de usuario
+     * @return Numero de particion, entre 0 y la cantidad de particiones
+     */
+    public int partitionOf(String userName){
+
+        if(userName == null){
+            return 0;
+        }
+
+        int hash = userName.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), partitions.length);
+    }
+
+    /**
+     * Registra un usuario en su particion
+     * @param userName Nombre de usuario
+     * @return true si se registro exitosamente
+     */
+    public boolean registerUser(String userName){
+        return write(partitionOf(userName), controller -> controller.registerUser(userName));
+    }
+
+    /**
+     * Registra varios usuarios, cada particion registra los suyos en paralelo
+     * @param userNames Nombres de usuario
+     * @return Cantidad de usuarios registrados, los que ya existian no se cuentan
+     */
+    public int registerUsers(Collection<String> userNames){
+
+        List<List<String>> batches = split(userNames);
+
+        return sum(partition -> batches.get(partition).isEmpty() ? null
+                : submit(partition, controller -> controller.registerUsers(batches.get(partition))));
+    }
+
+    /**
+     * Registra un tema en todas las particiones, los usuarios con un patron que coincide quedan suscriptos
+     * @param name Nombre de tema
+     * @return true si se registro exitosamente
+     */
+    public boolean registerTopic(String name){
+        return broadcast(controller -> controller.registerTopic(name)).get(0);
+    }
+
+    /**
+     * Suscribe a un usuario a un tema o patron de temas en su particion
+     * @param userName Nombre de usuario a suscribir
+     * @param topicName Nombre o patron de tema a suscribir
+     * @return true si se suscribio correctamente, existe el tema y el usuario, o si el patron es nuevo
+     */
+    public boolean selectTopic(String userName, String topicName){
+        return write(partitionOf(userName), controller -> controller.selectTopic(userName, topicName));
+    }
+
+    /**
+     * Suscribe a un usuario a varios temas en su particion
+     * @param userName Nombre de usuario a suscribir
+     * @param topicNames Nombres de temas a suscribir, los que no existen se ignoran
+     * @return Cantidad de suscripciones nuevas, 0 si no existe el usuario
+     */
+    public int selectTopics(String userName, Collection<String> topicNames){
+        return write(partitionOf(userName), controller -> controller.selectTopics(userName, topicNames));
+    }
+
+    /**
+     * Suscribe a varios usuarios a un tema, cada particion suscribe a los suyos en paralelo
+     * @param topicName Nombre de tema a suscribir
+     * @param userNames Nombres de usuarios a suscribir, los que no existen se ignoran
+     * @return Cantidad de suscripciones nuevas, 0 si no existe el tema
+     */
+    public int subscribeUsers(String topicName, Collection<String> userNames){
+
+        List<List<String>> batches = split(userNames);
+
+        return sum(partition -> batches.get(partition).isEmpty() ? null
+                : submit(partition, controller -> controller.subscribeUsers(topicName, batches.get(partition))));
+    }
+
+    /**
+     * Desuscribe a un usuario de un tema o patron de temas en su particion
+     * @param userName Nombre de usuario a desuscribir
+     * @param topicName Nombre o patron de tema a desuscribir
+     * @return true si existe el tema, el usuario y estaba suscripto, o si el usuario tenia el patron
+     */
+    public boolean unselectTopic(String userName, String topicName){
+        return write(partitionOf(userName), controller -> controller.unselectTopic(userName, topicName));
+    }
+
+    /**
+     * Envia una alerta por tema a todos sus usuarios sin fecha de expiracion
+     * @param message Mensaje a enviar
+     * @param type Tipo de alerta
+     * @param topicName Nombre de tema
+     * @return Id de la alerta, 0 si no existe el tema
+     */
+    public int sendAlertByTopic(String message, AlertType type, String topicName){
+        return sendAlertByTopic(message, type, topicName, null);
+    }
+
+    /**
+     * Envia una alerta por tema a todos sus usuarios con fecha de expiracion, cada particion la envia
+     * a sus suscriptores en paralelo y se espera a que todas la tengan
+     * @param message Mensaje a enviar
+     * @param type Tipo de alerta
+     * @param topicName Nombre de tema
+     * @param expirationDate Fecha de expiracion (puede ser null)
+     * @return Id de la alerta, 0 si no existe el tema
+     */
+    public int sendAlertByTopic(String message, AlertType type, String topicName, LocalDateTime expirationDate){
+
+        long expirationMillis = MillisClock.toMillis(expirationDate, Alert.NEVER_EXPIRES);
+        List<CompletableFuture<Integer>> sends = new ArrayList<>(partitions.length);
+
+        // El id se asigna y se encola en todas las particiones con el lock tomado, asi cada hilo escritor
+        // recibe los ids en orden creciente
+        synchronized (sendLock) {
+            // Los temas se registran en todas las particiones, si no existe en la primera no existe en ninguna
+            if (!partitions[0].hasTopic(topicName)) {
+                return 0;
+            }
+            int alertId = ++lastAlertId;
+            for (int i = 0; i < partitions.length; i++) {
+                sends.add(submit(i, controller ->
+                        controller.sendAlertByTopic(alertId, message, type, topicName, expirationMillis)));
+            }
+        }
+
+        return join(sends).get(0);
+    }
+
+    /**
+     * Envia una alerta por tema a un usuario sin fecha de expiracion
+     * @param message Mensaje a enviar
+     * @param type Tipo de alerta
+     * @param topicName Nombre de tema
+     * @param userName Nombre de usuario
+     * @return Id de la alerta, 0 si no existe el tema, el usuario o no esta suscripto
+     */
+    public int sendAlertByUser(String message, AlertType type, String topicName, String userName){
+        return sendAlertByUser(message, type, topicName, userName, null);
+    }
+
+    /**
+     * Envia una alerta por tema a un usuario con fecha de expiracion, solo la recibe la particion del usuario
+     * @param message Mensaje a enviar
+     * @param type Tipo de alerta
+     * @param topicName Nombre de tema
+     * @param userName Nombre de usuario
+     * @param expirationDate Fecha de expiracion (puede ser null)
+     * @return Id de la alerta, 0 si no existe el tema, el usuario o no esta suscripto
+     */
+    public int sendAlertByUser(String message, AlertType type, String topicName, String userName,
+                               LocalDateTime expirationDate){
+
+        long expirationMillis = MillisClock.toMillis(expirationDate, Alert.NEVER_EXPIRES);
+        CompletableFuture<Integer> send;
+
+        int partition = partitionOf(userName);
+
+        synchronized (sendLock) {
+            if (!partitions[partition].isSubscribed(userName, topicName)) {
+                return 0;
+            }
+            int alertId = ++lastAlertId;
+            send = submit(partition, controller ->
+                    controller.sendAlertByUser(alertId, message, type, topicName, userName, expirationMillis));
+        }
+
+        return join(send);
+    }
+
+    /**
+     * Marca una alerta de un usuario como leida
+     * @param userName Nombre de usuario
+     * @param alertId Id de alerta
+     * @return true si existe el usuario, la alerta y se marca correctamente como leida
+     */
+    public boolean markAlertAsRead(String userName, int alertId){
+        return write(partitionOf(userName), controller -> controller.markAlertAsRead(userName, alertId));
+    }
+
+    /**
+     * Marca varias alertas de un usuario como leidas en una sola operacion
+     * @param userName Nombre de usuario
+     * @param alertIds Ids de alertas, las que no existen se ignoran
+     * @return Cantidad de alertas marcadas como leidas, 0 si no existe el usuario
+     */
+    public int markAlertsAsRead(String userName, int... alertIds){
+        return write(partitionOf(userName), controller -> controller.markAlertsAsRead(userName, alertIds));
+    }
+
+    /**
+     * Marca todas las alertas pendientes de un usuario como leidas
+     * @param userName Nombre de usuario
+     * @return Cantidad de alertas marcadas como leidas, 0 si no existe el usuario
+     */
+    public int markAllAsRead(String userName){
+        return write(partitionOf(userName), controller -> controller.markAllAsRead(userName));
+    }
+
+    /**
+     * Cuenta los usuarios que leyeron una alerta general sumando los lectores de cada particion
+     * @param alertId Id de la alerta
+     * @return Cantidad de lectores, 0 si no existe la alerta o es personal
+     */
+    public int countAlertReaders(int alertId){
+
+        int count = 0;
+
+        for (Controller partition : partitions) {
+            count += partition.countAlertReaders(alertId);
+        }
+
+        return count;
+    }
+
+    /**
+     * Cuenta las alertas no leidas y no expiradas de un usuario
+     * @param userName Nombre de usuario
+     * @return Cantidad de alertas no leidas, 0 si no existe el usuario
+     */
+    public int countUnread(String userName){
+        return partitions[partitionOf(userName)].countUnread(userName);
+    }
+
+    /**
+     * Cuenta las alertas no leidas y no expiradas de un usuario de un tipo
+     * @param userName Nombre de usuario
+     * @param type Tipo de alerta
+     * @return Cantidad de alertas no leidas del tipo, 0 si no existe el usuario
+     */
+    public int countUnread(String userName, AlertType type){
+        return partitions[partitionOf(userName)].countUnread(userName, type);
+    }
+
+    /**
+     * Devuelve el publicador de las alertas de un usuario en su particion
+     * @param userName Nombre de usuario
+     * @return Publicador de alertas o null si no existe el usuario
+     */
+    public Flow.Publisher<Alert> getAlertPublisherByUser(String userName){
+        return partitions[partitionOf(userName)].getAlertPublisherByUser(userName);
+    }
+
+    /**
+     * Obtiene las alertas no expiradas y no leidas de un usuario leyendo solo su particion
+     * @param userName Nombre de usuario
+     * @return Lista de alertas no expiradas, null si no existe el usuario
+     */
+    public ArrayList<Alert> getUnexpiredAlertsByUser(String userName){
+        return partitions[partitionOf(userName)].getUnexpiredAlertsByUser(userName);
+    }
+
+    /**
+     * Obtiene una pagina de alertas no expiradas y no leidas de un usuario leyendo solo su particion
+     * @param userName Nombre de usuario
+     * @param cursor Cursor de la pagina
+     * @param limit Cantidad maxima de alertas
+     * @return Pagina de alertas
+     */
+    public AlertPage getUnexpiredAlertsByUser(String userName, AlertCursor cursor, int limit){
+        return partitions[partitionOf(userName)].getUnexpiredAlertsByUser(userName, cursor, limit);
+    }
+
+    /**
+     * Obtiene las alertas no expiradas de un tema, las generales de la primera particion y las personales
+     * de cada particion, en el mismo orden de lectura que Controller
+     * @param topicName Nombre de tema
+     * @return Lista de alertas no expiradas, null si no existe el tema
+     */
+    public ArrayList<Alert> getUnexpiredAlertsByTopic(String topicName){
+
+        ArrayList<Alert> alerts = partitions[0].getUnexpiredAlertsByTopic(topicName);
+
+        if (alerts == null) {
+            return null;
+        }
+
+        for (int i = 1; i < partitions.length; i++) {
+            for (Alert alert : partitions[i].getUnexpiredAlertsByTopic(topicName)) {
+                if (alert.getDestination() == AlertDestination.PERSONAL) {
+                    alerts.add(alert);
+                }
+            }
+        }
+
+        alerts.sort(AlertComparator.INSTANCE);
+        return alerts;
+    }
+
+    /**
+     * Cambia la politica de retencion de un tema en todas las particiones
+     * @param topicName Nombre de tema
+     * @param retention Politica de retencion
+     * @return true si existe el tema
+     */
+    public boolean setTopicRetention(String topicName, RetentionPolicy retention){
+        return broadcast(controller -> controller.setTopicRetention(topicName, retention)).get(0);
+    }
+
+    /**
+     * Devuelve la politica de retencion de un tema
+     * @param topicName Nombre de tema
+     * @return Politica de retencion o null si no existe el tema
+     */
+    public RetentionPolicy getTopicRetention(String topicName){
+        return partitions[0].getTopicRetention(topicName);
+    }
+
+    /**
+     * Guarda una instantanea de cada particion
+     * @return true si se guardaron todas, false si alguna no tiene instantanea configurada o fallo
+     */
+    public boolean snapshot(){
+
+        boolean saved = true;
+
+        for (Controller partition : partitions) {
+            saved &= partition.snapshot();
+        }
+
+        return saved;
+    }
+
+    /**
+     * Devuelve el controlador de una particion, por ejemplo para consultar sus metricas
+     * @param partition Numero de particion
+     * @return Controlador de la particion
+     */
+    public Controller getPartition(int partition){
+        return partitions[partition];
+    }
+
+    /**
+     * Espera a que los hilos escritores terminen los cambios encolados y cierra las particiones
+     */
+    @Override
+    public void close() {
+
+        for (ExecutorService writer : writers) {
+            if (writer != null) {
+                writer.shutdown();
+            }
+        }
+
+        for (int i = 0; i < partitions.length; i++) {
+            if (writers[i] != null) {
+                try {
+                    writers[i].awaitTermination(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (partitions[i] != null) {
+                partitions[i].close();
+            }
+        }
+    }
+
+    /**
+     * Ejecuta un cambio en el hilo escritor de una particion y espera su resultado
+     */
+    private <T> T write(int partition, Function<Controller, T> change){
+        return join(submit(partition, change));
+    }
+
+    private <T> CompletableFuture<T> submit(int partition, Function<Controller, T> change){
+        return CompletableFuture.supplyAsync(() -> change.apply(partitions[partition]), writers[partition]);
+    }
+
+    /**
+     * Ejecuta un cambio en todas las particiones en paralelo
+     * @return Resultados en orden de particion
+     */
+    private <T> List<T> broadcast(Function<Controller, T> change){
+
+        List<CompletableFuture<T>> changes = new ArrayList<>(partitions.length);
+
+        for (int i = 0; i < partitions.length; i++) {
+            changes.add(submit(i, change));
+        }
+
+        return join(changes);
+    }
+
+    /**
+     * Suma los resultados de los cambios de cada particion, las que no tienen cambio devuelven null
+     */
+    private int sum(Function<Integer, CompletableFuture<Integer>> change){
+
+        List<CompletableFuture<Integer>> changes = new ArrayList<>(partitions.length);
+
+        for (int i = 0; i < partitions.length; i++) {
+            CompletableFuture<Integer> future = change.apply(i);
+            if (future != null) {
+                changes.add(future);
+            }
+        }
+
+        int count = 0;
+        for (int result : join(changes)) {
+            count += result;
+        }
+
+        return count;
+    }
+
+    /**
+     * Reparte los nombres de usuario en un lote por particion
+     */
+    private List<List<String>> split(Collection<String> userNames){
+
+        List<List<String>> batches = new ArrayList<>(partitions.length);
+
+        for (int i = 0; i < partitions.length; i++) {
+            batches.add(new ArrayList<>());
+        }
+        for (String userName : userNames) {
+            batches.get(partitionOf(userName)).add(userName);
+        }
+
+        return batches;
+    }
+
+    private static <T> List<T> join(List<CompletableFuture<T>> futures){
+
+        List<T> results = new ArrayList<>(futures.size());
+
+        for (CompletableFuture<T> future : futures) {
+            results.add(join(future));
+        }
+
+        return results;
+    }
+
+    /**
+     * Espera el resultado de un cambio y relanza la excepcion que lo hizo fallar
+     */
+    private static <T> T join(CompletableFuture<T> future){
+
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+}
@@ -0,0 +1,127 @@
+package entities;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Esta clase representa cuantas alertas guarda un tema: una cantidad maxima, una antiguedad maxima o ambas
+ * Al superar alguno de los limites se descartan las alertas mas viejas del tema aunque no hayan vencido
+ * @author Albano Zupichiatti
+ */
+public class RetentionPolicy {
+
+    /**
+     * Politica sin limites, el tema guarda las alertas hasta que vencen
+     */
+    public static final RetentionPolicy UNBOUNDED = new RetentionPolicy(0, 0);
+
+    private final int maxCount;
+
+    private final long maxAgeMillis;
+
+    /**
+     * Construye la politica con sus limites
+     * @param maxCount Cantidad maxima de alertas, 0 sin limite
+     * @param maxAgeMillis Antiguedad maxima en milisegundos, 0 sin limite
+     */
+    private RetentionPolicy(int maxCount, long maxAgeMillis) {
+        this.maxCount = maxCount;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * Devuelve la politica que guarda como maximo una cantidad de alertas
+     * @param maxCount Cantidad maxima de alertas
+     * @return Politica con cantidad maxima
+     * @throws IllegalArgumentException si la cantidad no es positiva
+     */
+    public static RetentionPolicy ofMaxCount(int maxCount) {
+        return of(maxCount, null);
+    }
+
+    /**
+     * Devuelve la politica que guarda las alertas como maximo una cantidad de tiempo desde que llegan al tema
+     * @param maxAge Antiguedad maxima
+     * @return Politica con antiguedad maxima
+     * @throws IllegalArgumentException si la antiguedad no es positiva
+     */
+    public static RetentionPolicy ofMaxAge(Duration maxAge) {
+        return of(0, maxAge);
+    }
+
+    /**
+     * Devuelve la politica con ambos limites, se descarta una alerta al superar cualquiera de ellos
+     * @param maxCount Cantidad maxima de alertas, 0 sin limite
+     * @param maxAge Antiguedad maxima, null sin limite
+     * @return Politica con los limites indicados
+     * @throws IllegalArgumentException si algun limite es negativo o la antiguedad es menor a un milisegundo
+     */
+    public static RetentionPolicy of(int maxCount, Duration maxAge) {
+
+        if (maxCount < 0 || (maxAge != null && maxAge.toMillis() <= 0)) {
+            throw new IllegalArgumentException("Retention limits must be positive");
+        }
+
+        return fromMillis(maxCount, maxAge != null ? maxAge.toMillis() : 0);
+    }
+
+    /**
+     * Devuelve la politica a partir de sus limites ya codificados, se usa al leer el diario y las instantaneas
+     * @param maxCount Cantidad maxima de alertas, 0 sin limite
+     * @param maxAgeMillis Antiguedad maxima en milisegundos, 0 sin limite
+     * @return Politica con los limites indicados
+     */
+    public static RetentionPolicy fromMillis(int maxCount, long maxAgeMillis) {
+
+        if (maxCount <= 0 && maxAgeMillis <= 0) {
+            return UNBOUNDED;
+        }
+
+        return new RetentionPolicy(Math.max(0, maxCount), Math.max(0, maxAgeMillis));
+    }
+
+    /**
+     * Devuelve la cantidad maxima de alertas
+     * @return Cantidad maxima o 0 si no tiene limite
+     */
+    public int getMaxCount() {
+        return maxCount;
+    }
+
+    /**
+     * Devuelve la antiguedad maxima de las alertas
+     * @return Milisegundos o 0 si no tiene limite
+     */
+    public long getMaxAgeMillis() {
+        return maxAgeMillis;
+    }
+
+    /**
+     * Devuelve true si la politica tiene algun limite
+     * @return true si no es UNBOUNDED
+     */
+    public boolean isBounded() {
+        return maxCount > 0 || maxAgeMillis > 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        RetentionPolicy policy = (RetentionPolicy) o;
+        return maxCount == policy.maxCount && maxAgeMillis == policy.maxAgeMillis;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(maxCount, maxAgeMillis);
+    }
+
+    @Override
+    public String toString() {
+        return "RetentionPolicy{" +
+                "maxCount=" + maxCount +
+                ", maxAgeMillis=" + maxAgeMillis +
+                '}';
+    }
+}
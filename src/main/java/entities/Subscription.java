@@ -0,0 +1,94 @@
+package entities;
+
+import entities.alert.AlertType;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Esta clase representa la suscripcion de un usuario a un tema
+ * Las alertas generales se guardan una sola vez en el tema, la suscripcion solo recuerda desde que alerta
+ * corresponde mostrarlas (cursor), cuales ya fueron leidas se guarda en cada alerta
+ * Para contar las no leidas sin recorrer el tema la suscripcion lleva, por tipo, cuantas alertas vigentes
+ * del tema quedan antes del cursor (compartido entre las suscripciones con el mismo cursor) y cuantas de las
+ * que cubre ya leyo el usuario, el tema los actualiza al agregar y quitar alertas
+ * @author Albano Zupichiatti
+ */
+public class Subscription {
+
+    private Topic topic;
+
+    private int fromAlertId;
+
+    private int[] hidden;
+
+    private final AtomicIntegerArray read;
+
+    /**
+     * Construye una suscripcion con todos sus atributos
+     * @param topic Tema suscripto
+     * @param fromAlertId Id de la ultima alerta del tema al momento de suscribirse,
+     *                    solo se muestran las alertas posteriores
+     */
+    public Subscription(Topic topic, int fromAlertId) {
+        this.topic = topic;
+        this.fromAlertId = fromAlertId;
+        this.read = new AtomicIntegerArray(AlertType.values().length);
+    }
+
+    /**
+     * Devuelve el tema suscripto
+     * @return Tema suscripto
+     */
+    public Topic getTopic() {
+        return topic;
+    }
+
+    /**
+     * Devuelve el id de la ultima alerta del tema al momento de suscribirse
+     * @return Id de la alerta desde la cual se reciben alertas (exclusivo)
+     */
+    public int getFromAlertId() {
+        return fromAlertId;
+    }
+
+    /**
+     * Devuelve true si la alerta general corresponde a esta suscripcion, es decir si se envio luego de suscribirse
+     * @param alertId Id de la alerta
+     * @return true si la alerta fue enviada luego de suscribirse
+     */
+    public boolean covers(int alertId) {
+        return alertId > fromAlertId;
+    }
+
+    /**
+     * Devuelve la cantidad de alertas generales vigentes del tema anteriores al cursor, por tipo
+     * Se debe tener el lock del tema, el arreglo se comparte con las suscripciones con el mismo cursor
+     * @return Cantidad de alertas no cubiertas indexada por AlertType.ordinal()
+     */
+    int[] getHidden() {
+        return hidden;
+    }
+
+    void setHidden(int[] hidden) {
+        this.hidden = hidden;
+    }
+
+    /**
+     * Devuelve cuantas alertas generales vigentes cubiertas por la suscripcion leyo el usuario
+     * @param type Tipo de alerta
+     * @return Cantidad de alertas leidas
+     */
+    int countRead(AlertType type) {
+        return read.get(type.ordinal());
+    }
+
+    /**
+     * Suma una alerta leida o, con delta negativo, quita una alerta leida que dejo de estar vigente
+     * @param type Tipo de alerta
+     * @param delta Cantidad a sumar
+     */
+    void addRead(AlertType type, int delta) {
+        read.addAndGet(type.ordinal(), delta);
+    }
+
+}
@@ -1,22 +1,63 @@
 package entities;
 
 import entities.alert.Alert;
+import entities.alert.AlertCursor;
+import entities.alert.AlertDestination;
+import entities.alert.AlertPage;
+import entities.alert.AlertQueue;
+import entities.alert.AlertType;
+import util.IntObjectHashMap;
+import util.MillisClock;
+import util.RingBuffer;
 
-import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Objects;
-import java.util.stream.Collectors;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Esta clase se utiliza para el manejo de los temas del sistema
  * Es una version simplificada, solo se contempla nombre y alertas relacionadas
+ * Las alertas generales se guardan una unica vez aca y los usuarios suscriptos las leen desde el tema
+ * Las alertas se guardan ya ordenadas para la lectura (urgentes por LIFO y luego informativas por FIFO)
+ * Cada tema tiene su propio lock de lectura/escritura, asi los envios a distintos temas no se bloquean entre si
+ * Si el tema tiene una politica de retencion guarda las alertas en orden de llegada en un buffer circular,
+ * asi descartar las mas viejas al superar los limites es O(1) por alerta. Las alertas descartadas quedan
+ * pendientes en el tema hasta que se quitan de los demas indices con drainEvicted
+ * El tema lleva la cuenta de sus alertas generales vigentes por tipo y de las suscripciones por cursor,
+ * asi cada suscripcion cuenta sus no leidas en O(1) sin recorrer las alertas
  * @author Albano Zupichiatti
  */
 public class Topic {
 
     private String name;
 
-    private ArrayList<Alert> alerts;
+    private AlertQueue alerts;
+
+    private AlertQueue generalAlerts;
+
+    private volatile int lastAlertId;
+
+    private final ReadWriteLock lock;
+
+    private volatile RetentionPolicy retention;
+
+    private RingBuffer<Alert> history;
+
+    private List<Alert> evicted;
+
+    private int[] generalCounts;
+
+    private TreeMap<Integer, CursorGroup> cursorGroups;
+
+    private IntObjectHashMap<Subscription> subscriptions;
 
 
     /**
@@ -25,7 +66,14 @@ public class Topic {
      */
     public Topic(String name) {
         this.name = name;
-        this.alerts = new ArrayList<>();
+        this.alerts = new AlertQueue();
+        this.generalAlerts = new AlertQueue();
+        this.lock = new ReentrantReadWriteLock();
+        this.retention = RetentionPolicy.UNBOUNDED;
+        this.evicted = new ArrayList<>();
+        this.generalCounts = new int[AlertType.values().length];
+        this.cursorGroups = new TreeMap<>();
+        this.subscriptions = new IntObjectHashMap<>();
     }
 
     /**
@@ -45,19 +93,57 @@ public class Topic {
     }
 
     /**
-     * Devuelve la lista de alertas relacionadas
-     * @return Lista de alertas relacionadas
+     * Devuelve el lock del tema, sirve para agrupar varias operaciones sobre el tema de forma atomica
+     * y para recorrer sus alertas
+     * @return Lock de lectura/escritura del tema
      */
-    public ArrayList<Alert> getAlerts() {
+    public ReadWriteLock getLock() {
+        return lock;
+    }
+
+    /**
+     * Devuelve las alertas relacionadas ordenadas para la lectura,
+     * se debe tener el lock de lectura del tema mientras se recorren
+     * @return Alertas relacionadas
+     */
+    public AlertQueue getAlerts() {
         return alerts;
     }
 
     /**
-     * Establece la lista de alertas relacionadas
-     * @param alerts Lista de alertas relacionadas
+     * Establece las alertas relacionadas
+     * @param alerts Alertas relacionadas
      */
-    public void setAlerts(ArrayList<Alert> alerts) {
-        this.alerts = alerts;
+    public void setAlerts(Collection<Alert> alerts) {
+
+        lock.writeLock().lock();
+        try {
+            this.alerts = new AlertQueue();
+            this.generalAlerts = new AlertQueue();
+            this.lastAlertId = 0;
+            this.history = retention.isBounded() ? new RingBuffer<>(16) : null;
+            this.generalCounts = new int[AlertType.values().length];
+            for (CursorGroup group : cursorGroups.values()) {
+                Arrays.fill(group.hidden, 0);
+            }
+            for (Alert alert : alerts) {
+                addAlert(alert);
+            }
+            subscriptions.forEach((subscription, userId) -> {
+                for (AlertType type : AlertType.values()) {
+                    subscription.addRead(type, -subscription.countRead(type));
+                }
+                Iterator<Alert> covered = generalAlerts.iterator(subscription.getFromAlertId());
+                while (covered.hasNext()) {
+                    Alert alert = covered.next();
+                    if (alert.isReadBy(userId)) {
+                        subscription.addRead(alert.getType(), 1);
+                    }
+                }
+            });
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     @Override
@@ -74,21 +160,425 @@ public class Topic {
     }
 
     /**
-     * Añade una alerta a la lista de alertas relacionadas
+     * Añade una alerta a las alertas relacionadas en su posicion de lectura
      * @param alert Alerta a añadir
      */
     public void addAlert(Alert alert){
-        alerts.add(alert);
+        addAlert(alert, MillisClock.SYSTEM.millis());
     }
 
     /**
-     * Devuelve la lista de alertas no expiradas
+     * Añade una alerta a las alertas relacionadas en su posicion de lectura y descarta las mas viejas
+     * si se supera la retencion del tema
+     * @param alert Alerta a añadir
+     * @param nowMillis Hora de llegada en milisegundos desde epoch, se usa para la antiguedad maxima
+     */
+    public void addAlert(Alert alert, long nowMillis){
+
+        lock.writeLock().lock();
+        try {
+            alerts.add(alert);
+
+            if (alert.getDestination() == AlertDestination.GENERAL && generalAlerts.add(alert)) {
+                count(alert);
+            }
+
+            lastAlertId = Math.max(lastAlertId, alert.getId());
+
+            if (history != null) {
+                history.add(alert, nowMillis);
+                evict(nowMillis);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Devuelve la politica de retencion del tema
+     * @return Politica de retencion, RetentionPolicy.UNBOUNDED si no tiene limites
+     */
+    public RetentionPolicy getRetention() {
+        return retention;
+    }
+
+    /**
+     * Establece la politica de retencion del tema y descarta las alertas que superan los nuevos limites
+     * Las alertas que ya estaban en el tema cuentan su antiguedad desde este momento
+     * @param retention Politica de retencion
+     * @param nowMillis Hora actual en milisegundos desde epoch
+     * @return Cantidad de alertas descartadas
+     */
+    public int setRetention(RetentionPolicy retention, long nowMillis) {
+
+        lock.writeLock().lock();
+        try {
+            this.retention = retention;
+
+            if (!retention.isBounded()) {
+                history = null;
+                return 0;
+            }
+
+            if (history == null) {
+                List<Alert> byArrival = new ArrayList<>(alerts.size());
+                for (Alert alert : alerts) {
+                    byArrival.add(alert);
+                }
+                byArrival.sort(Comparator.comparingInt(Alert::getId));
+
+                history = new RingBuffer<>(byArrival.size());
+                for (Alert alert : byArrival) {
+                    history.add(alert, nowMillis);
+                }
+            }
+
+            return evict(nowMillis);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Descarta las alertas que superaron la antiguedad maxima del tema
+     * @param nowMillis Hora actual en milisegundos desde epoch
+     * @return Cantidad de alertas descartadas
+     */
+    public int enforceRetention(long nowMillis) {
+
+        lock.writeLock().lock();
+        try {
+            return history != null ? evict(nowMillis) : 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Devuelve y olvida las alertas descartadas por la retencion, ya no estan en el tema
+     * pero siguen en el indice de alertas y, si son personales, en su usuario
+     * @return Alertas descartadas desde la ultima llamada
+     */
+    public List<Alert> drainEvicted() {
+
+        lock.writeLock().lock();
+        try {
+            if (evicted.isEmpty()) {
+                return Collections.emptyList();
+            }
+
+            List<Alert> drained = evicted;
+            evicted = new ArrayList<>();
+            return drained;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Quita del principio del historial las alertas que superan la retencion, las que ya vencieron
+     * se saltean sin contarlas, se debe tener el lock de escritura del tema
+     * @param nowMillis Hora actual en milisegundos desde epoch
+     * @return Cantidad de alertas descartadas
+     */
+    private int evict(long nowMillis) {
+
+        int maxCount = retention.getMaxCount();
+        long maxAgeMillis = retention.getMaxAgeMillis();
+        int count = 0;
+
+        while (!history.isEmpty()) {
+            Alert oldest = history.peekFirst();
+
+            if (!alerts.contains(oldest.getId())) {
+                history.pollFirst();
+            } else if ((maxCount > 0 && alerts.size() > maxCount)
+                    || (maxAgeMillis > 0 && history.peekFirstStamp() <= nowMillis - maxAgeMillis)) {
+                history.pollFirst();
+                alerts.remove(oldest.getId());
+                uncount(generalAlerts.remove(oldest.getId()));
+                evicted.add(oldest);
+                count++;
+            } else {
+                break;
+            }
+        }
+
+        // Las alertas vencidas en el medio del historial se compactan cuando son mayoria
+        if (history.size() > 2 * alerts.size() + 64) {
+            for (int i = history.size(); i > 0; i--) {
+                long stamp = history.peekFirstStamp();
+                Alert alert = history.pollFirst();
+                if (alerts.contains(alert.getId())) {
+                    history.add(alert, stamp);
+                }
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Devuelve el id de la ultima alerta relacionada, sirve como cursor para las nuevas suscripciones
+     * @return Id de la ultima alerta o 0 si no tuvo alertas
+     */
+    public int getLastAlertId(){
+        return lastAlertId;
+    }
+
+    /**
+     * Recorre en orden de lectura las alertas generales con id posterior al indicado,
+     * se debe tener el lock de lectura del tema mientras se recorre
+     * @param alertId Id a partir del cual recorrer (exclusivo)
+     * @return Iterador de alertas generales posteriores
+     */
+    public Iterator<Alert> getGeneralAlertsAfter(int alertId){
+        return generalAlerts.iterator(alertId);
+    }
+
+    /**
+     * Recorre en orden de lectura las alertas generales con id posterior al indicado que estan despues del cursor,
+     * se debe tener el lock de lectura del tema mientras se recorre
+     * @param alertId Id a partir del cual recorrer (exclusivo)
+     * @param cursor Posicion desde la cual recorrer (exclusiva)
+     * @return Iterador de alertas generales posteriores
+     */
+    public Iterator<Alert> getGeneralAlertsAfter(int alertId, AlertCursor cursor){
+        return generalAlerts.iterator(alertId, cursor);
+    }
+
+    /**
+     * Quita una alerta de las alertas relacionadas, se usa al vencer la alerta
+     * @param alert Alerta a quitar
+     * @return true si la alerta estaba relacionada al tema
+     */
+    public boolean removeAlert(Alert alert){
+
+        lock.writeLock().lock();
+        try {
+            uncount(generalAlerts.remove(alert.getId()));
+            return alerts.remove(alert.getId()) != null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Registra la suscripcion de un usuario para llevar la cuenta de sus alertas no leidas,
+     * se llama con el lock del usuario tomado al suscribirse
+     * Si el cursor es el de una suscripcion nueva la cuenta es O(1), si es anterior a alertas vigentes
+     * (una suscripcion restaurada) se recorren las alertas generales posteriores al cursor
+     * @param subscription Suscripcion al tema
+     * @param userId Id denso del usuario
+     */
+    public void addSubscription(Subscription subscription, int userId) {
+
+        lock.writeLock().lock();
+        try {
+            int fromAlertId = subscription.getFromAlertId();
+            CursorGroup group = cursorGroups.get(fromAlertId);
+            boolean created = group == null;
+
+            if (created) {
+                group = new CursorGroup(generalCounts.clone());
+                cursorGroups.put(fromAlertId, group);
+            }
+
+            if (fromAlertId < lastAlertId) {
+                Iterator<Alert> covered = generalAlerts.iterator(fromAlertId);
+                while (covered.hasNext()) {
+                    Alert alert = covered.next();
+                    if (created) {
+                        group.hidden[alert.getType().ordinal()]--;
+                    }
+                    if (alert.isReadBy(userId)) {
+                        subscription.addRead(alert.getType(), 1);
+                    }
+                }
+            }
+
+            group.subscribers++;
+            subscription.setHidden(group.hidden);
+            subscriptions.put(userId, subscription);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Quita la suscripcion de un usuario de la cuenta de alertas no leidas, se llama al desuscribirse
+     * @param subscription Suscripcion al tema
+     * @param userId Id denso del usuario
+     */
+    public void removeSubscription(Subscription subscription, int userId) {
+
+        lock.writeLock().lock();
+        try {
+            if (subscriptions.get(userId) != subscription) {
+                return;
+            }
+
+            subscriptions.remove(userId);
+
+            CursorGroup group = cursorGroups.get(subscription.getFromAlertId());
+            if (--group.subscribers == 0) {
+                cursorGroups.remove(subscription.getFromAlertId());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Devuelve la cantidad de alertas generales de un tipo cubiertas por la suscripcion que el usuario
+     * todavia no leyo, en O(1)
+     * @param subscription Suscripcion al tema registrada con addSubscription
+     * @param type Tipo de alerta
+     * @return Cantidad de alertas no leidas
+     */
+    public int countUnread(Subscription subscription, AlertType type) {
+
+        lock.readLock().lock();
+        try {
+            int ordinal = type.ordinal();
+            return generalCounts[ordinal] - subscription.getHidden()[ordinal] - subscription.countRead(type);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Devuelve la cantidad de alertas vigentes del tema, generales y personales, en O(1)
+     * @return Cantidad de alertas vigentes
+     */
+    public int countLive() {
+
+        lock.readLock().lock();
+        try {
+            return alerts.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Suma una alerta general vigente a la cuenta del tema y a la de los cursores que no la cubren,
+     * solo hay cursores posteriores si la alerta llega fuera de orden de id. Se debe tener el lock de escritura
+     * @param alert Alerta general agregada
+     */
+    private void count(Alert alert) {
+
+        int ordinal = alert.getType().ordinal();
+        generalCounts[ordinal]++;
+
+        if (!cursorGroups.isEmpty() && cursorGroups.lastKey() >= alert.getId()) {
+            for (CursorGroup group : cursorGroups.tailMap(alert.getId(), true).values()) {
+                group.hidden[ordinal]++;
+            }
+        }
+    }
+
+    /**
+     * Resta de las cuentas una alerta general que deja el tema, y de cada suscripcion que la cubre si el usuario
+     * la habia leido. Se debe tener el lock de escritura
+     * @param alert Alerta general quitada, null si la alerta no era general o no estaba en el tema
+     */
+    private void uncount(Alert alert) {
+
+        if (alert == null) {
+            return;
+        }
+
+        int ordinal = alert.getType().ordinal();
+        generalCounts[ordinal]--;
+
+        if (!cursorGroups.isEmpty() && cursorGroups.lastKey() >= alert.getId()) {
+            for (CursorGroup group : cursorGroups.tailMap(alert.getId(), true).values()) {
+                group.hidden[ordinal]--;
+            }
+        }
+
+        for (int userId : alert.retire()) {
+            Subscription subscription = subscriptions.get(userId);
+            if (subscription != null && subscription.covers(alert.getId())) {
+                subscription.addRead(alert.getType(), -1);
+            }
+        }
+    }
+
+    /**
+     * Devuelve la lista de alertas no expiradas en orden de lectura, las vencidas se purgan al expirar
+     * por lo que el filtro solo descarta las que vencieron desde el ultimo avance del planificador
      * @return Lista de alertas no expiradas
      */
     public ArrayList<Alert> getUnexpiredAlerts() {
-        return (ArrayList<Alert>) this.alerts.stream()
-                .filter(x -> x.getExpirationDate()==null || x.getExpirationDate().isAfter(LocalDateTime.now()))
-                .collect(Collectors.toList());
+        return getUnexpiredAlerts(MillisClock.SYSTEM.millis());
+    }
+
+    /**
+     * Devuelve la lista de alertas no expiradas a una hora dada en orden de lectura
+     * @param nowMillis Hora actual en milisegundos desde epoch
+     * @return Lista de alertas no expiradas
+     */
+    public ArrayList<Alert> getUnexpiredAlerts(long nowMillis) {
+
+        lock.readLock().lock();
+        try {
+            ArrayList<Alert> unexpiredAlerts = new ArrayList<>(alerts.size());
+
+            for (Alert alert : alerts) {
+                if (alert.isUnexpired(nowMillis)) {
+                    unexpiredAlerts.add(alert);
+                }
+            }
+
+            return unexpiredAlerts;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Devuelve una pagina de alertas no expiradas en orden de lectura a partir del cursor,
+     * solo recorre las alertas de la pagina sin tocar el resto
+     * @param cursor Posicion desde la cual leer (exclusiva)
+     * @param limit Cantidad maxima de alertas de la pagina
+     * @return Pagina de alertas no expiradas
+     */
+    public AlertPage getUnexpiredAlerts(AlertCursor cursor, int limit) {
+        return getUnexpiredAlerts(cursor, limit, MillisClock.SYSTEM.millis());
+    }
+
+    /**
+     * Devuelve una pagina de alertas no expiradas a una hora dada en orden de lectura a partir del cursor
+     * @param cursor Posicion desde la cual leer (exclusiva)
+     * @param limit Cantidad maxima de alertas de la pagina
+     * @param nowMillis Hora actual en milisegundos desde epoch
+     * @return Pagina de alertas no expiradas
+     */
+    public AlertPage getUnexpiredAlerts(AlertCursor cursor, int limit, long nowMillis) {
+
+        lock.readLock().lock();
+        try {
+            return AlertPage.of(alerts.iterator(0, cursor), x -> x.isUnexpired(nowMillis), limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Suscripciones con el mismo cursor, comparten la cantidad de alertas vigentes anteriores al cursor
+     */
+    private static class CursorGroup {
+
+        private final int[] hidden;
+
+        private int subscribers;
+
+        private CursorGroup(int[] hidden) {
+            this.hidden = hidden;
+        }
+
     }
 
 }
@@ -1,32 +1,68 @@
 package entities;
 
 import entities.alert.Alert;
+import entities.alert.AlertComparator;
+import entities.alert.AlertCursor;
+import entities.alert.AlertDestination;
+import entities.alert.AlertPage;
+import entities.alert.AlertQueue;
+import entities.alert.AlertType;
+import util.Iterators;
+import util.MillisClock;
 
-import java.time.LocalDateTime;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Esta clase se utiliza para el manejo de los usuarios del sistema
  * Es una version simplificada, solo se contempla un nombre de usuario, temas suscriptos y alerta no leidas
+ * Las alertas personales se guardan en el usuario, las generales se leen desde los temas suscriptos
+ * Todas se guardan ya ordenadas para la lectura, por lo que al leer solo se intercalan sin ordenar
+ * Cada usuario tiene su propio lock de lectura/escritura, asi las operaciones sobre distintos usuarios
+ * no se bloquean entre si
+ * Las alertas no leidas se cuentan por tipo a medida que llegan, se leen y vencen, por lo que contarlas
+ * cuesta una suma por suscripcion sin recorrer las alertas
  * @author Albano Zupichiatti
  */
 public class User {
 
     private String userName;
 
-    private Set<Topic> subscribedTopics;
+    private int id;
+
+    private Map<Topic, Subscription> subscriptions;
+
+    private Set<String> topicPatterns;
     
-    private ArrayList<Alert> unreadAlerts;
+    private AlertQueue unreadAlerts;
+
+    private int[] unreadCounts;
+
+    private final ReadWriteLock lock;
 
     /**
-     * Construye un usuario con todos sus atributos
+     * Construye un usuario con id 0
      * @param userName Nombre de usuario
      */
     public User(String userName) {
+        this(userName, 0);
+    }
+
+    /**
+     * Construye un usuario con todos sus atributos
+     * @param userName Nombre de usuario
+     * @param id Id denso del usuario, indexa los mapas de bits de lectores de las alertas generales
+     */
+    public User(String userName, int id) {
         this.userName = userName;
-        this.subscribedTopics = new HashSet<>();
-        this.unreadAlerts = new ArrayList<>();
+        this.id = id;
+        this.subscriptions = new HashMap<>();
+        this.topicPatterns = new LinkedHashSet<>();
+        this.unreadAlerts = new AlertQueue();
+        this.unreadCounts = new int[AlertType.values().length];
+        this.lock = new ReentrantReadWriteLock();
     }
 
     /**
@@ -46,37 +82,238 @@ public class User {
     }
 
     /**
-     * Devuelve el conjunto de temas suscriptos por el usuario
+     * Devuelve el id denso del usuario
+     * @return Id del usuario
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Devuelve el lock del usuario, sirve para agrupar varias operaciones sobre el usuario de forma atomica
+     * @return Lock de lectura/escritura del usuario
+     */
+    public ReadWriteLock getLock() {
+        return lock;
+    }
+
+    /**
+     * Devuelve una copia del conjunto de temas suscriptos por el usuario
      * @return Conjunto de temas suscriptos
      */
     public Set<Topic> getSubscribedTopics() {
-        return subscribedTopics;
+
+        lock.readLock().lock();
+        try {
+            return new HashSet<>(subscriptions.keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     /**
-     * Establece el conjunto de temas suscriptos por el usuario
+     * Establece el conjunto de temas suscriptos por el usuario, las suscripciones reciben todas las alertas
+     * generales que tenga el tema
      * @param subscribedTopics Conjunto de temas suscriptos
      */
     public void setSubscribedTopics(Set<Topic> subscribedTopics) {
-        this.subscribedTopics = subscribedTopics;
+
+        lock.writeLock().lock();
+        try {
+            for (Subscription subscription : subscriptions.values()) {
+                subscription.getTopic().removeSubscription(subscription, id);
+            }
+            this.subscriptions = new HashMap<>();
+            for (Topic topic : subscribedTopics) {
+                Subscription subscription = new Subscription(topic, 0);
+                subscriptions.put(topic, subscription);
+                topic.addSubscription(subscription, id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Devuelve una copia de las suscripciones del usuario
+     * @return Lista de suscripciones
+     */
+    public List<Subscription> getSubscriptions() {
+
+        lock.readLock().lock();
+        try {
+            return new ArrayList<>(subscriptions.values());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Devuelve los ids de las alertas personales no leidas, vencidas o no, en orden de lectura
+     * @return Ids de alertas personales no leidas
+     */
+    public int[] getUnreadAlertIds() {
+
+        lock.readLock().lock();
+        try {
+            int[] ids = new int[unreadAlerts.size()];
+            int i = 0;
+            for (Alert alert : unreadAlerts) {
+                ids[i++] = alert.getId();
+            }
+            return ids;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Devuelve la suscripcion del usuario a un tema
+     * @param topic Tema a consultar
+     * @return Suscripcion o null si no esta suscripto
+     */
+    public Subscription getSubscription(Topic topic) {
+
+        lock.readLock().lock();
+        try {
+            return subscriptions.get(topic);
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     /**
      * Devuelve la lista de alertas no leidas y no expiradas (o que no tienen fecha de expiracion)
+     * ordenadas por LIFO para las urgentes y luego FIFO para las informativas
+     * Toma el lock de lectura del usuario y el de cada tema suscripto en orden de nombre,
+     * el orden fijo evita interbloqueos entre lectores de distintos usuarios
      * @return Lista de alertas no leidas y no expiradas
      */
     public ArrayList<Alert> getUnexpiredAlerts() {
-        return (ArrayList<Alert>) unreadAlerts.stream()
-                .filter(x -> x.getExpirationDate()==null || x.getExpirationDate().isAfter(LocalDateTime.now()))
-                .collect(Collectors.toList());
+        return getUnexpiredAlerts(MillisClock.SYSTEM.millis());
     }
 
     /**
-     * Establece la lista de alertas no leidas
-     * @param unreadAlerts Lista de alertas no leidas
+     * Devuelve la lista de alertas no leidas y no expiradas a una hora dada
+     * @param nowMillis Hora actual en milisegundos desde epoch
+     * @return Lista de alertas no leidas y no expiradas
      */
-    public void setUnreadAlerts(ArrayList<Alert> unreadAlerts) {
-        this.unreadAlerts = unreadAlerts;
+    public ArrayList<Alert> getUnexpiredAlerts(long nowMillis) {
+
+        ArrayList<Alert> alerts = new ArrayList<>();
+
+        lock.readLock().lock();
+        List<Lock> topicLocks = lockSubscribedTopics();
+        try {
+            iterateUnexpiredAlerts(nowMillis, AlertCursor.start()).forEachRemaining(alerts::add);
+        } finally {
+            unlockAll(topicLocks);
+            lock.readLock().unlock();
+        }
+
+        return alerts;
+    }
+
+    /**
+     * Devuelve una pagina de alertas no leidas y no expiradas en orden de lectura a partir del cursor,
+     * cada fuente arranca directamente en la posicion del cursor por lo que no se recorre el resto de la bandeja
+     * @param cursor Posicion desde la cual leer (exclusiva)
+     * @param limit Cantidad maxima de alertas de la pagina
+     * @return Pagina de alertas no leidas y no expiradas
+     */
+    public AlertPage getUnexpiredAlerts(AlertCursor cursor, int limit) {
+        return getUnexpiredAlerts(cursor, limit, MillisClock.SYSTEM.millis());
+    }
+
+    /**
+     * Devuelve una pagina de alertas no leidas y no expiradas a una hora dada
+     * @param cursor Posicion desde la cual leer (exclusiva)
+     * @param limit Cantidad maxima de alertas de la pagina
+     * @param nowMillis Hora actual en milisegundos desde epoch
+     * @return Pagina de alertas no leidas y no expiradas
+     */
+    public AlertPage getUnexpiredAlerts(AlertCursor cursor, int limit, long nowMillis) {
+
+        lock.readLock().lock();
+        List<Lock> topicLocks = lockSubscribedTopics();
+        try {
+            return AlertPage.of(iterateUnexpiredAlerts(nowMillis, cursor), x -> true, limit);
+        } finally {
+            unlockAll(topicLocks);
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Recorre en orden de lectura las alertas no leidas y no expiradas, intercala las alertas personales
+     * con las alertas generales de cada tema suscripto, todas ya ordenadas, sin materializar la lista
+     * Se debe tener el lock de lectura del usuario y de sus temas mientras se recorre
+     * @param nowMillis Hora actual en milisegundos desde epoch para descartar las vencidas
+     * @param cursor Posicion desde la cual recorrer (exclusiva)
+     * @return Iterador de alertas no leidas y no expiradas
+     */
+    private Iterator<Alert> iterateUnexpiredAlerts(long nowMillis, AlertCursor cursor) {
+
+        List<Iterator<Alert>> sources = new ArrayList<>(subscriptions.size() + 1);
+        sources.add(Iterators.filter(unreadAlerts.iterator(0, cursor), x -> x.isUnexpired(nowMillis)));
+
+        for (Subscription subscription : subscriptions.values()) {
+            sources.add(Iterators.filter(
+                    subscription.getTopic().getGeneralAlertsAfter(subscription.getFromAlertId(), cursor),
+                    x -> !x.isReadBy(id) && x.isUnexpired(nowMillis)));
+        }
+
+        return Iterators.merge(sources, AlertComparator.INSTANCE);
+    }
+
+    /**
+     * Toma el lock de lectura de cada tema suscripto ordenando los temas por nombre
+     * @return Locks tomados, en orden de adquisicion
+     */
+    private List<Lock> lockSubscribedTopics() {
+
+        List<Topic> topics = new ArrayList<>(subscriptions.keySet());
+        topics.sort(Comparator.comparing(Topic::getName));
+
+        List<Lock> locks = new ArrayList<>(topics.size());
+
+        for (Topic topic : topics) {
+            Lock topicLock = topic.getLock().readLock();
+            topicLock.lock();
+            locks.add(topicLock);
+        }
+
+        return locks;
+    }
+
+    /**
+     * Libera los locks en orden inverso al de adquisicion
+     * @param locks Locks a liberar
+     */
+    private static void unlockAll(List<Lock> locks) {
+        for (int i = locks.size() - 1; i >= 0; i--) {
+            locks.get(i).unlock();
+        }
+    }
+
+    /**
+     * Establece las alertas personales no leidas
+     * @param unreadAlerts Alertas no leidas
+     */
+    public void setUnreadAlerts(Collection<Alert> unreadAlerts) {
+
+        lock.writeLock().lock();
+        try {
+            this.unreadAlerts = new AlertQueue();
+            this.unreadCounts = new int[AlertType.values().length];
+            for (Alert alert : unreadAlerts) {
+                if (this.unreadAlerts.add(alert)) {
+                    this.unreadCounts[alert.getType().ordinal()]++;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     @Override
@@ -93,19 +330,135 @@ public class User {
     }
 
     /**
-     * Suscribe a un tema
+     * Suscribe a un tema, solo se recibiran las alertas generales enviadas a partir de este momento
+     * @param topic Tema a suscribir
+     * @return true si no estaba suscripto al tema
+     */
+    public boolean subscribeTopic(Topic topic){
+        return subscribeTopic(topic, topic.getLastAlertId());
+    }
+
+    /**
+     * Suscribe a un tema a partir de una alerta dada, se usa al restaurar una suscripcion
      * @param topic Tema a suscribir
+     * @param fromAlertId Id de la alerta desde la cual se reciben alertas (exclusivo)
+     * @return true si no estaba suscripto al tema
      */
-    public void subscribeTopic(Topic topic){
-        subscribedTopics.add(topic);
+    public boolean subscribeTopic(Topic topic, int fromAlertId){
+
+        lock.writeLock().lock();
+        try {
+            Subscription subscription = new Subscription(topic, fromAlertId);
+
+            if (subscriptions.putIfAbsent(topic, subscription) != null) {
+                return false;
+            }
+
+            topic.addSubscription(subscription, id);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     /**
-     * Añade una alerta a la lista de alertas no leidas
+     * Desuscribe de un tema, las alertas generales del tema dejan de mostrarse
+     * @param topic Tema a desuscribir
+     * @return true si estaba suscripto al tema
+     */
+    public boolean unsubscribeTopic(Topic topic){
+
+        lock.writeLock().lock();
+        try {
+            Subscription subscription = subscriptions.remove(topic);
+
+            if (subscription == null) {
+                return false;
+            }
+
+            topic.removeSubscription(subscription, id);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Devuelve una copia de los patrones de temas suscriptos por el usuario
+     * @return Conjunto de patrones en el orden en que se suscribieron
+     */
+    public Set<String> getTopicPatterns() {
+
+        lock.readLock().lock();
+        try {
+            return new LinkedHashSet<>(topicPatterns);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Agrega un patron de temas, las suscripciones a los temas que coinciden se hacen aparte
+     * @param pattern Patron de temas
+     * @return true si el usuario no tenia el patron
+     */
+    public boolean addTopicPattern(String pattern) {
+
+        lock.writeLock().lock();
+        try {
+            return topicPatterns.add(pattern);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Quita un patron de temas, no cambia las suscripciones a los temas que coincidian
+     * @param pattern Patron de temas
+     * @return true si el usuario tenia el patron
+     */
+    public boolean removeTopicPattern(String pattern) {
+
+        lock.writeLock().lock();
+        try {
+            return topicPatterns.remove(pattern);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Añade una alerta personal a la lista de alertas no leidas
      * @param alert Alerta a añadir
      */
     public void addAlert(Alert alert){
-        unreadAlerts.add(alert);
+
+        lock.writeLock().lock();
+        try {
+            if (unreadAlerts.add(alert)) {
+                unreadCounts[alert.getType().ordinal()]++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Quita una alerta personal vencida de la lista de no leidas, las generales no guardan nada en el usuario
+     * @param alert Alerta vencida
+     */
+    public void removeAlert(Alert alert){
+
+        if (alert.getDestination() == AlertDestination.GENERAL) {
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            removeUnread(alert);
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     /**
@@ -114,16 +467,192 @@ public class User {
      * @return true si esta suscripto
      */
     public boolean isSubscribed(Topic topic){
-        return subscribedTopics.contains(topic);
+
+        lock.readLock().lock();
+        try {
+            return subscriptions.containsKey(topic);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Devuelve true si la alerta esta pendiente de leer por el usuario, sin importar si ya vencio
+     * @param alert Alerta a consultar
+     * @return true si la alerta esta pendiente de leer
+     */
+    public boolean isUnread(Alert alert){
+
+        lock.readLock().lock();
+        try {
+            if (alert.getDestination() == AlertDestination.GENERAL) {
+                Subscription subscription = subscriptions.get(alert.getTopic());
+                return subscription != null && subscription.covers(alert.getId()) && !alert.isReadBy(id);
+            }
+
+            return this.unreadAlerts.contains(alert.getId());
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     /**
-     * Devuelve Marca una alerta como leida
+     * Devuelve Marca una alerta como leida, las personales se quitan de la lista de no leidas
+     * y las generales se registran como leidas en la suscripcion del tema
      * @param alert Alerta a marcar
-     * @return True si la alerta estaba en la lista de alertas no leidas
+     * @return True si la alerta estaba pendiente de leer por el usuario
      */
     public boolean markAlertAsRead(Alert alert){
-        return this.unreadAlerts.remove(alert);
+
+        lock.writeLock().lock();
+        try {
+            if (alert.getDestination() == AlertDestination.GENERAL) {
+                return markGeneralAlertAsRead(subscriptions.get(alert.getTopic()), alert);
+            }
+
+            return removeUnread(alert);
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
-    
+
+    /**
+     * Marca varias alertas como leidas tomando el lock del usuario una unica vez
+     * @param alerts Alertas a marcar
+     * @return Cantidad de alertas que estaban pendientes de leer
+     */
+    public int markAlertsAsRead(Collection<Alert> alerts){
+
+        int count = 0;
+
+        lock.writeLock().lock();
+        try {
+            for (Alert alert : alerts) {
+                if (markAlertAsRead(alert)) {
+                    count++;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        return count;
+    }
+
+    /**
+     * Marca como leidas todas las alertas pendientes, vacia las personales
+     * y registra como leidas las generales de cada tema suscripto
+     * @return Cantidad de alertas que estaban pendientes de leer
+     */
+    public int markAllAsRead(){
+
+        lock.writeLock().lock();
+        List<Lock> topicLocks = lockSubscribedTopics();
+        try {
+            int count = unreadAlerts.size();
+            unreadAlerts.clear();
+            Arrays.fill(unreadCounts, 0);
+
+            for (Subscription subscription : subscriptions.values()) {
+                Iterator<Alert> generalAlerts = subscription.getTopic()
+                        .getGeneralAlertsAfter(subscription.getFromAlertId());
+                while (generalAlerts.hasNext()) {
+                    if (markGeneralAlertAsRead(subscription, generalAlerts.next())) {
+                        count++;
+                    }
+                }
+            }
+
+            return count;
+        } finally {
+            unlockAll(topicLocks);
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Devuelve la cantidad de alertas no leidas, personales y generales de los temas suscriptos,
+     * sin recorrer ni copiar las alertas
+     * Como en las lecturas, las vencidas desde el ultimo avance del planificador todavia se cuentan
+     * @return Cantidad de alertas no leidas
+     */
+    public int countUnread() {
+
+        lock.readLock().lock();
+        try {
+            int count = 0;
+            for (AlertType type : AlertType.values()) {
+                count += countUnreadLocked(type);
+            }
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Devuelve la cantidad de alertas no leidas de un tipo, personales y generales de los temas suscriptos
+     * @param type Tipo de alerta
+     * @return Cantidad de alertas no leidas del tipo
+     */
+    public int countUnread(AlertType type) {
+
+        lock.readLock().lock();
+        try {
+            return countUnreadLocked(type);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Suma las no leidas personales y las de cada suscripcion, cada tema toma su lock solo mientras
+     * se lee su cuenta. Se debe tener el lock de lectura del usuario
+     * @param type Tipo de alerta
+     * @return Cantidad de alertas no leidas del tipo
+     */
+    private int countUnreadLocked(AlertType type) {
+
+        int count = unreadCounts[type.ordinal()];
+
+        for (Subscription subscription : subscriptions.values()) {
+            count += subscription.getTopic().countUnread(subscription, type);
+        }
+
+        return count;
+    }
+
+    /**
+     * Marca una alerta general como leida si la suscripcion la cubre y la suma a las leidas de la suscripcion
+     * Se debe tener el lock de escritura del usuario
+     * @param subscription Suscripcion al tema de la alerta (puede ser null)
+     * @param alert Alerta general
+     * @return true si la alerta estaba pendiente de leer
+     */
+    private boolean markGeneralAlertAsRead(Subscription subscription, Alert alert) {
+
+        if (subscription == null || !subscription.covers(alert.getId()) || !alert.markReadBy(id)) {
+            return false;
+        }
+
+        subscription.addRead(alert.getType(), 1);
+        return true;
+    }
+
+    /**
+     * Quita una alerta personal de las no leidas y la resta de la cuenta de su tipo,
+     * se debe tener el lock de escritura del usuario
+     * @param alert Alerta personal
+     * @return true si estaba entre las no leidas
+     */
+    private boolean removeUnread(Alert alert) {
+
+        if (unreadAlerts.remove(alert.getId()) == null) {
+            return false;
+        }
+
+        unreadCounts[alert.getType().ordinal()]--;
+        return true;
+    }
+
 }
@@ -1,15 +1,29 @@
 package entities.alert;
 
+import entities.Topic;
+import entities.User;
+import util.MillisClock;
+import util.RoaringBitmap;
+
 import java.time.LocalDateTime;
 
 /**
  * Esta clase se utiliza para el manejo de las alertas del sistema
- * Es una version simplificada, solo se contempla id, mensaje, tipo de alerta, tipo de destino y
- * fecha de expiracion (opcional)
+ * Es una version simplificada, solo se contempla id, mensaje, tipo de alerta, tipo de destino, tema,
+ * usuario destino (solo para las personales) y fecha de expiracion (opcional)
+ * Las generales guardan que usuarios las leyeron en un mapa de bits comprimido indexado por el id denso
+ * del usuario, que se crea con la primera lectura
+ * La expiracion se guarda en milisegundos desde epoch para que verificarla no cree objetos
+ * Las ocurrencias cuentan cuantas veces se envio la misma alerta general dentro de la ventana de deduplicacion
  * @author Albano Zupichiatti
  */
 public class Alert {
 
+    /**
+     * Expiracion de las alertas que no vencen
+     */
+    public static final long NEVER_EXPIRES = Long.MAX_VALUE;
+
     private int id;
 
     private String message;
@@ -18,7 +32,17 @@ public class Alert {
 
     private AlertDestination destination;
 
-    private LocalDateTime expirationDate;
+    private Topic topic;
+
+    private User user;
+
+    private long expirationMillis;
+
+    private RoaringBitmap readers;
+
+    private boolean retired;
+
+    private int occurrences = 1;
 
     /**
      * Construye una alerta con todos sus atributos
@@ -26,14 +50,19 @@ public class Alert {
      * @param message Mensaje
      * @param type Tipo de alerta
      * @param destination Tipo de destino
-     * @param expirationDate Fecha de expiracion
+     * @param topic Tema por el que se envio la alerta
+     * @param user Usuario destino si es personal, null si es general
+     * @param expirationMillis Expiracion en milisegundos desde epoch, NEVER_EXPIRES si no vence
      */
-    public Alert(int id, String message, AlertType type, AlertDestination destination, LocalDateTime expirationDate) {
+    public Alert(int id, String message, AlertType type, AlertDestination destination, Topic topic, User user,
+                 long expirationMillis) {
         this.id = id;
         this.message = message;
         this.type = type;
         this.destination = destination;
-        this.expirationDate = expirationDate;
+        this.topic = topic;
+        this.user = user;
+        this.expirationMillis = expirationMillis;
     }
 
     /**
@@ -86,18 +115,43 @@ public class Alert {
 
     /**
      * Devuelve la fecha de expiracion
-     * @return Fecha de expiracion
+     * @return Fecha de expiracion o null si no vence
      */
     public LocalDateTime getExpirationDate() {
-        return expirationDate;
+        return MillisClock.toDateTime(getExpirationMillis(), NEVER_EXPIRES);
     }
 
     /**
-     * Establece la fecha de expiracion
-     * @param expirationDate Fecha de expiracion
+     * Establece la fecha de expiracion, se guarda con precision de milisegundos
+     * @param expirationDate Fecha de expiracion (puede ser null)
      */
     public void setExpirationDate(LocalDateTime expirationDate) {
-        this.expirationDate = expirationDate;
+        setExpirationMillis(MillisClock.toMillis(expirationDate, NEVER_EXPIRES));
+    }
+
+    /**
+     * Devuelve la expiracion
+     * @return Milisegundos desde epoch o NEVER_EXPIRES si no vence
+     */
+    public long getExpirationMillis() {
+        return expirationMillis;
+    }
+
+    /**
+     * Establece la expiracion
+     * @param expirationMillis Milisegundos desde epoch o NEVER_EXPIRES si no vence
+     */
+    public void setExpirationMillis(long expirationMillis) {
+        this.expirationMillis = expirationMillis;
+    }
+
+    /**
+     * Devuelve true si la alerta no vencio
+     * @param nowMillis Hora actual en milisegundos desde epoch
+     * @return true si la expiracion es posterior a la hora actual
+     */
+    public boolean isUnexpired(long nowMillis) {
+        return getExpirationMillis() > nowMillis;
     }
 
     /**
@@ -116,14 +170,131 @@ public class Alert {
         this.destination = destination;
     }
 
+    /**
+     * Devuelve el tema por el que se envio la alerta
+     * @return Tema
+     */
+    public Topic getTopic() {
+        return topic;
+    }
+
+    /**
+     * Establece el tema por el que se envio la alerta
+     * @param topic Tema
+     */
+    public void setTopic(Topic topic) {
+        this.topic = topic;
+    }
+
+    /**
+     * Devuelve el usuario destino de una alerta personal
+     * @return Usuario destino o null si la alerta es general
+     */
+    public User getUser() {
+        return user;
+    }
+
+    /**
+     * Establece el usuario destino de una alerta personal
+     * @param user Usuario destino
+     */
+    public void setUser(User user) {
+        this.user = user;
+    }
+
+    /**
+     * Marca la alerta general como leida por un usuario
+     * @param userId Id denso del usuario
+     * @return true si el usuario no la habia leido y la alerta sigue en su tema
+     */
+    public synchronized boolean markReadBy(int userId) {
+
+        if (retired) {
+            return false;
+        }
+
+        if (readers == null) {
+            readers = new RoaringBitmap();
+        }
+
+        return readers.add(userId);
+    }
+
+    /**
+     * Devuelve true si el usuario leyo la alerta general
+     * @param userId Id denso del usuario
+     * @return true si la leyo
+     */
+    public synchronized boolean isReadBy(int userId) {
+        return readers != null && readers.contains(userId);
+    }
+
+    /**
+     * Devuelve la cantidad de usuarios que leyeron la alerta general en O(1)
+     * @return Cantidad de lectores
+     */
+    public synchronized int countReaders() {
+        return readers == null ? 0 : readers.getCardinality();
+    }
+
+    /**
+     * Devuelve los ids densos de los usuarios que leyeron la alerta general en orden ascendente
+     * @return Ids de los lectores
+     */
+    public synchronized int[] getReaderIds() {
+        return readers == null ? new int[0] : readers.toArray();
+    }
+
+    /**
+     * Marca la alerta general como quitada de su tema, desde ahora no se registran nuevos lectores
+     * @return Ids de los usuarios que la leyeron mientras estuvo en el tema
+     */
+    public synchronized int[] retire() {
+        retired = true;
+        return getReaderIds();
+    }
+
+    /**
+     * Devuelve cuantas veces se envio la alerta, mas de una si se agruparon envios repetidos
+     * @return Cantidad de ocurrencias
+     */
+    public synchronized int getOccurrences() {
+        return occurrences;
+    }
+
+    /**
+     * Cuenta un envio repetido de la alerta
+     * @return Cantidad de ocurrencias incluyendo la nueva
+     */
+    public synchronized int addOccurrence() {
+        return ++occurrences;
+    }
+
+    /**
+     * Restaura la cantidad de ocurrencias, nunca la disminuye para que restaurar dos veces no tenga efecto
+     * @param occurrences Cantidad de ocurrencias
+     */
+    public synchronized void restoreOccurrences(int occurrences) {
+        this.occurrences = Math.max(this.occurrences, occurrences);
+    }
+
+    /**
+     * Libera los datos que la alerta guarda fuera del heap, se llama al vencer la alerta
+     * Las alertas guardadas en el heap no tienen nada que liberar
+     */
+    public void release() {
+    }
+
     @Override
     public String toString() {
         return "Alert{" +
                 "id=" + id +
-                ", message='" + message + '\'' +
+                ", message='" + getMessage() + '\'' +
                 ", type=" + type +
                 ", destination=" + destination +
-                ", expirationDate=" + expirationDate +
+                ", topic=" + (topic != null ? topic.getName() : null) +
+                ", user=" + (user != null ? user.getUserName() : null) +
+                ", expirationDate=" + getExpirationDate() +
                 '}';
     }
 }
@@ -1,5 +1,9 @@
 package entities.alert;
 
+import entities.Topic;
+import entities.User;
+import util.MillisClock;
+
 import java.time.LocalDateTime;
 
 /**
@@ -17,7 +21,11 @@ public class AlertBuilder {
 
     private AlertDestination destination;
 
-    private LocalDateTime expirationDate;
+    private Topic topic;
+
+    private User user;
+
+    private long expirationMillis = Alert.NEVER_EXPIRES;
 
     /**
      * Estable el id a utilizar
@@ -55,7 +63,17 @@ public class AlertBuilder {
      * @return AlertBuilder con la fecha de expiracion establecida
      */
     public AlertBuilder setExpirationDate(LocalDateTime expirationDate) {
-        this.expirationDate = expirationDate;
+        this.expirationMillis = MillisClock.toMillis(expirationDate, Alert.NEVER_EXPIRES);
+        return this;
+    }
+
+    /**
+     * Establece la expiracion a utilizar
+     * @param expirationMillis Milisegundos desde epoch o Alert.NEVER_EXPIRES si no vence
+     * @return AlertBuilder con la expiracion establecida
+     */
+    public AlertBuilder setExpirationMillis(long expirationMillis) {
+        this.expirationMillis = expirationMillis;
         return this;
     }
 
@@ -69,6 +87,26 @@ public class AlertBuilder {
         return this;
     }
 
+    /**
+     * Establece el tema a utilizar
+     * @param topic Tema por el que se envia la alerta
+     * @return AlertBuilder con el tema establecido
+     */
+    public AlertBuilder setTopic(Topic topic) {
+        this.topic = topic;
+        return this;
+    }
+
+    /**
+     * Establece el usuario destino a utilizar, solo para alertas personales
+     * @param user Usuario destino
+     * @return AlertBuilder con el usuario destino establecido
+     */
+    public AlertBuilder setUser(User user) {
+        this.user = user;
+        return this;
+    }
+
     /**
      * Construye la alerta con todos los campos establecidos previamente en la instancia de AlertBuilder
      * @return Alerta construida
@@ -83,7 +121,7 @@ public class AlertBuilder {
             destination = AlertDestination.GENERAL;
         }
 
-        return new Alert(id, message, type, destination, expirationDate);
+        return new Alert(id, message, type, destination, topic, user, expirationMillis);
     }
 
 }
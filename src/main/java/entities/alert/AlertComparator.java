@@ -0,0 +1,38 @@
+package entities.alert;
+
+import java.util.Comparator;
+
+/**
+ * Clase que se encarga de la comparar las alertas para su ordenamiento
+ * Primero van las urgentes por LIFO y luego las informativas por FIFO, como los ids son crecientes
+ * equivale a urgentes por id descendente y luego informativas por id ascendente
+ * @author Albano Zupichiatti
+ */
+public class AlertComparator implements Comparator<Alert> {
+
+    /**
+     * Instancia compartida, el comparador no tiene estado
+     */
+    public static final AlertComparator INSTANCE = new AlertComparator();
+
+    /**
+     * Compara las alertas para ordenarlas primero por LIFO para las urgentes y luego por FIFO las informativas
+     * @param alert1 the first object to be compared.
+     * @param alert2 the second object to be compared.
+     * @return Comparacion para ordenar
+     */
+    @Override
+    public int compare(Alert alert1, Alert alert2) {
+
+        if (alert1.getType() == AlertType.URGENT && alert2.getType() == AlertType.URGENT) {
+            return Integer.compare(alert2.getId(), alert1.getId());
+        } else if (alert1.getType() == AlertType.URGENT) {
+            return -1;
+        } else if (alert2.getType() == AlertType.URGENT) {
+            return 1;
+        } else {
+            return Integer.compare(alert1.getId(), alert2.getId());
+        }
+    }
+
+}
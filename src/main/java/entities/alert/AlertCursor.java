@@ -0,0 +1,89 @@
+package entities.alert;
+
+import java.util.Objects;
+
+/**
+ * Esta clase representa una posicion en el orden de lectura de las alertas (el de AlertComparator),
+ * se usa para pedir la pagina siguiente a la ultima alerta devuelta
+ * @author Albano Zupichiatti
+ */
+public class AlertCursor {
+
+    private static final AlertCursor START = new AlertCursor(null, 0);
+
+    private final AlertType type;
+
+    private final int alertId;
+
+    /**
+     * Construye un cursor ubicado sobre una alerta
+     * @param type Tipo de la alerta
+     * @param alertId Id de la alerta
+     */
+    private AlertCursor(AlertType type, int alertId) {
+        this.type = type;
+        this.alertId = alertId;
+    }
+
+    /**
+     * Devuelve el cursor ubicado antes de la primera alerta
+     * @return Cursor de inicio
+     */
+    public static AlertCursor start() {
+        return START;
+    }
+
+    /**
+     * Devuelve el cursor ubicado sobre una alerta, la pagina siguiente empieza despues de ella
+     * @param alert Ultima alerta leida
+     * @return Cursor ubicado sobre la alerta
+     */
+    public static AlertCursor after(Alert alert) {
+        return new AlertCursor(alert.getType(), alert.getId());
+    }
+
+    /**
+     * Devuelve el tipo de la alerta sobre la que esta el cursor
+     * @return Tipo de alerta o null si es el cursor de inicio
+     */
+    public AlertType getType() {
+        return type;
+    }
+
+    /**
+     * Devuelve el id de la alerta sobre la que esta el cursor
+     * @return Id de alerta o 0 si es el cursor de inicio
+     */
+    public int getAlertId() {
+        return alertId;
+    }
+
+    /**
+     * Devuelve true si es el cursor de inicio
+     * @return true si esta antes de la primera alerta
+     */
+    public boolean isStart() {
+        return type == null;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        AlertCursor cursor = (AlertCursor) o;
+        return alertId == cursor.alertId && type == cursor.type;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(type, alertId);
+    }
+
+    @Override
+    public String toString() {
+        return "AlertCursor{" +
+                "type=" + type +
+                ", alertId=" + alertId +
+                '}';
+    }
+}
@@ -0,0 +1,89 @@
+package entities.alert;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Esta clase representa una pagina de alertas en orden de lectura y el cursor para pedir la siguiente
+ * @author Albano Zupichiatti
+ */
+public class AlertPage {
+
+    private final List<Alert> alerts;
+
+    private final AlertCursor nextCursor;
+
+    /**
+     * Construye una pagina con todos sus atributos
+     * @param alerts Alertas de la pagina
+     * @param nextCursor Cursor de la pagina siguiente o null si no hay mas alertas
+     */
+    public AlertPage(List<Alert> alerts, AlertCursor nextCursor) {
+        this.alerts = alerts;
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * Arma una pagina tomando del iterador solo las alertas necesarias
+     * @param alerts Iterador de alertas en orden de lectura
+     * @param filter Condicion que deben cumplir las alertas de la pagina
+     * @param limit Cantidad maxima de alertas de la pagina
+     * @return Pagina de alertas
+     */
+    public static AlertPage of(Iterator<Alert> alerts, Predicate<Alert> filter, int limit) {
+
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+
+        List<Alert> page = new ArrayList<>(Math.min(limit, 64));
+
+        while (page.size() < limit && alerts.hasNext()) {
+            Alert alert = alerts.next();
+            if (filter.test(alert)) {
+                page.add(alert);
+            }
+        }
+
+        boolean more = false;
+        while (!more && alerts.hasNext()) {
+            more = filter.test(alerts.next());
+        }
+
+        return new AlertPage(page, more ? AlertCursor.after(page.get(page.size() - 1)) : null);
+    }
+
+    /**
+     * Devuelve las alertas de la pagina
+     * @return Alertas en orden de lectura
+     */
+    public List<Alert> getAlerts() {
+        return alerts;
+    }
+
+    /**
+     * Devuelve el cursor de la pagina siguiente
+     * @return Cursor o null si no hay mas alertas
+     */
+    public AlertCursor getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * Devuelve true si hay mas alertas despues de esta pagina
+     * @return true si hay pagina siguiente
+     */
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+
+    @Override
+    public String toString() {
+        return "AlertPage{" +
+                "alerts=" + alerts +
+                ", nextCursor=" + nextCursor +
+                '}';
+    }
+}
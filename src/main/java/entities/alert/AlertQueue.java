@@ -0,0 +1,305 @@
+package entities.alert;
+
+import util.IntObjectHashMap;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Coleccion de alertas que se mantiene ordenada al insertar segun AlertComparator
+ * Las urgentes se guardan en una lista que funciona como pila (la mas nueva adelante) y las informativas en una
+ * lista que funciona como cola (la mas vieja adelante), recorrer la pila y luego la cola da el orden de lectura
+ * sin ordenar. Un indice por id permite quitar cualquier alerta en O(1)
+ * No es seguro entre hilos, quien lo usa debe sincronizar el acceso
+ * @author Albano Zupichiatti
+ */
+public class AlertQueue implements Iterable<Alert> {
+
+    private final IntObjectHashMap<Node> nodes;
+
+    private Node urgentHead;
+
+    private Node urgentTail;
+
+    private Node informativeHead;
+
+    private Node informativeTail;
+
+    /**
+     * Construye la coleccion vacia
+     */
+    public AlertQueue() {
+        this.nodes = new IntObjectHashMap<>();
+    }
+
+    /**
+     * Agrega una alerta en su posicion, las alertas suelen llegar en orden de id por lo que es O(1),
+     * si llega fuera de orden se recorre desde el extremo mas nuevo hasta su posicion
+     * @param alert Alerta a agregar
+     * @return true si la alerta no estaba en la coleccion
+     */
+    public boolean add(Alert alert) {
+
+        if (nodes.containsKey(alert.getId())) {
+            return false;
+        }
+
+        Node node = new Node(alert);
+        nodes.put(alert.getId(), node);
+
+        if (alert.getType() == AlertType.URGENT) {
+            // Pila: la mas nueva adelante, se busca el primer nodo mas viejo
+            Node next = urgentHead;
+            while (next != null && next.alert.getId() > alert.getId()) {
+                next = next.next;
+            }
+            insertBefore(node, next, true);
+        }
+        else {
+            // Cola: la mas nueva atras, se busca desde atras el primer nodo mas viejo
+            Node previous = informativeTail;
+            while (previous != null && previous.alert.getId() > alert.getId()) {
+                previous = previous.previous;
+            }
+            insertBefore(node, previous == null ? informativeHead : previous.next, false);
+        }
+
+        return true;
+    }
+
+    /**
+     * Quita una alerta por id
+     * @param alertId Id de la alerta a quitar
+     * @return Alerta quitada o null si no estaba en la coleccion
+     */
+    public Alert remove(int alertId) {
+
+        Node node = nodes.remove(alertId);
+
+        if (node == null) {
+            return null;
+        }
+
+        boolean urgent = node.alert.getType() == AlertType.URGENT;
+
+        if (node.previous != null) {
+            node.previous.next = node.next;
+        } else if (urgent) {
+            urgentHead = node.next;
+        } else {
+            informativeHead = node.next;
+        }
+
+        if (node.next != null) {
+            node.next.previous = node.previous;
+        } else if (urgent) {
+            urgentTail = node.previous;
+        } else {
+            informativeTail = node.previous;
+        }
+
+        node.previous = null;
+        node.next = null;
+
+        return node.alert;
+    }
+
+    /**
+     * Devuelve true si la alerta esta en la coleccion
+     * @param alertId Id de la alerta
+     * @return true si esta en la coleccion
+     */
+    public boolean contains(int alertId) {
+        return nodes.containsKey(alertId);
+    }
+
+    /**
+     * Devuelve la alerta con el id indicado
+     * @param alertId Id de la alerta
+     * @return Alerta o null si no esta en la coleccion
+     */
+    public Alert get(int alertId) {
+        Node node = nodes.get(alertId);
+        return node != null ? node.alert : null;
+    }
+
+    /**
+     * Devuelve la cantidad de alertas
+     * @return Cantidad de alertas
+     */
+    public int size() {
+        return nodes.size();
+    }
+
+    /**
+     * Devuelve true si no hay alertas
+     * @return true si esta vacia
+     */
+    public boolean isEmpty() {
+        return nodes.isEmpty();
+    }
+
+    /**
+     * Quita todas las alertas
+     */
+    public void clear() {
+        nodes.clear();
+        urgentHead = urgentTail = informativeHead = informativeTail = null;
+    }
+
+    /**
+     * Recorre las alertas en el orden de AlertComparator
+     * @return Iterador de alertas
+     */
+    @Override
+    public Iterator<Alert> iterator() {
+        return iterator(0);
+    }
+
+    /**
+     * Recorre en el orden de AlertComparator solo las alertas con id posterior al indicado,
+     * en las urgentes corta al llegar al id y en las informativas saltea las anteriores
+     * @param afterAlertId Id a partir del cual recorrer (exclusivo)
+     * @return Iterador de alertas
+     */
+    public Iterator<Alert> iterator(int afterAlertId) {
+        return new QueueIterator(afterAlertId, AlertCursor.start());
+    }
+
+    /**
+     * Recorre en el orden de AlertComparator las alertas con id posterior al indicado que estan despues del cursor,
+     * si la alerta del cursor sigue en la coleccion se continua desde su nodo en O(1),
+     * si no se avanza desde el inicio de su lista hasta su posicion
+     * @param afterAlertId Id a partir del cual recorrer (exclusivo)
+     * @param cursor Posicion desde la cual recorrer (exclusiva)
+     * @return Iterador de alertas
+     */
+    public Iterator<Alert> iterator(int afterAlertId, AlertCursor cursor) {
+        return new QueueIterator(afterAlertId, cursor);
+    }
+
+    /**
+     * Enlaza el nodo antes de otro en la lista de urgentes o de informativas
+     * @param node Nodo a enlazar
+     * @param next Nodo que quedara despues, null para enlazar al final
+     * @param urgent true para la lista de urgentes
+     */
+    private void insertBefore(Node node, Node next, boolean urgent) {
+
+        Node previous = next != null ? next.previous : (urgent ? urgentTail : informativeTail);
+
+        node.previous = previous;
+        node.next = next;
+
+        if (previous != null) {
+            previous.next = node;
+        } else if (urgent) {
+            urgentHead = node;
+        } else {
+            informativeHead = node;
+        }
+
+        if (next != null) {
+            next.previous = node;
+        } else if (urgent) {
+            urgentTail = node;
+        } else {
+            informativeTail = node;
+        }
+    }
+
+    /**
+     * Nodo de las listas doblemente enlazadas
+     */
+    private static class Node {
+
+        private final Alert alert;
+
+        private Node previous;
+
+        private Node next;
+
+        private Node(Alert alert) {
+            this.alert = alert;
+        }
+
+    }
+
+    /**
+     * Iterador que recorre primero la pila de urgentes y luego la cola de informativas
+     */
+    private class QueueIterator implements Iterator<Alert> {
+
+        private final int afterAlertId;
+
+        private Node next;
+
+        private boolean informative;
+
+        private QueueIterator(int afterAlertId, AlertCursor cursor) {
+
+            this.afterAlertId = afterAlertId;
+
+            if (cursor.isStart()) {
+                next = urgentHead;
+            }
+            else {
+                informative = cursor.getType() != AlertType.URGENT;
+                Node node = nodes.get(cursor.getAlertId());
+
+                if (node != null && (node.alert.getType() == AlertType.URGENT) != informative) {
+                    next = node.next;
+                }
+                else if (informative) {
+                    next = informativeHead;
+                    while (next != null && next.alert.getId() <= cursor.getAlertId()) {
+                        next = next.next;
+                    }
+                }
+                else {
+                    next = urgentHead;
+                    while (next != null && next.alert.getId() >= cursor.getAlertId()) {
+                        next = next.next;
+                    }
+                }
+            }
+
+            advance();
+        }
+
+        /**
+         * Ubica el siguiente nodo valido, pasando a las informativas cuando se terminan las urgentes nuevas
+         */
+        private void advance() {
+
+            if (!informative && (next == null || next.alert.getId() <= afterAlertId)) {
+                informative = true;
+                next = informativeHead;
+            }
+
+            while (informative && next != null && next.alert.getId() <= afterAlertId) {
+                next = next.next;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Alert next() {
+
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+
+            Node current = next;
+            next = current.next;
+            advance();
+            return current.alert;
+        }
+
+    }
+
+}
@@ -0,0 +1,260 @@
+package entities.alert;
+
+import util.SlabAllocator;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Almacen de los datos de las alertas fuera del heap, cada alerta ocupa un bloque de un slab de memoria
+ * directa con su id, tipo, destino, expiracion en milisegundos desde epoch y mensaje en UTF-8
+ * Asi el recolector de basura no recorre los mensajes ni las fechas de las alertas retenidas
+ * Las reservas y liberaciones toman el lock de escritura, las lecturas son optimistas y solo toman el lock
+ * de lectura si una escritura las invalido. Al liberar un bloque se borra su id, por lo que leer con
+ * un handle liberado o reutilizado por otra alerta devuelve null en lugar de datos ajenos
+ * @author Albano Zupichiatti
+ */
+public class AlertStore {
+
+    private static final int DEFAULT_SLAB_SIZE = 1 << 20;
+
+    private static final int ID_OFFSET = 0;
+
+    private static final int TYPE_OFFSET = 4;
+
+    private static final int DESTINATION_OFFSET = 5;
+
+    private static final int EXPIRATION_OFFSET = 8;
+
+    private static final int LENGTH_OFFSET = 16;
+
+    private static final int HEADER_SIZE = 20;
+
+    /**
+     * Expiracion que se devuelve al leer con un handle ya liberado
+     */
+    public static final long RELEASED = Long.MIN_VALUE;
+
+    private final SlabAllocator allocator;
+
+    private final StampedLock lock;
+
+    private int count;
+
+    /**
+     * Construye el almacen con slabs de 1 MB
+     */
+    public AlertStore() {
+        this(DEFAULT_SLAB_SIZE);
+    }
+
+    /**
+     * Construye el almacen con el tamaño de slab dado
+     * @param slabSize Tamaño de cada slab en bytes, potencia de dos entre 1 KB y 1 GB
+     */
+    public AlertStore(int slabSize) {
+        this.allocator = new SlabAllocator(slabSize);
+        this.lock = new StampedLock();
+    }
+
+    /**
+     * Guarda los datos de una alerta
+     * @param id Id de la alerta, mayor a 0
+     * @param message Mensaje, no null
+     * @param type Tipo de alerta
+     * @param destination Tipo de destino
+     * @param expirationMillis Expiracion en milisegundos desde epoch o Alert.NEVER_EXPIRES si no vence
+     * @return Handle de la alerta o -1 si el mensaje no entra en un slab
+     */
+    public int store(int id, String message, AlertType type, AlertDestination destination, long expirationMillis) {
+
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+
+        long stamp = lock.writeLock();
+        try {
+            int handle = allocator.allocate(HEADER_SIZE + bytes.length);
+
+            if (handle < 0) {
+                return -1;
+            }
+
+            ByteBuffer slab = allocator.slab(handle);
+            int offset = allocator.offset(handle);
+            slab.putInt(offset + ID_OFFSET, id);
+            slab.put(offset + TYPE_OFFSET, (byte) type.ordinal());
+            slab.put(offset + DESTINATION_OFFSET, (byte) destination.ordinal());
+            slab.putLong(offset + EXPIRATION_OFFSET, expirationMillis);
+            slab.putInt(offset + LENGTH_OFFSET, bytes.length);
+            slab.put(offset + HEADER_SIZE, bytes);
+            count++;
+
+            return handle;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Devuelve el mensaje de una alerta
+     * @param handle Handle de la alerta
+     * @param id Id de la alerta
+     * @return Mensaje o null si el handle ya se libero
+     */
+    public String getMessage(int handle, int id) {
+
+        long stamp = lock.tryOptimisticRead();
+        String message = readMessage(handle, id);
+
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                message = readMessage(handle, id);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        return message;
+    }
+
+    /**
+     * Devuelve la fecha de expiracion de una alerta
+     * @param handle Handle de la alerta
+     * @param id Id de la alerta
+     * @return Milisegundos desde epoch, Alert.NEVER_EXPIRES si no vence o RELEASED si el handle ya se libero
+     */
+    public long getExpirationMillis(int handle, int id) {
+
+        long stamp = lock.tryOptimisticRead();
+        long expirationMillis = readExpirationMillis(handle, id);
+
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                expirationMillis = readExpirationMillis(handle, id);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        return expirationMillis;
+    }
+
+    /**
+     * Libera el bloque de una alerta para que lo reutilicen alertas nuevas
+     * @param handle Handle de la alerta
+     * @param id Id de la alerta
+     * @return true si el handle pertenecia a la alerta y se libero
+     */
+    public boolean release(int handle, int id) {
+
+        long stamp = lock.writeLock();
+        try {
+            ByteBuffer slab = allocator.slab(handle);
+            int offset = allocator.offset(handle);
+
+            if (slab == null || slab.getInt(offset + ID_OFFSET) != id) {
+                return false;
+            }
+
+            slab.putInt(offset + ID_OFFSET, 0);
+            allocator.free(handle, HEADER_SIZE + slab.getInt(offset + LENGTH_OFFSET));
+            count--;
+
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Devuelve la cantidad de alertas guardadas
+     * @return Cantidad de alertas
+     */
+    public int countAlerts() {
+
+        long stamp = lock.readLock();
+        try {
+            return count;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Devuelve los bytes reservados fuera del heap
+     * @return Bytes reservados por los slabs
+     */
+    public long getCapacityBytes() {
+
+        long stamp = lock.readLock();
+        try {
+            return allocator.getCapacityBytes();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Devuelve los bytes ocupados por las alertas guardadas
+     * @return Bytes en uso
+     */
+    public long getAllocatedBytes() {
+
+        long stamp = lock.readLock();
+        try {
+            return allocator.getAllocatedBytes();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Lee el mensaje sin tomar el lock, durante una lectura optimista los datos pueden estar a medio escribir
+     * por lo que se validan los limites antes de copiar y el resultado se descarta si el lock no valida
+     */
+    private String readMessage(int handle, int id) {
+
+        ByteBuffer slab = allocator.slab(handle);
+
+        if (slab == null) {
+            return null;
+        }
+
+        int offset = allocator.offset(handle);
+
+        if (slab.getInt(offset + ID_OFFSET) != id) {
+            return null;
+        }
+
+        int length = slab.getInt(offset + LENGTH_OFFSET);
+
+        if (length < 0 || length > slab.capacity() - offset - HEADER_SIZE) {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        slab.get(offset + HEADER_SIZE, bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private long readExpirationMillis(int handle, int id) {
+
+        ByteBuffer slab = allocator.slab(handle);
+
+        if (slab == null) {
+            return RELEASED;
+        }
+
+        int offset = allocator.offset(handle);
+
+        if (slab.getInt(offset + ID_OFFSET) != id) {
+            return RELEASED;
+        }
+
+        return slab.getLong(offset + EXPIRATION_OFFSET);
+    }
+
+}
@@ -0,0 +1,107 @@
+package entities.alert;
+
+import entities.Topic;
+import entities.User;
+
+/**
+ * Alerta cuyo mensaje y fecha de expiracion se leen de un AlertStore fuera del heap a traves de un handle
+ * En el heap solo quedan el id, las referencias al tema, al usuario y a las constantes de tipo y destino,
+ * y el handle, asi una alerta retenida no agrega objetos que el recolector de basura deba recorrer
+ * Al liberarla se copian el mensaje y la fecha al heap antes de devolver el bloque al almacen, para que
+ * quien todavia tenga la alerta la siga leyendo igual
+ * @author Albano Zupichiatti
+ */
+public class StoredAlert extends Alert {
+
+    private final AlertStore store;
+
+    private final int handle;
+
+    private volatile boolean released;
+
+    /**
+     * Construye la alerta sobre los datos ya guardados en el almacen
+     * @param id Id de la alerta
+     * @param type Tipo de alerta
+     * @param destination Tipo de destino
+     * @param topic Tema por el que se envio la alerta
+     * @param user Usuario destino si es personal, null si es general
+     * @param store Almacen donde se guardaron los datos
+     * @param handle Handle devuelto por el almacen
+     */
+    public StoredAlert(int id, AlertType type, AlertDestination destination, Topic topic, User user,
+                       AlertStore store, int handle) {
+        super(id, null, type, destination, topic, user, NEVER_EXPIRES);
+        this.store = store;
+        this.handle = handle;
+    }
+
+    /**
+     * Devuelve el mensaje leido del almacen
+     * @return Mensaje
+     */
+    @Override
+    public String getMessage() {
+
+        String message = released ? null : store.getMessage(handle, getId());
+
+        // Si el almacen no lo tiene es porque se libero, y el mensaje se copio al heap antes de liberarlo
+        return message != null ? message : super.getMessage();
+    }
+
+    /**
+     * Devuelve la expiracion leida del almacen
+     * @return Milisegundos desde epoch o NEVER_EXPIRES si no vence
+     */
+    @Override
+    public long getExpirationMillis() {
+
+        long expirationMillis = released ? AlertStore.RELEASED : store.getExpirationMillis(handle, getId());
+
+        // Si el almacen no la tiene es porque se libero, y la expiracion se copio al heap antes de liberarla
+        return expirationMillis != AlertStore.RELEASED ? expirationMillis : super.getExpirationMillis();
+    }
+
+    /**
+     * Las alertas guardadas en el almacen no se modifican
+     * @throws UnsupportedOperationException siempre
+     */
+    @Override
+    public void setMessage(String message) {
+        throw new UnsupportedOperationException("Stored alerts are read-only");
+    }
+
+    /**
+     * Las alertas guardadas en el almacen no se modifican
+     * @throws UnsupportedOperationException siempre
+     */
+    @Override
+    public void setExpirationMillis(long expirationMillis) {
+        throw new UnsupportedOperationException("Stored alerts are read-only");
+    }
+
+    /**
+     * Copia el mensaje y la fecha de expiracion al heap y devuelve el bloque al almacen
+     */
+    @Override
+    public synchronized void release() {
+
+        if (released) {
+            return;
+        }
+
+        super.setMessage(getMessage());
+        super.setExpirationMillis(getExpirationMillis());
+        released = true;
+        store.release(handle, getId());
+    }
+
+    /**
+     * Devuelve el handle de la alerta en el almacen
+     * @return Handle
+     */
+    public int getHandle() {
+        return handle;
+    }
+
+}
@@ -0,0 +1,31 @@
+package metrics;
+
+/**
+ * Interfaz JMX con los contadores de alertas del controlador
+ * @author Albano Zupichiatti
+ */
+public interface AlertMetricsMXBean {
+
+    long getUrgentAlertsSent();
+
+    long getInformativeAlertsSent();
+
+    long getGeneralAlertsSent();
+
+    long getPersonalAlertsSent();
+
+    double getMeanFanOut();
+
+    long getP99FanOut();
+
+    long getMaxFanOut();
+
+    double getMeanInboxDepth();
+
+    long getP99InboxDepth();
+
+    long getMaxInboxDepth();
+
+    long getExpiredAlerts();
+
+}
@@ -0,0 +1,278 @@
+package metrics;
+
+import entities.alert.AlertDestination;
+import entities.alert.AlertType;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Esta clase acumula las metricas del controlador: latencia por operacion, alertas enviadas por tipo y destino,
+ * cantidad de destinatarios por envio, cantidad de alertas por lectura de usuario y alertas purgadas por vencimiento
+ * Todos los registros son sin locks, se pueden consultar con snapshot() o por JMX
+ * @author Albano Zupichiatti
+ */
+public class ControllerMetrics {
+
+    private static final String DOMAIN = "sistemadealertas";
+
+    private final EnumMap<Operation, Histogram> latencies;
+
+    private final LongAdder[][] alertsSent;
+
+    private final Histogram fanOut;
+
+    private final Histogram inboxDepth;
+
+    private final LongAdder expiredAlerts;
+
+    private final List<ObjectName> registeredNames;
+
+    /**
+     * Construye las metricas vacias
+     */
+    public ControllerMetrics() {
+
+        this.latencies = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new Histogram());
+        }
+
+        this.alertsSent = new LongAdder[AlertType.values().length][AlertDestination.values().length];
+        for (LongAdder[] byDestination : alertsSent) {
+            for (int i = 0; i < byDestination.length; i++) {
+                byDestination[i] = new LongAdder();
+            }
+        }
+
+        this.fanOut = new Histogram();
+        this.inboxDepth = new Histogram();
+        this.expiredAlerts = new LongAdder();
+        this.registeredNames = new ArrayList<>();
+    }
+
+    /**
+     * Registra la latencia de una operacion que empezo en startNanos
+     * @param operation Operacion
+     * @param startNanos Valor de System.nanoTime() al empezar la operacion
+     */
+    public void recordLatency(Operation operation, long startNanos) {
+        latencies.get(operation).record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Registra una alerta enviada y la cantidad de usuarios que la reciben
+     * @param type Tipo de alerta
+     * @param destination Destino de alerta
+     * @param recipients Cantidad de destinatarios
+     */
+    public void recordAlertSent(AlertType type, AlertDestination destination, int recipients) {
+        alertsSent[type.ordinal()][destination.ordinal()].increment();
+        fanOut.record(recipients);
+    }
+
+    /**
+     * Registra la cantidad de alertas devueltas al leer la bandeja de un usuario
+     * @param depth Cantidad de alertas
+     */
+    public void recordInboxDepth(int depth) {
+        inboxDepth.record(depth);
+    }
+
+    /**
+     * Registra las alertas purgadas por vencimiento
+     * @param count Cantidad de alertas
+     */
+    public void recordExpiredAlerts(int count) {
+        expiredAlerts.add(count);
+    }
+
+    /**
+     * Devuelve una copia de las metricas acumuladas hasta el momento
+     * @return Resumen de las metricas
+     */
+    public MetricsSnapshot snapshot() {
+
+        EnumMap<Operation, HistogramSnapshot> latencySnapshots = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            latencySnapshots.put(operation, latencies.get(operation).snapshot());
+        }
+
+        long[][] alertsSentSnapshot = new long[alertsSent.length][];
+        for (int i = 0; i < alertsSent.length; i++) {
+            alertsSentSnapshot[i] = new long[alertsSent[i].length];
+            for (int j = 0; j < alertsSent[i].length; j++) {
+                alertsSentSnapshot[i][j] = alertsSent[i][j].sum();
+            }
+        }
+
+        return new MetricsSnapshot(latencySnapshots, alertsSentSnapshot, fanOut.snapshot(), inboxDepth.snapshot(),
+                expiredAlerts.sum());
+    }
+
+    /**
+     * Registra las metricas en el servidor JMX de la plataforma, un MXBean por operacion y uno para las alertas
+     * @param controllerName Nombre del controlador, distingue los MXBeans de varios controladores
+     * @return true si se registraron correctamente
+     */
+    public synchronized boolean registerMBeans(String controllerName) {
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        String quotedName = ObjectName.quote(controllerName);
+
+        try {
+            for (Operation operation : Operation.values()) {
+                ObjectName name = new ObjectName(DOMAIN + ":type=Operation,controller=" + quotedName
+                        + ",name=" + operation.name());
+                server.registerMBean(new OperationMetrics(latencies.get(operation)), name);
+                registeredNames.add(name);
+            }
+
+            ObjectName name = new ObjectName(DOMAIN + ":type=Alerts,controller=" + quotedName);
+            server.registerMBean(new AlertMetrics(this), name);
+            registeredNames.add(name);
+            return true;
+        } catch (JMException e) {
+            unregisterMBeans();
+            return false;
+        }
+    }
+
+    /**
+     * Quita del servidor JMX los MXBeans registrados con registerMBeans
+     */
+    public synchronized void unregisterMBeans() {
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        for (ObjectName name : registeredNames) {
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException ignored) {
+                // Ya no estaba registrado
+            }
+        }
+        registeredNames.clear();
+    }
+
+    /**
+     * Implementacion JMX de la latencia de una operacion, calcula el resumen en cada consulta
+     */
+    private static class OperationMetrics implements OperationMetricsMXBean {
+
+        private final Histogram histogram;
+
+        OperationMetrics(Histogram histogram) {
+            this.histogram = histogram;
+        }
+
+        @Override
+        public long getCount() {
+            return histogram.count();
+        }
+
+        @Override
+        public double getMeanMicros() {
+            return histogram.snapshot().getMean() / 1_000;
+        }
+
+        @Override
+        public double getP50Micros() {
+            return histogram.snapshot().getP50() / 1_000.0;
+        }
+
+        @Override
+        public double getP90Micros() {
+            return histogram.snapshot().getP90() / 1_000.0;
+        }
+
+        @Override
+        public double getP99Micros() {
+            return histogram.snapshot().getP99() / 1_000.0;
+        }
+
+        @Override
+        public double getP999Micros() {
+            return histogram.snapshot().getP999() / 1_000.0;
+        }
+
+        @Override
+        public double getMaxMicros() {
+            return histogram.snapshot().getMax() / 1_000.0;
+        }
+    }
+
+    /**
+     * Implementacion JMX de los contadores de alertas
+     */
+    private static class AlertMetrics implements AlertMetricsMXBean {
+
+        private final ControllerMetrics metrics;
+
+        AlertMetrics(ControllerMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        @Override
+        public long getUrgentAlertsSent() {
+            return metrics.snapshot().getAlertsSent(AlertType.URGENT);
+        }
+
+        @Override
+        public long getInformativeAlertsSent() {
+            return metrics.snapshot().getAlertsSent(AlertType.INFORMATIVE);
+        }
+
+        @Override
+        public long getGeneralAlertsSent() {
+            return metrics.snapshot().getAlertsSent(AlertDestination.GENERAL);
+        }
+
+        @Override
+        public long getPersonalAlertsSent() {
+            return metrics.snapshot().getAlertsSent(AlertDestination.PERSONAL);
+        }
+
+        @Override
+        public double getMeanFanOut() {
+            return metrics.fanOut.snapshot().getMean();
+        }
+
+        @Override
+        public long getP99FanOut() {
+            return metrics.fanOut.snapshot().getP99();
+        }
+
+        @Override
+        public long getMaxFanOut() {
+            return metrics.fanOut.snapshot().getMax();
+        }
+
+        @Override
+        public double getMeanInboxDepth() {
+            return metrics.inboxDepth.snapshot().getMean();
+        }
+
+        @Override
+        public long getP99InboxDepth() {
+            return metrics.inboxDepth.snapshot().getP99();
+        }
+
+        @Override
+        public long getMaxInboxDepth() {
+            return metrics.inboxDepth.snapshot().getMax();
+        }
+
+        @Override
+        public long getExpiredAlerts() {
+            return metrics.expiredAlerts.sum();
+        }
+    }
+
+}
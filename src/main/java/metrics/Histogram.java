@@ -0,0 +1,157 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograma sin locks de valores no negativos con cubetas log-lineales
+ * Los valores menores a 16 tienen una cubeta propia y el resto se agrupa en 8 cubetas por potencia de dos,
+ * por lo que los percentiles tienen un error relativo menor al 12,5%. Registrar un valor es un incremento atomico
+ * sin asignar memoria, asi se puede dejar activo en produccion
+ * @author Albano Zupichiatti
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+
+    private static final int BUCKETS = LINEAR_LIMIT + (63 - (SUB_BUCKET_BITS + 1)) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets;
+
+    private final LongAdder count;
+
+    private final LongAdder sum;
+
+    private final AtomicLong max;
+
+    /**
+     * Construye el histograma vacio
+     */
+    public Histogram() {
+        this.buckets = new AtomicLongArray(BUCKETS);
+        this.count = new LongAdder();
+        this.sum = new LongAdder();
+        this.max = new AtomicLong();
+    }
+
+    /**
+     * Registra un valor, los negativos se registran como 0
+     * @param value Valor a registrar
+     */
+    public void record(long value) {
+
+        value = Math.max(0, value);
+
+        buckets.incrementAndGet(bucketOf(value));
+        count.increment();
+        sum.add(value);
+
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Devuelve una copia de los valores acumulados hasta el momento
+     * Como no se detienen los registros concurrentes la copia puede no ser exacta, pero si consistente en si misma
+     * @return Resumen del histograma
+     */
+    public HistogramSnapshot snapshot() {
+
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+
+        return new HistogramSnapshot(total, total == 0 ? 0 : (double) sum.sum() / total, max.get(),
+                percentile(counts, total, 0.50), percentile(counts, total, 0.90),
+                percentile(counts, total, 0.99), percentile(counts, total, 0.999));
+    }
+
+    /**
+     * Devuelve la cantidad de valores registrados
+     * @return Cantidad de valores
+     */
+    public long count() {
+        return count.sum();
+    }
+
+    /**
+     * Devuelve la suma de los valores registrados
+     * @return Suma de valores
+     */
+    public long sum() {
+        return sum.sum();
+    }
+
+    /**
+     * Busca el valor del percentil recorriendo las cubetas acumuladas
+     * @param counts Cantidades por cubeta
+     * @param total Cantidad total
+     * @param quantile Percentil entre 0 y 1
+     * @return Limite superior de la cubeta que contiene el percentil
+     */
+    private static long percentile(long[] counts, long total, double quantile) {
+
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(quantile * total);
+        long accumulated = 0;
+
+        for (int i = 0; i < counts.length; i++) {
+            accumulated += counts[i];
+            if (accumulated >= rank) {
+                return upperBoundOf(i);
+            }
+        }
+
+        return upperBoundOf(counts.length - 1);
+    }
+
+    /**
+     * Devuelve la cubeta de un valor
+     * @param value Valor no negativo
+     * @return Indice de cubeta
+     */
+    private static int bucketOf(long value) {
+
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+
+        return LINEAR_LIMIT + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Devuelve el mayor valor que cae en una cubeta
+     * @param bucket Indice de cubeta
+     * @return Limite superior de la cubeta
+     */
+    private static long upperBoundOf(int bucket) {
+
+        if (bucket < LINEAR_LIMIT) {
+            return bucket;
+        }
+
+        int exponent = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+        int subBucket = (bucket - LINEAR_LIMIT) % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+
+        return ((long) (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS)) + width - 1;
+    }
+
+}
@@ -0,0 +1,102 @@
+package metrics;
+
+import entities.alert.AlertDestination;
+import entities.alert.AlertType;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Esta clase representa las metricas del controlador en un momento dado
+ * Las latencias estan en nanosegundos
+ * @author Albano Zupichiatti
+ */
+public class MetricsSnapshot {
+
+    private final Map<Operation, HistogramSnapshot> latencies;
+
+    private final long[][] alertsSent;
+
+    private final HistogramSnapshot fanOut;
+
+    private final HistogramSnapshot inboxDepth;
+
+    private final long expiredAlerts;
+
+    /**
+     * Construye el resumen con todos sus atributos
+     * @param latencies Latencias por operacion
+     * @param alertsSent Alertas enviadas indexadas por tipo y destino
+     * @param fanOut Cantidad de destinatarios por envio
+     * @param inboxDepth Cantidad de alertas devueltas por lectura de usuario
+     * @param expiredAlerts Cantidad de alertas purgadas por vencimiento
+     */
+    MetricsSnapshot(EnumMap<Operation, HistogramSnapshot> latencies, long[][] alertsSent, HistogramSnapshot fanOut,
+                    HistogramSnapshot inboxDepth, long expiredAlerts) {
+        this.latencies = Collections.unmodifiableMap(latencies);
+        this.alertsSent = alertsSent;
+        this.fanOut = fanOut;
+        this.inboxDepth = inboxDepth;
+        this.expiredAlerts = expiredAlerts;
+    }
+
+    public Map<Operation, HistogramSnapshot> getLatencies() {
+        return latencies;
+    }
+
+    public HistogramSnapshot getLatency(Operation operation) {
+        return latencies.get(operation);
+    }
+
+    /**
+     * Devuelve la cantidad de alertas enviadas de un tipo y destino
+     * @param type Tipo de alerta
+     * @param destination Destino de alerta
+     * @return Cantidad de alertas enviadas
+     */
+    public long getAlertsSent(AlertType type, AlertDestination destination) {
+        return alertsSent[type.ordinal()][destination.ordinal()];
+    }
+
+    /**
+     * Devuelve la cantidad de alertas enviadas de un tipo
+     * @param type Tipo de alerta
+     * @return Cantidad de alertas enviadas
+     */
+    public long getAlertsSent(AlertType type) {
+
+        long total = 0;
+        for (long count : alertsSent[type.ordinal()]) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Devuelve la cantidad de alertas enviadas a un destino
+     * @param destination Destino de alerta
+     * @return Cantidad de alertas enviadas
+     */
+    public long getAlertsSent(AlertDestination destination) {
+
+        long total = 0;
+        for (long[] byDestination : alertsSent) {
+            total += byDestination[destination.ordinal()];
+        }
+        return total;
+    }
+
+    public HistogramSnapshot getFanOut() {
+        return fanOut;
+    }
+
+    public HistogramSnapshot getInboxDepth() {
+        return inboxDepth;
+    }
+
+    public long getExpiredAlerts() {
+        return expiredAlerts;
+    }
+
+}
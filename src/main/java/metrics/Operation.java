@@ -0,0 +1,15 @@
+package metrics;
+
+/**
+ * Enumeracion que representa las operaciones del controlador de las que se mide la latencia
+ * Expire alerts no es una operacion publica, mide el trabajo de purgar las alertas vencidas
+ * @author Albano Zupichiatti
+ */
+public enum Operation {
+
+    REGISTER_USER, REGISTER_USERS, REGISTER_TOPIC, SELECT_TOPIC, SELECT_TOPICS, SUBSCRIBE_USERS, UNSELECT_TOPIC,
+    SEND_ALERT_BY_TOPIC, SEND_ALERT_BY_TOPIC_ASYNC, SEND_ALERT_BY_USER, MARK_ALERT_AS_READ, MARK_ALERTS_AS_READ,
+    MARK_ALL_AS_READ, GET_UNEXPIRED_ALERTS_BY_USER, GET_UNEXPIRED_ALERTS_BY_TOPIC, COUNT_ALERT_READERS, COUNT_UNREAD,
+    COUNT_LIVE, SET_TOPIC_RETENTION, GET_TOPIC_RETENTION, SNAPSHOT, EXPIRE_ALERTS
+
+}
@@ -0,0 +1,23 @@
+package metrics;
+
+/**
+ * Interfaz JMX con la latencia de una operacion del controlador, los tiempos estan en microsegundos
+ * @author Albano Zupichiatti
+ */
+public interface OperationMetricsMXBean {
+
+    long getCount();
+
+    double getMeanMicros();
+
+    double getP50Micros();
+
+    double getP90Micros();
+
+    double getP99Micros();
+
+    double getP999Micros();
+
+    double getMaxMicros();
+
+}
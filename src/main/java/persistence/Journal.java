@@ -0,0 +1,563 @@
+package persistence;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * Diario de escritura anticipada (write-ahead log) de solo agregado sobre un FileChannel
+ * Cada cambio de estado se registra antes de aplicarse, al iniciar se reproducen los registros
+ * para reconstruir el estado
+ * Los registros se codifican en un buffer directo y se escriben al archivo en bloque, el fsync lo hace
+ * segun la politica de sincronizacion un hilo periodico o el primer escritor que lo necesite, que cubre
+ * a todos los registros escritos hasta ese momento (commit agrupado)
+ * Los cambios que se registran antes de aplicarse se aplican dentro de append(record, change), asi position()
+ * puede esperar a que terminen de aplicarse los registrados antes de la posicion que devuelve. Los cambios
+ * registrados despues no esperan a position(), por lo que no se impone un orden entre este diario y los locks
+ * de usuarios y temas que toman los cambios
+ * Con SyncPolicy.ALWAYS append vuelve cuando el registro esta en disco, salvo dentro de deferSync y
+ * awaitDeferredSync, donde la espera se hace al terminar la operacion, luego de soltar los locks de usuarios y
+ * temas. Asi un tema muy usado no queda bloqueado durante cada fsync, a cambio de que los lectores puedan ver
+ * el cambio un instante antes de que este en disco, aunque quien lo hizo no recibe respuesta hasta entonces
+ * Formato de cada registro: largo (int), CRC32 del contenido (int), contenido
+ * @author Albano Zupichiatti
+ */
+public class Journal implements RecordLog, AutoCloseable {
+
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final FileChannel channel;
+
+    private final SyncPolicy syncPolicy;
+
+    private final ByteBuffer buffer;
+
+    private final CRC32 crc;
+
+    private final Object writeLock;
+
+    private final Object syncLock;
+
+    private final ConcurrentSkipListSet<Long> applying;
+
+    private final Object appliedLock;
+
+    private int positionWaiters;
+
+    private long appended;
+
+    private volatile long synced;
+
+    private volatile boolean closed;
+
+    private final Thread syncThread;
+
+    private final ThreadLocal<long[]> deferredSync;
+
+    /**
+     * Construye el diario sobre un canal ya posicionado al final de los registros validos
+     * @param channel Canal del archivo
+     * @param syncPolicy Politica de sincronizacion
+     * @param syncIntervalMillis Intervalo de la sincronizacion periodica
+     */
+    private Journal(FileChannel channel, SyncPolicy syncPolicy, long syncIntervalMillis) {
+        this.channel = channel;
+        this.syncPolicy = syncPolicy;
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        this.crc = new CRC32();
+        this.writeLock = new Object();
+        this.syncLock = new Object();
+        this.applying = new ConcurrentSkipListSet<>();
+        this.appliedLock = new Object();
+        this.deferredSync = ThreadLocal.withInitial(() -> new long[2]);
+
+        if (syncPolicy != SyncPolicy.ALWAYS) {
+            this.syncThread = new Thread(() -> syncLoop(syncIntervalMillis), "journal-sync");
+            this.syncThread.setDaemon(true);
+            this.syncThread.start();
+        } else {
+            this.syncThread = null;
+        }
+    }
+
+    /**
+     * Abre el diario, reproduce los registros existentes y lo deja listo para agregar nuevos
+     * Si el ultimo registro quedo incompleto o corrupto por una caida se descarta junto con lo que le sigue
+     * @param path Archivo del diario, se crea si no existe
+     * @param syncPolicy Politica de sincronizacion
+     * @param syncIntervalMillis Intervalo de la sincronizacion periodica, no se usa con SyncPolicy.ALWAYS
+     * @param replayer Recibe cada registro existente en orden
+     * @return Diario abierto
+     * @throws IOException si no se puede leer o escribir el archivo
+     */
+    public static Journal open(Path path, SyncPolicy syncPolicy, long syncIntervalMillis,
+                               Consumer<JournalRecord> replayer) throws IOException {
+        return open(path, syncPolicy, syncIntervalMillis, 0, replayer);
+    }
+
+    /**
+     * Abre el diario, reproduce los registros desde una posicion y lo deja listo para agregar nuevos,
+     * se usa para reproducir solo la cola del diario posterior a una instantanea
+     * @param path Archivo del diario, se crea si no existe
+     * @param syncPolicy Politica de sincronizacion
+     * @param syncIntervalMillis Intervalo de la sincronizacion periodica, no se usa con SyncPolicy.ALWAYS
+     * @param fromPosition Posicion de un registro devuelta por position(), si supera el largo del archivo
+     *                     no se reproduce ningun registro
+     * @param replayer Recibe cada registro existente desde la posicion en orden
+     * @return Diario abierto
+     * @throws IOException si no se puede leer o escribir el archivo
+     */
+    public static Journal open(Path path, SyncPolicy syncPolicy, long syncIntervalMillis, long fromPosition,
+                               Consumer<JournalRecord> replayer) throws IOException {
+
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+
+        try {
+            long validLength = fromPosition <= channel.size()
+                    ? replay(channel, fromPosition, replayer) : channel.size();
+            channel.truncate(validLength);
+            channel.position(validLength);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+
+        return new Journal(channel, syncPolicy, syncIntervalMillis);
+    }
+
+    /**
+     * Agrega un registro de un cambio ya aplicado, con SyncPolicy.ALWAYS vuelve cuando el registro esta en disco
+     * o, dentro de deferSync, cuando termina la operacion
+     * @param record Registro a agregar
+     * @return Numero de secuencia del registro
+     * @throws UncheckedIOException si no se puede escribir el archivo
+     */
+    @Override
+    public long append(JournalRecord record) {
+
+        long sequence = write(record, false);
+
+        if (syncPolicy == SyncPolicy.ALWAYS) {
+            awaitOrDefer(sequence);
+        }
+
+        return sequence;
+    }
+
+    /**
+     * Agrega el registro de un cambio y luego lo aplica, con SyncPolicy.ALWAYS vuelve cuando el registro
+     * esta en disco o, dentro de deferSync, cuando termina la operacion
+     * @param record Registro a agregar
+     * @param change Cambio a aplicar
+     * @param <T> Tipo del resultado del cambio
+     * @return Resultado del cambio
+     * @throws UncheckedIOException si no se puede escribir el archivo, en ese caso el cambio no se aplica
+     */
+    @Override
+    public <T> T append(JournalRecord record, Supplier<T> change) {
+
+        long sequence = write(record, true);
+        T result;
+
+        try {
+            result = change.get();
+        } finally {
+            applied(sequence);
+        }
+
+        if (syncPolicy == SyncPolicy.ALWAYS) {
+            awaitOrDefer(sequence);
+        }
+
+        return result;
+    }
+
+    @Override
+    public void deferSync() {
+        if (syncPolicy == SyncPolicy.ALWAYS) {
+            deferredSync.get()[0]++;
+        }
+    }
+
+    /**
+     * Termina la operacion y espera el fsync de los registros que agrego
+     * @throws UncheckedIOException si no se puede sincronizar el archivo
+     */
+    @Override
+    public void awaitDeferredSync() {
+
+        if (syncPolicy != SyncPolicy.ALWAYS) {
+            return;
+        }
+
+        long[] state = deferredSync.get();
+        if (--state[0] == 0 && state[1] > 0) {
+            long sequence = state[1];
+            state[1] = 0;
+            awaitSynced(sequence);
+        }
+    }
+
+    /**
+     * Espera a que el registro este en disco, o si el hilo esta dentro de deferSync lo deja para el final
+     * de la operacion
+     * @param sequence Numero de secuencia del registro
+     */
+    private void awaitOrDefer(long sequence) {
+
+        long[] state = deferredSync.get();
+        if (state[0] > 0) {
+            state[1] = Math.max(state[1], sequence);
+        } else {
+            awaitSynced(sequence);
+        }
+    }
+
+    /**
+     * Escribe el registro en el buffer, o directo al archivo si no entra
+     * @param record Registro a escribir
+     * @param pending true si el cambio del registro todavia no se aplico, queda pendiente hasta applied
+     * @return Numero de secuencia del registro
+     */
+    private long write(JournalRecord record, boolean pending) {
+
+        long sequence;
+
+        synchronized (writeLock) {
+            ensureOpen();
+            try {
+                if (!tryEncode(record)) {
+                    flushBuffer();
+                    if (!tryEncode(record)) {
+                        writeLarge(record);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            sequence = ++appended;
+            if (pending) {
+                applying.add(sequence);
+            }
+        }
+
+        return sequence;
+    }
+
+    /**
+     * Marca como aplicado el cambio de un registro y despierta a position() si lo estaba esperando
+     * @param sequence Numero de secuencia del registro
+     */
+    private void applied(long sequence) {
+
+        applying.remove(sequence);
+
+        synchronized (appliedLock) {
+            if (positionWaiters > 0) {
+                appliedLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Escribe al archivo los registros pendientes y los fuerza a disco
+     * @throws UncheckedIOException si no se puede escribir el archivo
+     */
+    public void sync() {
+
+        synchronized (syncLock) {
+
+            long target;
+
+            synchronized (writeLock) {
+                ensureOpen();
+                target = appended;
+                try {
+                    flushBuffer();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            try {
+                channel.force(false);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            synced = target;
+        }
+    }
+
+    /**
+     * Devuelve la posicion donde se agregara el proximo registro, espera a que se terminen de aplicar
+     * los cambios ya registrados, por lo que todo cambio registrado antes de esta posicion ya esta aplicado
+     * Los cambios que se registran mientras tanto no esperan, quedan despues de la posicion
+     * @return Posicion en bytes desde el inicio del archivo
+     */
+    public long position() {
+
+        long position;
+        long target;
+
+        synchronized (writeLock) {
+            ensureOpen();
+            try {
+                position = channel.position() + buffer.position();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            target = appended;
+        }
+
+        synchronized (appliedLock) {
+            positionWaiters++;
+            try {
+                while (applying.floor(target) != null) {
+                    appliedLock.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for journaled changes", e);
+            } finally {
+                positionWaiters--;
+            }
+        }
+
+        return position;
+    }
+
+    /**
+     * Devuelve la cantidad de registros agregados desde que se abrio el diario
+     * @return Cantidad de registros
+     */
+    public long countAppended() {
+        synchronized (writeLock) {
+            return appended;
+        }
+    }
+
+    /**
+     * Fuerza a disco los registros pendientes y cierra el archivo
+     */
+    @Override
+    public void close() {
+
+        synchronized (syncLock) {
+            synchronized (writeLock) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                try {
+                    flushBuffer();
+                    channel.force(false);
+                    channel.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        if (syncThread != null) {
+            syncThread.interrupt();
+        }
+    }
+
+    /**
+     * Espera a que el registro este en disco, si nadie lo esta forzando lo fuerza este hilo junto con
+     * todos los registros agregados hasta el momento
+     * @param sequence Numero de secuencia del registro
+     */
+    private void awaitSynced(long sequence) {
+
+        if (synced >= sequence) {
+            return;
+        }
+
+        synchronized (syncLock) {
+            if (synced < sequence) {
+                sync();
+            }
+        }
+    }
+
+    /**
+     * Ciclo del hilo de sincronizacion periodica
+     * @param syncIntervalMillis Intervalo entre sincronizaciones
+     */
+    private void syncLoop(long syncIntervalMillis) {
+
+        while (!closed) {
+            try {
+                Thread.sleep(syncIntervalMillis);
+                if (syncPolicy == SyncPolicy.INTERVAL) {
+                    sync();
+                } else {
+                    synchronized (writeLock) {
+                        if (!closed) {
+                            flushBuffer();
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException | RuntimeException e) {
+                // Se reintenta en el proximo intervalo, el error tambien lo ven los escritores
+                if (closed) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Codifica el registro con su encabezado al final del buffer
+     * @param record Registro a codificar
+     * @return false si no entra en el espacio libre del buffer, en ese caso el buffer queda como estaba
+     */
+    private boolean tryEncode(JournalRecord record) {
+
+        int start = buffer.position();
+
+        try {
+            buffer.position(start + HEADER_SIZE);
+            record.writeTo(buffer);
+        } catch (BufferOverflowException | IllegalArgumentException e) {
+            buffer.position(start);
+            return false;
+        }
+
+        int end = buffer.position();
+        crc.reset();
+        crc.update(buffer.duplicate().position(start + HEADER_SIZE).limit(end));
+
+        buffer.putInt(start, end - start - HEADER_SIZE);
+        buffer.putInt(start + Integer.BYTES, (int) crc.getValue());
+
+        return true;
+    }
+
+    /**
+     * Escribe directamente al archivo un registro que no entra en el buffer
+     * @param record Registro a escribir
+     * @throws IOException si no se puede escribir el archivo
+     */
+    private void writeLarge(JournalRecord record) throws IOException {
+
+        ByteBuffer payload = ByteBuffer.allocate(record.encodedSize());
+        record.writeTo(payload);
+        payload.flip();
+
+        crc.reset();
+        crc.update(payload.duplicate());
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(payload.remaining()).putInt((int) crc.getValue()).flip();
+
+        writeFully(header);
+        writeFully(payload);
+    }
+
+    /**
+     * Escribe al archivo el contenido del buffer y lo vacia
+     * @throws IOException si no se puede escribir el archivo
+     */
+    private void flushBuffer() throws IOException {
+
+        buffer.flip();
+        try {
+            writeFully(buffer);
+        } finally {
+            buffer.compact();
+        }
+    }
+
+    private void writeFully(ByteBuffer source) throws IOException {
+        while (source.hasRemaining()) {
+            channel.write(source);
+        }
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("Journal is closed");
+        }
+    }
+
+    /**
+     * Lee los registros del canal desde una posicion hasta el primero incompleto o corrupto
+     * @param channel Canal del archivo
+     * @param fromPosition Posicion del primer registro a leer
+     * @param replayer Recibe cada registro valido en orden
+     * @return Posicion del final del ultimo registro valido
+     * @throws IOException si no se puede leer el archivo
+     */
+    private static long replay(FileChannel channel, long fromPosition, Consumer<JournalRecord> replayer)
+            throws IOException {
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        CRC32 crc = new CRC32();
+        long position = fromPosition;
+        long size = channel.size();
+
+        while (position + HEADER_SIZE <= size) {
+
+            header.clear();
+            readFully(channel, header, position);
+            header.flip();
+
+            int length = header.getInt();
+            int checksum = header.getInt();
+
+            if (length <= 0 || position + HEADER_SIZE + length > size) {
+                break;
+            }
+
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(channel, payload, position + HEADER_SIZE);
+            payload.flip();
+
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+
+            JournalRecord record;
+            try {
+                record = JournalRecord.readFrom(payload);
+            } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+                record = null;
+            }
+            if (record == null) {
+                break;
+            }
+
+            replayer.accept(record);
+            position += HEADER_SIZE + length;
+        }
+
+        return position;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer target, long position) throws IOException {
+        while (target.hasRemaining()) {
+            if (channel.read(target, position + target.position()) < 0) {
+                throw new IOException("Unexpected end of journal");
+            }
+        }
+    }
+
+}
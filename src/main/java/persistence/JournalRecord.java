@@ -0,0 +1,383 @@
+package persistence;
+
+import entities.RetentionPolicy;
+import entities.alert.Alert;
+import entities.alert.AlertDestination;
+import entities.alert.AlertType;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Esta clase representa un registro del diario, un cambio de estado ya aceptado por el sistema
+ * Cada tipo de registro usa solo algunos de los atributos, el resto queda en null o 0
+ * Los registros guardan los datos resueltos al momento de aplicarse (id de alerta, cursor de la suscripcion)
+ * para que al reproducirlos se obtenga el mismo estado sin depender del orden entre hilos
+ * @author Albano Zupichiatti
+ */
+public class JournalRecord {
+
+    private final RecordType type;
+
+    private final String userName;
+
+    private final String topicName;
+
+    private final int alertId;
+
+    private final int[] alertIds;
+
+    private final AlertType alertType;
+
+    private final AlertDestination destination;
+
+    private final String message;
+
+    private final long expirationMillis;
+
+    private JournalRecord(RecordType type, String userName, String topicName, int alertId, int[] alertIds,
+                          AlertType alertType, AlertDestination destination, String message,
+                          long expirationMillis) {
+        this.type = type;
+        this.userName = userName;
+        this.topicName = topicName;
+        this.alertId = alertId;
+        this.alertIds = alertIds;
+        this.alertType = alertType;
+        this.destination = destination;
+        this.message = message;
+        this.expirationMillis = expirationMillis;
+    }
+
+    /**
+     * Crea el registro de un usuario registrado
+     * @param userName Nombre de usuario
+     * @return Registro
+     */
+    public static JournalRecord registerUser(String userName) {
+        return new JournalRecord(RecordType.REGISTER_USER, userName, null, 0, null,
+                null, null, null, Alert.NEVER_EXPIRES);
+    }
+
+    /**
+     * Crea el registro de un tema registrado
+     * @param topicName Nombre de tema
+     * @return Registro
+     */
+    public static JournalRecord registerTopic(String topicName) {
+        return new JournalRecord(RecordType.REGISTER_TOPIC, null, topicName, 0, null,
+                null, null, null, Alert.NEVER_EXPIRES);
+    }
+
+    /**
+     * Crea el registro de una suscripcion
+     * @param userName Nombre de usuario
+     * @param topicName Nombre de tema
+     * @param fromAlertId Id de la ultima alerta del tema al suscribirse
+     * @return Registro
+     */
+    public static JournalRecord selectTopic(String userName, String topicName, int fromAlertId) {
+        return new JournalRecord(RecordType.SELECT_TOPIC, userName, topicName, fromAlertId, null, null, null, null,
+                Alert.NEVER_EXPIRES);
+    }
+
+    /**
+     * Crea el registro de una desuscripcion
+     * @param userName Nombre de usuario
+     * @param topicName Nombre de tema
+     * @return Registro
+     */
+    public static JournalRecord unselectTopic(String userName, String topicName) {
+        return new JournalRecord(RecordType.UNSELECT_TOPIC, userName, topicName, 0, null,
+                null, null, null, Alert.NEVER_EXPIRES);
+    }
+
+    /**
+     * Crea el registro de una suscripcion por patron, el patron se guarda en el campo del nombre de tema
+     * y las suscripciones a los temas que coinciden se registran aparte
+     * @param userName Nombre de usuario
+     * @param pattern Patron de temas
+     * @return Registro
+     */
+    public static JournalRecord selectPattern(String userName, String pattern) {
+        return new JournalRecord(RecordType.SELECT_PATTERN, userName, pattern, 0, null,
+                null, null, null, Alert.NEVER_EXPIRES);
+    }
+
+    /**
+     * Crea el registro de una desuscripcion por patron
+     * @param userName Nombre de usuario
+     * @param pattern Patron de temas
+     * @return Registro
+     */
+    public static JournalRecord unselectPattern(String userName, String pattern) {
+        return new JournalRecord(RecordType.UNSELECT_PATTERN, userName, pattern, 0, null,
+                null, null, null, Alert.NEVER_EXPIRES);
+    }
+
+    /**
+     * Crea el registro de una alerta enviada
+     * @param alertId Id asignado a la alerta
+     * @param alertType Tipo de alerta
+     * @param destination Destino de alerta
+     * @param topicName Nombre de tema
+     * @param userName Nombre de usuario destino (null si es general)
+     * @param message Mensaje
+     * @param expirationMillis Expiracion en milisegundos desde epoch, Alert.NEVER_EXPIRES si no vence
+     * @return Registro
+     */
+    public static JournalRecord sendAlert(int alertId, AlertType alertType, AlertDestination destination,
+                                          String topicName, String userName, String message,
+                                          long expirationMillis) {
+        return new JournalRecord(RecordType.SEND_ALERT, userName, topicName, alertId, null, alertType, destination,
+                message, expirationMillis);
+    }
+
+    /**
+     * Crea el registro de alertas marcadas como leidas por un usuario
+     * @param userName Nombre de usuario
+     * @param alertIds Ids de las alertas marcadas
+     * @return Registro
+     */
+    public static JournalRecord markAsRead(String userName, int... alertIds) {
+        return new JournalRecord(RecordType.MARK_AS_READ, userName, null, 0, alertIds,
+                null, null, null, Alert.NEVER_EXPIRES);
+    }
+
+    /**
+     * Crea el registro de un cambio de retencion de un tema, los limites se guardan en los campos
+     * de id y expiracion para no agregar campos que los demas registros no usan
+     * @param topicName Nombre de tema
+     * @param retention Politica de retencion
+     * @return Registro
+     */
+    public static JournalRecord setRetention(String topicName, RetentionPolicy retention) {
+        return new JournalRecord(RecordType.SET_RETENTION, null, topicName, retention.getMaxCount(), null,
+                null, null, null, retention.getMaxAgeMillis());
+    }
+
+    /**
+     * Crea el registro de un envio repetido agrupado en una alerta general, se guarda la cantidad de
+     * ocurrencias resultante en el campo de expiracion asi reproducirlo dos veces no la cambia
+     * @param topicName Nombre de tema
+     * @param alertId Id de la alerta existente
+     * @param occurrences Cantidad de ocurrencias luego del envio repetido
+     * @return Registro
+     */
+    public static JournalRecord coalesceAlert(String topicName, int alertId, int occurrences) {
+        return new JournalRecord(RecordType.COALESCE_ALERT, null, topicName, alertId, null,
+                null, null, null, occurrences);
+    }
+
+    public RecordType getType() {
+        return type;
+    }
+
+    public String getUserName() {
+        return userName;
+    }
+
+    public String getTopicName() {
+        return topicName;
+    }
+
+    /**
+     * Devuelve el id de la alerta enviada, o el cursor en las suscripciones
+     * @return Id de alerta
+     */
+    public int getAlertId() {
+        return alertId;
+    }
+
+    public int[] getAlertIds() {
+        return alertIds;
+    }
+
+    public AlertType getAlertType() {
+        return alertType;
+    }
+
+    public AlertDestination getDestination() {
+        return destination;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public long getExpirationMillis() {
+        return expirationMillis;
+    }
+
+    /**
+     * Devuelve la politica de retencion de un registro SET_RETENTION
+     * @return Politica de retencion
+     */
+    public RetentionPolicy getRetention() {
+        return RetentionPolicy.fromMillis(alertId, expirationMillis);
+    }
+
+    /**
+     * Devuelve la cantidad de ocurrencias de un registro COALESCE_ALERT
+     * @return Cantidad de ocurrencias
+     */
+    public int getOccurrences() {
+        return (int) expirationMillis;
+    }
+
+    /**
+     * Devuelve la cantidad de bytes que ocupa el registro codificado
+     * @return Tamaño del registro en bytes
+     */
+    int encodedSize() {
+
+        int size = 1 + sizeOf(userName) + sizeOf(topicName);
+
+        switch (type) {
+            case SELECT_TOPIC:
+                return size + Integer.BYTES;
+            case SEND_ALERT:
+                return size + Integer.BYTES + 2 + sizeOf(message) + Long.BYTES;
+            case SET_RETENTION:
+            case COALESCE_ALERT:
+                return size + Integer.BYTES + Long.BYTES;
+            case MARK_AS_READ:
+                return size + Integer.BYTES + alertIds.length * Integer.BYTES;
+            default:
+                return size;
+        }
+    }
+
+    /**
+     * Escribe el registro codificado en el buffer, que debe tener al menos encodedSize() bytes libres
+     * @param buffer Buffer destino
+     */
+    void writeTo(ByteBuffer buffer) {
+
+        buffer.put(type.getCode());
+        putString(buffer, userName);
+        putString(buffer, topicName);
+
+        switch (type) {
+            case SELECT_TOPIC:
+                buffer.putInt(alertId);
+                break;
+            case SEND_ALERT:
+                buffer.putInt(alertId);
+                buffer.put((byte) alertType.ordinal());
+                buffer.put((byte) destination.ordinal());
+                putString(buffer, message);
+                buffer.putLong(expirationMillis);
+                break;
+            case SET_RETENTION:
+            case COALESCE_ALERT:
+                buffer.putInt(alertId);
+                buffer.putLong(expirationMillis);
+                break;
+            case MARK_AS_READ:
+                buffer.putInt(alertIds.length);
+                for (int id : alertIds) {
+                    buffer.putInt(id);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Lee un registro codificado con writeTo
+     * @param buffer Buffer con el registro
+     * @return Registro leido o null si el tipo no existe
+     */
+    static JournalRecord readFrom(ByteBuffer buffer) {
+
+        RecordType type = RecordType.fromCode(buffer.get());
+
+        if (type == null) {
+            return null;
+        }
+
+        String userName = getString(buffer);
+        String topicName = getString(buffer);
+
+        switch (type) {
+            case REGISTER_USER:
+                return registerUser(userName);
+            case REGISTER_TOPIC:
+                return registerTopic(topicName);
+            case SELECT_TOPIC:
+                return selectTopic(userName, topicName, buffer.getInt());
+            case UNSELECT_TOPIC:
+                return unselectTopic(userName, topicName);
+            case SELECT_PATTERN:
+                return selectPattern(userName, topicName);
+            case UNSELECT_PATTERN:
+                return unselectPattern(userName, topicName);
+            case SEND_ALERT:
+                int alertId = buffer.getInt();
+                AlertType alertType = AlertType.values()[buffer.get()];
+                AlertDestination destination = AlertDestination.values()[buffer.get()];
+                String message = getString(buffer);
+                return sendAlert(alertId, alertType, destination, topicName, userName, message, buffer.getLong());
+            case MARK_AS_READ:
+                int[] alertIds = new int[buffer.getInt()];
+                for (int i = 0; i < alertIds.length; i++) {
+                    alertIds[i] = buffer.getInt();
+                }
+                return markAsRead(userName, alertIds);
+            case SET_RETENTION:
+                int maxCount = buffer.getInt();
+                return setRetention(topicName, RetentionPolicy.fromMillis(maxCount, buffer.getLong()));
+            case COALESCE_ALERT:
+                int coalescedId = buffer.getInt();
+                return coalesceAlert(topicName, coalescedId, (int) buffer.getLong());
+            default:
+                return null;
+        }
+    }
+
+    private static int sizeOf(String value) {
+        return Integer.BYTES + (value == null ? 0 : value.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+
+        if (value == null) {
+            buffer.putInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+
+        int length = buffer.getInt();
+
+        if (length < 0) {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return "JournalRecord{" +
+                "type=" + type +
+                ", userName='" + userName + '\'' +
+                ", topicName='" + topicName + '\'' +
+                ", alertId=" + alertId +
+                ", alertIds=" + Arrays.toString(alertIds) +
+                ", alertType=" + alertType +
+                ", destination=" + destination +
+                ", message='" + message + '\'' +
+                ", expirationMillis=" + expirationMillis +
+                '}';
+    }
+}
@@ -0,0 +1,43 @@
+package persistence;
+
+import java.util.function.Supplier;
+
+/**
+ * Registro ordenado de los cambios de estado, los servicios agregan cada cambio antes de aplicarlo
+ * Lo implementan el diario en disco y el lider de replicacion, que envia los registros a sus seguidores
+ * @author Albano Zupichiatti
+ */
+public interface RecordLog {
+
+    /**
+     * Agrega el registro de un cambio ya aplicado
+     * @param record Registro a agregar
+     * @return Numero de secuencia del registro
+     */
+    long append(JournalRecord record);
+
+    /**
+     * Agrega el registro de un cambio y luego lo aplica
+     * @param record Registro a agregar
+     * @param change Cambio a aplicar
+     * @param <T> Tipo del resultado del cambio
+     * @return Resultado del cambio
+     */
+    <T> T append(JournalRecord record, Supplier<T> change);
+
+    /**
+     * Empieza una operacion del hilo actual, hasta awaitDeferredSync la espera de que sus registros esten
+     * en disco se difiere, asi no se espera el fsync con el lock de un usuario o tema tomado
+     * Las operaciones se pueden anidar, solo espera la mas externa
+     */
+    default void deferSync() {
+    }
+
+    /**
+     * Termina la operacion empezada con deferSync y, si es la mas externa, espera a que sus registros
+     * esten en disco cuando la politica de sincronizacion lo requiere
+     */
+    default void awaitDeferredSync() {
+    }
+
+}
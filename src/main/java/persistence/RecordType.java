@@ -0,0 +1,39 @@
+package persistence;
+
+/**
+ * Enumeracion que representa los tipos de registro del diario, el codigo se guarda en el archivo
+ * por lo que no se debe cambiar el de un tipo existente
+ * @author Albano Zupichiatti
+ */
+public enum RecordType {
+
+    REGISTER_USER(1), REGISTER_TOPIC(2), SELECT_TOPIC(3), UNSELECT_TOPIC(4), SEND_ALERT(5), MARK_AS_READ(6),
+    SET_RETENTION(7), SELECT_PATTERN(8), UNSELECT_PATTERN(9), COALESCE_ALERT(10);
+
+    private final byte code;
+
+    RecordType(int code) {
+        this.code = (byte) code;
+    }
+
+    public byte getCode() {
+        return code;
+    }
+
+    /**
+     * Busca el tipo de registro por su codigo
+     * @param code Codigo guardado en el archivo
+     * @return Tipo de registro o null si el codigo no existe
+     */
+    public static RecordType fromCode(byte code) {
+
+        for (RecordType type : values()) {
+            if (type.code == code) {
+                return type;
+            }
+        }
+
+        return null;
+    }
+
+}
@@ -0,0 +1,241 @@
+package persistence;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Seguidor de replicacion: lee del canal la instantanea que envia el lider al conectarse, la carga y luego
+ * aplica cada registro recibido en orden desde un hilo propio
+ * Los registros se leen en bloque, cada lectura del canal puede traer varios, y se aplican con el mismo
+ * reproductor que el diario, por lo que el seguidor atiende las lecturas con su propio estado
+ * El canal es cualquier ReadableByteChannel, por ejemplo un SocketChannel TCP o de dominio UNIX
+ * @author Albano Zupichiatti
+ */
+public class ReplicationFollower implements AutoCloseable {
+
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+
+    private final ReadableByteChannel channel;
+
+    private final StateLoader stateLoader;
+
+    private final Consumer<JournalRecord> replayer;
+
+    private final Thread receiverThread;
+
+    private final Object progressLock;
+
+    private volatile long sequence;
+
+    private volatile boolean connected;
+
+    private volatile boolean closed;
+
+    /**
+     * Carga una instantanea desde un archivo
+     */
+    @FunctionalInterface
+    public interface StateLoader {
+
+        /**
+         * Carga la instantanea
+         * @param path Archivo de la instantanea
+         * @throws IOException si no se puede leer el archivo
+         */
+        void load(Path path) throws IOException;
+    }
+
+    /**
+     * Construye el seguidor y empieza a recibir del lider
+     * @param channel Canal desde el lider en modo bloqueante, se cierra al cerrar el seguidor
+     * @param stateLoader Carga la instantanea recibida al conectarse
+     * @param replayer Aplica cada registro recibido
+     */
+    public ReplicationFollower(ReadableByteChannel channel, StateLoader stateLoader,
+                               Consumer<JournalRecord> replayer) {
+        this.channel = channel;
+        this.stateLoader = stateLoader;
+        this.replayer = replayer;
+        this.progressLock = new Object();
+        this.receiverThread = new Thread(this::receiveLoop, "replication-follower");
+        this.receiverThread.setDaemon(true);
+        this.receiverThread.start();
+    }
+
+    /**
+     * Devuelve el numero de secuencia del ultimo registro aplicado, comparable con ReplicationLeader.getSequence
+     * @return Numero de secuencia, 0 si todavia no se cargo la instantanea
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Devuelve true mientras el seguidor reciba del lider
+     * @return true si esta conectado
+     */
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * Espera a que se aplique un registro del lider
+     * @param target Numero de secuencia del registro en el lider
+     * @param timeout Tiempo maximo de espera
+     * @param unit Unidad del tiempo de espera
+     * @return true si se aplico, false si se agoto el tiempo o se perdio la conexion
+     * @throws InterruptedException si el hilo se interrumpe mientras espera
+     */
+    public boolean awaitSequence(long target, long timeout, TimeUnit unit) throws InterruptedException {
+
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+        synchronized (progressLock) {
+            while (sequence < target) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || closed) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(progressLock, remaining);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Deja de recibir y cierra el canal
+     */
+    @Override
+    public void close() {
+
+        closed = true;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // El canal ya no se usa
+        }
+        receiverThread.interrupt();
+        advance(sequence);
+    }
+
+    private void receiveLoop() {
+
+        try {
+            ByteBuffer header = ByteBuffer.allocate(2 * Long.BYTES);
+            readFully(header);
+            header.flip();
+            long snapshotLength = header.getLong();
+            long base = header.getLong();
+
+            Path path = Files.createTempFile("replication", ".snapshot");
+            try {
+                ByteBuffer snapshot = ByteBuffer.allocate(Math.toIntExact(snapshotLength));
+                readFully(snapshot);
+                Files.write(path, snapshot.array());
+                stateLoader.load(path);
+            } finally {
+                Files.deleteIfExists(path);
+            }
+
+            connected = true;
+            advance(base);
+            receiveRecords(base);
+        } catch (IOException | RuntimeException e) {
+            // El lider cerro la conexion o envio un registro corrupto, el seguidor conserva lo aplicado
+        } finally {
+            connected = false;
+            advance(sequence);
+        }
+    }
+
+    /**
+     * Lee bloques del canal y aplica los registros completos de cada bloque,
+     * lo que queda de un registro incompleto se conserva para la proxima lectura
+     */
+    private void receiveRecords(long base) throws IOException {
+
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        CRC32 crc = new CRC32();
+        long applied = base;
+
+        while (!closed) {
+
+            if (channel.read(buffer) < 0) {
+                return;
+            }
+            buffer.flip();
+
+            while (buffer.remaining() >= HEADER_SIZE) {
+
+                int start = buffer.position();
+                int length = buffer.getInt(start);
+                int checksum = buffer.getInt(start + Integer.BYTES);
+
+                if (length <= 0) {
+                    throw new IOException("Invalid replication record");
+                }
+                if (buffer.remaining() < HEADER_SIZE + length) {
+                    break;
+                }
+
+                ByteBuffer payload = buffer.duplicate();
+                payload.position(start + HEADER_SIZE).limit(start + HEADER_SIZE + length);
+
+                crc.reset();
+                crc.update(payload.duplicate());
+                if ((int) crc.getValue() != checksum) {
+                    throw new IOException("Replication record checksum mismatch");
+                }
+
+                JournalRecord record;
+                try {
+                    record = JournalRecord.readFrom(payload);
+                } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+                    record = null;
+                }
+                if (record == null) {
+                    throw new IOException("Invalid replication record");
+                }
+
+                replayer.accept(record);
+                buffer.position(start + HEADER_SIZE + length);
+                applied++;
+            }
+
+            advance(applied);
+
+            if (buffer.position() == 0 && buffer.limit() == buffer.capacity()) {
+                // Un registro mas grande que el buffer, se agranda para poder leerlo completo
+                ByteBuffer grown = ByteBuffer.allocate(buffer.capacity() * 2);
+                grown.put(buffer);
+                buffer = grown;
+            } else {
+                buffer.compact();
+            }
+        }
+    }
+
+    private void advance(long applied) {
+        synchronized (progressLock) {
+            sequence = applied;
+            progressLock.notifyAll();
+        }
+    }
+
+    private void readFully(ByteBuffer target) throws IOException {
+        while (target.hasRemaining()) {
+            if (channel.read(target) < 0) {
+                throw new EOFException("Leader closed the replication channel");
+            }
+        }
+    }
+
+}
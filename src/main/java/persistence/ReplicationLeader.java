@@ -0,0 +1,415 @@
+package persistence;
+
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NetworkChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * Lider de replicacion: envia a sus seguidores cada registro de cambio en el mismo orden en que se agrega,
+ * con el mismo formato que el diario (largo, CRC32 y contenido), y si hay diario tambien lo agrega a el
+ * Cada seguidor tiene su buffer pendiente y un hilo que lo envia en bloque, asi los registros que llegan
+ * mientras se envia un bloque salen todos juntos en el siguiente
+ * Al conectarse un seguidor recibe una instantanea del estado y luego los registros agregados desde que se
+ * conecto, igual que al recuperar una instantanea con la cola del diario la captura no detiene al sistema y
+ * los registros ya incluidos en ella no tienen efecto al aplicarse
+ * El canal es cualquier WritableByteChannel, por ejemplo un SocketChannel TCP o de dominio UNIX
+ * @author Albano Zupichiatti
+ */
+public class ReplicationLeader implements RecordLog, AutoCloseable {
+
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+
+    private static final int MAX_PENDING_BYTES = 64 << 20;
+
+    private final RecordLog journal;
+
+    private final StateWriter stateWriter;
+
+    private final List<FollowerLink> followers;
+
+    private final ConcurrentSkipListSet<Long> inFlight;
+
+    private final Object shipLock;
+
+    private final CRC32 crc;
+
+    private ByteBuffer frame;
+
+    private volatile long sequence;
+
+    private volatile boolean closed;
+
+    private ServerSocketChannel server;
+
+    private Thread acceptorThread;
+
+    /**
+     * Escribe una instantanea del estado actual en un archivo
+     */
+    @FunctionalInterface
+    public interface StateWriter {
+
+        /**
+         * Escribe la instantanea
+         * @param path Archivo destino
+         * @throws IOException si no se puede escribir el archivo
+         */
+        void write(Path path) throws IOException;
+    }
+
+    /**
+     * Construye el lider sin seguidores
+     * @param journal Diario donde tambien se agregan los registros, null si no hay diario
+     * @param stateWriter Escribe la instantanea que reciben los seguidores al conectarse
+     */
+    public ReplicationLeader(RecordLog journal, StateWriter stateWriter) {
+        this.journal = journal;
+        this.stateWriter = stateWriter;
+        this.followers = new CopyOnWriteArrayList<>();
+        this.inFlight = new ConcurrentSkipListSet<>();
+        this.shipLock = new Object();
+        this.crc = new CRC32();
+        this.frame = ByteBuffer.allocate(1024);
+    }
+
+    /**
+     * Acepta seguidores en un canal de servidor ya enlazado desde un hilo propio
+     * @param server Canal de servidor en modo bloqueante, se cierra al cerrar el lider
+     */
+    public synchronized void listen(ServerSocketChannel server) {
+
+        this.server = server;
+        this.acceptorThread = new Thread(() -> acceptLoop(server), "replication-acceptor");
+        this.acceptorThread.setDaemon(true);
+        this.acceptorThread.start();
+    }
+
+    /**
+     * Agrega un seguidor, le envia la instantanea y luego los registros agregados desde este momento
+     * @param channel Canal hacia el seguidor, se cierra si el seguidor se atrasa o falla el envio
+     * @throws IOException si no se puede escribir la instantanea
+     */
+    public void addFollower(WritableByteChannel channel) throws IOException {
+
+        FollowerLink link = new FollowerLink(channel);
+        long base;
+
+        synchronized (shipLock) {
+            base = sequence;
+            followers.add(link);
+        }
+
+        // Los cambios de los registros anteriores al seguidor deben estar aplicados antes de la captura,
+        // se espera sin tomar ningun lock para no bloquear a los que tienen tomado el de un usuario o tema
+        while (!inFlight.isEmpty() && inFlight.first() <= base) {
+            LockSupport.parkNanos(10_000);
+        }
+
+        Path path = Files.createTempFile("replication", ".snapshot");
+        try {
+            stateWriter.write(path);
+            link.start(Files.readAllBytes(path), base);
+        } catch (IOException | RuntimeException e) {
+            followers.remove(link);
+            link.close();
+            throw e;
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    /**
+     * Agrega el registro de un cambio ya aplicado y lo envia a los seguidores
+     * @param record Registro a agregar
+     * @return Numero de secuencia del registro en la replicacion
+     */
+    @Override
+    public long append(JournalRecord record) {
+
+        if (journal != null) {
+            journal.append(record);
+        }
+
+        long shipped = ship(record);
+        inFlight.remove(shipped);
+        return shipped;
+    }
+
+    /**
+     * Agrega el registro de un cambio, lo envia a los seguidores y luego aplica el cambio
+     * @param record Registro a agregar
+     * @param change Cambio a aplicar
+     * @param <T> Tipo del resultado del cambio
+     * @return Resultado del cambio
+     */
+    @Override
+    public <T> T append(JournalRecord record, Supplier<T> change) {
+
+        if (journal != null) {
+            return journal.append(record, () -> shipAndApply(record, change));
+        }
+
+        return shipAndApply(record, change);
+    }
+
+    @Override
+    public void deferSync() {
+        if (journal != null) {
+            journal.deferSync();
+        }
+    }
+
+    @Override
+    public void awaitDeferredSync() {
+        if (journal != null) {
+            journal.awaitDeferredSync();
+        }
+    }
+
+    /**
+     * Devuelve el numero de secuencia del ultimo registro enviado
+     * @return Numero de secuencia
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Devuelve la cantidad de seguidores conectados
+     * @return Cantidad de seguidores
+     */
+    public int countFollowers() {
+        return followers.size();
+    }
+
+    /**
+     * Deja de aceptar seguidores y cierra los canales hacia ellos, el diario lo cierra su duenio
+     */
+    @Override
+    public void close() {
+
+        closed = true;
+
+        synchronized (this) {
+            if (server != null) {
+                try {
+                    server.close();
+                } catch (IOException e) {
+                    // El canal ya no se usa
+                }
+                acceptorThread.interrupt();
+            }
+        }
+
+        for (FollowerLink link : followers) {
+            link.close();
+        }
+        followers.clear();
+    }
+
+    private <T> T shipAndApply(JournalRecord record, Supplier<T> change) {
+
+        long shipped = ship(record);
+        try {
+            return change.get();
+        } finally {
+            inFlight.remove(shipped);
+        }
+    }
+
+    /**
+     * Codifica el registro y lo agrega al buffer pendiente de cada seguidor, con el lock tomado asi todos
+     * los seguidores reciben los registros en el mismo orden
+     * @param record Registro a enviar
+     * @return Numero de secuencia del registro
+     */
+    private long ship(JournalRecord record) {
+
+        synchronized (shipLock) {
+
+            long shipped = ++sequence;
+            inFlight.add(shipped);
+
+            if (!followers.isEmpty()) {
+                encode(record);
+                for (FollowerLink link : followers) {
+                    if (!link.enqueue(frame)) {
+                        followers.remove(link);
+                    }
+                }
+            }
+
+            return shipped;
+        }
+    }
+
+    private void encode(JournalRecord record) {
+
+        int size = HEADER_SIZE + record.encodedSize();
+        if (frame.capacity() < size) {
+            frame = ByteBuffer.allocate(Math.max(size, frame.capacity() * 2));
+        }
+
+        frame.clear();
+        frame.position(HEADER_SIZE);
+        record.writeTo(frame);
+        frame.flip();
+
+        crc.reset();
+        crc.update(frame.duplicate().position(HEADER_SIZE));
+        frame.putInt(0, frame.limit() - HEADER_SIZE);
+        frame.putInt(Integer.BYTES, (int) crc.getValue());
+    }
+
+    private void acceptLoop(ServerSocketChannel server) {
+
+        while (!closed) {
+            try {
+                SocketChannel channel = server.accept();
+                setNoDelay(channel);
+                addFollower(channel);
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException | RuntimeException e) {
+                // Se descarta el seguidor que fallo y se sigue aceptando
+                if (closed) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private static void setNoDelay(NetworkChannel channel) throws IOException {
+        if (channel.supportedOptions().contains(StandardSocketOptions.TCP_NODELAY)) {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        }
+    }
+
+    /**
+     * Conexion con un seguidor, los registros se acumulan en un buffer pendiente que un hilo propio
+     * intercambia por uno vacio y envia en bloque
+     */
+    private static class FollowerLink implements Runnable {
+
+        private final WritableByteChannel channel;
+
+        private ByteBuffer pending;
+
+        private ByteBuffer sending;
+
+        private byte[] snapshot;
+
+        private long base;
+
+        private boolean closed;
+
+        private FollowerLink(WritableByteChannel channel) {
+            this.channel = channel;
+            this.pending = ByteBuffer.allocate(64 * 1024);
+            this.sending = ByteBuffer.allocate(64 * 1024);
+        }
+
+        /**
+         * Agrega un registro codificado al buffer pendiente
+         * @return false si el seguidor esta cerrado o se atraso mas que el maximo pendiente
+         */
+        private synchronized boolean enqueue(ByteBuffer frame) {
+
+            if (closed) {
+                return false;
+            }
+
+            if (pending.remaining() < frame.remaining()) {
+                int needed = pending.position() + frame.remaining();
+                if (needed > MAX_PENDING_BYTES) {
+                    close();
+                    return false;
+                }
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(needed, pending.capacity() * 2));
+                pending.flip();
+                grown.put(pending);
+                pending = grown;
+            }
+
+            pending.put(frame.duplicate());
+            notifyAll();
+            return true;
+        }
+
+        /**
+         * Inicia el envio, primero la instantanea con la secuencia desde la que siguen los registros
+         */
+        private void start(byte[] snapshot, long base) {
+
+            this.snapshot = snapshot;
+            this.base = base;
+
+            Thread sender = new Thread(this, "replication-sender");
+            sender.setDaemon(true);
+            sender.start();
+        }
+
+        @Override
+        public void run() {
+
+            try {
+                ByteBuffer header = ByteBuffer.allocate(2 * Long.BYTES);
+                header.putLong(snapshot.length).putLong(base).flip();
+                writeFully(header);
+                writeFully(ByteBuffer.wrap(snapshot));
+                snapshot = null;
+
+                while (true) {
+                    synchronized (this) {
+                        while (pending.position() == 0 && !closed) {
+                            wait();
+                        }
+                        if (closed) {
+                            return;
+                        }
+                        ByteBuffer full = pending;
+                        pending = sending;
+                        sending = full;
+                    }
+
+                    sending.flip();
+                    writeFully(sending);
+                    sending.clear();
+                }
+            } catch (IOException | InterruptedException e) {
+                close();
+            }
+        }
+
+        private void writeFully(ByteBuffer source) throws IOException {
+            while (source.hasRemaining()) {
+                channel.write(source);
+            }
+        }
+
+        private synchronized void close() {
+
+            closed = true;
+            notifyAll();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // El seguidor ya se descarta, no hay nada mas que hacer con el canal
+            }
+        }
+    }
+
+}
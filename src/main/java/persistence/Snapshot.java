@@ -0,0 +1,476 @@
+package persistence;
+
+import entities.Subscription;
+import entities.RetentionPolicy;
+import entities.Topic;
+import entities.User;
+import entities.alert.Alert;
+import entities.alert.AlertDestination;
+import entities.alert.AlertType;
+import service.AlertsService;
+import service.ExpirationService;
+import service.TopicsService;
+import service.UsersService;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Instantanea binaria del estado completo del sistema: temas con su retencion, usuarios con su id denso,
+ * alertas con los usuarios que leyeron las generales y sus ocurrencias, suscripciones, patrones de temas
+ * y alertas personales no leidas
+ * Los usuarios y temas se guardan una vez y se referencian por su posicion en la instantanea, las alertas
+ * se guardan por tema en orden de id, sin serializacion de Java
+ * La captura no detiene al sistema, toma el lock de cada usuario y tema solo mientras lo copia, por lo que
+ * puede mezclar cambios anteriores y posteriores a la posicion del diario guardada. Cada cambio se agrega
+ * al diario con el lock que lo protege tomado, asi todo cambio que la captura no vea esta en el diario
+ * desde esa posicion, y reproducir registros ya incluidos no tiene efecto
+ * @author Albano Zupichiatti
+ */
+public class Snapshot {
+
+    private static final int MAGIC = 0x534E4150;
+
+    private static final int VERSION = 6;
+
+    private static final int BUFFER_SIZE = 4 << 20;
+
+    private Snapshot() {
+    }
+
+    /**
+     * Escribe la instantanea en un archivo temporal y lo mueve al destino una vez forzado a disco,
+     * si hay una caida durante la escritura se conserva la instantanea anterior
+     * @param path Archivo destino
+     * @param journalPosition Posicion del diario tomada antes de empezar la captura
+     * @param usersService Servicio de usuarios
+     * @param topicsService Servicio de temas
+     * @param alertsService Servicio de alertas
+     * @throws IOException si no se puede escribir el archivo
+     */
+    public static void write(Path path, long journalPosition, UsersService usersService,
+                             TopicsService topicsService, AlertsService alertsService) throws IOException {
+
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            Output out = new Output(channel);
+
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putLong(journalPosition);
+            out.putInt(alertsService.getLastAlertId());
+
+            List<Topic> topics = new ArrayList<>(topicsService.getTopics());
+            Map<Topic, Integer> topicIndexes = new HashMap<>();
+            out.putInt(topics.size());
+            for (Topic topic : topics) {
+                topicIndexes.put(topic, topicIndexes.size());
+                out.putString(topic.getName());
+                out.putInt(topic.getRetention().getMaxCount());
+                out.putLong(topic.getRetention().getMaxAgeMillis());
+            }
+
+            List<User> users = new ArrayList<>(usersService.getUsers());
+            Map<User, Integer> userIndexes = new HashMap<>();
+            BitSet userIds = new BitSet();
+            out.putInt(users.size());
+            for (User user : users) {
+                userIndexes.put(user, userIndexes.size());
+                userIds.set(user.getId());
+                out.putString(user.getUserName());
+                out.putInt(user.getId());
+            }
+
+            for (Topic topic : topics) {
+                writeAlerts(out, topic, userIndexes, userIds);
+            }
+
+            for (User user : users) {
+                writeUser(out, user, topicIndexes);
+            }
+
+            out.putInt(MAGIC);
+            out.flush();
+            channel.force(true);
+        }
+
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Carga la instantanea sobre servicios vacios, las alertas con fecha de expiracion se agendan para vencer
+     * @param path Archivo de la instantanea
+     * @param usersService Servicio de usuarios
+     * @param topicsService Servicio de temas
+     * @param alertsService Servicio de alertas
+     * @param expirationService Servicio de vencimientos
+     * @return Posicion del diario desde la cual reproducir, o -1 si no existe la instantanea
+     * @throws IOException si no se puede leer el archivo o no es una instantanea valida
+     */
+    public static long load(Path path, UsersService usersService, TopicsService topicsService,
+                            AlertsService alertsService, ExpirationService expirationService) throws IOException {
+
+        if (!Files.exists(path)) {
+            return -1;
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+
+            Input in = new Input(channel);
+
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+                throw new IOException("Not a snapshot: " + path);
+            }
+
+            long journalPosition = in.getLong();
+            int lastAlertId = in.getInt();
+
+            Topic[] topics = new Topic[in.getInt()];
+            for (int i = 0; i < topics.length; i++) {
+                String name = in.getString();
+                topicsService.registerTopic(name);
+                topics[i] = topicsService.findTopic(name);
+                // El tema todavia no tiene alertas, la antiguedad de las restauradas cuenta desde la carga
+                int maxCount = in.getInt();
+                topicsService.setRetention(topics[i], RetentionPolicy.fromMillis(maxCount, in.getLong()), 0);
+            }
+
+            User[] users = new User[in.getInt()];
+            for (int i = 0; i < users.length; i++) {
+                String name = in.getString();
+                usersService.restoreUser(name, in.getInt());
+                users[i] = usersService.findUser(name);
+            }
+
+            for (Topic topic : topics) {
+                List<Alert> alerts = readAlerts(in, topic, users, alertsService);
+                alertsService.restoreAlerts(topic, alerts);
+                for (Alert alert : alerts) {
+                    expirationService.schedule(alert);
+                }
+            }
+
+            for (User user : users) {
+                readUser(in, user, topics, usersService, alertsService);
+            }
+
+            if (in.getInt() != MAGIC) {
+                throw new IOException("Truncated snapshot: " + path);
+            }
+
+            // Las alertas que superan la retencion se quitan recien ahora que sus usuarios ya las tienen
+            for (Topic topic : topics) {
+                expirationService.evict(topic);
+            }
+
+            alertsService.restoreLastAlertId(lastAlertId);
+            return journalPosition;
+        }
+    }
+
+    /**
+     * Escribe las alertas del tema en orden de id, se omiten las personales de usuarios registrados
+     * luego de empezar la captura ya que estan en el diario, al igual que sus lecturas de las generales
+     */
+    private static void writeAlerts(Output out, Topic topic, Map<User, Integer> userIndexes,
+                                    BitSet userIds) throws IOException {
+
+        Alert[] alerts;
+
+        topic.getLock().readLock().lock();
+        try {
+            alerts = new Alert[topic.getAlerts().size()];
+            int i = 0;
+            for (Alert alert : topic.getAlerts()) {
+                alerts[i++] = alert;
+            }
+        } finally {
+            topic.getLock().readLock().unlock();
+        }
+
+        Arrays.sort(alerts, Comparator.comparingInt(Alert::getId));
+
+        int count = 0;
+        for (Alert alert : alerts) {
+            if (alert.getUser() == null || userIndexes.containsKey(alert.getUser())) {
+                count++;
+            }
+        }
+
+        out.putInt(count);
+
+        for (Alert alert : alerts) {
+
+            if (alert.getUser() != null && !userIndexes.containsKey(alert.getUser())) {
+                continue;
+            }
+
+            out.putInt(alert.getId());
+            out.putByte((byte) alert.getType().ordinal());
+            out.putByte((byte) alert.getDestination().ordinal());
+            out.putInt(alert.getUser() != null ? userIndexes.get(alert.getUser()) : -1);
+            out.putLong(alert.getExpirationMillis());
+            out.putString(alert.getMessage());
+            if (alert.getDestination() == AlertDestination.GENERAL) {
+                out.putInt(alert.getOccurrences());
+                out.putIntArray(Arrays.stream(alert.getReaderIds()).filter(userIds::get).toArray());
+            }
+        }
+    }
+
+    private static List<Alert> readAlerts(Input in, Topic topic, User[] users,
+                                          AlertsService alertsService) throws IOException {
+
+        int count = in.getInt();
+        List<Alert> alerts = new ArrayList<>(count);
+        AlertType[] types = AlertType.values();
+        AlertDestination[] destinations = AlertDestination.values();
+
+        for (int i = 0; i < count; i++) {
+
+            int id = in.getInt();
+            AlertType type = types[in.getByte()];
+            AlertDestination destination = destinations[in.getByte()];
+            int userIndex = in.getInt();
+            long expirationMillis = in.getLong();
+
+            Alert alert = alertsService.createAlert(id, in.getString(), type, destination, topic,
+                    userIndex >= 0 ? users[userIndex] : null, expirationMillis);
+            if (destination == AlertDestination.GENERAL) {
+                alert.restoreOccurrences(in.getInt());
+                for (int userId : in.getIntArray()) {
+                    alert.markReadBy(userId);
+                }
+            }
+            alerts.add(alert);
+        }
+
+        return alerts;
+    }
+
+    /**
+     * Escribe las suscripciones del usuario, sus patrones de temas y sus alertas personales no leidas,
+     * todo copiado con el lock del usuario tomado
+     */
+    private static void writeUser(Output out, User user, Map<Topic, Integer> topicIndexes) throws IOException {
+
+        List<Subscription> subscriptions = new ArrayList<>();
+        Set<String> patterns;
+        int[] unreadAlertIds;
+
+        user.getLock().readLock().lock();
+        try {
+            for (Subscription subscription : user.getSubscriptions()) {
+                if (topicIndexes.containsKey(subscription.getTopic())) {
+                    subscriptions.add(subscription);
+                }
+            }
+            patterns = user.getTopicPatterns();
+            unreadAlertIds = user.getUnreadAlertIds();
+        } finally {
+            user.getLock().readLock().unlock();
+        }
+
+        out.putInt(subscriptions.size());
+        for (int i = 0; i < subscriptions.size(); i++) {
+            out.putInt(topicIndexes.get(subscriptions.get(i).getTopic()));
+            out.putInt(subscriptions.get(i).getFromAlertId());
+        }
+
+        out.putInt(patterns.size());
+        for (String pattern : patterns) {
+            out.putString(pattern);
+        }
+
+        out.putIntArray(unreadAlertIds);
+    }
+
+    private static void readUser(Input in, User user, Topic[] topics, UsersService usersService,
+                                 AlertsService alertsService) throws IOException {
+
+        int subscriptions = in.getInt();
+
+        for (int i = 0; i < subscriptions; i++) {
+            Topic topic = topics[in.getInt()];
+            usersService.restoreSubscription(user, topic, in.getInt());
+        }
+
+        int patterns = in.getInt();
+
+        for (int i = 0; i < patterns; i++) {
+            usersService.selectPattern(user, in.getString());
+        }
+
+        for (int alertId : in.getIntArray()) {
+            Alert alert = alertsService.findAlertById(alertId);
+            if (alert != null) {
+                user.addAlert(alert);
+            }
+        }
+    }
+
+    /**
+     * Escritura en bloque sobre un canal a traves de un buffer directo
+     */
+    private static class Output {
+
+        private final FileChannel channel;
+
+        private final ByteBuffer buffer;
+
+        private Output(FileChannel channel) {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        private void putByte(byte value) throws IOException {
+            ensure(1);
+            buffer.put(value);
+        }
+
+        private void putInt(int value) throws IOException {
+            ensure(Integer.BYTES);
+            buffer.putInt(value);
+        }
+
+        private void putLong(long value) throws IOException {
+            ensure(Long.BYTES);
+            buffer.putLong(value);
+        }
+
+        private void putIntArray(int[] values) throws IOException {
+            putInt(values.length);
+            for (int value : values) {
+                putInt(value);
+            }
+        }
+
+        private void putString(String value) throws IOException {
+
+            if (value == null) {
+                putInt(-1);
+                return;
+            }
+
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+
+            if (bytes.length <= buffer.capacity()) {
+                ensure(bytes.length);
+                buffer.put(bytes);
+            } else {
+                flush();
+                ByteBuffer large = ByteBuffer.wrap(bytes);
+                while (large.hasRemaining()) {
+                    channel.write(large);
+                }
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Lectura en bloque de un canal a traves de un buffer directo
+     */
+    private static class Input {
+
+        private final FileChannel channel;
+
+        private final ByteBuffer buffer;
+
+        private Input(FileChannel channel) {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            this.buffer.flip();
+        }
+
+        private void ensure(int bytes) throws IOException {
+
+            if (buffer.remaining() >= bytes) {
+                return;
+            }
+
+            buffer.compact();
+            while (buffer.position() < bytes) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException("Truncated snapshot");
+                }
+            }
+            buffer.flip();
+        }
+
+        private byte getByte() throws IOException {
+            ensure(1);
+            return buffer.get();
+        }
+
+        private int getInt() throws IOException {
+            ensure(Integer.BYTES);
+            return buffer.getInt();
+        }
+
+        private long getLong() throws IOException {
+            ensure(Long.BYTES);
+            return buffer.getLong();
+        }
+
+        private int[] getIntArray() throws IOException {
+            int[] values = new int[getInt()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = getInt();
+            }
+            return values;
+        }
+
+        private String getString() throws IOException {
+
+            int length = getInt();
+
+            if (length < 0) {
+                return null;
+            }
+
+            byte[] bytes = new byte[length];
+
+            if (length <= buffer.capacity()) {
+                ensure(length);
+                buffer.get(bytes);
+            } else {
+                int copied = buffer.remaining();
+                buffer.get(bytes, 0, copied);
+                ByteBuffer large = ByteBuffer.wrap(bytes, copied, length - copied);
+                while (large.hasRemaining()) {
+                    if (channel.read(large) < 0) {
+                        throw new IOException("Truncated snapshot");
+                    }
+                }
+            }
+
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+}
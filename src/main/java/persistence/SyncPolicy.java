@@ -0,0 +1,14 @@
+package persistence;
+
+/**
+ * Enumeracion que representa cuando se fuerzan a disco los registros del diario
+ * Always: cada escritura espera a que su registro este en disco, las escrituras concurrentes comparten
+ * un mismo fsync (commit agrupado)
+ * Interval: los registros se fuerzan a disco periodicamente, ante una caida se pierde a lo sumo un intervalo
+ * None: los registros se escriben periodicamente al sistema operativo sin forzarlos, sobreviven a una caida
+ * del proceso pero no a una del sistema
+ * @author Albano Zupichiatti
+ */
+public enum SyncPolicy {
+    ALWAYS, INTERVAL, NONE
+}
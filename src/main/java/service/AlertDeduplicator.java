@@ -0,0 +1,119 @@
+package service;
+
+import entities.Topic;
+import entities.alert.Alert;
+import entities.alert.AlertType;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Recuerda las ultimas alertas generales enviadas por tema, tipo y mensaje para reconocer las repetidas dentro
+ * de una ventana de tiempo que empieza con la primera ocurrencia
+ * Es una tabla de tamaño fijo donde cada clave tiene una unica entrada posible, buscar y recordar es O(1) sin
+ * locks y la memoria queda acotada por la capacidad. Si dos claves caen en la misma entrada la mas nueva
+ * reemplaza a la otra, que deja de deduplicarse, nunca se confunden alertas distintas porque se compara el mensaje
+ * @author Albano Zupichiatti
+ */
+public class AlertDeduplicator {
+
+    private final AtomicReferenceArray<Entry> entries;
+
+    private final int mask;
+
+    private final long windowMillis;
+
+    /**
+     * Construye el deduplicador vacio
+     * @param capacity Cantidad de entradas, se redondea a la potencia de dos siguiente
+     * @param windowMillis Ventana en milisegundos desde la primera ocurrencia
+     * @throws IllegalArgumentException si la capacidad o la ventana no son positivas
+     */
+    public AlertDeduplicator(int capacity, long windowMillis) {
+
+        if (capacity < 1 || capacity > 1 << 30 || windowMillis <= 0) {
+            throw new IllegalArgumentException("capacity and window must be positive");
+        }
+
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.entries = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * Busca una alerta enviada al tema con el mismo tipo y mensaje dentro de la ventana
+     * @param topic Tema de la alerta
+     * @param type Tipo de alerta
+     * @param message Mensaje (puede ser null)
+     * @param nowMillis Hora actual en milisegundos desde epoch
+     * @return Alerta encontrada o null si no hay una igual dentro de la ventana
+     */
+    public Alert find(Topic topic, AlertType type, String message, long nowMillis) {
+
+        int messageHash = Objects.hashCode(message);
+        Entry entry = entries.get(index(topic, type, messageHash));
+
+        if (entry != null && entry.topic == topic && entry.type == type && entry.messageHash == messageHash
+                && nowMillis - entry.firstMillis < windowMillis && Objects.equals(entry.message, message)) {
+            return entry.alert;
+        }
+
+        return null;
+    }
+
+    /**
+     * Recuerda una alerta como la primera ocurrencia de su tema, tipo y mensaje
+     * @param alert Alerta enviada
+     * @param message Mensaje de la alerta, se recibe aparte para no leerlo de un almacen fuera del heap
+     * @param nowMillis Hora actual en milisegundos desde epoch
+     */
+    public void remember(Alert alert, String message, long nowMillis) {
+
+        int messageHash = Objects.hashCode(message);
+        entries.set(index(alert.getTopic(), alert.getType(), messageHash),
+                new Entry(alert.getTopic(), alert.getType(), message, messageHash, alert, nowMillis));
+    }
+
+    /**
+     * Devuelve la ventana de deduplicacion
+     * @return Ventana en milisegundos
+     */
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    private int index(Topic topic, AlertType type, int messageHash) {
+
+        int hash = (topic.getName().hashCode() * 31 + type.ordinal()) * 31 + messageHash;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    /**
+     * Entrada inmutable, se reemplaza completa para que las lecturas sin lock la vean consistente
+     */
+    private static final class Entry {
+
+        private final Topic topic;
+
+        private final AlertType type;
+
+        private final String message;
+
+        private final int messageHash;
+
+        private final Alert alert;
+
+        private final long firstMillis;
+
+        private Entry(Topic topic, AlertType type, String message, int messageHash, Alert alert, long firstMillis) {
+            this.topic = topic;
+            this.type = type;
+            this.message = message;
+            this.messageHash = messageHash;
+            this.alert = alert;
+            this.firstMillis = firstMillis;
+        }
+    }
+
+}
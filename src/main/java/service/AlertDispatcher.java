@@ -0,0 +1,376 @@
+package service;
+
+import entities.Topic;
+import entities.alert.Alert;
+import entities.alert.AlertDestination;
+import entities.alert.AlertType;
+import metrics.ControllerMetrics;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Clase que despacha de forma asincronica las alertas enviadas por tema
+ * El envio encola la alerta en una cola acotada y vuelve enseguida, un hilo despachador toma las alertas
+ * encoladas en lotes, las agrupa por tema y entrega cada grupo en una tarea del ejecutor, por defecto uno de
+ * hilos virtuales si la JVM los soporta
+ * El id se asigna al entregar, con el lock del tema tomado, asi las alertas llegan al tema en orden de id
+ * aunque dos grupos del mismo tema se entreguen a la vez o se mezclen con envios sincronicos
+ * @author Albano Zupichiatti
+ */
+public class AlertDispatcher implements AutoCloseable {
+
+    private AlertsService alertsService;
+
+    private ExpirationService expirationService;
+
+    private PushService pushService;
+
+    private UsersService usersService;
+
+    private ControllerMetrics metrics;
+
+    private BlockingQueue<PendingAlert> queue;
+
+    private int batchSize;
+
+    private BackpressurePolicy backpressurePolicy;
+
+    private Executor executor;
+
+    private Thread dispatcherThread;
+
+    private boolean closed;
+
+    private long pendingCount;
+
+    private ReentrantLock pendingLock;
+
+    private Condition quiescent;
+
+    /**
+     * Construye el despachador con todos sus atributos
+     * @param alertsService Servicio de alertas
+     * @param expirationService Servicio de vencimientos
+     * @param pushService Servicio push al que se publican las alertas entregadas
+     * @param usersService Servicio de usuarios, cuenta los destinatarios de las alertas entregadas
+     * @param metrics Metricas donde se registran las alertas entregadas
+     * @param queueCapacity Cantidad maxima de alertas encoladas sin despachar
+     * @param batchSize Cantidad maxima de alertas que se toman de la cola por lote
+     * @param backpressurePolicy Que hacer cuando la cola esta llena
+     * @param executor Ejecutor de las entregas, si es null se usa uno de hilos virtuales si hay soporte
+     */
+    public AlertDispatcher(AlertsService alertsService, ExpirationService expirationService, PushService pushService,
+                           UsersService usersService, ControllerMetrics metrics, int queueCapacity, int batchSize, BackpressurePolicy backpressurePolicy,
+                           Executor executor) {
+
+        if (queueCapacity <= 0 || batchSize <= 0) {
+            throw new IllegalArgumentException("queueCapacity and batchSize must be positive");
+        }
+
+        this.alertsService = alertsService;
+        this.expirationService = expirationService;
+        this.pushService = pushService;
+        this.usersService = usersService;
+        this.metrics = metrics;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.backpressurePolicy = backpressurePolicy;
+        this.executor = executor != null ? executor : defaultExecutor();
+        this.pendingLock = new ReentrantLock();
+        this.quiescent = pendingLock.newCondition();
+
+        this.dispatcherThread = new Thread(this::dispatchLoop, "alert-dispatcher");
+        this.dispatcherThread.setDaemon(true);
+        this.dispatcherThread.start();
+    }
+
+    /**
+     * Encola la alerta para despacharla
+     * @param message Mensaje a enviar
+     * @param type Tipo de alerta
+     * @param topic Tema de la alerta
+     * @param expirationMillis Expiracion en milisegundos desde epoch, Alert.NEVER_EXPIRES si no vence
+     * @return Futuro que se completa con el id cuando la alerta es visible para los suscriptores
+     */
+    public CompletableFuture<Integer> dispatch(String message, AlertType type, Topic topic, long expirationMillis) {
+
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+
+        // El control de cierre y la alerta pendiente van juntos, asi close() no termina sin esperarla
+        pendingLock.lock();
+        try {
+            if (closed) {
+                future.completeExceptionally(new RejectedExecutionException("Dispatcher is closed"));
+                return future;
+            }
+            pendingCount++;
+        } finally {
+            pendingLock.unlock();
+        }
+
+        PendingAlert pendingAlert = new PendingAlert(message, type, topic, expirationMillis, future);
+
+        boolean queued;
+        try {
+            if (backpressurePolicy == BackpressurePolicy.BLOCK) {
+                queue.put(pendingAlert);
+                queued = true;
+            } else {
+                queued = queue.offer(pendingAlert);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            queued = false;
+        }
+
+        if (!queued) {
+            changePending(-1);
+            future.completeExceptionally(new RejectedExecutionException("Dispatch queue is full"));
+        }
+
+        return future;
+    }
+
+    /**
+     * Espera a que todas las alertas encoladas hasta el momento sean despachadas
+     * @param timeout Tiempo maximo de espera
+     * @param unit Unidad del tiempo de espera
+     * @return true si no quedan alertas pendientes, false si se agoto el tiempo
+     * @throws InterruptedException si el hilo se interrumpe mientras espera
+     */
+    public boolean awaitQuiescence(long timeout, TimeUnit unit) throws InterruptedException {
+
+        long remaining = unit.toNanos(timeout);
+
+        pendingLock.lock();
+        try {
+            while (pendingCount > 0) {
+                if (remaining <= 0) {
+                    return false;
+                }
+                remaining = quiescent.awaitNanos(remaining);
+            }
+            return true;
+        } finally {
+            pendingLock.unlock();
+        }
+    }
+
+    /**
+     * Devuelve la cantidad de alertas encoladas o en entrega
+     * @return Cantidad de alertas pendientes
+     */
+    public long countPending() {
+
+        pendingLock.lock();
+        try {
+            return pendingCount;
+        } finally {
+            pendingLock.unlock();
+        }
+    }
+
+    /**
+     * Deja de aceptar alertas, espera a que se despachen las encoladas y detiene el hilo despachador
+     */
+    @Override
+    public void close() {
+
+        pendingLock.lock();
+        try {
+            closed = true;
+        } finally {
+            pendingLock.unlock();
+        }
+
+        try {
+            awaitQuiescence(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        dispatcherThread.interrupt();
+
+        if (executor instanceof ExecutorService) {
+            ((ExecutorService) executor).shutdown();
+        }
+    }
+
+    /**
+     * Ciclo del hilo despachador: espera una alerta, toma las demas encoladas hasta completar el lote
+     * y entrega un grupo por tema
+     */
+    private void dispatchLoop() {
+
+        List<PendingAlert> batch = new ArrayList<>(batchSize);
+
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            queue.drainTo(batch, batchSize - 1);
+
+            Map<Topic, List<PendingAlert>> byTopic = new LinkedHashMap<>();
+            for (PendingAlert pendingAlert : batch) {
+                byTopic.computeIfAbsent(pendingAlert.topic, x -> new ArrayList<>()).add(pendingAlert);
+            }
+            batch.clear();
+
+            for (Map.Entry<Topic, List<PendingAlert>> entry : byTopic.entrySet()) {
+                try {
+                    executor.execute(() -> deliver(entry.getKey(), entry.getValue()));
+                } catch (RejectedExecutionException e) {
+                    fail(entry.getValue(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Entrega al tema todas las alertas del grupo tomando el lock del tema una unica vez, el id de cada alerta
+     * se asigna recien ahora para que quede despues de todas las que ya estan en el tema
+     * @param topic Tema de las alertas
+     * @param alerts Alertas a entregar
+     */
+    private void deliver(Topic topic, List<PendingAlert> alerts) {
+
+        int delivered = 0;
+        List<Alert> sent = new ArrayList<>(alerts.size());
+
+        // Con SyncPolicy.ALWAYS el fsync del grupo se espera una vez, luego de soltar el lock del tema
+        alertsService.deferSync();
+        topic.getLock().writeLock().lock();
+        try {
+            for (PendingAlert pendingAlert : alerts) {
+                // Una alerta repetida se agrupa en la existente sin usar un id nuevo
+                Alert alert = alertsService.coalesceAlert(pendingAlert.message, pendingAlert.type, topic);
+                if (alert == null) {
+                    alert = alertsService.sendAlert(alertsService.reserveAlertId(), pendingAlert.message,
+                            pendingAlert.type, topic, pendingAlert.expirationMillis);
+                    expirationService.schedule(alert);
+                    sent.add(alert);
+                }
+                pendingAlert.deliveredId = alert.getId();
+                delivered++;
+            }
+        } catch (RuntimeException e) {
+            fail(alerts.subList(delivered, alerts.size()), e);
+            alerts = alerts.subList(0, delivered);
+        } finally {
+            topic.getLock().writeLock().unlock();
+        }
+
+        try {
+            alertsService.awaitDeferredSync();
+        } catch (RuntimeException e) {
+            fail(alerts, e);
+            alerts = Collections.emptyList();
+        }
+
+        // Las alertas que el tema descarto por su retencion se quitan sin el lock del tema tomado
+        expirationService.evict(topic);
+
+        // Solo se cuentan las alertas creadas, no las rechazadas ni las agrupadas en una existente
+        int recipients = sent.isEmpty() ? 0 : usersService.countSubscribers(topic);
+        for (Alert alert : sent) {
+            pushService.publish(alert);
+            metrics.recordAlertSent(alert.getType(), AlertDestination.GENERAL, recipients);
+        }
+
+        for (PendingAlert pendingAlert : alerts) {
+            pendingAlert.future.complete(pendingAlert.deliveredId);
+        }
+
+        changePending(-alerts.size());
+    }
+
+    /**
+     * Completa con error los futuros de las alertas que no se pudieron entregar
+     * @param alerts Alertas no entregadas
+     * @param cause Causa del error
+     */
+    private void fail(List<PendingAlert> alerts, Throwable cause) {
+
+        for (PendingAlert pendingAlert : alerts) {
+            pendingAlert.future.completeExceptionally(cause);
+        }
+
+        changePending(-alerts.size());
+    }
+
+    /**
+     * Actualiza la cantidad de alertas pendientes y avisa a quienes esperan si llega a cero
+     * @param delta Cantidad a sumar
+     */
+    private void changePending(long delta) {
+
+        pendingLock.lock();
+        try {
+            pendingCount += delta;
+            if (pendingCount == 0) {
+                quiescent.signalAll();
+            }
+        } finally {
+            pendingLock.unlock();
+        }
+    }
+
+    /**
+     * Devuelve un ejecutor de hilos virtuales si la JVM los soporta (Java 21 o superior),
+     * si no uno de hilos daemon que se reutilizan
+     * @return Ejecutor por defecto
+     */
+    private static ExecutorService defaultExecutor() {
+
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "alert-delivery");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Alerta encolada con el futuro a completar al entregarla
+     */
+    private static class PendingAlert {
+
+        private final String message;
+
+        private final AlertType type;
+
+        private final Topic topic;
+
+        private final long expirationMillis;
+
+        private final CompletableFuture<Integer> future;
+
+        private int deliveredId;
+
+        private PendingAlert(String message, AlertType type, Topic topic, long expirationMillis,
+                             CompletableFuture<Integer> future) {
+            this.message = message;
+            this.type = type;
+            this.topic = topic;
+            this.expirationMillis = expirationMillis;
+            this.future = future;
+        }
+
+    }
+
+}
@@ -0,0 +1,315 @@
+package service;
+
+import entities.alert.Alert;
+import entities.alert.AlertType;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publicador de las alertas de un usuario o de un tema para los clientes que prefieren recibirlas en lugar
+ * de consultarlas
+ * Cada suscriptor tiene sus propias colas sin locks, publicar solo encola la alerta y programa la entrega en
+ * el ejecutor, por lo que un suscriptor lento nunca demora el envio. Las entregas respetan la demanda pedida
+ * con request y entregan primero las urgentes, si el buffer se llena se aplica la PushOverflowPolicy
+ * @author Albano Zupichiatti
+ */
+public class AlertPublisher implements Flow.Publisher<Alert> {
+
+    private final CopyOnWriteArrayList<PushSubscription> subscriptions;
+
+    private final int bufferSize;
+
+    private final PushOverflowPolicy overflowPolicy;
+
+    private final Executor executor;
+
+    private final AtomicLong dropped;
+
+    private volatile boolean closed;
+
+    /**
+     * Construye el publicador sin suscriptores
+     * @param bufferSize Cantidad maxima de alertas sin entregar por suscriptor, las urgentes pueden superarla
+     * @param overflowPolicy Que hacer cuando el buffer de un suscriptor esta lleno
+     * @param executor Ejecutor de las entregas
+     */
+    public AlertPublisher(int bufferSize, PushOverflowPolicy overflowPolicy, Executor executor) {
+
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("bufferSize must be positive");
+        }
+
+        this.subscriptions = new CopyOnWriteArrayList<>();
+        this.bufferSize = bufferSize;
+        this.overflowPolicy = overflowPolicy;
+        this.executor = executor;
+        this.dropped = new AtomicLong();
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Alert> subscriber) {
+
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+
+        // onSubscribe es la primera senal, recien despues la suscripcion recibe alertas y puede entregar
+        PushSubscription subscription = new PushSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+
+        subscriptions.add(subscription);
+        if (subscription.cancelled) {
+            subscriptions.remove(subscription);
+        }
+        subscription.start();
+
+        // Si se cerro mientras se suscribia el suscriptor igual recibe onComplete
+        if (closed) {
+            subscription.complete();
+        }
+    }
+
+    /**
+     * Encola una alerta en todos los suscriptores, no espera a que se entregue
+     * @param alert Alerta a publicar
+     */
+    public void publish(Alert alert) {
+
+        for (PushSubscription subscription : subscriptions) {
+            subscription.offer(alert);
+        }
+    }
+
+    /**
+     * Devuelve true si hay suscriptores, sirve para no resolver destinatarios que nadie escucha
+     * @return true si tiene suscriptores
+     */
+    public boolean hasSubscribers() {
+        return !subscriptions.isEmpty();
+    }
+
+    /**
+     * Devuelve la cantidad de suscriptores
+     * @return Cantidad de suscriptores
+     */
+    public int countSubscribers() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Devuelve la cantidad de alertas informativas descartadas por buffers llenos
+     * @return Cantidad de alertas descartadas
+     */
+    public long countDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Deja de publicar, los suscriptores reciben onComplete luego de las alertas que ya tenian encoladas
+     */
+    public void close() {
+
+        closed = true;
+
+        for (PushSubscription subscription : subscriptions) {
+            subscription.complete();
+        }
+    }
+
+    /**
+     * Suscripcion de un suscriptor, las alertas esperan en dos colas sin locks (urgentes e informativas)
+     * y un unico hilo a la vez las entrega, el que logra pasar el contador de trabajo de 0 a 1
+     * El contador empieza en 1 hasta que vuelve onSubscribe, asi ninguna entrega se adelanta a esa senal
+     */
+    private class PushSubscription implements Flow.Subscription, Runnable {
+
+        private final Flow.Subscriber<? super Alert> subscriber;
+
+        private final Queue<Alert> urgent;
+
+        private final Queue<Alert> informative;
+
+        private final AtomicInteger buffered;
+
+        private final AtomicLong demand;
+
+        private final AtomicInteger work;
+
+        private volatile boolean cancelled;
+
+        private volatile boolean completed;
+
+        private volatile Throwable error;
+
+        private boolean terminated;
+
+        private PushSubscription(Flow.Subscriber<? super Alert> subscriber) {
+            this.subscriber = subscriber;
+            this.urgent = new ConcurrentLinkedQueue<>();
+            this.informative = new ConcurrentLinkedQueue<>();
+            this.buffered = new AtomicInteger();
+            this.demand = new AtomicLong();
+            this.work = new AtomicInteger(1);
+        }
+
+        /**
+         * Habilita las entregas una vez que volvio onSubscribe y programa las que se pidieron mientras tanto
+         */
+        private void start() {
+
+            if (work.decrementAndGet() != 0) {
+                execute();
+            }
+        }
+
+        /**
+         * Encola una alerta aplicando la politica si el buffer esta lleno, el limite es aproximado
+         * cuando varios hilos publican a la vez
+         * @param alert Alerta a encolar
+         */
+        private void offer(Alert alert) {
+
+            if (cancelled || completed) {
+                return;
+            }
+
+            if (alert.getType() == AlertType.URGENT) {
+                urgent.add(alert);
+                buffered.incrementAndGet();
+            } else if (buffered.get() < bufferSize) {
+                informative.add(alert);
+                buffered.incrementAndGet();
+            } else if (overflowPolicy == PushOverflowPolicy.DROP_OLDEST_INFORMATIVE && informative.poll() != null) {
+                // Se reemplaza la mas vieja por la nueva, el tamaño del buffer no cambia
+                informative.add(alert);
+                dropped.incrementAndGet();
+            } else if (overflowPolicy == PushOverflowPolicy.CANCEL) {
+                error = new IllegalStateException("Push buffer overflow");
+                cancel();
+                dropped.incrementAndGet();
+            } else {
+                dropped.incrementAndGet();
+            }
+
+            schedule();
+        }
+
+        @Override
+        public void request(long n) {
+
+            if (n <= 0) {
+                error = new IllegalArgumentException("Demand must be positive");
+                cancel();
+                schedule();
+                return;
+            }
+
+            demand.accumulateAndGet(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+        }
+
+        /**
+         * Marca la suscripcion como completa, onComplete se envia al vaciar las colas
+         */
+        private void complete() {
+            completed = true;
+            schedule();
+        }
+
+        /**
+         * Programa una entrega si no hay una en curso, la que esta en curso vuelve a revisar las colas
+         */
+        private void schedule() {
+
+            if (work.getAndIncrement() == 0) {
+                execute();
+            }
+        }
+
+        /**
+         * Entrega en el ejecutor, el hilo que llama tiene el contador de trabajo
+         */
+        private void execute() {
+
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                work.set(0);
+                cancel();
+            }
+        }
+
+        /**
+         * Entrega las alertas encoladas mientras haya demanda, urgentes primero
+         */
+        @Override
+        public void run() {
+
+            int missed = 1;
+
+            do {
+                if (!terminated) {
+                    drain();
+                }
+                missed = work.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void drain() {
+
+            while (!cancelled && demand.get() > 0) {
+
+                Alert alert = urgent.poll();
+                if (alert == null) {
+                    alert = informative.poll();
+                }
+                if (alert == null) {
+                    break;
+                }
+
+                buffered.decrementAndGet();
+                demand.decrementAndGet();
+
+                try {
+                    subscriber.onNext(alert);
+                } catch (RuntimeException e) {
+                    cancel();
+                }
+            }
+
+            if (error != null) {
+                terminated = true;
+                clear();
+                subscriber.onError(error);
+            } else if (cancelled) {
+                terminated = true;
+                clear();
+            } else if (completed && urgent.isEmpty() && informative.isEmpty()) {
+                terminated = true;
+                subscriptions.remove(this);
+                subscriber.onComplete();
+            }
+        }
+
+        private void clear() {
+            urgent.clear();
+            informative.clear();
+            buffered.set(0);
+        }
+
+    }
+
+}
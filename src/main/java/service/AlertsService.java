@@ -1,89 +1,403 @@
 package service;
 
+import entities.Topic;
 import entities.User;
 import entities.alert.Alert;
 import entities.alert.AlertBuilder;
 import entities.alert.AlertDestination;
+import entities.alert.AlertStore;
 import entities.alert.AlertType;
+import entities.alert.StoredAlert;
+import persistence.RecordLog;
+import persistence.JournalRecord;
+import util.IntObjectHashMap;
+import util.MillisClock;
 
-import java.time.LocalDateTime;
-import java.util.ArrayList;
-import java.util.Set;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
 
 
 /**
  * Clase de servicio para la gestion de alertas
+ * Los ids se asignan con un contador atomico y las alertas se indexan por id en mapas de claves int primitivas
+ * El indice se divide en franjas por id, cada una con su lock, para que los envios concurrentes no compitan
+ * por un unico lock
+ * Si se configura un AlertStore los mensajes y fechas de las alertas se guardan fuera del heap
+ * Si se configura un AlertDeduplicator las alertas generales repetidas dentro de su ventana se agrupan
+ * en la primera, que cuenta una ocurrencia mas, en lugar de crear y guardar una alerta nueva
  * @author Albano Zupichiatti
  */
 public class AlertsService {
 
-    private ArrayList<Alert> alerts;
+    private static final int STRIPES = 16;
+
+    private IntObjectHashMap<Alert>[] alerts;
+
+    private ReadWriteLock[] alertsLocks;
+
+    private AtomicInteger lastAlertId;
+
+    private volatile RecordLog journal;
+
+    private volatile AlertStore store;
+
+    private volatile MillisClock clock;
+
+    private volatile AlertDeduplicator deduplicator;
 
     /**
-     * Construye el servicio de alertas con la lista de alertas vacias
+     * Construye el servicio de alertas con el indice de alertas vacio
      */
+    @SuppressWarnings({"unchecked", "rawtypes"})
     public AlertsService() {
-        this.alerts = new ArrayList<>();
+        this.alerts = new IntObjectHashMap[STRIPES];
+        this.alertsLocks = new ReadWriteLock[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            alerts[i] = new IntObjectHashMap<>();
+            alertsLocks[i] = new ReentrantReadWriteLock();
+        }
+        this.lastAlertId = new AtomicInteger();
+        this.clock = MillisClock.SYSTEM;
     }
 
     /**
      * Envia una alerta por tema a un usuario especifico
      * @param message Mensaje a enviar
      * @param type Tipo de alerta
+     * @param topic Tema de la alerta
      * @param user Usuario destino
-     * @param expirationDate Fecha de expiracion (puede ser null)
+     * @param expirationMillis Expiracion en milisegundos desde epoch, Alert.NEVER_EXPIRES si no vence
+     * @return Alerta enviada
+     */
+    public Alert sendAlert(String message, AlertType type, Topic topic, User user, long expirationMillis) {
+        return sendAlert(this::reserveAlertId, message, type, topic, user, expirationMillis);
+    }
+
+    /**
+     * Envia una alerta con un id asignado por fuera del servicio, se usa cuando varios servicios comparten
+     * la secuencia de ids, el contador avanza hasta el id para que las alertas nuevas no lo repitan
+     * Los ids de un tema deben asignarse en orden creciente
+     * @param id Id de la alerta
+     * @param message Mensaje a enviar
+     * @param type Tipo de alerta
+     * @param topic Tema de la alerta
+     * @param user Usuario destino (null si es general)
+     * @param expirationMillis Expiracion en milisegundos desde epoch, Alert.NEVER_EXPIRES si no vence
      * @return Alerta enviada
      */
-    public Alert sendAlert(String message, AlertType type, User user, LocalDateTime expirationDate) {
+    public Alert sendAssignedAlert(int id, String message, AlertType type, Topic topic, User user,
+                                   long expirationMillis) {
 
-        Alert alert = createAlert(message, type, AlertDestination.PERSONAL, expirationDate);
-        alerts.add(alert);
+        lastAlertId.accumulateAndGet(id, Math::max);
 
-        user.addAlert(alert);
+        if (user != null) {
+            return sendAlert(() -> id, message, type, topic, user, expirationMillis);
+        }
+
+        topic.getLock().writeLock().lock();
+        try {
+            return sendAlert(id, message, type, topic, expirationMillis);
+        } finally {
+            topic.getLock().writeLock().unlock();
+        }
+    }
+
+    private Alert sendAlert(IntSupplier ids, String message, AlertType type, Topic topic, User user,
+                            long expirationMillis) {
+
+        Alert alert;
+
+        // El lock del usuario se toma antes que el del tema, el mismo orden que en las lecturas,
+        // y se mantiene hasta agregar la alerta al usuario para que tema y usuario cambien juntos
+        user.getLock().writeLock().lock();
+        try {
+            // El id se asigna con el lock del tema tomado para que las alertas lleguen al tema en orden de id
+            topic.getLock().writeLock().lock();
+            try {
+                int id = ids.getAsInt();
+                alert = journaled(JournalRecord.sendAlert(id, type, AlertDestination.PERSONAL, topic.getName(),
+                        user.getUserName(), message, expirationMillis), () -> {
+                    Alert created = createAlert(id, message, type, AlertDestination.PERSONAL, topic, user,
+                            expirationMillis);
+                    indexAlert(created);
+                    topic.addAlert(created, clock.millis());
+                    return created;
+                });
+            } finally {
+                topic.getLock().writeLock().unlock();
+            }
+
+            user.addAlert(alert);
+        } finally {
+            user.getLock().writeLock().unlock();
+        }
 
         return alert;
     }
 
     /**
-     * Envia una alerta por tema a un conjunto de usuarios
+     * Envia una alerta por tema a todos sus suscriptores, la alerta se guarda una unica vez en el tema
+     * y cada suscriptor la lee desde ahi, por lo que el costo no depende de la cantidad de suscriptores
      * @param message Mensaje a enviar
      * @param type Tipo de alerta
-     * @param users Conjunto de usuarios
-     * @param expirationDate Fecha de expiracion (puede ser null)
+     * @param topic Tema de la alerta
+     * @param expirationMillis Expiracion en milisegundos desde epoch, Alert.NEVER_EXPIRES si no vence
      * @return Alerta enviada
      */
-    public Alert sendAlert(String message, AlertType type, Set<User> users, LocalDateTime expirationDate) {
+    public Alert sendAlert(String message, AlertType type, Topic topic, long expirationMillis) {
+
+        topic.getLock().writeLock().lock();
+        try {
+            return sendAlert(reserveAlertId(), message, type, topic, expirationMillis);
+        } finally {
+            topic.getLock().writeLock().unlock();
+        }
+    }
 
-        Alert alert = createAlert(message, type, AlertDestination.GENERAL, expirationDate);
-        alerts.add(alert);
+    /**
+     * Envia una alerta por tema a todos sus suscriptores con un id ya reservado,
+     * se usa cuando el envio se despacha aparte
+     * Se debe tener el lock de escritura del tema desde que se reserva el id, asi las alertas llegan al tema
+     * en orden de id y el registro en el diario queda antes que cualquier operacion que vea la alerta
+     * @param id Id reservado con reserveAlertId
+     * @param message Mensaje a enviar
+     * @param type Tipo de alerta
+     * @param topic Tema de la alerta
+     * @param expirationMillis Expiracion en milisegundos desde epoch, Alert.NEVER_EXPIRES si no vence
+     * @return Alerta enviada
+     */
+    public Alert sendAlert(int id, String message, AlertType type, Topic topic, long expirationMillis) {
+        return sendAlert(id, message, type, topic, expirationMillis, deduplicator);
+    }
 
-        for (User u : users) {
-            u.addAlert(alert);
+    /**
+     * Envia una alerta general con un id ya reservado y, si hay deduplicador, la recuerda como primera ocurrencia
+     * Se debe tener el lock de escritura del tema
+     */
+    private Alert sendAlert(int id, String message, AlertType type, Topic topic, long expirationMillis,
+                            AlertDeduplicator deduplicator) {
+
+        return journaled(JournalRecord.sendAlert(id, type, AlertDestination.GENERAL, topic.getName(), null, message,
+                expirationMillis), () -> {
+            long nowMillis = clock.millis();
+            Alert alert = createAlert(id, message, type, AlertDestination.GENERAL, topic, null, expirationMillis);
+            indexAlert(alert);
+            topic.addAlert(alert, nowMillis);
+            if (deduplicator != null) {
+                deduplicator.remember(alert, message, nowMillis);
+            }
+            return alert;
+        });
+    }
+
+    /**
+     * Busca una alerta general igual enviada al tema dentro de la ventana de deduplicacion y le cuenta
+     * una ocurrencia mas, la alerta debe seguir en el tema y sin vencer
+     * Se debe tener el lock de escritura del tema, asi dos envios iguales a la vez no crean dos alertas
+     * @param message Mensaje a enviar
+     * @param type Tipo de alerta
+     * @param topic Tema de la alerta
+     * @return Alerta existente o null si no hay deduplicador o no hay una igual
+     */
+    public Alert coalesceAlert(String message, AlertType type, Topic topic) {
+
+        AlertDeduplicator current = deduplicator;
+        if (current == null) {
+            return null;
         }
 
+        long nowMillis = clock.millis();
+        Alert existing = current.find(topic, type, message, nowMillis);
+
+        if (existing == null || !existing.isUnexpired(nowMillis) || findAlertById(existing.getId()) != existing) {
+            return null;
+        }
+
+        return journaled(JournalRecord.coalesceAlert(topic.getName(), existing.getId(),
+                existing.getOccurrences() + 1), () -> {
+            existing.addOccurrence();
+            return existing;
+        });
+    }
+
+    /**
+     * Restaura una alerta con el id que tenia, se usa al reproducir el diario
+     * El contador de ids avanza hasta el id restaurado para que las alertas nuevas no lo repitan
+     * @param id Id de la alerta
+     * @param message Mensaje
+     * @param type Tipo de alerta
+     * @param topic Tema de la alerta
+     * @param user Usuario destino (null si es general)
+     * @param expirationMillis Expiracion en milisegundos desde epoch, Alert.NEVER_EXPIRES si no vence
+     * @return Alerta restaurada
+     */
+    public Alert restoreAlert(int id, String message, AlertType type, Topic topic, User user,
+                              long expirationMillis) {
+
+        lastAlertId.accumulateAndGet(id, Math::max);
+
+        if (user == null) {
+            topic.getLock().writeLock().lock();
+            try {
+                return sendAlert(id, message, type, topic, expirationMillis, null);
+            } finally {
+                topic.getLock().writeLock().unlock();
+            }
+        }
+
+        Alert alert = createAlert(id, message, type, AlertDestination.PERSONAL, topic, user, expirationMillis);
+
+        restoreAlerts(topic, Collections.singletonList(alert));
+        user.addAlert(alert);
+
         return alert;
     }
 
     /**
-     * Delega la creacion de la alerta a AlertBuilder, si tiene fecha utilizara el paso de agregar fecha si no no
+     * Restaura alertas ya creadas de un tema tomando el lock del tema una unica vez, se usa al cargar
+     * una instantanea, las alertas personales no se agregan a su usuario
+     * Conviene pasarlas en orden de id para que agregarlas al tema sea O(1)
+     * @param topic Tema de las alertas
+     * @param restored Alertas a restaurar
+     */
+    public void restoreAlerts(Topic topic, List<Alert> restored) {
+
+        topic.getLock().writeLock().lock();
+        try {
+            for (Alert alert : restored) {
+                lastAlertId.accumulateAndGet(alert.getId(), Math::max);
+                indexAlert(alert);
+                topic.addAlert(alert, clock.millis());
+            }
+        } finally {
+            topic.getLock().writeLock().unlock();
+        }
+    }
+
+    /**
+     * Avanza el contador de ids hasta el id dado, las alertas nuevas tendran ids mayores
+     * @param id Id minimo ya usado
+     */
+    public void restoreLastAlertId(int id) {
+        lastAlertId.accumulateAndGet(id, Math::max);
+    }
+
+    /**
+     * Establece el diario donde se registran las alertas antes de enviarlas, null para no registrarlas
+     * @param journal Diario de cambios
+     */
+    public void setJournal(RecordLog journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Empieza una operacion del hilo actual, el fsync de sus registros se espera en awaitDeferredSync
+     * luego de soltar los locks de los temas, ver RecordLog.deferSync
+     */
+    public void deferSync() {
+
+        RecordLog current = journal;
+        if (current != null) {
+            current.deferSync();
+        }
+    }
+
+    /**
+     * Termina la operacion empezada con deferSync y espera a que sus registros esten en disco
+     */
+    public void awaitDeferredSync() {
+
+        RecordLog current = journal;
+        if (current != null) {
+            current.awaitDeferredSync();
+        }
+    }
+
+    /**
+     * Agrega un registro al diario si hay uno configurado y luego aplica el cambio
+     * @param record Registro a agregar
+     * @param change Cambio a aplicar
+     * @return Resultado del cambio
+     */
+    private <T> T journaled(JournalRecord record, Supplier<T> change) {
+
+        RecordLog current = journal;
+        if (current != null) {
+            return current.append(record, change);
+        }
+        return change.get();
+    }
+
+    /**
+     * Establece el deduplicador de las alertas generales, null para no agrupar las repetidas
+     * @param deduplicator Deduplicador de alertas
+     */
+    public void setDeduplicator(AlertDeduplicator deduplicator) {
+        this.deduplicator = deduplicator;
+    }
+
+    /**
+     * Establece el almacen fuera del heap de los datos de las alertas nuevas, null para guardarlos en el heap
+     * @param store Almacen de alertas
+     */
+    public void setAlertStore(AlertStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Establece el reloj con el que se registra la llegada de las alertas a su tema,
+     * se usa para la antiguedad maxima de la retencion
+     * @param clock Reloj en milisegundos desde epoch
+     */
+    public void setClock(MillisClock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Reserva el proximo id de alerta
+     * @return Id reservado
+     */
+    public int reserveAlertId() {
+        return lastAlertId.incrementAndGet();
+    }
+
+    /**
+     * Crea la alerta sin indexarla, si hay un almacen configurado guarda sus datos fuera del heap
+     * y si no, o si el mensaje es null o no entra en un slab, delega la creacion a AlertBuilder,
+     * si tiene fecha utilizara el paso de agregar fecha si no no
+     * @param id Id de la alerta
      * @param message Mensaje a enviar
      * @param type Tipo de alerta
      * @param destination Tipo de destino
-     * @param expirationDate Fecha de expiracion (puede ser null)
+     * @param topic Tema de la alerta
+     * @param user Usuario destino (null si es general)
+     * @param expirationMillis Expiracion en milisegundos desde epoch, Alert.NEVER_EXPIRES si no vence
      * @return Alerta creada
      */
-    private Alert createAlert(String message, AlertType type, AlertDestination destination, LocalDateTime expirationDate) {
+    public Alert createAlert(int id, String message, AlertType type, AlertDestination destination, Topic topic,
+                             User user, long expirationMillis) {
 
-        int id = alerts.size()+1;
         Alert alert;
+        AlertStore current = store;
+        int handle = current != null && message != null
+                ? current.store(id, message, type, destination, expirationMillis) : -1;
 
-        if (expirationDate != null) {
+        if (handle >= 0) {
+            alert = new StoredAlert(id, type, destination, topic, user, current, handle);
+        } else if (expirationMillis != Alert.NEVER_EXPIRES) {
             alert = new AlertBuilder()
                     .setId(id)
                     .setMessage(message)
                     .setType(type)
                     .setDestination(destination)
-                    .setExpirationDate(expirationDate)
+                    .setTopic(topic)
+                    .setUser(user)
+                    .setExpirationMillis(expirationMillis)
                     .build();
         } else {
             alert = new AlertBuilder()
@@ -91,19 +405,99 @@ public class AlertsService {
                     .setMessage(message)
                     .setType(type)
                     .setDestination(destination)
+                    .setTopic(topic)
+                    .setUser(user)
                     .build();
         }
 
         return alert;
     }
 
+    /**
+     * Agrega la alerta al indice por id
+     * @param alert Alerta a indexar
+     */
+    private void indexAlert(Alert alert) {
+
+        int stripe = stripe(alert.getId());
+
+        alertsLocks[stripe].writeLock().lock();
+        try {
+            alerts[stripe].put(alert.getId(), alert);
+        } finally {
+            alertsLocks[stripe].writeLock().unlock();
+        }
+    }
+
+    /**
+     * Quita la alerta del indice por id
+     * @param id Id de la alerta a quitar
+     * @return Alerta quitada o null si no existia
+     */
+    public Alert removeAlert(int id){
+
+        int stripe = stripe(id);
+
+        alertsLocks[stripe].writeLock().lock();
+        try {
+            return alerts[stripe].remove(id);
+        } finally {
+            alertsLocks[stripe].writeLock().unlock();
+        }
+    }
+
+    /**
+     * Devuelve la cantidad de alertas indexadas
+     * @return Cantidad de alertas
+     */
+    public int countAlerts(){
+
+        int count = 0;
+
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            alertsLocks[stripe].readLock().lock();
+            try {
+                count += alerts[stripe].size();
+            } finally {
+                alertsLocks[stripe].readLock().unlock();
+            }
+        }
+
+        return count;
+    }
+
     /**
      * Busca una alerta por id
      * @param id Id a buscar
      * @return Alerta encontrada o null si no existe
      */
     public Alert findAlertById(int id){
-        return alerts.stream().filter(x->x.getId()==id).findFirst().orElse(null);
+
+        int stripe = stripe(id);
+
+        alertsLocks[stripe].readLock().lock();
+        try {
+            return alerts[stripe].get(id);
+        } finally {
+            alertsLocks[stripe].readLock().unlock();
+        }
+    }
+
+    /**
+     * Devuelve la franja del indice que corresponde a un id
+     * @param id Id de la alerta
+     * @return Franja del indice
+     */
+    private static int stripe(int id) {
+        return id & (STRIPES - 1);
+    }
+
+    /**
+     * Devuelve el id de la ultima alerta creada
+     * @return Id de la ultima alerta o 0 si no se creo ninguna
+     */
+    public int getLastAlertId(){
+        return lastAlertId.get();
     }
 
 }
@@ -0,0 +1,13 @@
+package service;
+
+/**
+ * Enumeracion que representa que hacer cuando la cola de despacho de alertas esta llena
+ * Block: el productor espera a que haya lugar en la cola
+ * Reject: el envio se rechaza y su futuro termina con RejectedExecutionException
+ * @author Albano Zupichiatti
+ */
+public enum BackpressurePolicy {
+
+    BLOCK, REJECT
+
+}
@@ -0,0 +1,175 @@
+package service;
+
+import entities.Topic;
+import entities.alert.Alert;
+import entities.alert.AlertDestination;
+import util.HierarchicalTimingWheel;
+import util.MillisClock;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Clase de servicio para el vencimiento de alertas
+ * Agenda cada alerta con fecha de expiracion en una rueda de tiempo jerarquica y al vencer la quita
+ * del indice de alertas, del tema y de los usuarios, asi las lecturas solo recorren alertas vigentes
+ * Los envios agendan en una cola sin locks y solo un hilo a la vez avanza la rueda, si otro ya la esta
+ * avanzando no se espera
+ * @author Albano Zupichiatti
+ */
+public class ExpirationService {
+
+    /**
+     * Precision por defecto de los vencimientos
+     */
+    public static final long DEFAULT_TICK_MILLIS = 1000;
+
+    private AlertsService alertsService;
+
+    private HierarchicalTimingWheel<Alert> wheel;
+
+    private Queue<Alert> pending;
+
+    private ReentrantLock wheelLock;
+
+    private long tickMillis;
+
+    private volatile long lastAdvanceMillis;
+
+    /**
+     * Construye el servicio de vencimientos con la precision por defecto de un segundo
+     * @param alertsService Servicio de alertas
+     */
+    public ExpirationService(AlertsService alertsService) {
+        this(alertsService, DEFAULT_TICK_MILLIS);
+    }
+
+    /**
+     * Construye el servicio de vencimientos con todos sus atributos
+     * @param alertsService Servicio de alertas
+     * @param tickMillis Precision de los vencimientos en milisegundos
+     */
+    public ExpirationService(AlertsService alertsService, long tickMillis) {
+        this(alertsService, tickMillis, MillisClock.SYSTEM.millis());
+    }
+
+    /**
+     * Construye el servicio de vencimientos con la rueda arrancando en una hora dada,
+     * se usa con un reloj distinto al del sistema
+     * @param alertsService Servicio de alertas
+     * @param tickMillis Precision de los vencimientos en milisegundos
+     * @param startMillis Hora inicial en milisegundos desde epoch
+     */
+    public ExpirationService(AlertsService alertsService, long tickMillis, long startMillis) {
+        this.alertsService = alertsService;
+        this.tickMillis = tickMillis;
+        this.lastAdvanceMillis = startMillis;
+        this.wheel = new HierarchicalTimingWheel<>(tickMillis, lastAdvanceMillis);
+        this.pending = new ConcurrentLinkedQueue<>();
+        this.wheelLock = new ReentrantLock();
+    }
+
+    /**
+     * Agenda el vencimiento de una alerta, las alertas sin fecha de expiracion no vencen
+     * La alerta queda en una cola pendiente y se pasa a la rueda en el proximo avance
+     * @param alert Alerta a agendar
+     */
+    public void schedule(Alert alert) {
+
+        if (alert.getExpirationMillis() != Alert.NEVER_EXPIRES) {
+            pending.add(alert);
+        }
+    }
+
+    /**
+     * Vence todas las alertas cuya fecha de expiracion ya paso, como la rueda tiene precision de un tick
+     * no hace nada si no paso un tick desde el ultimo avance o si otro hilo la esta avanzando
+     * @param nowMillis Hora actual en milisegundos desde epoch
+     * @return Cantidad de alertas vencidas
+     */
+    public int expireAlerts(long nowMillis) {
+
+        if (Math.floorDiv(nowMillis, tickMillis) == Math.floorDiv(lastAdvanceMillis, tickMillis)
+                || !wheelLock.tryLock()) {
+            return 0;
+        }
+
+        try {
+            Alert alert;
+            while ((alert = pending.poll()) != null) {
+                wheel.schedule(alert, alert.getExpirationMillis());
+            }
+
+            lastAdvanceMillis = nowMillis;
+
+            // Las alertas descartadas por la retencion siguen en la rueda hasta su fecha, no se cuentan
+            int[] expired = new int[1];
+            wheel.advance(nowMillis, due -> {
+                if (expire(due)) {
+                    expired[0]++;
+                }
+            });
+            return expired[0];
+        } finally {
+            wheelLock.unlock();
+        }
+    }
+
+    /**
+     * Devuelve la cantidad de alertas agendadas pendientes de vencer
+     * @return Cantidad de alertas agendadas
+     */
+    public int countScheduled() {
+
+        wheelLock.lock();
+        try {
+            return wheel.size() + pending.size();
+        } finally {
+            wheelLock.unlock();
+        }
+    }
+
+    /**
+     * Quita de los demas indices las alertas que el tema descarto por su retencion y libera sus datos
+     * Se debe llamar sin tener tomados los locks de usuarios ni temas, asi se respeta el orden de los locks
+     * @param topic Tema que descarto las alertas
+     * @return Cantidad de alertas quitadas
+     */
+    public int evict(Topic topic) {
+
+        int evicted = 0;
+
+        for (Alert alert : topic.drainEvicted()) {
+            if (expire(alert)) {
+                evicted++;
+            }
+        }
+
+        return evicted;
+    }
+
+    /**
+     * Quita una alerta vencida o descartada de todos los indices y libera sus datos fuera del heap si los tenia
+     * @param alert Alerta vencida
+     * @return true si la alerta seguia indexada, false si ya se habia quitado
+     */
+    private boolean expire(Alert alert) {
+
+        if (alertsService.removeAlert(alert.getId()) == null) {
+            return false;
+        }
+
+        alert.getTopic().removeAlert(alert);
+
+        // Las generales guardan sus lectores en la propia alerta, no hay nada que quitar de los suscriptores
+        if (alert.getDestination() == AlertDestination.PERSONAL) {
+            alert.getUser().removeAlert(alert);
+        }
+
+        alert.release();
+
+        return true;
+    }
+
+}
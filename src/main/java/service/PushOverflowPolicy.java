@@ -0,0 +1,16 @@
+package service;
+
+/**
+ * Enumeracion que representa que hacer cuando el buffer de un suscriptor push esta lleno,
+ * las alertas urgentes nunca se descartan con ninguna politica
+ * Drop oldest informative: se descarta la alerta informativa mas vieja del buffer para hacer lugar,
+ * si el buffer solo tiene urgentes se descarta la que llega
+ * Drop newest informative: se descarta la alerta informativa que llega
+ * Cancel: se cancela la suscripcion y el suscriptor recibe onError
+ * @author Albano Zupichiatti
+ */
+public enum PushOverflowPolicy {
+
+    DROP_OLDEST_INFORMATIVE, DROP_NEWEST_INFORMATIVE, CANCEL
+
+}
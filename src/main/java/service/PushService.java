@@ -0,0 +1,179 @@
+package service;
+
+import entities.Subscription;
+import entities.Topic;
+import entities.User;
+import entities.alert.Alert;
+import entities.alert.AlertDestination;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Clase de servicio para la entrega push de alertas con java.util.concurrent.Flow
+ * Cada tema y cada usuario tiene un publicador que se crea al pedirlo por primera vez. Los publicadores de
+ * usuario se indexan por tema suscripto, asi una alerta general solo se entrega a los usuarios que tienen
+ * un publicador y estan suscriptos al tema, sin recorrer al resto de los suscriptores
+ * @author Albano Zupichiatti
+ */
+public class PushService {
+
+    private ConcurrentHashMap<Topic, AlertPublisher> topicPublishers;
+
+    private ConcurrentHashMap<User, AlertPublisher> userPublishers;
+
+    private ConcurrentHashMap<Topic, Set<User>> pushUsersByTopic;
+
+    private int bufferSize;
+
+    private PushOverflowPolicy overflowPolicy;
+
+    private Executor executor;
+
+    private volatile boolean closed;
+
+    /**
+     * Construye el servicio sin publicadores
+     * @param bufferSize Cantidad maxima de alertas sin entregar por suscriptor
+     * @param overflowPolicy Que hacer cuando el buffer de un suscriptor esta lleno
+     * @param executor Ejecutor de las entregas
+     */
+    public PushService(int bufferSize, PushOverflowPolicy overflowPolicy, Executor executor) {
+        this.topicPublishers = new ConcurrentHashMap<>();
+        this.userPublishers = new ConcurrentHashMap<>();
+        this.pushUsersByTopic = new ConcurrentHashMap<>();
+        this.bufferSize = bufferSize;
+        this.overflowPolicy = overflowPolicy;
+        this.executor = executor;
+    }
+
+    /**
+     * Devuelve el publicador de las alertas de un tema, generales y personales
+     * @param topic Tema
+     * @return Publicador del tema
+     */
+    public AlertPublisher getPublisher(Topic topic) {
+        return topicPublishers.computeIfAbsent(topic, x -> newPublisher());
+    }
+
+    /**
+     * Devuelve el publicador de las alertas de un usuario, personales y generales de sus temas suscriptos
+     * Al crearlo se registra en los temas suscriptos con el lock del usuario tomado,
+     * las suscripciones posteriores lo registran con subscribed
+     * @param user Usuario
+     * @return Publicador del usuario
+     */
+    public AlertPublisher getPublisher(User user) {
+
+        AlertPublisher publisher = userPublishers.get(user);
+
+        if (publisher != null) {
+            return publisher;
+        }
+
+        user.getLock().writeLock().lock();
+        try {
+            return userPublishers.computeIfAbsent(user, x -> {
+                for (Topic topic : user.getSubscribedTopics()) {
+                    pushUsersByTopic.computeIfAbsent(topic, y -> ConcurrentHashMap.newKeySet()).add(user);
+                }
+                return newPublisher();
+            });
+        } finally {
+            user.getLock().writeLock().unlock();
+        }
+    }
+
+    /**
+     * Registra una suscripcion nueva, se llama con el lock del usuario tomado
+     * @param user Usuario suscripto
+     * @param topic Tema suscripto
+     */
+    public void subscribed(User user, Topic topic) {
+
+        if (userPublishers.containsKey(user)) {
+            pushUsersByTopic.computeIfAbsent(topic, x -> ConcurrentHashMap.newKeySet()).add(user);
+        }
+    }
+
+    /**
+     * Registra una desuscripcion, se llama con el lock del usuario tomado
+     * @param user Usuario desuscripto
+     * @param topic Tema desuscripto
+     */
+    public void unsubscribed(User user, Topic topic) {
+
+        Set<User> users = pushUsersByTopic.get(topic);
+
+        if (users != null) {
+            users.remove(user);
+        }
+    }
+
+    /**
+     * Publica una alerta ya visible en el publicador de su tema y en el de cada usuario que la recibe,
+     * se debe llamar sin tener tomados los locks de usuarios ni temas
+     * @param alert Alerta enviada
+     */
+    public void publish(Alert alert) {
+
+        if (closed) {
+            return;
+        }
+
+        AlertPublisher topicPublisher = topicPublishers.get(alert.getTopic());
+        if (topicPublisher != null) {
+            topicPublisher.publish(alert);
+        }
+
+        if (alert.getDestination() == AlertDestination.PERSONAL) {
+            AlertPublisher userPublisher = userPublishers.get(alert.getUser());
+            if (userPublisher != null) {
+                userPublisher.publish(alert);
+            }
+            return;
+        }
+
+        Set<User> users = pushUsersByTopic.get(alert.getTopic());
+
+        if (users == null) {
+            return;
+        }
+
+        for (User user : users) {
+            Subscription subscription = user.getSubscription(alert.getTopic());
+            AlertPublisher userPublisher = userPublishers.get(user);
+            if (subscription != null && subscription.covers(alert.getId()) && userPublisher != null) {
+                userPublisher.publish(alert);
+            }
+        }
+    }
+
+    /**
+     * Deja de publicar y completa a todos los suscriptores luego de entregar lo que tenian encolado
+     */
+    public void close() {
+
+        closed = true;
+
+        for (AlertPublisher publisher : topicPublishers.values()) {
+            publisher.close();
+        }
+        for (AlertPublisher publisher : userPublishers.values()) {
+            publisher.close();
+        }
+    }
+
+    private AlertPublisher newPublisher() {
+
+        AlertPublisher publisher = new AlertPublisher(bufferSize, overflowPolicy, executor);
+
+        if (closed) {
+            publisher.close();
+        }
+
+        return publisher;
+    }
+
+}
@@ -1,42 +1,99 @@
 package service;
 
+import entities.RetentionPolicy;
 import entities.Topic;
+import persistence.RecordLog;
+import persistence.JournalRecord;
+import util.SegmentTrie;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 
 /**
- * Clase de servicio para la gestion de los temas
+ * Clase de servicio para la gestion de los temas,
+ * los temas se indexan por nombre para que la busqueda y el registro sean O(1) y seguros entre hilos
+ * Los temas con antiguedad maxima se recorren a lo sumo una vez por segundo para descartar sus alertas viejas
+ * Los nombres son jerarquicos separados por punto y se indexan tambien en un trie de segmentos para resolver
+ * los patrones con comodines (programming.* o programming.#) sin recorrer todos los temas
  * @author Albano Zupichiatti
  */
 public class TopicsService {
 
-    private ArrayList<Topic> topics;
+    private static final long RETENTION_SWEEP_MILLIS = 1000;
+
+    private ConcurrentHashMap<String, Topic> topics;
+
+    private SegmentTrie<Topic> topicTrie;
+
+    private Set<Topic> agedTopics;
+
+    private AtomicLong lastSweepMillis;
+
+    private volatile RetentionPolicy defaultRetention;
+
+    private volatile RecordLog journal;
 
     /**
-     * Construte el servicio de temas con la lista de temas vacia
+     * Construte el servicio de temas con el indice de temas vacio
      */
     public TopicsService() {
-        this.topics = new ArrayList<>();
+        this.topics = new ConcurrentHashMap<>();
+        this.topicTrie = new SegmentTrie<>();
+        this.agedTopics = ConcurrentHashMap.newKeySet();
+        this.lastSweepMillis = new AtomicLong(Long.MIN_VALUE);
+        this.defaultRetention = RetentionPolicy.UNBOUNDED;
     }
 
     /**
      * Registra un nuevo tema si no existe
-     * @param name Nombre del tema
-     * @return Tema registrado o null si ya existia
+     * @param name Nombre del tema, no puede tener segmentos comodin
+     * @return Tema registrado o null si ya existia o el nombre es un patron
      */
     public Topic registerTopic(String name){
 
+        if(name == null || SegmentTrie.isPattern(name)){
+            return null;
+        }
+
         Topic topic = new Topic(name);
+        RetentionPolicy retention = defaultRetention;
+
+        if(retention.isBounded()){
+            topic.setRetention(retention, 0);
+        }
 
-        if(topics.contains(topic)){
+        if(topics.putIfAbsent(name, topic) != null){
             return null;
         }
-        else{
-            topics.add(topic);
-            return topic;
+
+        topicTrie.add(name, topic);
+
+        if(retention.getMaxAgeMillis() > 0){
+            agedTopics.add(topic);
+        }
+
+        // Igual que los usuarios, el registro se agrega al diario luego de registrar el tema
+        RecordLog current = journal;
+        if(current != null){
+            try {
+                current.append(JournalRecord.registerTopic(name));
+            } catch (RuntimeException e) {
+                topics.remove(name, topic);
+                topicTrie.remove(name, topic);
+                agedTopics.remove(topic);
+                throw e;
+            }
         }
 
+        return topic;
+
     }
 
     /**
@@ -46,9 +103,120 @@ public class TopicsService {
      */
     public Topic findTopic(String name){
 
-        return topics.stream()
-                .filter(x->x.getName().equals(name))
-                .findFirst().orElse(null);
+        if(name == null){
+            return null;
+        }
+
+        return topics.get(name);
+    }
+
+    /**
+     * Busca los temas cuyo nombre coincide con un patron recorriendo solo las ramas del trie que coinciden
+     * @param pattern Patron de temas, * coincide con un segmento y # con cero o mas
+     * @return Lista de temas que coinciden, vacia si no hay ninguno
+     */
+    public List<Topic> findTopics(String pattern){
+
+        List<Topic> matches = new ArrayList<>();
+
+        if(pattern != null){
+            topicTrie.matchNames(pattern, matches::add);
+        }
+
+        return matches;
+    }
+
+    /**
+     * Devuelve una vista de solo lectura de todos los temas registrados
+     * @return Coleccion de temas registrados
+     */
+    public Collection<Topic> getTopics(){
+        return Collections.unmodifiableCollection(topics.values());
+    }
+
+    /**
+     * Cambia la politica de retencion de un tema y descarta las alertas que superan los nuevos limites,
+     * las descartadas se deben quitar luego con ExpirationService.evict sin tener tomado el lock del tema
+     * @param topic Tema a cambiar
+     * @param retention Politica de retencion
+     * @param nowMillis Hora actual en milisegundos desde epoch
+     * @return Cantidad de alertas descartadas
+     */
+    public int setRetention(Topic topic, RetentionPolicy retention, long nowMillis){
+
+        topic.getLock().writeLock().lock();
+        try {
+            int evicted = journaled(JournalRecord.setRetention(topic.getName(), retention),
+                    () -> topic.setRetention(retention, nowMillis));
+
+            if(retention.getMaxAgeMillis() > 0){
+                agedTopics.add(topic);
+            }
+            else{
+                agedTopics.remove(topic);
+            }
+
+            return evicted;
+        } finally {
+            topic.getLock().writeLock().unlock();
+        }
+    }
+
+    /**
+     * Establece la politica de retencion de los temas que se registren desde ahora
+     * @param retention Politica de retencion
+     */
+    public void setDefaultRetention(RetentionPolicy retention){
+        this.defaultRetention = retention;
+    }
+
+    /**
+     * Descarta las alertas que superaron la antiguedad maxima de su tema, como la antiguedad se revisa
+     * con precision de un segundo no hace nada si no paso un segundo desde el ultimo recorrido
+     * @param nowMillis Hora actual en milisegundos desde epoch
+     * @return Temas con alertas descartadas, se deben quitar luego con ExpirationService.evict
+     */
+    public List<Topic> enforceRetention(long nowMillis){
+
+        long last = lastSweepMillis.get();
+
+        if(agedTopics.isEmpty() || (last != Long.MIN_VALUE && nowMillis - last < RETENTION_SWEEP_MILLIS)
+                || !lastSweepMillis.compareAndSet(last, nowMillis)){
+            return Collections.emptyList();
+        }
+
+        List<Topic> evicted = new ArrayList<>();
+
+        for (Topic topic : agedTopics) {
+            if(topic.enforceRetention(nowMillis) > 0){
+                evicted.add(topic);
+            }
+        }
+
+        return evicted;
+    }
+
+    /**
+     * Establece el diario donde se registran los temas antes de registrarlos, null para no registrarlos
+     * @param journal Diario de cambios
+     */
+    public void setJournal(RecordLog journal){
+        this.journal = journal;
+    }
+
+    /**
+     * Agrega un registro al diario si hay uno configurado y luego aplica el cambio
+     * @param record Registro a agregar
+     * @param change Cambio a aplicar
+     * @return Resultado del cambio
+     */
+    private <T> T journaled(JournalRecord record, Supplier<T> change) {
+
+        RecordLog current = journal;
+        if (current != null) {
+            return current.append(record, change);
+        }
+        return change.get();
     }
 
 }
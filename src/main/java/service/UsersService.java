@@ -3,24 +3,47 @@ package service;
 import entities.Topic;
 import entities.User;
 import entities.alert.Alert;
+import persistence.RecordLog;
+import persistence.JournalRecord;
+import util.SegmentTrie;
 
-import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 /**
- * Clase de servicio para la gestion de usuarios
+ * Clase de servicio para la gestion de usuarios,
+ * los usuarios se indexan por nombre para que la busqueda y el registro sean O(1) y seguros entre hilos
+ * Las suscripciones por patron se guardan en un trie de segmentos y se materializan en suscripciones a cada tema
+ * que coincide, asi el envio y la lectura de alertas generales no cambian
  * @author Albano Zupichiatti
  */
 public class UsersService {
 
-    private ArrayList<User> users;
+    private ConcurrentHashMap<String, User> users;
+
+    private ConcurrentHashMap<Topic, Set<User>> subscribersByTopic;
+
+    private SegmentTrie<User> patternSubscribers;
+
+    private AtomicInteger nextUserId;
+
+    private volatile RecordLog journal;
+
+    private volatile PushService pushService;
 
     /**
-     * Construye el servicio de usuarios con la lista de usuarios vacia
+     * Construye el servicio de usuarios con el indice de usuarios y el de suscripciones vacios
      */
     public UsersService() {
-        this.users = new ArrayList<>();
+        this.users = new ConcurrentHashMap<>();
+        this.subscribersByTopic = new ConcurrentHashMap<>();
+        this.patternSubscribers = new SegmentTrie<>();
+        this.nextUserId = new AtomicInteger();
     }
 
     /**
@@ -30,15 +53,62 @@ public class UsersService {
      */
     public User registerUser(String userName){
 
-        User user = new User(userName);
+        if(userName == null){
+            return null;
+        }
+
+        User user = new User(userName, nextUserId.getAndIncrement());
 
-        if(users.contains(user)){
+        if(users.putIfAbsent(userName, user) != null){
             return null;
         }
-        else{
-            users.add(user);
-            return user;
+
+        // El registro es idempotente, se agrega al diario luego de registrar el usuario asi toda
+        // instantanea que no lo vea tiene el registro en la cola del diario
+        try {
+            journal(JournalRecord.registerUser(userName));
+        } catch (RuntimeException e) {
+            users.remove(userName, user);
+            throw e;
         }
+
+        return user;
+    }
+
+    /**
+     * Restaura un usuario con el id que tenia asignado, se usa al cargar una instantanea
+     * @param userName Nombre de usuario
+     * @param id Id denso del usuario
+     * @return Usuario restaurado o null si ya existia
+     */
+    public User restoreUser(String userName, int id){
+
+        User user = new User(userName, id);
+
+        if(users.putIfAbsent(userName, user) != null){
+            return null;
+        }
+
+        nextUserId.accumulateAndGet(id + 1, Math::max);
+        return user;
+    }
+
+    /**
+     * Registra varios usuarios nuevos, los que ya existian se ignoran
+     * @param userNames Nombres de usuario
+     * @return Cantidad de usuarios registrados
+     */
+    public int registerUsers(Collection<String> userNames){
+
+        int count = 0;
+
+        for (String userName : userNames) {
+            if (registerUser(userName) != null) {
+                count++;
+            }
+        }
+
+        return count;
     }
 
     /**
@@ -48,13 +118,23 @@ public class UsersService {
      */
     public User findUser(String name){
 
-        return users.stream()
-                .filter(x->x.getUserName().equals(name))
-                .findFirst().orElse(null);
+        if(name == null){
+            return null;
+        }
+
+        return users.get(name);
+    }
+
+    /**
+     * Devuelve una vista de solo lectura de todos los usuarios registrados
+     * @return Coleccion de usuarios registrados
+     */
+    public Collection<User> getUsers(){
+        return Collections.unmodifiableCollection(users.values());
     }
 
     /**
-     * Elige un tema a suscribir por el usuario
+     * Elige un tema a suscribir por el usuario y actualiza el indice de suscriptores del tema
      * @param userName Nombre del usuario que se suscribe
      * @param topic Tema a suscribir
      * @return true si existe el usuario con ese nombre y se suscribio correctamente
@@ -64,7 +144,7 @@ public class UsersService {
         User user = findUser(userName);
 
         if(user!=null){
-            user.subscribeTopic(topic);
+            subscribe(user, topic, topic.getLastAlertId());
             return true;
         }
         else{
@@ -74,15 +154,263 @@ public class UsersService {
     }
 
     /**
-     * Busca los usuarios suscriptos a un tema
+     * Suscribe un usuario a varios temas tomando el lock del usuario una unica vez
+     * @param user Usuario que se suscribe
+     * @param topics Temas a suscribir
+     * @return Cantidad de suscripciones nuevas
+     */
+    public int selectTopics(User user, Collection<Topic> topics){
+
+        int count = 0;
+
+        user.getLock().writeLock().lock();
+        try {
+            for (Topic topic : topics) {
+                if (subscribe(user, topic, topic.getLastAlertId())) {
+                    count++;
+                }
+            }
+        } finally {
+            user.getLock().writeLock().unlock();
+        }
+
+        return count;
+    }
+
+    /**
+     * Suscribe varios usuarios a un tema resolviendo el conjunto de suscriptores del tema una unica vez,
+     * cada suscripcion toma el lock de su usuario y se registra en el diario por separado
+     * @param topic Tema a suscribir
+     * @param userNames Nombres de los usuarios que se suscriben, los que no existen se ignoran
+     * @return Cantidad de suscripciones nuevas
+     */
+    public int subscribeUsers(Topic topic, Collection<String> userNames){
+
+        int count = 0;
+        Set<User> subscribers = subscribersByTopic.computeIfAbsent(topic, x -> ConcurrentHashMap.newKeySet());
+
+        for (String userName : userNames) {
+
+            User user = findUser(userName);
+
+            if (user != null && subscribe(user, topic, topic.getLastAlertId(), subscribers)) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Restaura la suscripcion de un usuario a un tema a partir de una alerta dada, se usa al reproducir el diario
+     * @param user Usuario que se suscribe
+     * @param topic Tema a suscribir
+     * @param fromAlertId Id de la alerta desde la cual se reciben alertas (exclusivo)
+     * @return true si no estaba suscripto al tema
+     */
+    public boolean restoreSubscription(User user, Topic topic, int fromAlertId){
+        return subscribe(user, topic, fromAlertId);
+    }
+
+    /**
+     * Suscribe el usuario al tema y lo agrega al indice de suscriptores, con el lock del usuario tomado
+     * el registro en el diario, la suscripcion y el indice cambian juntos
+     * @param user Usuario que se suscribe
+     * @param topic Tema a suscribir
+     * @param fromAlertId Id de la alerta desde la cual se reciben alertas (exclusivo)
+     * @return true si no estaba suscripto al tema
+     */
+    private boolean subscribe(User user, Topic topic, int fromAlertId){
+        return subscribe(user, topic, fromAlertId, null);
+    }
+
+    /**
+     * Suscribe el usuario al tema usando un conjunto de suscriptores ya resuelto
+     * @param user Usuario que se suscribe
+     * @param topic Tema a suscribir
+     * @param fromAlertId Id de la alerta desde la cual se reciben alertas (exclusivo)
+     * @param subscribers Suscriptores del tema o null para resolverlos en el indice
+     * @return true si no estaba suscripto al tema
+     */
+    private boolean subscribe(User user, Topic topic, int fromAlertId, Set<User> subscribers){
+
+        user.getLock().writeLock().lock();
+        try {
+            if (user.isSubscribed(topic)) {
+                return false;
+            }
+
+            return journaled(JournalRecord.selectTopic(user.getUserName(), topic.getName(), fromAlertId), () -> {
+                user.subscribeTopic(topic, fromAlertId);
+                Set<User> index = subscribers != null ? subscribers
+                        : subscribersByTopic.computeIfAbsent(topic, x -> ConcurrentHashMap.newKeySet());
+                index.add(user);
+                PushService push = pushService;
+                if (push != null) {
+                    push.subscribed(user, topic);
+                }
+                return true;
+            });
+        } finally {
+            user.getLock().writeLock().unlock();
+        }
+    }
+
+    /**
+     * Desuscribe al usuario de un tema y lo quita del indice de suscriptores del tema
+     * @param userName Nombre del usuario que se desuscribe
+     * @param topic Tema a desuscribir
+     * @return true si existe el usuario con ese nombre y estaba suscripto al tema
+     */
+    public boolean unselectTopic(String userName, Topic topic){
+
+        User user = findUser(userName);
+
+        if(user == null){
+            return false;
+        }
+
+        user.getLock().writeLock().lock();
+        try {
+            if(user.isSubscribed(topic)){
+                return journaled(JournalRecord.unselectTopic(userName, topic.getName()), () -> {
+                    user.unsubscribeTopic(topic);
+                    Set<User> subscribers = subscribersByTopic.get(topic);
+                    if(subscribers != null){
+                        subscribers.remove(user);
+                    }
+                    PushService push = pushService;
+                    if(push != null){
+                        push.unsubscribed(user, topic);
+                    }
+                    return true;
+                });
+            }
+            else{
+                return false;
+            }
+        } finally {
+            user.getLock().writeLock().unlock();
+        }
+
+    }
+
+    /**
+     * Agrega un patron de temas al usuario, las suscripciones a los temas que ya coinciden se hacen luego
+     * con selectTopics y las de los temas que se registren despues con subscribeByPatterns
+     * @param user Usuario que se suscribe
+     * @param pattern Patron de temas
+     * @return true si el usuario no tenia el patron
+     */
+    public boolean selectPattern(User user, String pattern){
+
+        user.getLock().writeLock().lock();
+        try {
+            if(user.getTopicPatterns().contains(pattern)){
+                return false;
+            }
+
+            return journaled(JournalRecord.selectPattern(user.getUserName(), pattern), () -> {
+                user.addTopicPattern(pattern);
+                patternSubscribers.add(pattern, user);
+                return true;
+            });
+        } finally {
+            user.getLock().writeLock().unlock();
+        }
+    }
+
+    /**
+     * Quita un patron de temas del usuario y lo desuscribe de los temas que coincidian con el,
+     * los que siguen coincidiendo con otro patron del usuario se mantienen
+     * @param user Usuario que se desuscribe
+     * @param pattern Patron de temas
+     * @param topics Temas que coinciden con el patron
+     * @return true si el usuario tenia el patron
+     */
+    public boolean unselectPattern(User user, String pattern, Collection<Topic> topics){
+
+        user.getLock().writeLock().lock();
+        try {
+            if(!user.getTopicPatterns().contains(pattern)){
+                return false;
+            }
+
+            journaled(JournalRecord.unselectPattern(user.getUserName(), pattern), () -> {
+                user.removeTopicPattern(pattern);
+                patternSubscribers.remove(pattern, user);
+                return true;
+            });
+
+            Set<String> remaining = user.getTopicPatterns();
+            for (Topic topic : topics) {
+                if (remaining.stream().noneMatch(other -> SegmentTrie.matches(other, topic.getName()))) {
+                    unselectTopic(user.getUserName(), topic);
+                }
+            }
+
+            return true;
+        } finally {
+            user.getLock().writeLock().unlock();
+        }
+    }
+
+    /**
+     * Suscribe a un tema recien registrado los usuarios con algun patron que coincide con su nombre,
+     * el trie solo recorre las ramas que coinciden con el nombre
+     * @param topic Tema registrado
+     * @return Cantidad de suscripciones nuevas
+     */
+    public int subscribeByPatterns(Topic topic){
+
+        // Se juntan los usuarios antes de tomar sus locks, selectPattern toma el del usuario y luego el del trie
+        Set<User> matched = new LinkedHashSet<>();
+        patternSubscribers.matchPatterns(topic.getName(), matched::add);
+
+        int count = 0;
+
+        for (User user : matched) {
+            if (subscribe(user, topic, topic.getLastAlertId())) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Cuenta los usuarios suscriptos a un tema leyendo el indice de suscriptores
+     * @param topic Tema a contar sus usuarios
+     * @return Cantidad de usuarios suscriptos al tema
+     */
+    public int countSubscribers(Topic topic){
+
+        Set<User> subscribers = subscribersByTopic.get(topic);
+
+        if(subscribers != null){
+            return subscribers.size();
+        }
+        else{
+            return 0;
+        }
+    }
+
+    /**
+     * Busca los usuarios suscriptos a un tema leyendo el indice de suscriptores,
+     * no recorre el resto de los usuarios ni copia el conjunto
      * @param topic Tema a buscar sus usuarios
-     * @return Conjunto de usuarios suscrptos al tema
+     * @return Vista de solo lectura del conjunto de usuarios suscriptos al tema
      */
     public Set<User> findUsersByTopic(Topic topic){
 
-        return users.stream()
-                .filter(x->x.isSubscribed(topic))
-                .collect(Collectors.toSet());
+        Set<User> subscribers = subscribersByTopic.get(topic);
+
+        if(subscribers != null){
+            return Collections.unmodifiableSet(subscribers);
+        }
+        else{
+            return Collections.emptySet();
+        }
     }
 
     /**
@@ -92,7 +420,112 @@ public class UsersService {
      * @return True si existia la alerta en el usuario y se marco correctamente
      */
     public boolean markAlertAsRead(User user, Alert alert){
-        return user.markAlertAsRead(alert);
+
+        user.getLock().writeLock().lock();
+        try {
+            if(user.isUnread(alert)){
+                return journaled(JournalRecord.markAsRead(user.getUserName(), alert.getId()),
+                        () -> user.markAlertAsRead(alert));
+            }
+            else{
+                return false;
+            }
+        } finally {
+            user.getLock().writeLock().unlock();
+        }
+    }
+
+    /**
+     * Marca varias alertas de un usuario como leidas
+     * @param user Usuario a marcar sus alertas como leidas
+     * @param alerts Alertas a marcar como leidas
+     * @return Cantidad de alertas que existian en el usuario y se marcaron
+     */
+    public int markAlertsAsRead(User user, Collection<Alert> alerts){
+
+        user.getLock().writeLock().lock();
+        try {
+            Set<Alert> unread = new LinkedHashSet<>();
+            for (Alert alert : alerts) {
+                if (user.isUnread(alert)) {
+                    unread.add(alert);
+                }
+            }
+
+            if (unread.isEmpty()) {
+                return 0;
+            }
+
+            return journaled(JournalRecord.markAsRead(user.getUserName(), unread.stream().mapToInt(Alert::getId).toArray()),
+                    () -> user.markAlertsAsRead(unread));
+        } finally {
+            user.getLock().writeLock().unlock();
+        }
+    }
+
+    /**
+     * Marca todas las alertas pendientes de un usuario como leidas,
+     * si hay diario se registran los ids de las alertas marcadas
+     * @param user Usuario a marcar sus alertas como leidas
+     * @return Cantidad de alertas que se marcaron
+     */
+    public int markAllAsRead(User user){
+
+        if(journal == null){
+            return user.markAllAsRead();
+        }
+
+        user.getLock().writeLock().lock();
+        try {
+            // Incluye las vencidas que todavia no se purgaron, igual que User.markAllAsRead
+            return markAlertsAsRead(user, user.getUnexpiredAlerts(Long.MIN_VALUE));
+        } finally {
+            user.getLock().writeLock().unlock();
+        }
+    }
+
+    /**
+     * Establece el diario donde se registran los cambios antes de aplicarlos, null para no registrarlos
+     * @param journal Diario de cambios
+     */
+    public void setJournal(RecordLog journal){
+        this.journal = journal;
+    }
+
+    /**
+     * Establece el servicio push al que se avisan las suscripciones, null si no hay entrega push
+     * @param pushService Servicio push
+     */
+    public void setPushService(PushService pushService){
+        this.pushService = pushService;
+    }
+
+    /**
+     * Agrega un registro al diario si hay uno configurado y luego aplica el cambio,
+     * una instantanea que lea la posicion del diario ve todos los cambios registrados antes
+     * @param record Registro a agregar
+     * @param change Cambio a aplicar
+     * @return Resultado del cambio
+     */
+    private <T> T journaled(JournalRecord record, Supplier<T> change){
+
+        RecordLog current = journal;
+        if(current != null){
+            return current.append(record, change);
+        }
+        return change.get();
+    }
+
+    /**
+     * Agrega un registro al diario si hay uno configurado
+     * @param record Registro a agregar
+     */
+    private void journal(JournalRecord record){
+
+        RecordLog current = journal;
+        if(current != null){
+            current.append(record);
+        }
     }
 
 }
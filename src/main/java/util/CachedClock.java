@@ -0,0 +1,48 @@
+package util;
+
+/**
+ * Reloj de baja resolucion que un hilo demonio actualiza cada cierta cantidad de milisegundos,
+ * leerlo es solo una lectura volatil sin llamar al sistema, a cambio de atrasar hasta la resolucion
+ * @author Albano Zupichiatti
+ */
+public class CachedClock implements MillisClock, AutoCloseable {
+
+    private final Thread ticker;
+
+    private volatile long now;
+
+    /**
+     * Construye el reloj y arranca el hilo que lo actualiza
+     * @param resolutionMillis Cada cuantos milisegundos se actualiza
+     */
+    public CachedClock(long resolutionMillis) {
+
+        this.now = System.currentTimeMillis();
+        this.ticker = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    Thread.sleep(resolutionMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                now = System.currentTimeMillis();
+            }
+        }, "cached-clock");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    @Override
+    public long millis() {
+        return now;
+    }
+
+    /**
+     * Detiene el hilo que actualiza el reloj, luego el reloj queda fijo
+     */
+    @Override
+    public void close() {
+        ticker.interrupt();
+    }
+
+}
@@ -0,0 +1,189 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Planificador de vencimientos basado en ruedas de tiempo jerarquicas
+ * El nivel 0 tiene una ranura por tick, cada nivel superior agrupa una vuelta completa del nivel inferior en cada
+ * ranura y al llegar a ella la redistribuye hacia abajo. Agendar y vencer cuesta O(1) amortizado por elemento,
+ * sin importar cuantos elementos haya agendados
+ * No es seguro entre hilos, quien lo usa debe sincronizar el acceso
+ * @param <T> Tipo de los elementos agendados
+ * @author Albano Zupichiatti
+ */
+public class HierarchicalTimingWheel<T> {
+
+    private static final int WHEEL_BITS = 6;
+
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+    private final long tickMillis;
+
+    private final List<Entry<T>[]> levels;
+
+    private long currentTick;
+
+    private int size;
+
+    /**
+     * Construye la rueda con la duracion de tick indicada
+     * @param tickMillis Duracion de cada tick en milisegundos, es la precision de los vencimientos
+     * @param startMillis Instante inicial en milisegundos
+     */
+    public HierarchicalTimingWheel(long tickMillis, long startMillis) {
+
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tickMillis must be positive");
+        }
+
+        this.tickMillis = tickMillis;
+        this.levels = new ArrayList<>();
+        this.currentTick = Math.floorDiv(startMillis, tickMillis);
+    }
+
+    /**
+     * Agenda un elemento para que venza en el instante indicado,
+     * si el instante ya paso vencera en el proximo avance
+     * @param item Elemento a agendar
+     * @param deadlineMillis Instante de vencimiento en milisegundos
+     */
+    public void schedule(T item, long deadlineMillis) {
+        size++;
+        place(new Entry<>(item, -Math.floorDiv(-deadlineMillis, tickMillis)), currentTick + 1);
+    }
+
+    /**
+     * Avanza la rueda hasta el instante indicado y entrega los elementos vencidos
+     * @param nowMillis Instante actual en milisegundos
+     * @param expired Accion a ejecutar por cada elemento vencido
+     * @return Cantidad de elementos vencidos
+     */
+    public int advance(long nowMillis, Consumer<? super T> expired) {
+
+        long targetTick = Math.floorDiv(nowMillis, tickMillis);
+        int count = 0;
+
+        while (currentTick < targetTick) {
+
+            if (size == 0) {
+                currentTick = targetTick;
+                break;
+            }
+
+            currentTick++;
+
+            for (int level = levels.size() - 1; level > 0; level--) {
+                if ((currentTick & ((1L << (WHEEL_BITS * level)) - 1)) == 0) {
+                    cascade(level);
+                }
+            }
+
+            Entry<T>[] slots = levels.isEmpty() ? null : levels.get(0);
+            if (slots == null) {
+                continue;
+            }
+
+            int index = (int) (currentTick & WHEEL_MASK);
+            Entry<T> entry = slots[index];
+            slots[index] = null;
+
+            while (entry != null) {
+                Entry<T> next = entry.next;
+                size--;
+                count++;
+                expired.accept(entry.item);
+                entry = next;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Devuelve la cantidad de elementos agendados pendientes de vencer
+     * @return Cantidad de elementos agendados
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Redistribuye hacia los niveles inferiores la ranura del nivel que corresponde al tick actual
+     * @param level Nivel a redistribuir
+     */
+    private void cascade(int level) {
+
+        Entry<T>[] slots = levels.get(level);
+        int index = (int) ((currentTick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+        Entry<T> entry = slots[index];
+        slots[index] = null;
+
+        while (entry != null) {
+            Entry<T> next = entry.next;
+            entry.next = null;
+            place(entry, currentTick);
+            entry = next;
+        }
+    }
+
+    /**
+     * Ubica la entrada en el nivel mas bajo cuyo rango cubre su vencimiento,
+     * las entradas ya vencidas van a la ranura del primer tick que todavia no se proceso
+     * @param entry Entrada a ubicar
+     * @param minTick Primer tick cuya ranura de nivel 0 todavia no se proceso
+     */
+    private void place(Entry<T> entry, long minTick) {
+
+        long deadlineTick = Math.max(entry.deadlineTick, minTick);
+        long delta = deadlineTick - currentTick;
+
+        int level = 0;
+        while (level < 10 && delta >= 1L << (WHEEL_BITS * (level + 1))) {
+            level++;
+        }
+
+        Entry<T>[] slots = level(level);
+        int index = (int) ((deadlineTick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+        entry.next = slots[index];
+        slots[index] = entry;
+    }
+
+    /**
+     * Devuelve las ranuras de un nivel creandolo si todavia no existia
+     * @param level Nivel
+     * @return Ranuras del nivel
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Entry<T>[] level(int level) {
+
+        while (levels.size() <= level) {
+            levels.add((Entry<T>[]) new Entry[WHEEL_SIZE]);
+        }
+
+        return levels.get(level);
+    }
+
+    /**
+     * Elemento agendado con su tick de vencimiento, se encadena con los demas de la misma ranura
+     * @param <T> Tipo del elemento
+     */
+    private static class Entry<T> {
+
+        private final T item;
+
+        private final long deadlineTick;
+
+        private Entry<T> next;
+
+        private Entry(T item, long deadlineTick) {
+            this.item = item;
+            this.deadlineTick = deadlineTick;
+        }
+
+    }
+
+}
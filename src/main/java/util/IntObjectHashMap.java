@@ -0,0 +1,300 @@
+package util;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Mapa hash de claves int primitivas con direccionamiento abierto y sondeo lineal
+ * Evita el boxing de Integer y los nodos de HashMap, cada entrada ocupa un int y una referencia en dos arreglos
+ * La clave 0 se usa como marca de posicion libre, por lo que se guarda aparte
+ * No es seguro entre hilos, quien lo usa debe sincronizar el acceso
+ * @param <V> Tipo de los valores
+ * @author Albano Zupichiatti
+ */
+public class IntObjectHashMap<V> {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private int[] keys;
+
+    private Object[] values;
+
+    private int size;
+
+    private int threshold;
+
+    private boolean hasZeroKey;
+
+    private Object zeroValue;
+
+    /**
+     * Construye el mapa vacio con la capacidad por defecto
+     */
+    public IntObjectHashMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Construye el mapa vacio con capacidad para la cantidad de entradas esperada sin redimensionar
+     * @param expectedSize Cantidad de entradas esperada
+     */
+    public IntObjectHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(DEFAULT_CAPACITY, (int) (expectedSize / LOAD_FACTOR) + 1) - 1) << 1;
+        allocate(capacity);
+    }
+
+    /**
+     * Devuelve el valor asociado a la clave
+     * @param key Clave a buscar
+     * @return Valor asociado o null si no existe
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+
+        if (key == 0) {
+            return (V) zeroValue;
+        }
+
+        int mask = keys.length - 1;
+        int index = mix(key) & mask;
+
+        while (keys[index] != 0) {
+            if (keys[index] == key) {
+                return (V) values[index];
+            }
+            index = (index + 1) & mask;
+        }
+
+        return null;
+    }
+
+    /**
+     * Devuelve true si la clave existe en el mapa
+     * @param key Clave a buscar
+     * @return true si existe
+     */
+    public boolean containsKey(int key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Asocia un valor a una clave, reemplazando el anterior si existia
+     * @param key Clave
+     * @param value Valor, no puede ser null
+     * @return Valor anterior o null si no existia
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+
+        if (value == null) {
+            throw new IllegalArgumentException("Null values are not supported");
+        }
+
+        if (key == 0) {
+            V previous = (V) zeroValue;
+            if (!hasZeroKey) {
+                hasZeroKey = true;
+                size++;
+            }
+            zeroValue = value;
+            return previous;
+        }
+
+        int mask = keys.length - 1;
+        int index = mix(key) & mask;
+
+        while (keys[index] != 0) {
+            if (keys[index] == key) {
+                V previous = (V) values[index];
+                values[index] = value;
+                return previous;
+            }
+            index = (index + 1) & mask;
+        }
+
+        keys[index] = key;
+        values[index] = value;
+
+        if (++size > threshold) {
+            rehash(keys.length << 1);
+        }
+
+        return null;
+    }
+
+    /**
+     * Quita una clave del mapa, reacomoda las entradas siguientes del mismo grupo para no dejar marcas de borrado
+     * @param key Clave a quitar
+     * @return Valor que tenia asociado o null si no existia
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+
+        if (key == 0) {
+            V previous = (V) zeroValue;
+            if (hasZeroKey) {
+                hasZeroKey = false;
+                zeroValue = null;
+                size--;
+            }
+            return previous;
+        }
+
+        int mask = keys.length - 1;
+        int index = mix(key) & mask;
+
+        while (keys[index] != 0) {
+            if (keys[index] == key) {
+                V previous = (V) values[index];
+                shiftKeys(index);
+                size--;
+                return previous;
+            }
+            index = (index + 1) & mask;
+        }
+
+        return null;
+    }
+
+    /**
+     * Devuelve la cantidad de entradas
+     * @return Cantidad de entradas
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Devuelve true si el mapa no tiene entradas
+     * @return true si esta vacio
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Quita todas las entradas manteniendo la capacidad actual
+     */
+    public void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(values, null);
+        hasZeroKey = false;
+        zeroValue = null;
+        size = 0;
+    }
+
+    /**
+     * Recorre todos los valores del mapa sin un orden determinado
+     * @param action Accion a ejecutar por cada valor
+     */
+    @SuppressWarnings("unchecked")
+    public void forEachValue(Consumer<? super V> action) {
+
+        if (hasZeroKey) {
+            action.accept((V) zeroValue);
+        }
+
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) {
+                action.accept((V) values[i]);
+            }
+        }
+    }
+
+    /**
+     * Recorre todas las entradas del mapa sin un orden determinado
+     * @param action Accion a ejecutar por cada valor y su clave
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(ObjIntConsumer<? super V> action) {
+
+        if (hasZeroKey) {
+            action.accept((V) zeroValue, 0);
+        }
+
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) {
+                action.accept((V) values[i], keys[i]);
+            }
+        }
+    }
+
+    /**
+     * Reubica las entradas que siguen a una posicion liberada para que sigan siendo alcanzables por el sondeo
+     * @param free Posicion liberada
+     */
+    private void shiftKeys(int free) {
+
+        int mask = keys.length - 1;
+        int current = free;
+
+        while (true) {
+            current = (current + 1) & mask;
+
+            if (keys[current] == 0) {
+                break;
+            }
+
+            int home = mix(keys[current]) & mask;
+
+            // La entrada se mueve solo si su posicion ideal no esta entre el hueco y su posicion actual
+            if (free <= current ? (home <= free || home > current) : (home <= free && home > current)) {
+                keys[free] = keys[current];
+                values[free] = values[current];
+                free = current;
+            }
+        }
+
+        keys[free] = 0;
+        values[free] = null;
+    }
+
+    /**
+     * Redimensiona los arreglos y vuelve a ubicar todas las entradas
+     * @param capacity Nueva capacidad, potencia de dos
+     */
+    private void rehash(int capacity) {
+
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+
+        allocate(capacity);
+
+        int mask = capacity - 1;
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int index = mix(oldKeys[i]) & mask;
+                while (keys[index] != 0) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Reserva los arreglos con la capacidad indicada
+     * @param capacity Capacidad, potencia de dos
+     */
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new Object[capacity];
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    /**
+     * Dispersa la clave para que ids consecutivos no formen grupos largos
+     * @param key Clave
+     * @return Hash dispersado
+     */
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+}
@@ -0,0 +1,142 @@
+package util;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.function.Predicate;
+
+/**
+ * Utilidades para recorrer colecciones sin materializarlas
+ * @author Albano Zupichiatti
+ */
+public final class Iterators {
+
+    private Iterators() {
+    }
+
+    /**
+     * Devuelve un iterador que solo entrega los elementos que cumplen la condicion
+     * @param iterator Iterador de origen
+     * @param filter Condicion a cumplir
+     * @param <T> Tipo de los elementos
+     * @return Iterador filtrado
+     */
+    public static <T> Iterator<T> filter(Iterator<T> iterator, Predicate<? super T> filter) {
+
+        return new Iterator<T>() {
+
+            private T next = find();
+
+            private T find() {
+                while (iterator.hasNext()) {
+                    T candidate = iterator.next();
+                    if (filter.test(candidate)) {
+                        return candidate;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public T next() {
+
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+
+                T current = next;
+                next = find();
+                return current;
+            }
+        };
+    }
+
+    /**
+     * Une varios iteradores ya ordenados por el mismo comparador en un unico iterador ordenado,
+     * cada elemento cuesta O(log k) siendo k la cantidad de iteradores
+     * @param iterators Iteradores ordenados
+     * @param comparator Comparador con el que estan ordenados
+     * @param <T> Tipo de los elementos
+     * @return Iterador ordenado
+     */
+    public static <T> Iterator<T> merge(List<Iterator<T>> iterators, Comparator<? super T> comparator) {
+
+        if (iterators.size() == 1) {
+            return iterators.get(0);
+        }
+
+        PriorityQueue<PeekingIterator<T>> heads = new PriorityQueue<>(Math.max(1, iterators.size()),
+                (x, y) -> comparator.compare(x.peek(), y.peek()));
+
+        for (Iterator<T> iterator : iterators) {
+            if (iterator.hasNext()) {
+                heads.add(new PeekingIterator<>(iterator));
+            }
+        }
+
+        return new Iterator<T>() {
+
+            @Override
+            public boolean hasNext() {
+                return !heads.isEmpty();
+            }
+
+            @Override
+            public T next() {
+
+                PeekingIterator<T> head = heads.poll();
+
+                if (head == null) {
+                    throw new NoSuchElementException();
+                }
+
+                T current = head.next();
+                if (head.hasNext()) {
+                    heads.add(head);
+                }
+                return current;
+            }
+        };
+    }
+
+    /**
+     * Iterador que permite consultar el siguiente elemento sin consumirlo
+     * @param <T> Tipo de los elementos
+     */
+    private static class PeekingIterator<T> implements Iterator<T> {
+
+        private final Iterator<T> iterator;
+
+        private T peeked;
+
+        private PeekingIterator(Iterator<T> iterator) {
+            this.iterator = iterator;
+            this.peeked = iterator.next();
+        }
+
+        private T peek() {
+            return peeked;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return peeked != null;
+        }
+
+        @Override
+        public T next() {
+            T current = peeked;
+            peeked = iterator.hasNext() ? iterator.next() : null;
+            return current;
+        }
+
+    }
+
+}
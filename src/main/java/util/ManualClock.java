@@ -0,0 +1,40 @@
+package util;
+
+/**
+ * Reloj que solo avanza cuando se lo indica, para controlar los vencimientos en los test
+ * @author Albano Zupichiatti
+ */
+public class ManualClock implements MillisClock {
+
+    private volatile long now;
+
+    /**
+     * Construye el reloj en la hora dada
+     * @param now Milisegundos desde epoch
+     */
+    public ManualClock(long now) {
+        this.now = now;
+    }
+
+    @Override
+    public long millis() {
+        return now;
+    }
+
+    /**
+     * Establece la hora del reloj
+     * @param now Milisegundos desde epoch
+     */
+    public void set(long now) {
+        this.now = now;
+    }
+
+    /**
+     * Avanza el reloj
+     * @param millis Milisegundos a avanzar
+     */
+    public synchronized void advance(long millis) {
+        this.now += millis;
+    }
+
+}
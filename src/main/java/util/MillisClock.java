@@ -0,0 +1,47 @@
+package util;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * Reloj en milisegundos desde epoch usado para los vencimientos, permite reemplazar el reloj del sistema
+ * por uno cacheado (CachedClock) o uno manual (ManualClock) para controlar el tiempo en los test
+ * Las conversiones con LocalDateTime usan la zona horaria del sistema
+ * @author Albano Zupichiatti
+ */
+@FunctionalInterface
+public interface MillisClock {
+
+    /**
+     * Reloj del sistema
+     */
+    MillisClock SYSTEM = System::currentTimeMillis;
+
+    /**
+     * Devuelve la hora actual
+     * @return Milisegundos desde epoch
+     */
+    long millis();
+
+    /**
+     * Convierte una fecha a milisegundos desde epoch
+     * @param date Fecha a convertir
+     * @param never Valor a devolver si la fecha es null
+     * @return Milisegundos desde epoch, o never si la fecha es null
+     */
+    static long toMillis(LocalDateTime date, long never) {
+        return date != null ? date.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() : never;
+    }
+
+    /**
+     * Convierte milisegundos desde epoch a una fecha
+     * @param millis Milisegundos desde epoch
+     * @param never Valor que representa la ausencia de fecha
+     * @return Fecha, o null si millis es never
+     */
+    static LocalDateTime toDateTime(long millis, long never) {
+        return millis != never ? LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault()) : null;
+    }
+
+}
@@ -0,0 +1,129 @@
+package util;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Cola FIFO sobre un arreglo circular, cada elemento lleva una marca de tiempo
+ * Agregar al final y quitar del principio es O(1) sin mover el resto de los elementos, el arreglo solo
+ * se copia al duplicar su capacidad cuando se llena
+ * No es seguro entre hilos, quien lo usa debe sincronizar el acceso
+ * @param <T> Tipo de los elementos
+ * @author Albano Zupichiatti
+ */
+public class RingBuffer<T> {
+
+    private Object[] elements;
+
+    private long[] stamps;
+
+    private int head;
+
+    private int size;
+
+    /**
+     * Construye la cola vacia con la capacidad inicial indicada
+     * @param capacity Capacidad inicial, se redondea a una potencia de dos
+     */
+    public RingBuffer(int capacity) {
+        int length = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+        this.elements = new Object[length];
+        this.stamps = new long[length];
+    }
+
+    /**
+     * Agrega un elemento al final
+     * @param element Elemento a agregar
+     * @param stamp Marca de tiempo del elemento
+     */
+    public void add(T element, long stamp) {
+
+        if (size == elements.length) {
+            grow();
+        }
+
+        int index = (head + size) & (elements.length - 1);
+        elements[index] = element;
+        stamps[index] = stamp;
+        size++;
+    }
+
+    /**
+     * Devuelve el primer elemento sin quitarlo
+     * @return Primer elemento
+     * @throws NoSuchElementException si esta vacia
+     */
+    @SuppressWarnings("unchecked")
+    public T peekFirst() {
+
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+
+        return (T) elements[head];
+    }
+
+    /**
+     * Devuelve la marca de tiempo del primer elemento
+     * @return Marca de tiempo
+     * @throws NoSuchElementException si esta vacia
+     */
+    public long peekFirstStamp() {
+
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+
+        return stamps[head];
+    }
+
+    /**
+     * Quita el primer elemento
+     * @return Elemento quitado
+     * @throws NoSuchElementException si esta vacia
+     */
+    public T pollFirst() {
+
+        T element = peekFirst();
+        elements[head] = null;
+        head = (head + 1) & (elements.length - 1);
+        size--;
+
+        return element;
+    }
+
+    /**
+     * Devuelve la cantidad de elementos
+     * @return Cantidad de elementos
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Devuelve true si no hay elementos
+     * @return true si esta vacia
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Duplica la capacidad dejando los elementos en orden desde el inicio del arreglo
+     */
+    private void grow() {
+
+        Object[] grownElements = new Object[elements.length * 2];
+        long[] grownStamps = new long[stamps.length * 2];
+
+        int first = elements.length - head;
+        System.arraycopy(elements, head, grownElements, 0, first);
+        System.arraycopy(elements, 0, grownElements, first, head);
+        System.arraycopy(stamps, head, grownStamps, 0, first);
+        System.arraycopy(stamps, 0, grownStamps, first, head);
+
+        elements = grownElements;
+        stamps = grownStamps;
+        head = 0;
+    }
+
+}
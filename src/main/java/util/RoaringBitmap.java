@@ -0,0 +1,299 @@
+package util;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Conjunto de enteros no negativos comprimido al estilo Roaring
+ * Los valores se agrupan por sus 16 bits altos, cada grupo guarda sus 16 bits bajos en un arreglo ordenado
+ * de char (2 bytes por valor) mientras tenga hasta 4096 valores, y en un mapa de bits de 8 KB si tiene mas
+ * (1 bit por valor posible), por lo que nunca ocupa mas de 2 bytes por valor
+ * No es seguro entre hilos, quien lo usa debe sincronizar el acceso
+ * @author Albano Zupichiatti
+ */
+public class RoaringBitmap {
+
+    private static final int ARRAY_LIMIT = 4096;
+
+    private static final int BITMAP_WORDS = (1 << 16) / Long.SIZE;
+
+    private char[] keys;
+
+    private Object[] containers;
+
+    private int[] counts;
+
+    private int size;
+
+    private int cardinality;
+
+    /**
+     * Construye el conjunto vacio
+     */
+    public RoaringBitmap() {
+        this.keys = new char[1];
+        this.containers = new Object[1];
+        this.counts = new int[1];
+    }
+
+    /**
+     * Agrega un valor
+     * @param value Valor a agregar
+     * @return true si no estaba en el conjunto
+     */
+    public boolean add(int value) {
+
+        char key = (char) (value >>> 16);
+        char low = (char) value;
+        int index = Arrays.binarySearch(keys, 0, size, key);
+
+        if (index < 0) {
+            index = -index - 1;
+            insertContainer(index, key, new char[4]);
+        }
+
+        boolean added;
+
+        if (containers[index] instanceof char[]) {
+            added = addToArray(index, low);
+        } else {
+            long[] bitmap = (long[]) containers[index];
+            long bit = 1L << low;
+            added = (bitmap[low >>> 6] & bit) == 0;
+            bitmap[low >>> 6] |= bit;
+        }
+
+        if (added) {
+            counts[index]++;
+            cardinality++;
+        }
+
+        return added;
+    }
+
+    /**
+     * Quita un valor
+     * @param value Valor a quitar
+     * @return true si estaba en el conjunto
+     */
+    public boolean remove(int value) {
+
+        int index = Arrays.binarySearch(keys, 0, size, (char) (value >>> 16));
+
+        if (index < 0) {
+            return false;
+        }
+
+        char low = (char) value;
+        boolean removed;
+
+        if (containers[index] instanceof char[]) {
+            char[] array = (char[]) containers[index];
+            int position = Arrays.binarySearch(array, 0, counts[index], low);
+            removed = position >= 0;
+            if (removed) {
+                System.arraycopy(array, position + 1, array, position, counts[index] - position - 1);
+            }
+        } else {
+            long[] bitmap = (long[]) containers[index];
+            long bit = 1L << low;
+            removed = (bitmap[low >>> 6] & bit) != 0;
+            bitmap[low >>> 6] &= ~bit;
+        }
+
+        if (removed) {
+            counts[index]--;
+            cardinality--;
+            if (counts[index] == 0) {
+                removeContainer(index);
+            } else if (counts[index] == ARRAY_LIMIT && containers[index] instanceof long[]) {
+                containers[index] = toArray((long[]) containers[index]);
+            }
+        }
+
+        return removed;
+    }
+
+    /**
+     * Devuelve true si el valor esta en el conjunto
+     * @param value Valor a buscar
+     * @return true si esta en el conjunto
+     */
+    public boolean contains(int value) {
+
+        int index = Arrays.binarySearch(keys, 0, size, (char) (value >>> 16));
+
+        if (index < 0) {
+            return false;
+        }
+
+        char low = (char) value;
+
+        if (containers[index] instanceof char[]) {
+            return Arrays.binarySearch((char[]) containers[index], 0, counts[index], low) >= 0;
+        }
+
+        return (((long[]) containers[index])[low >>> 6] & (1L << low)) != 0;
+    }
+
+    /**
+     * Devuelve la cantidad de valores del conjunto, se mantiene al agregar y quitar por lo que es O(1)
+     * @return Cantidad de valores
+     */
+    public int getCardinality() {
+        return cardinality;
+    }
+
+    public boolean isEmpty() {
+        return cardinality == 0;
+    }
+
+    /**
+     * Recorre los valores en orden ascendente
+     * @param action Accion a ejecutar con cada valor
+     */
+    public void forEach(IntConsumer action) {
+
+        for (int i = 0; i < size; i++) {
+
+            int high = keys[i] << 16;
+
+            if (containers[i] instanceof char[]) {
+                char[] array = (char[]) containers[i];
+                for (int j = 0; j < counts[i]; j++) {
+                    action.accept(high | array[j]);
+                }
+            } else {
+                long[] bitmap = (long[]) containers[i];
+                for (int word = 0; word < BITMAP_WORDS; word++) {
+                    long bits = bitmap[word];
+                    while (bits != 0) {
+                        action.accept(high | (word << 6) | Long.numberOfTrailingZeros(bits));
+                        bits &= bits - 1;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Devuelve los valores en orden ascendente
+     * @return Arreglo de valores
+     */
+    public int[] toArray() {
+
+        int[] values = new int[cardinality];
+        int[] position = new int[1];
+        forEach(value -> values[position[0]++] = value);
+
+        return values;
+    }
+
+    /**
+     * Estima los bytes que ocupan los contenedores, sin contar los encabezados de los objetos
+     * @return Bytes ocupados
+     */
+    public long sizeInBytes() {
+
+        long bytes = (long) keys.length * Character.BYTES + (long) counts.length * Integer.BYTES;
+
+        for (int i = 0; i < size; i++) {
+            if (containers[i] instanceof char[]) {
+                bytes += (long) ((char[]) containers[i]).length * Character.BYTES;
+            } else {
+                bytes += (long) BITMAP_WORDS * Long.BYTES;
+            }
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Agrega el valor bajo al arreglo ordenado del contenedor, si se supera el limite lo convierte a mapa de bits
+     */
+    private boolean addToArray(int index, char low) {
+
+        char[] array = (char[]) containers[index];
+        int count = counts[index];
+        int position = Arrays.binarySearch(array, 0, count, low);
+
+        if (position >= 0) {
+            return false;
+        }
+
+        if (count == ARRAY_LIMIT) {
+            long[] bitmap = toBitmap(array, count);
+            bitmap[low >>> 6] |= 1L << low;
+            containers[index] = bitmap;
+            return true;
+        }
+
+        position = -position - 1;
+
+        if (count == array.length) {
+            array = Arrays.copyOf(array, Math.min(ARRAY_LIMIT, array.length * 2));
+            containers[index] = array;
+        }
+
+        System.arraycopy(array, position, array, position + 1, count - position);
+        array[position] = low;
+
+        return true;
+    }
+
+    private static long[] toBitmap(char[] array, int count) {
+
+        long[] bitmap = new long[BITMAP_WORDS];
+
+        for (int i = 0; i < count; i++) {
+            bitmap[array[i] >>> 6] |= 1L << array[i];
+        }
+
+        return bitmap;
+    }
+
+    private static char[] toArray(long[] bitmap) {
+
+        char[] array = new char[ARRAY_LIMIT];
+        int count = 0;
+
+        for (int word = 0; word < BITMAP_WORDS; word++) {
+            long bits = bitmap[word];
+            while (bits != 0) {
+                array[count++] = (char) ((word << 6) | Long.numberOfTrailingZeros(bits));
+                bits &= bits - 1;
+            }
+        }
+
+        return array;
+    }
+
+    private void insertContainer(int index, char key, Object container) {
+
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+            counts = Arrays.copyOf(counts, size * 2);
+        }
+
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(containers, index, containers, index + 1, size - index);
+        System.arraycopy(counts, index, counts, index + 1, size - index);
+
+        keys[index] = key;
+        containers[index] = container;
+        counts[index] = 0;
+        size++;
+    }
+
+    private void removeContainer(int index) {
+
+        System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+        System.arraycopy(containers, index + 1, containers, index, size - index - 1);
+        System.arraycopy(counts, index + 1, counts, index, size - index - 1);
+
+        size--;
+        containers[size] = null;
+    }
+
+}
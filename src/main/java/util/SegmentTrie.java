@@ -0,0 +1,261 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Trie de nombres jerarquicos separados por punto (por ejemplo programming.java.jvm), cada nodo es un segmento
+ * En los patrones el segmento * coincide con exactamente un segmento y # con cero o mas segmentos
+ * Sirve en los dos sentidos: guardar patrones y buscar los que coinciden con un nombre, o guardar nombres
+ * y buscar los que coinciden con un patron, en ambos casos el costo es la profundidad mas las coincidencias
+ * sin probar cada clave guardada
+ * Es seguro entre hilos, las busquedas toman el lock de lectura y los cambios el de escritura
+ * @param <V> Tipo de los valores guardados en cada clave
+ * @author Albano Zupichiatti
+ */
+public class SegmentTrie<V> {
+
+    /**
+     * Segmento que coincide con exactamente un segmento
+     */
+    public static final String ONE = "*";
+
+    /**
+     * Segmento que coincide con cero o mas segmentos
+     */
+    public static final String ANY = "#";
+
+    private final Node<V> root;
+
+    private final ReadWriteLock lock;
+
+    /**
+     * Construye el trie vacio
+     */
+    public SegmentTrie() {
+        this.root = new Node<>();
+        this.lock = new ReentrantReadWriteLock();
+    }
+
+    /**
+     * Devuelve true si el nombre tiene algun segmento comodin
+     * @param name Nombre o patron
+     * @return true si es un patron
+     */
+    public static boolean isPattern(String name) {
+
+        for (String segment : split(name)) {
+            if (segment.equals(ONE) || segment.equals(ANY)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Devuelve true si el patron coincide con el nombre
+     * @param pattern Patron
+     * @param name Nombre sin comodines
+     * @return true si coincide
+     */
+    public static boolean matches(String pattern, String name) {
+        return matches(split(pattern), 0, split(name), 0);
+    }
+
+    /**
+     * Agrega un valor a una clave
+     * @param key Nombre o patron
+     * @param value Valor a agregar
+     * @return true si el valor no estaba en la clave
+     */
+    public boolean add(String key, V value) {
+
+        lock.writeLock().lock();
+        try {
+            Node<V> node = root;
+            for (String segment : split(key)) {
+                node = node.children.computeIfAbsent(segment, x -> new Node<>());
+            }
+
+            if (node.values == null) {
+                node.values = new HashSet<>();
+            }
+
+            return node.values.add(value);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Quita un valor de una clave, los nodos que quedan vacios se podan
+     * @param key Nombre o patron
+     * @param value Valor a quitar
+     * @return true si el valor estaba en la clave
+     */
+    public boolean remove(String key, V value) {
+
+        lock.writeLock().lock();
+        try {
+            String[] segments = split(key);
+            List<Node<V>> path = new ArrayList<>(segments.length + 1);
+            Node<V> node = root;
+            path.add(node);
+
+            for (String segment : segments) {
+                node = node.children.get(segment);
+                if (node == null) {
+                    return false;
+                }
+                path.add(node);
+            }
+
+            if (node.values == null || !node.values.remove(value)) {
+                return false;
+            }
+
+            for (int i = segments.length; i > 0 && path.get(i).isEmpty(); i--) {
+                path.get(i - 1).children.remove(segments[i - 1]);
+            }
+
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Recorre los valores de los patrones guardados que coinciden con un nombre
+     * @param name Nombre sin comodines
+     * @param action Accion a ejecutar por cada valor, un valor guardado en varios patrones coincidentes se repite
+     */
+    public void matchPatterns(String name, Consumer<? super V> action) {
+
+        lock.readLock().lock();
+        try {
+            matchPatterns(root, split(name), 0, new HashSet<>(), action);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Recorre los valores de los nombres guardados que coinciden con un patron
+     * @param pattern Patron
+     * @param action Accion a ejecutar por cada valor, cada nombre se visita una unica vez
+     */
+    public void matchNames(String pattern, Consumer<? super V> action) {
+
+        lock.readLock().lock();
+        try {
+            Set<Node<V>> visited = new HashSet<>();
+            matchNames(root, split(pattern), 0, node -> {
+                if (node.values != null && visited.add(node)) {
+                    node.values.forEach(action);
+                }
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void matchPatterns(Node<V> node, String[] name, int index, Set<Node<V>> visited, Consumer<? super V> action) {
+
+        if (index == name.length && node.values != null && visited.add(node)) {
+            node.values.forEach(action);
+        }
+
+        if (index < name.length) {
+            Node<V> exact = node.children.get(name[index]);
+            if (exact != null) {
+                matchPatterns(exact, name, index + 1, visited, action);
+            }
+
+            Node<V> one = node.children.get(ONE);
+            if (one != null) {
+                matchPatterns(one, name, index + 1, visited, action);
+            }
+        }
+
+        Node<V> any = node.children.get(ANY);
+        if (any != null) {
+            for (int next = index; next <= name.length; next++) {
+                matchPatterns(any, name, next, visited, action);
+            }
+        }
+    }
+
+    private void matchNames(Node<V> node, String[] pattern, int index, Consumer<Node<V>> action) {
+
+        if (index == pattern.length) {
+            action.accept(node);
+            return;
+        }
+
+        String segment = pattern[index];
+
+        if (segment.equals(ANY)) {
+            matchNames(node, pattern, index + 1, action);
+            for (Node<V> child : node.children.values()) {
+                matchNames(child, pattern, index, action);
+            }
+        }
+        else if (segment.equals(ONE)) {
+            for (Node<V> child : node.children.values()) {
+                matchNames(child, pattern, index + 1, action);
+            }
+        }
+        else {
+            Node<V> child = node.children.get(segment);
+            if (child != null) {
+                matchNames(child, pattern, index + 1, action);
+            }
+        }
+    }
+
+    private static boolean matches(String[] pattern, int p, String[] name, int n) {
+
+        if (p == pattern.length) {
+            return n == name.length;
+        }
+
+        if (pattern[p].equals(ANY)) {
+            for (int next = n; next <= name.length; next++) {
+                if (matches(pattern, p + 1, name, next)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        return n < name.length && (pattern[p].equals(ONE) || pattern[p].equals(name[n]))
+                && matches(pattern, p + 1, name, n + 1);
+    }
+
+    private static String[] split(String name) {
+        return name.split("\\.", -1);
+    }
+
+    /**
+     * Nodo del trie, un hijo por segmento y los valores de la clave que termina en el
+     */
+    private static class Node<V> {
+
+        private final Map<String, Node<V>> children = new HashMap<>();
+
+        private Set<V> values;
+
+        private boolean isEmpty() {
+            return children.isEmpty() && (values == null || values.isEmpty());
+        }
+    }
+
+}
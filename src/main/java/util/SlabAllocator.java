@@ -0,0 +1,196 @@
+package util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Asignador de bloques fuera del heap sobre slabs de memoria directa de tamaño fijo
+ * Los bloques se redondean a clases de tamaño (multiplos de 16 bytes hasta 512 y potencias de dos
+ * desde ahi hasta el tamaño del slab) y cada clase tiene su pila de bloques liberados, asi un bloque
+ * liberado se reutiliza sin fragmentar el slab. Los bloques nuevos se toman del final del ultimo slab
+ * Cada bloque se identifica con un handle int que codifica el slab y la posicion dentro del slab
+ * La memoria de los slabs no se devuelve al sistema, solo se reutiliza
+ * No es seguro entre hilos, quien lo usa debe sincronizar el acceso
+ * @author Albano Zupichiatti
+ */
+public class SlabAllocator {
+
+    private static final int ALIGNMENT_SHIFT = 4;
+
+    private static final int ALIGNMENT = 1 << ALIGNMENT_SHIFT;
+
+    private static final int SMALL_LIMIT = 512;
+
+    private static final int SMALL_CLASSES = SMALL_LIMIT / ALIGNMENT;
+
+    private final int slabSize;
+
+    private final int slabShift;
+
+    private final int maxSlabs;
+
+    private ByteBuffer[] slabs;
+
+    private int slabCount;
+
+    private int top;
+
+    private int[][] freeBlocks;
+
+    private int[] freeCounts;
+
+    private long allocatedBytes;
+
+    /**
+     * Construye el asignador sin slabs, el primero se reserva con el primer bloque
+     * @param slabSize Tamaño de cada slab en bytes, potencia de dos entre 1 KB y 1 GB
+     * @throws IllegalArgumentException si el tamaño no es valido
+     */
+    public SlabAllocator(int slabSize) {
+
+        if (Integer.bitCount(slabSize) != 1 || slabSize < 1024 || slabSize > (1 << 30)) {
+            throw new IllegalArgumentException("Slab size must be a power of two between 1 KB and 1 GB");
+        }
+
+        this.slabSize = slabSize;
+        this.slabShift = Integer.numberOfTrailingZeros(slabSize) - ALIGNMENT_SHIFT;
+        this.maxSlabs = Integer.MAX_VALUE >>> slabShift;
+        this.slabs = new ByteBuffer[4];
+        this.top = slabSize;
+
+        int classes = SMALL_CLASSES + Integer.numberOfTrailingZeros(slabSize / SMALL_LIMIT) + 1;
+        this.freeBlocks = new int[classes][];
+        this.freeCounts = new int[classes];
+    }
+
+    /**
+     * Reserva un bloque de al menos el tamaño pedido, reutilizando uno liberado de su clase si hay
+     * @param size Tamaño en bytes
+     * @return Handle del bloque o -1 si el tamaño supera el del slab o no se pueden reservar mas slabs
+     */
+    public int allocate(int size) {
+
+        if (size <= 0 || size > slabSize) {
+            return -1;
+        }
+
+        int sizeClass = sizeClass(size);
+        int blockSize = blockSize(sizeClass);
+
+        if (freeCounts[sizeClass] > 0) {
+            allocatedBytes += blockSize;
+            return freeBlocks[sizeClass][--freeCounts[sizeClass]];
+        }
+
+        if (top + blockSize > slabSize) {
+            if (slabCount == maxSlabs) {
+                return -1;
+            }
+            if (slabCount == slabs.length) {
+                slabs = Arrays.copyOf(slabs, slabs.length * 2);
+            }
+            slabs[slabCount++] = ByteBuffer.allocateDirect(slabSize);
+            top = 0;
+        }
+
+        int handle = ((slabCount - 1) << slabShift) | (top >>> ALIGNMENT_SHIFT);
+        top += blockSize;
+        allocatedBytes += blockSize;
+
+        return handle;
+    }
+
+    /**
+     * Libera un bloque para que lo reutilice una reserva de la misma clase de tamaño
+     * @param handle Handle del bloque
+     * @param size Tamaño pedido al reservarlo
+     */
+    public void free(int handle, int size) {
+
+        int sizeClass = sizeClass(size);
+
+        if (freeBlocks[sizeClass] == null) {
+            freeBlocks[sizeClass] = new int[16];
+        } else if (freeCounts[sizeClass] == freeBlocks[sizeClass].length) {
+            freeBlocks[sizeClass] = Arrays.copyOf(freeBlocks[sizeClass], freeCounts[sizeClass] * 2);
+        }
+
+        freeBlocks[sizeClass][freeCounts[sizeClass]++] = handle;
+        allocatedBytes -= blockSize(sizeClass);
+    }
+
+    /**
+     * Devuelve el slab de un bloque, se accede con posiciones absolutas a partir de offset(handle)
+     * @param handle Handle del bloque
+     * @return Slab del bloque o null si el handle no corresponde a un slab reservado
+     */
+    public ByteBuffer slab(int handle) {
+
+        ByteBuffer[] current = slabs;
+        int index = handle >>> slabShift;
+
+        return handle >= 0 && index < current.length ? current[index] : null;
+    }
+
+    /**
+     * Devuelve la posicion de un bloque dentro de su slab
+     * @param handle Handle del bloque
+     * @return Posicion en bytes
+     */
+    public int offset(int handle) {
+        return (handle & ((1 << slabShift) - 1)) << ALIGNMENT_SHIFT;
+    }
+
+    /**
+     * Devuelve el tamaño de cada slab
+     * @return Tamaño en bytes
+     */
+    public int getSlabSize() {
+        return slabSize;
+    }
+
+    /**
+     * Devuelve los bytes reservados fuera del heap por todos los slabs
+     * @return Bytes reservados
+     */
+    public long getCapacityBytes() {
+        return (long) slabCount * slabSize;
+    }
+
+    /**
+     * Devuelve los bytes de los bloques en uso, redondeados a su clase de tamaño
+     * @return Bytes en uso
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * Devuelve la clase de tamaño de un bloque
+     * @param size Tamaño en bytes
+     * @return Clase de tamaño
+     */
+    private static int sizeClass(int size) {
+
+        if (size <= SMALL_LIMIT) {
+            return (size - 1) >>> ALIGNMENT_SHIFT;
+        }
+
+        return SMALL_CLASSES + (32 - Integer.numberOfLeadingZeros((size - 1) / SMALL_LIMIT));
+    }
+
+    /**
+     * Devuelve el tamaño de los bloques de una clase
+     * @param sizeClass Clase de tamaño
+     * @return Tamaño en bytes
+     */
+    private static int blockSize(int sizeClass) {
+
+        if (sizeClass < SMALL_CLASSES) {
+            return (sizeClass + 1) << ALIGNMENT_SHIFT;
+        }
+
+        return SMALL_LIMIT << (sizeClass - SMALL_CLASSES);
+    }
+
+}
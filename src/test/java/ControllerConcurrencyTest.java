@@ -0,0 +1,288 @@
+import controller.Controller;
+import controller.ControllerBuilder;
+import entities.alert.Alert;
+import entities.alert.AlertCursor;
+import entities.alert.AlertPage;
+import entities.alert.AlertType;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Prueba de estres del controlador con envios, lecturas y marcas de leida concurrentes,
+ * verifica que ninguna alerta se pierda ni se duplique
+ */
+public class ControllerConcurrencyTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final int USERS = 20;
+
+    private static final int TOPICS = 8;
+
+    private static final int SENDERS = 4;
+
+    private static final int ALERTS_PER_SENDER = 2_000;
+
+    @Test
+    public void noAlertIsLostOrDuplicated() throws Exception {
+
+        Controller controller = new Controller();
+
+        for (int t = 0; t < TOPICS; t++) {
+            controller.registerTopic("topic-" + t);
+        }
+        for (int u = 0; u < USERS; u++) {
+            controller.registerUser("user-" + u);
+            for (int t = 0; t < TOPICS; t++) {
+                controller.selectTopic("user-" + u, "topic-" + t);
+            }
+        }
+
+        Set<Integer> generalIds = ConcurrentHashMap.newKeySet();
+        Map<String, Set<Integer>> personalIds = new ConcurrentHashMap<>();
+        Map<String, Set<Integer>> readIds = new ConcurrentHashMap<>();
+        for (int u = 0; u < USERS; u++) {
+            personalIds.put("user-" + u, ConcurrentHashMap.newKeySet());
+            readIds.put("user-" + u, ConcurrentHashMap.newKeySet());
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(SENDERS + 4);
+        CountDownLatch sendersDone = new CountDownLatch(SENDERS);
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (int s = 0; s < SENDERS; s++) {
+            int sender = s;
+            futures.add(executor.submit(() -> {
+                Random random = new Random(sender);
+                for (int i = 0; i < ALERTS_PER_SENDER; i++) {
+                    String topicName = "topic-" + random.nextInt(TOPICS);
+                    AlertType type = random.nextBoolean() ? AlertType.URGENT : AlertType.INFORMATIVE;
+                    if (random.nextInt(4) == 0) {
+                        String userName = "user-" + random.nextInt(USERS);
+                        int id = controller.sendAlertByUser("personal", type, topicName, userName);
+                        assertTrue(personalIds.get(userName).add(id));
+                    } else {
+                        int id = controller.sendAlertByTopic("general", type, topicName);
+                        assertTrue(generalIds.add(id));
+                    }
+                }
+                sendersDone.countDown();
+                return null;
+            }));
+        }
+
+        for (int r = 0; r < 4; r++) {
+            int reader = r;
+            futures.add(executor.submit(() -> {
+                Random random = new Random(100 + reader);
+                while (sendersDone.getCount() > 0) {
+                    String userName = "user-" + random.nextInt(USERS);
+                    List<Alert> alerts = controller.getUnexpiredAlertsByUser(userName);
+                    Set<Integer> seen = new HashSet<>();
+                    for (Alert alert : alerts) {
+                        assertTrue("duplicated alert " + alert.getId(), seen.add(alert.getId()));
+                    }
+                    if (!alerts.isEmpty()) {
+                        int id = alerts.get(random.nextInt(alerts.size())).getId();
+                        if (controller.markAlertAsRead(userName, id)) {
+                            assertTrue("alert read twice " + id, readIds.get(userName).add(id));
+                        }
+                    }
+                    controller.getUnexpiredAlertsByTopic("topic-" + random.nextInt(TOPICS));
+                }
+                return null;
+            }));
+        }
+
+        for (Future<?> future : futures) {
+            future.get(2, TimeUnit.MINUTES);
+        }
+        executor.shutdown();
+
+        Set<Integer> allIds = new HashSet<>(generalIds);
+        personalIds.values().forEach(allIds::addAll);
+        assertEquals(SENDERS * ALERTS_PER_SENDER, allIds.size());
+
+        for (int u = 0; u < USERS; u++) {
+            String userName = "user-" + u;
+
+            Set<Integer> expected = new HashSet<>(generalIds);
+            expected.addAll(personalIds.get(userName));
+            expected.removeAll(readIds.get(userName));
+
+            List<Alert> alerts = controller.getUnexpiredAlertsByUser(userName);
+            Set<Integer> actual = new HashSet<>();
+            for (Alert alert : alerts) {
+                actual.add(alert.getId());
+            }
+
+            assertEquals(alerts.size(), actual.size());
+            assertEquals(expected, actual);
+        }
+    }
+
+    @Test(timeout = 60_000)
+    public void snapshotsDoNotBlockConcurrentSendsAndSubscriptions() throws Exception {
+
+        Path journalPath = folder.getRoot().toPath().resolve("alerts.journal");
+        Path snapshotPath = folder.getRoot().toPath().resolve("alerts.snapshot");
+        ControllerBuilder builder = new ControllerBuilder().setJournalPath(journalPath).setSnapshotPath(snapshotPath);
+        Map<String, List<Integer>> topicIds = new HashMap<>();
+        Map<String, List<Integer>> userIds = new HashMap<>();
+
+        try (Controller controller = builder.build()) {
+
+            for (int t = 0; t < TOPICS; t++) {
+                controller.registerTopic("topic-" + t);
+            }
+            for (int u = 0; u < USERS; u++) {
+                controller.registerUser("user-" + u);
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(SENDERS * 2 + 1);
+            CountDownLatch writersDone = new CountDownLatch(SENDERS * 2);
+            List<Future<?>> futures = new ArrayList<>();
+
+            for (int s = 0; s < SENDERS; s++) {
+                int sender = s;
+                futures.add(executor.submit(() -> {
+                    Random random = new Random(sender);
+                    for (int i = 0; i < ALERTS_PER_SENDER; i++) {
+                        String topicName = "topic-" + random.nextInt(TOPICS);
+                        if (random.nextInt(4) == 0) {
+                            controller.sendAlertByUser("personal", AlertType.URGENT, topicName,
+                                    "user-" + random.nextInt(USERS));
+                        } else {
+                            controller.sendAlertByTopic("general", AlertType.INFORMATIVE, topicName);
+                        }
+                    }
+                    writersDone.countDown();
+                    return null;
+                }));
+                futures.add(executor.submit(() -> {
+                    Random random = new Random(100 + sender);
+                    for (int i = 0; i < ALERTS_PER_SENDER; i++) {
+                        String userName = "user-" + random.nextInt(USERS);
+                        String topicName = "topic-" + random.nextInt(TOPICS);
+                        if (!controller.selectTopic(userName, topicName)) {
+                            controller.unselectTopic(userName, topicName);
+                        }
+                    }
+                    writersDone.countDown();
+                    return null;
+                }));
+            }
+
+            futures.add(executor.submit(() -> {
+                while (writersDone.getCount() > 0) {
+                    assertTrue(controller.snapshot());
+                }
+                return null;
+            }));
+
+            for (Future<?> future : futures) {
+                future.get(2, TimeUnit.MINUTES);
+            }
+            executor.shutdown();
+
+            for (int t = 0; t < TOPICS; t++) {
+                topicIds.put("topic-" + t, ids(controller.getUnexpiredAlertsByTopic("topic-" + t)));
+            }
+            for (int u = 0; u < USERS; u++) {
+                userIds.put("user-" + u, ids(controller.getUnexpiredAlertsByUser("user-" + u)));
+            }
+        }
+
+        try (Controller controller = builder.build()) {
+            for (Map.Entry<String, List<Integer>> entry : topicIds.entrySet()) {
+                assertEquals(entry.getValue(), ids(controller.getUnexpiredAlertsByTopic(entry.getKey())));
+            }
+            for (Map.Entry<String, List<Integer>> entry : userIds.entrySet()) {
+                assertEquals(entry.getValue(), ids(controller.getUnexpiredAlertsByUser(entry.getKey())));
+            }
+        }
+    }
+
+    @Test(timeout = 60_000)
+    public void asyncAndSyncSendsReachTheTopicInIdOrder() throws Exception {
+
+        ExecutorService delivery = Executors.newFixedThreadPool(4);
+        Set<Integer> sentIds = ConcurrentHashMap.newKeySet();
+        List<Integer> pagedIds = new ArrayList<>();
+
+        try (Controller controller = new ControllerBuilder().setDispatchBatchSize(8)
+                .setDispatchExecutor(delivery).build()) {
+
+            controller.registerTopic("Programming");
+
+            ExecutorService executor = Executors.newFixedThreadPool(SENDERS);
+            CountDownLatch sendersDone = new CountDownLatch(SENDERS);
+            List<Future<?>> futures = new ArrayList<>();
+
+            for (int s = 0; s < SENDERS; s++) {
+                boolean async = s % 2 == 0;
+                futures.add(executor.submit(() -> {
+                    List<CompletableFuture<Integer>> pending = new ArrayList<>();
+                    for (int i = 0; i < ALERTS_PER_SENDER; i++) {
+                        if (async) {
+                            pending.add(controller.sendAlertByTopicAsync("async " + i, AlertType.INFORMATIVE,
+                                    "Programming"));
+                        } else {
+                            sentIds.add(controller.sendAlertByTopic("sync " + i, AlertType.INFORMATIVE,
+                                    "Programming"));
+                        }
+                    }
+                    for (CompletableFuture<Integer> future : pending) {
+                        sentIds.add(future.get(1, TimeUnit.MINUTES));
+                    }
+                    sendersDone.countDown();
+                    return null;
+                }));
+            }
+
+            // Un lector que pagina mientras se envia no debe saltear alertas que lleguen detras de su cursor
+            AlertCursor cursor = AlertCursor.start();
+            boolean done = false;
+            while (!done) {
+                done = sendersDone.getCount() == 0 && controller.awaitDispatch(1, TimeUnit.MINUTES);
+                AlertPage page;
+                do {
+                    page = controller.getUnexpiredAlertsByTopic("Programming", cursor, 100);
+                    for (Alert alert : page.getAlerts()) {
+                        pagedIds.add(alert.getId());
+                        cursor = AlertCursor.after(alert);
+                    }
+                } while (page.hasNext());
+            }
+
+            for (Future<?> future : futures) {
+                future.get(2, TimeUnit.MINUTES);
+            }
+            executor.shutdown();
+        }
+
+        for (int i = 1; i < pagedIds.size(); i++) {
+            assertTrue("alert " + pagedIds.get(i) + " after " + pagedIds.get(i - 1),
+                    pagedIds.get(i) > pagedIds.get(i - 1));
+        }
+        assertEquals(SENDERS * ALERTS_PER_SENDER, sentIds.size());
+        assertEquals(sentIds, new HashSet<>(pagedIds));
+    }
+
+    private static List<Integer> ids(List<Alert> alerts) {
+        List<Integer> ids = new ArrayList<>();
+        for (Alert alert : alerts) {
+            ids.add(alert.getId());
+        }
+        return ids;
+    }
+
+}
@@ -1,11 +1,44 @@
 import controller.Controller;
+import controller.ControllerBuilder;
+import entities.RetentionPolicy;
 import entities.alert.Alert;
+import entities.alert.AlertComparator;
+import entities.alert.AlertCursor;
+import entities.alert.AlertDestination;
+import entities.alert.AlertPage;
 import entities.alert.AlertType;
+import metrics.MetricsSnapshot;
+import metrics.Operation;
+import persistence.SyncPolicy;
+import org.junit.Rule;
 import org.junit.Test;
-
+import org.junit.rules.TemporaryFolder;
+import service.BackpressurePolicy;
+import util.ManualClock;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.Month;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
 
 /**
  * Esta clase se usa para contener todos los test unitarios de las distintas funcionalidades requeridas,
@@ -13,6 +46,9 @@ import java.util.List;
  */
 public class GeneralTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     private final Controller controller = new Controller();
 
     @Test
@@ -35,6 +71,21 @@ public class GeneralTest {
 
     }
 
+    @Test
+    public void unselectTopic(){
+
+        controller.registerUser("Albano");
+        controller.registerTopic("Programming");
+
+        controller.selectTopic("Albano", "Programming");
+        controller.unselectTopic("Albano", "Programming");
+
+        controller.sendAlertByTopic("New Node.js courses!",
+                AlertType.INFORMATIVE, "Programming");
+
+        assertTrue(controller.getUnexpiredAlertsByUser("Albano").isEmpty());
+    }
+
     @Test
     public void sendAlertByTopic(){
 
@@ -63,6 +114,68 @@ public class GeneralTest {
 
     }
 
+    @Test
+    public void sendAlertByTopicAsync() throws Exception {
+
+        controller.registerUser("Albano");
+        controller.registerTopic("Programming");
+
+        controller.selectTopic("Albano", "Programming");
+
+        CompletableFuture<Integer> alertId = controller.sendAlertByTopicAsync("New Node.js courses!",
+                AlertType.INFORMATIVE, "Programming");
+
+        assertTrue(controller.awaitDispatch(10, TimeUnit.SECONDS));
+        assertTrue(alertId.get() > 0);
+        assertEquals((int) alertId.get(), controller.getUnexpiredAlertsByUser("Albano").get(0).getId());
+
+        controller.close();
+    }
+
+    @Test
+    public void sendAlertByTopicAsyncRejectsWhenQueueIsFull() throws Exception {
+
+        CountDownLatch release = new CountDownLatch(1);
+        Controller bounded = new ControllerBuilder()
+                .setDispatchQueueCapacity(1)
+                .setDispatchBatchSize(1)
+                .setBackpressurePolicy(BackpressurePolicy.REJECT)
+                .setDispatchExecutor(task -> new Thread(() -> {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    task.run();
+                }).start())
+                .build();
+
+        bounded.registerTopic("Programming");
+
+        List<CompletableFuture<Integer>> alertIds = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            alertIds.add(bounded.sendAlertByTopicAsync("Alert " + i, AlertType.INFORMATIVE, "Programming"));
+        }
+
+        release.countDown();
+        assertTrue(bounded.awaitDispatch(10, TimeUnit.SECONDS));
+
+        int rejected = 0;
+        for (CompletableFuture<Integer> alertId : alertIds) {
+            try {
+                alertId.get();
+            } catch (ExecutionException e) {
+                rejected++;
+            }
+        }
+
+        assertTrue(rejected > 0);
+        assertEquals(20 - rejected, bounded.getUnexpiredAlertsByTopic("Programming").size());
+        assertEquals(20 - rejected, bounded.getMetrics().snapshot().getAlertsSent(AlertDestination.GENERAL));
+
+        bounded.close();
+    }
+
     @Test
     public void sendAlertWithExpirationByTopic(){
 
@@ -109,6 +222,341 @@ public class GeneralTest {
         controller.markAlertAsRead("Albano", alertId);
     }
 
+    @Test
+    public void generalAlertsAreReadFromTopic(){
+
+        controller.registerUser("Albano");
+        controller.registerUser("WoowUp");
+        controller.registerTopic("Programming");
+
+        controller.selectTopic("Albano", "Programming");
+
+        int alertId = controller.sendAlertByTopic("New Node.js courses!",
+                AlertType.INFORMATIVE, "Programming");
+
+        controller.selectTopic("WoowUp", "Programming");
+
+        assertEquals(1, controller.getUnexpiredAlertsByUser("Albano").size());
+        assertTrue(controller.getUnexpiredAlertsByUser("WoowUp").isEmpty());
+
+        assertTrue(controller.markAlertAsRead("Albano", alertId));
+        assertFalse(controller.markAlertAsRead("Albano", alertId));
+        assertFalse(controller.markAlertAsRead("WoowUp", alertId));
+        assertTrue(controller.getUnexpiredAlertsByUser("Albano").isEmpty());
+    }
+
+    @Test
+    public void expiredAlertsArePurged(){
+
+        long now = LocalDateTime.of(2030, Month.JANUARY, 1, 12, 0).atZone(ZoneId.systemDefault())
+                .toInstant().toEpochMilli();
+        ManualClock clock = new ManualClock(now);
+
+        try (Controller manual = new ControllerBuilder().setClock(clock).build()) {
+
+            manual.registerUser("Albano");
+            manual.registerTopic("Programming");
+
+            manual.selectTopic("Albano", "Programming");
+
+            LocalDateTime expirationDate = LocalDateTime.of(2030, Month.JANUARY, 1, 11, 59, 55);
+            int generalId = manual.sendAlertByTopic("New Node.js courses!", AlertType.INFORMATIVE,
+                    "Programming", expirationDate);
+            int personalId = manual.sendAlertByUser("New Node.js courses!", AlertType.URGENT,
+                    "Programming", "Albano", expirationDate);
+
+            clock.advance(1_100);
+
+            assertTrue(manual.getUnexpiredAlertsByUser("Albano").isEmpty());
+            assertTrue(manual.getUnexpiredAlertsByTopic("Programming").isEmpty());
+            assertFalse(manual.markAlertAsRead("Albano", generalId));
+            assertFalse(manual.markAlertAsRead("Albano", personalId));
+        }
+    }
+
+    @Test
+    public void alertsExpireWithManualClock(){
+
+        long now = LocalDateTime.of(2030, Month.JANUARY, 1, 12, 0).atZone(ZoneId.systemDefault())
+                .toInstant().toEpochMilli();
+        ManualClock clock = new ManualClock(now);
+
+        try (Controller manual = new ControllerBuilder().setClock(clock).build()) {
+
+            manual.registerUser("Albano");
+            manual.registerTopic("Programming");
+            manual.selectTopic("Albano", "Programming");
+
+            manual.sendAlertByTopic("Java", AlertType.INFORMATIVE, "Programming",
+                    LocalDateTime.of(2030, Month.JANUARY, 1, 12, 10));
+            manual.sendAlertByUser("Kotlin", AlertType.URGENT, "Programming", "Albano",
+                    LocalDateTime.of(2030, Month.JANUARY, 1, 12, 5));
+            manual.sendAlertByTopic("Go", AlertType.INFORMATIVE, "Programming");
+
+            assertEquals(3, manual.getUnexpiredAlertsByUser("Albano").size());
+
+            clock.advance(6 * 60_000);
+            assertEquals(2, manual.getUnexpiredAlertsByUser("Albano").size());
+            assertEquals(2, manual.getUnexpiredAlertsByTopic("Programming").size());
+
+            clock.advance(5 * 60_000);
+            List<Alert> alerts = manual.getUnexpiredAlertsByUser("Albano");
+            assertEquals(1, alerts.size());
+            assertEquals("Go", alerts.get(0).getMessage());
+            assertNull(alerts.get(0).getExpirationDate());
+            assertEquals(1, manual.getUnexpiredAlertsByTopic("Programming").size());
+        }
+    }
+
+    @Test
+    public void topicsKeepAlertsWithinRetention(){
+
+        long now = LocalDateTime.of(2030, Month.JANUARY, 1, 12, 0).atZone(ZoneId.systemDefault())
+                .toInstant().toEpochMilli();
+        ManualClock clock = new ManualClock(now);
+
+        try (Controller retained = new ControllerBuilder().setClock(clock)
+                .setDefaultRetention(RetentionPolicy.ofMaxCount(2)).build()) {
+
+            retained.registerUser("Albano");
+            retained.registerTopic("Programming");
+            retained.selectTopic("Albano", "Programming");
+
+            int java = retained.sendAlertByTopic("Java", AlertType.INFORMATIVE, "Programming");
+            retained.sendAlertByUser("Kotlin", AlertType.URGENT, "Programming", "Albano");
+            retained.sendAlertByTopic("Go", AlertType.INFORMATIVE, "Programming");
+
+            assertEquals(RetentionPolicy.ofMaxCount(2), retained.getTopicRetention("Programming"));
+            assertEquals(2, retained.getUnexpiredAlertsByTopic("Programming").size());
+            assertEquals(2, retained.getUnexpiredAlertsByUser("Albano").size());
+            assertFalse(retained.markAlertAsRead("Albano", java));
+
+            // Con un limite de antiguedad solo quedan las alertas recientes
+            assertTrue(retained.setTopicRetention("Programming", RetentionPolicy.of(10, Duration.ofMinutes(5))));
+            clock.advance(3 * 60_000);
+            retained.sendAlertByTopic("Rust", AlertType.INFORMATIVE, "Programming");
+            clock.advance(3 * 60_000);
+
+            List<Alert> alerts = retained.getUnexpiredAlertsByUser("Albano");
+            assertEquals(1, alerts.size());
+            assertEquals("Rust", alerts.get(0).getMessage());
+
+            assertTrue(retained.setTopicRetention("Programming", RetentionPolicy.UNBOUNDED));
+            clock.advance(10 * 60_000);
+            assertEquals(1, retained.getUnexpiredAlertsByTopic("Programming").size());
+            assertFalse(retained.setTopicRetention("Math", RetentionPolicy.ofMaxCount(1)));
+        }
+    }
+
+    @Test
+    public void unreadCountersMatchInbox(){
+
+        long now = LocalDateTime.of(2030, Month.JANUARY, 1, 12, 0).atZone(ZoneId.systemDefault())
+                .toInstant().toEpochMilli();
+        ManualClock clock = new ManualClock(now);
+        Random random = new Random(42);
+        String[] users = {"Albano", "Lucas", "Sofia"};
+        String[] topics = {"Programming", "Math"};
+
+        try (Controller counted = new ControllerBuilder().setClock(clock)
+                .setDefaultRetention(RetentionPolicy.ofMaxCount(40)).build()) {
+
+            for (String user : users) {
+                counted.registerUser(user);
+            }
+            for (String topic : topics) {
+                counted.registerTopic(topic);
+            }
+
+            for (int i = 0; i < 2000; i++) {
+
+                String user = users[random.nextInt(users.length)];
+                String topic = topics[random.nextInt(topics.length)];
+                AlertType type = AlertType.values()[random.nextInt(AlertType.values().length)];
+                LocalDateTime expirationDate = random.nextBoolean() ? null
+                        : LocalDateTime.ofInstant(Instant.ofEpochMilli(clock.millis()
+                        + random.nextInt(60) * 1_000L + 500), ZoneId.systemDefault());
+
+                switch (random.nextInt(6)) {
+                    case 0:
+                        counted.selectTopic(user, topic);
+                        break;
+                    case 1:
+                        counted.unselectTopic(user, topic);
+                        break;
+                    case 2:
+                        counted.sendAlertByTopic("General " + i, type, topic, expirationDate);
+                        break;
+                    case 3:
+                        counted.sendAlertByUser("Personal " + i, type, topic, user, expirationDate);
+                        break;
+                    case 4:
+                        List<Alert> inbox = counted.getUnexpiredAlertsByUser(user);
+                        if (!inbox.isEmpty()) {
+                            counted.markAlertAsRead(user, inbox.get(random.nextInt(inbox.size())).getId());
+                        }
+                        break;
+                    default:
+                        clock.advance(random.nextInt(5) * 1_000L);
+                        break;
+                }
+
+                // Las cuentas se comparan en el borde de un tick, asi no quedan vencidas sin purgar
+                clock.advance(1_000);
+                for (String name : users) {
+                    List<Alert> inbox = counted.getUnexpiredAlertsByUser(name);
+                    long urgent = inbox.stream().filter(x -> x.getType() == AlertType.URGENT).count();
+                    assertEquals(inbox.size(), counted.countUnread(name));
+                    assertEquals(urgent, counted.countUnread(name, AlertType.URGENT));
+                }
+                for (String name : topics) {
+                    assertEquals(counted.getUnexpiredAlertsByTopic(name).size(), counted.countLive(name));
+                }
+            }
+
+            counted.markAllAsRead("Albano");
+            assertEquals(0, counted.countUnread("Albano"));
+            assertEquals(0, counted.countUnread("Albano", AlertType.URGENT));
+        }
+    }
+
+    @Test
+    public void alertsArePushedToSubscribers() throws Exception {
+
+        try (Controller pushed = new ControllerBuilder().build()) {
+
+            pushed.registerUser("Albano");
+            pushed.registerUser("Lucas");
+            pushed.registerTopic("Programming");
+            pushed.registerTopic("Math");
+            pushed.selectTopic("Albano", "Programming");
+            pushed.selectTopic("Lucas", "Math");
+
+            BlockingQueue<Alert> albano = new LinkedBlockingQueue<>();
+            BlockingQueue<Alert> math = new LinkedBlockingQueue<>();
+            pushed.getAlertPublisherByUser("Albano").subscribe(unboundedSubscriber(albano));
+            pushed.getAlertPublisherByTopic("Math").subscribe(unboundedSubscriber(math));
+            assertNull(pushed.getAlertPublisherByUser("Sofia"));
+
+            pushed.selectTopic("Albano", "Math");
+            pushed.sendAlertByTopic("Java", AlertType.INFORMATIVE, "Programming");
+            pushed.sendAlertByUser("Algebra", AlertType.URGENT, "Math", "Albano");
+            pushed.sendAlertByUser("Calculus", AlertType.URGENT, "Math", "Lucas");
+            pushed.sendAlertByTopicAsync("Geometry", AlertType.INFORMATIVE, "Math").get(10, TimeUnit.SECONDS);
+
+            // Las urgentes encoladas se entregan antes que las informativas, se comparan sin orden
+            assertEquals(Set.of("Java", "Algebra", "Geometry"), messages(albano, 3));
+            assertEquals(Set.of("Algebra", "Calculus", "Geometry"), messages(math, 3));
+
+            pushed.unselectTopic("Albano", "Programming");
+            pushed.sendAlertByTopic("Kotlin", AlertType.INFORMATIVE, "Programming");
+            pushed.sendAlertByTopic("Topology", AlertType.INFORMATIVE, "Math");
+            assertEquals("Topology", albano.poll(10, TimeUnit.SECONDS).getMessage());
+        }
+    }
+
+    private static Set<String> messages(BlockingQueue<Alert> received, int count) throws InterruptedException {
+
+        Set<String> messages = new HashSet<>();
+
+        for (int i = 0; i < count; i++) {
+            Alert alert = received.poll(10, TimeUnit.SECONDS);
+            assertNotNull(alert);
+            messages.add(alert.getMessage());
+        }
+
+        return messages;
+    }
+
+    private static Flow.Subscriber<Alert> unboundedSubscriber(BlockingQueue<Alert> received) {
+
+        return new Flow.Subscriber<Alert>() {
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(Alert item) {
+                received.add(item);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        };
+    }
+
+    @Test
+    public void alertsAreStoredOffHeap(){
+
+        long now = LocalDateTime.of(2030, Month.JANUARY, 1, 12, 0).atZone(ZoneId.systemDefault())
+                .toInstant().toEpochMilli();
+        ManualClock clock = new ManualClock(now);
+
+        try (Controller offHeap = new ControllerBuilder().setOffHeapStore(true).setClock(clock).build()) {
+
+            offHeap.registerUser("Albano");
+            offHeap.registerTopic("Programming");
+            offHeap.selectTopic("Albano", "Programming");
+
+            LocalDateTime expirationDate = LocalDateTime.of(2030, Month.JANUARY, 2, 12, 0);
+            offHeap.sendAlertByTopic("Programaci\u00f3n en Java", AlertType.INFORMATIVE, "Programming",
+                    expirationDate);
+            offHeap.sendAlertByUser("Kotlin", AlertType.URGENT, "Programming", "Albano");
+            Alert expiring = offHeap.getUnexpiredAlertsByUser("Albano").get(0);
+            offHeap.sendAlertByUser("Go", AlertType.URGENT, "Programming", "Albano",
+                    LocalDateTime.of(2030, Month.JANUARY, 1, 12, 0, 1));
+
+            List<Alert> alerts = offHeap.getUnexpiredAlertsByUser("Albano");
+            assertEquals(3, alerts.size());
+            assertEquals("Go", alerts.get(0).getMessage());
+            assertEquals("Kotlin", alerts.get(1).getMessage());
+            assertEquals("Programaci\u00f3n en Java", alerts.get(2).getMessage());
+            assertEquals(expirationDate, alerts.get(2).getExpirationDate());
+            assertNull(alerts.get(1).getExpirationDate());
+
+            Alert expired = alerts.get(0);
+            clock.advance(2_100);
+
+            assertEquals(2, offHeap.getUnexpiredAlertsByUser("Albano").size());
+            assertEquals("Go", expired.getMessage());
+            assertNotNull(expired.getExpirationDate());
+            assertEquals("Kotlin", expiring.getMessage());
+
+            assertNotEquals(0, offHeap.sendAlertByUser(null, AlertType.URGENT, "Programming", "Albano"));
+            assertNull(offHeap.getUnexpiredAlertsByUser("Albano").get(0).getMessage());
+        }
+    }
+
+    @Test
+    public void bulkOperations(){
+
+        assertEquals(3, controller.registerUsers(List.of("Albano", "WoowUp", "Zupi")));
+        assertEquals(0, controller.registerUsers(List.of("Albano")));
+        controller.registerTopic("Programming");
+        controller.registerTopic("Music");
+
+        assertEquals(2, controller.selectTopics("Albano", List.of("Programming", "Music", "Unknown")));
+        assertEquals(2, controller.subscribeUsers("Programming", List.of("Albano", "WoowUp", "Zupi", "Unknown")));
+
+        int first = controller.sendAlertByTopic("Alert 1", AlertType.INFORMATIVE, "Programming");
+        int second = controller.sendAlertByTopic("Alert 2", AlertType.URGENT, "Music");
+        controller.sendAlertByUser("Alert 3", AlertType.URGENT, "Programming", "Albano");
+
+        assertEquals(2, controller.markAlertsAsRead("Albano", first, second, 9999));
+        assertEquals(1, controller.markAllAsRead("Albano"));
+        assertEquals(1, controller.markAllAsRead("WoowUp"));
+        assertTrue(controller.getUnexpiredAlertsByUser("Albano").isEmpty());
+        assertTrue(controller.getUnexpiredAlertsByUser("WoowUp").isEmpty());
+        assertEquals(1, controller.getUnexpiredAlertsByUser("Zupi").size());
+    }
+
     @Test
     public void getUnexpiredAlertsByUser(){
 
@@ -138,6 +586,385 @@ public class GeneralTest {
 
     }
 
+    @Test
+    public void alertsAreReadInOrder(){
+
+        controller.registerUser("Albano");
+        controller.registerTopic("Programming");
+        controller.registerTopic("Music");
+
+        controller.selectTopic("Albano", "Programming");
+        controller.selectTopic("Albano", "Music");
+
+        for (int i = 0; i < 30; i++) {
+            AlertType type = i % 3 == 0 ? AlertType.URGENT : AlertType.INFORMATIVE;
+            String topicName = i % 2 == 0 ? "Programming" : "Music";
+            if (i % 5 == 0) {
+                controller.sendAlertByUser("Alert " + i, type, topicName, "Albano");
+            } else {
+                controller.sendAlertByTopic("Alert " + i, type, topicName);
+            }
+        }
+
+        List<Alert> alerts = controller.getUnexpiredAlertsByUser("Albano");
+        List<Alert> sorted = new ArrayList<>(alerts);
+        sorted.sort(AlertComparator.INSTANCE);
+
+        assertEquals(30, alerts.size());
+        assertEquals(sorted, alerts);
+
+        alerts = controller.getUnexpiredAlertsByTopic("Programming");
+        sorted = new ArrayList<>(alerts);
+        sorted.sort(AlertComparator.INSTANCE);
+
+        assertEquals(15, alerts.size());
+        assertEquals(sorted, alerts);
+    }
+
+    @Test
+    public void alertsArePaged(){
+
+        controller.registerUser("Albano");
+        controller.registerTopic("Programming");
+        controller.registerTopic("Music");
+        controller.selectTopic("Albano", "Programming");
+        controller.selectTopic("Albano", "Music");
+
+        for (int i = 0; i < 40; i++) {
+            AlertType type = i % 3 == 0 ? AlertType.URGENT : AlertType.INFORMATIVE;
+            String topicName = i % 2 == 0 ? "Programming" : "Music";
+            if (i % 4 == 0) {
+                controller.sendAlertByUser("Alert " + i, type, topicName, "Albano");
+            } else {
+                controller.sendAlertByTopic("Alert " + i, type, topicName);
+            }
+        }
+
+        List<Alert> expected = controller.getUnexpiredAlertsByUser("Albano");
+        List<Alert> paged = new ArrayList<>();
+        AlertCursor cursor = AlertCursor.start();
+        boolean markedCursor = false;
+
+        while (cursor != null) {
+            AlertPage page = controller.getUnexpiredAlertsByUser("Albano", cursor, 7);
+            assertTrue(page.getAlerts().size() <= 7);
+            paged.addAll(page.getAlerts());
+            cursor = page.getNextCursor();
+
+            // La alerta del cursor deja de estar en la bandeja y la pagina siguiente igual continua en orden
+            if (cursor != null && !markedCursor) {
+                Alert last = page.getAlerts().get(page.getAlerts().size() - 1);
+                assertTrue(controller.markAlertAsRead("Albano", last.getId()));
+                markedCursor = true;
+            }
+        }
+
+        assertEquals(expected, paged);
+
+        List<Alert> topicAlerts = controller.getUnexpiredAlertsByTopic("Programming");
+        AlertPage first = controller.getUnexpiredAlertsByTopic("Programming", AlertCursor.start(), 5);
+        AlertPage second = controller.getUnexpiredAlertsByTopic("Programming", first.getNextCursor(), 100);
+
+        assertEquals(topicAlerts.subList(0, 5), first.getAlerts());
+        assertEquals(topicAlerts.subList(5, topicAlerts.size()), second.getAlerts());
+        assertFalse(second.hasNext());
+    }
+
+    @Test
+    public void metricsAreRecorded() throws Exception {
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName alertsName = new ObjectName("sistemadealertas:type=Alerts,controller=\"metricsTest\"");
+
+        try (Controller controller = new ControllerBuilder().setJmxName("metricsTest").build()) {
+
+            controller.registerUser("Albano");
+            controller.registerUser("Lucas");
+            controller.registerTopic("Programming");
+            controller.selectTopic("Albano", "Programming");
+            controller.selectTopic("Lucas", "Programming");
+
+            controller.sendAlertByTopic("Java", AlertType.URGENT, "Programming");
+            controller.sendAlertByTopic("Go", AlertType.INFORMATIVE, "Programming");
+            controller.sendAlertByUser("Kotlin", AlertType.INFORMATIVE, "Programming", "Albano");
+            controller.getUnexpiredAlertsByUser("Albano");
+            controller.countUnread("Albano");
+            controller.countUnread("Lucas", AlertType.URGENT);
+            controller.countLive("Programming");
+            controller.setTopicRetention("Programming", RetentionPolicy.UNBOUNDED);
+
+            MetricsSnapshot snapshot = controller.getMetrics().snapshot();
+
+            assertEquals(2, snapshot.getLatency(Operation.REGISTER_USER).getCount());
+            assertEquals(2, snapshot.getLatency(Operation.SEND_ALERT_BY_TOPIC).getCount());
+            assertEquals(2, snapshot.getLatency(Operation.COUNT_UNREAD).getCount());
+            assertEquals(1, snapshot.getLatency(Operation.COUNT_LIVE).getCount());
+            assertEquals(1, snapshot.getLatency(Operation.SET_TOPIC_RETENTION).getCount());
+            assertEquals(1, snapshot.getAlertsSent(AlertType.URGENT));
+            assertEquals(2, snapshot.getAlertsSent(AlertDestination.GENERAL));
+            assertEquals(1, snapshot.getAlertsSent(AlertType.INFORMATIVE, AlertDestination.PERSONAL));
+            assertEquals(2, snapshot.getFanOut().getMax());
+            assertEquals(3, snapshot.getInboxDepth().getMax());
+
+            assertEquals(2L, server.getAttribute(alertsName, "GeneralAlertsSent"));
+            assertEquals(2L, server.getAttribute(new ObjectName(
+                    "sistemadealertas:type=Operation,controller=\"metricsTest\",name=SEND_ALERT_BY_TOPIC"), "Count"));
+        }
+
+        assertFalse(server.isRegistered(alertsName));
+    }
+
+    @Test
+    public void stateIsRecoveredFromJournal(){
+
+        Path journalPath = folder.getRoot().toPath().resolve("alerts.journal");
+
+        try (Controller controller = new ControllerBuilder().setJournalPath(journalPath)
+                .setSyncPolicy(SyncPolicy.ALWAYS).build()) {
+
+            controller.registerUser("Albano");
+            controller.registerUser("Lucas");
+            controller.registerTopic("Programming");
+            controller.registerTopic("Music");
+            controller.sendAlertByTopic("Before subscribing", AlertType.INFORMATIVE, "Programming");
+            controller.selectTopic("Albano", "Programming");
+            controller.selectTopic("Albano", "Music");
+            controller.selectTopic("Lucas", "Programming");
+            controller.unselectTopic("Albano", "Music");
+
+            int read = controller.sendAlertByTopic("Java", AlertType.URGENT, "Programming");
+            controller.sendAlertByTopic("Go", AlertType.INFORMATIVE, "Programming");
+            controller.sendAlertByTopic("Expired", AlertType.INFORMATIVE, "Programming",
+                    LocalDateTime.now().minusDays(1));
+            controller.sendAlertByUser("Kotlin", AlertType.URGENT, "Programming", "Lucas");
+            controller.markAlertAsRead("Albano", read);
+            controller.markAllAsRead("Lucas");
+        }
+
+        try (Controller controller = new ControllerBuilder().setJournalPath(journalPath).build()) {
+
+            List<Alert> albanoAlerts = controller.getUnexpiredAlertsByUser("Albano");
+            assertEquals(1, albanoAlerts.size());
+            assertEquals("Go", albanoAlerts.get(0).getMessage());
+            assertTrue(controller.getUnexpiredAlertsByUser("Lucas").isEmpty());
+            assertEquals(0, controller.sendAlertByUser("Jazz", AlertType.URGENT, "Music", "Albano"));
+
+            int next = controller.sendAlertByTopic("Rust", AlertType.INFORMATIVE, "Programming");
+            assertEquals(6, next);
+        }
+    }
+
+    @Test
+    public void stateIsRecoveredFromSnapshotAndJournalTail() throws Exception {
+
+        Path journalPath = folder.getRoot().toPath().resolve("alerts.journal");
+        Path snapshotPath = folder.getRoot().toPath().resolve("alerts.snapshot");
+        ControllerBuilder builder = new ControllerBuilder().setJournalPath(journalPath).setSnapshotPath(snapshotPath);
+        int read;
+
+        try (Controller controller = builder.build()) {
+
+            controller.registerUser("Albano");
+            controller.registerUser("Lucas");
+            controller.registerTopic("Programming");
+            controller.selectTopic("Albano", "Programming");
+            controller.selectTopic("Lucas", "Programming");
+            read = controller.sendAlertByTopic("Java", AlertType.URGENT, "Programming");
+            controller.sendAlertByUser("Kotlin", AlertType.INFORMATIVE, "Programming", "Lucas");
+            controller.markAlertAsRead("Albano", read);
+
+            assertTrue(controller.snapshotAsync().get(10, TimeUnit.SECONDS));
+
+            controller.sendAlertByTopic("Go", AlertType.INFORMATIVE, "Programming");
+            controller.unselectTopic("Lucas", "Programming");
+        }
+
+        try (Controller controller = new ControllerBuilder().setSnapshotPath(snapshotPath).build()) {
+            assertEquals(0, controller.getUnexpiredAlertsByUser("Albano").size());
+            assertEquals(2, controller.getUnexpiredAlertsByUser("Lucas").size());
+            assertEquals(2, controller.getUnexpiredAlertsByTopic("Programming").size());
+            assertEquals(1, controller.countAlertReaders(read));
+        }
+
+        try (Controller controller = builder.build()) {
+            List<Alert> albanoAlerts = controller.getUnexpiredAlertsByUser("Albano");
+            assertEquals(1, albanoAlerts.size());
+            assertEquals("Go", albanoAlerts.get(0).getMessage());
+            assertEquals(1, controller.getUnexpiredAlertsByUser("Lucas").size());
+            assertEquals(3, controller.getUnexpiredAlertsByTopic("Programming").size());
+            assertEquals(1, controller.countAlertReaders(read));
+            assertEquals(4, controller.sendAlertByTopic("Rust", AlertType.INFORMATIVE, "Programming"));
+        }
+    }
+
+    @Test
+    public void retentionIsRecoveredFromSnapshotAndJournalTail() throws Exception {
+
+        Path journalPath = folder.getRoot().toPath().resolve("retention.journal");
+        Path snapshotPath = folder.getRoot().toPath().resolve("retention.snapshot");
+        ControllerBuilder builder = new ControllerBuilder().setJournalPath(journalPath).setSnapshotPath(snapshotPath);
+
+        try (Controller controller = builder.build()) {
+
+            controller.registerTopic("Programming");
+            controller.registerTopic("Math");
+            controller.setTopicRetention("Programming", RetentionPolicy.ofMaxCount(2));
+            controller.sendAlertByTopic("Java", AlertType.INFORMATIVE, "Programming");
+            controller.sendAlertByTopic("Kotlin", AlertType.INFORMATIVE, "Programming");
+            controller.sendAlertByTopic("Go", AlertType.INFORMATIVE, "Programming");
+
+            assertTrue(controller.snapshot());
+
+            controller.setTopicRetention("Math", RetentionPolicy.ofMaxCount(1));
+            controller.sendAlertByTopic("Algebra", AlertType.INFORMATIVE, "Math");
+            controller.sendAlertByTopic("Calculus", AlertType.INFORMATIVE, "Math");
+        }
+
+        try (Controller controller = builder.build()) {
+            assertEquals(RetentionPolicy.ofMaxCount(2), controller.getTopicRetention("Programming"));
+            assertEquals(RetentionPolicy.ofMaxCount(1), controller.getTopicRetention("Math"));
+            assertEquals(2, controller.getUnexpiredAlertsByTopic("Programming").size());
+
+            List<Alert> alerts = controller.getUnexpiredAlertsByTopic("Math");
+            assertEquals(1, alerts.size());
+            assertEquals("Calculus", alerts.get(0).getMessage());
+        }
+    }
+
+    @Test
+    public void wildcardSubscriptionsFollowTopicHierarchy(){
+
+        controller.registerUser("Albano");
+        controller.registerUser("WoowUp");
+        controller.registerTopic("programming.java");
+        controller.registerTopic("math");
+
+        assertFalse(controller.registerTopic("programming.*"));
+        assertTrue(controller.selectTopic("Albano", "programming.#"));
+        assertFalse(controller.selectTopic("Albano", "programming.#"));
+        assertTrue(controller.selectTopic("WoowUp", "programming.*"));
+
+        controller.registerTopic("programming.java.jvm");
+        controller.registerTopic("programming.go");
+
+        controller.sendAlertByTopic("Java 21", AlertType.INFORMATIVE, "programming.java");
+        controller.sendAlertByTopic("New GC", AlertType.INFORMATIVE, "programming.java.jvm");
+        controller.sendAlertByTopic("Go 1.22", AlertType.INFORMATIVE, "programming.go");
+        controller.sendAlertByTopic("Algebra", AlertType.INFORMATIVE, "math");
+
+        assertEquals(3, controller.getUnexpiredAlertsByUser("Albano").size());
+        assertEquals(2, controller.getUnexpiredAlertsByUser("WoowUp").size());
+
+        assertTrue(controller.selectTopic("Albano", "#.go"));
+        assertTrue(controller.unselectTopic("Albano", "programming.#"));
+
+        List<Alert> alerts = controller.getUnexpiredAlertsByUser("Albano");
+        assertEquals(1, alerts.size());
+        assertEquals("Go 1.22", alerts.get(0).getMessage());
+    }
+
+    @Test
+    public void topicPatternsAreRecoveredFromSnapshotAndJournalTail() throws Exception {
+
+        Path journalPath = folder.getRoot().toPath().resolve("patterns.journal");
+        Path snapshotPath = folder.getRoot().toPath().resolve("patterns.snapshot");
+        ControllerBuilder builder = new ControllerBuilder().setJournalPath(journalPath).setSnapshotPath(snapshotPath);
+
+        try (Controller controller = builder.build()) {
+
+            controller.registerUser("Albano");
+            controller.registerUser("WoowUp");
+            controller.registerTopic("programming.java");
+            controller.selectTopic("Albano", "programming.*");
+            controller.sendAlertByTopic("Java 21", AlertType.INFORMATIVE, "programming.java");
+
+            assertTrue(controller.snapshot());
+
+            controller.selectTopic("WoowUp", "#.go");
+            controller.registerTopic("programming.go");
+            controller.sendAlertByTopic("Go 1.22", AlertType.INFORMATIVE, "programming.go");
+        }
+
+        try (Controller controller = builder.build()) {
+            assertEquals(2, controller.getUnexpiredAlertsByUser("Albano").size());
+            assertEquals(1, controller.getUnexpiredAlertsByUser("WoowUp").size());
+
+            controller.registerTopic("programming.rust");
+            controller.sendAlertByTopic("Rust 2024", AlertType.INFORMATIVE, "programming.rust");
+            assertEquals(3, controller.getUnexpiredAlertsByUser("Albano").size());
+            assertEquals(1, controller.getUnexpiredAlertsByUser("WoowUp").size());
+        }
+    }
+
+    @Test
+    public void repeatedAlertsAreCoalescedWithinWindow() throws Exception {
+
+        ManualClock clock = new ManualClock(System.currentTimeMillis());
+
+        try (Controller deduplicated = new ControllerBuilder().setClock(clock)
+                .setDeduplicationWindowMillis(1_000).build()) {
+
+            deduplicated.registerUser("Albano");
+            deduplicated.registerTopic("Programming");
+            deduplicated.registerTopic("Math");
+            deduplicated.selectTopic("Albano", "Programming");
+
+            int java = deduplicated.sendAlertByTopic("Java", AlertType.INFORMATIVE, "Programming");
+            assertEquals(java, deduplicated.sendAlertByTopic("Java", AlertType.INFORMATIVE, "Programming"));
+            assertEquals(java, deduplicated.sendAlertByTopicAsync("Java", AlertType.INFORMATIVE, "Programming")
+                    .get(5, TimeUnit.SECONDS).intValue());
+
+            assertNotEquals(java, deduplicated.sendAlertByTopic("Java", AlertType.URGENT, "Programming"));
+            assertNotEquals(java, deduplicated.sendAlertByTopic("Kotlin", AlertType.INFORMATIVE, "Programming"));
+            assertNotEquals(java, deduplicated.sendAlertByTopic("Java", AlertType.INFORMATIVE, "Math"));
+
+            List<Alert> alerts = deduplicated.getUnexpiredAlertsByUser("Albano");
+            assertEquals(3, alerts.size());
+            assertEquals(3, alerts.stream().filter(alert -> alert.getId() == java).findFirst().get().getOccurrences());
+
+            assertEquals(4, deduplicated.getMetrics().snapshot().getAlertsSent(AlertDestination.GENERAL));
+
+            int empty = deduplicated.sendAlertByTopic(null, AlertType.INFORMATIVE, "Math");
+            assertEquals(empty, deduplicated.sendAlertByTopic(null, AlertType.INFORMATIVE, "Math"));
+
+            clock.advance(1_000);
+            assertNotEquals(java, deduplicated.sendAlertByTopic("Java", AlertType.INFORMATIVE, "Programming"));
+            assertEquals(4, deduplicated.getUnexpiredAlertsByUser("Albano").size());
+        }
+
+        controller.registerTopic("Programming");
+        int first = controller.sendAlertByTopic("Java", AlertType.INFORMATIVE, "Programming");
+        assertNotEquals(first, controller.sendAlertByTopic("Java", AlertType.INFORMATIVE, "Programming"));
+    }
+
+    @Test
+    public void coalescedOccurrencesAreRecoveredFromSnapshotAndJournalTail() throws Exception {
+
+        Path journalPath = folder.getRoot().toPath().resolve("coalesced.journal");
+        Path snapshotPath = folder.getRoot().toPath().resolve("coalesced.snapshot");
+        ControllerBuilder builder = new ControllerBuilder().setJournalPath(journalPath).setSnapshotPath(snapshotPath)
+                .setDeduplicationWindowMillis(60_000);
+        int java;
+
+        try (Controller controller = builder.build()) {
+
+            controller.registerTopic("Programming");
+            java = controller.sendAlertByTopic("Java", AlertType.INFORMATIVE, "Programming");
+            controller.sendAlertByTopic("Java", AlertType.INFORMATIVE, "Programming");
+
+            assertTrue(controller.snapshot());
+
+            controller.sendAlertByTopic("Java", AlertType.INFORMATIVE, "Programming");
+        }
+
+        try (Controller controller = builder.build()) {
+            List<Alert> alerts = controller.getUnexpiredAlertsByTopic("Programming");
+            assertEquals(1, alerts.size());
+            assertEquals(java, alerts.get(0).getId());
+            assertEquals(3, alerts.get(0).getOccurrences());
+        }
+    }
+
     @Test
     public void getUnexpiredAlertsByTopic(){
 
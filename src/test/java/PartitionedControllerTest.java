@@ -0,0 +1,224 @@
+import controller.Controller;
+import controller.ControllerBuilder;
+import controller.PartitionedController;
+import entities.alert.Alert;
+import entities.alert.AlertType;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Verifica que el controlador particionado se comporte igual que un controlador unico,
+ * con envios concurrentes y al recuperar cada particion de su diario
+ */
+public class PartitionedControllerTest {
+
+    private static final int USERS = 40;
+
+    private static final int TOPICS = 6;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void behavesLikeASingleController(){
+
+        Random random = new Random(42);
+
+        try (Controller single = new Controller();
+             PartitionedController partitioned = new ControllerBuilder().setPartitions(4).buildPartitioned()) {
+
+            for (int t = 0; t < TOPICS; t++) {
+                assertEquals(single.registerTopic("topic-" + t), partitioned.registerTopic("topic-" + t));
+            }
+            assertEquals(single.registerUsers(userNames()), partitioned.registerUsers(userNames()));
+            assertEquals(single.subscribeUsers("topic-0", userNames()), partitioned.subscribeUsers("topic-0", userNames()));
+
+            for (int u = 0; u < USERS; u++) {
+                String topicName = "topic-" + (1 + random.nextInt(TOPICS - 1));
+                assertEquals(single.selectTopic("user-" + u, topicName), partitioned.selectTopic("user-" + u, topicName));
+            }
+
+            for (int i = 0; i < 500; i++) {
+                String userName = "user-" + random.nextInt(USERS);
+                String topicName = "topic-" + random.nextInt(TOPICS);
+                AlertType type = random.nextBoolean() ? AlertType.URGENT : AlertType.INFORMATIVE;
+
+                switch (random.nextInt(4)) {
+                    case 0:
+                        assertEquals(single.sendAlertByUser("Alert " + i, type, topicName, userName) == 0,
+                                partitioned.sendAlertByUser("Alert " + i, type, topicName, userName) == 0);
+                        break;
+                    case 1:
+                        List<Alert> unread = single.getUnexpiredAlertsByUser(userName);
+                        if (!unread.isEmpty()) {
+                            Alert alert = unread.get(random.nextInt(unread.size()));
+                            assertTrue(single.markAlertAsRead(userName, alert.getId()));
+                            assertTrue(partitioned.markAlertAsRead(userName,
+                                    find(partitioned.getUnexpiredAlertsByUser(userName), alert).getId()));
+                        }
+                        break;
+                    default:
+                        assertEquals(single.sendAlertByTopic("Alert " + i, type, topicName) == 0,
+                                partitioned.sendAlertByTopic("Alert " + i, type, topicName) == 0);
+                        break;
+                }
+            }
+
+            for (int u = 0; u < USERS; u++) {
+                String userName = "user-" + u;
+                assertEquals(messages(single.getUnexpiredAlertsByUser(userName)),
+                        messages(partitioned.getUnexpiredAlertsByUser(userName)));
+                assertEquals(single.countUnread(userName), partitioned.countUnread(userName));
+            }
+            for (int t = 0; t < TOPICS; t++) {
+                String topicName = "topic-" + t;
+                assertEquals(messages(single.getUnexpiredAlertsByTopic(topicName)),
+                        messages(partitioned.getUnexpiredAlertsByTopic(topicName)));
+            }
+            List<Alert> partitionedAlerts = partitioned.getUnexpiredAlertsByTopic("topic-0");
+            for (Alert alert : single.getUnexpiredAlertsByTopic("topic-0")) {
+                assertEquals(single.countAlertReaders(alert.getId()),
+                        partitioned.countAlertReaders(find(partitionedAlerts, alert).getId()));
+            }
+        }
+    }
+
+    @Test
+    public void concurrentSendsKeepTopicOrderInEveryPartition() throws Exception {
+
+        try (PartitionedController partitioned = new ControllerBuilder().setPartitions(3).buildPartitioned()) {
+
+            partitioned.registerTopic("topic");
+            partitioned.registerUsers(userNames());
+            partitioned.subscribeUsers("topic", userNames());
+
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int s = 0; s < 4; s++) {
+                int sender = s;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 500; i++) {
+                        if (i % 5 == 0) {
+                            partitioned.sendAlertByUser("Personal", AlertType.URGENT, "topic", "user-" + (i % USERS));
+                        } else {
+                            partitioned.sendAlertByTopic("General " + sender, AlertType.INFORMATIVE, "topic");
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+            executor.shutdown();
+
+            List<Integer> topicIds = ids(partitioned.getUnexpiredAlertsByTopic("topic"));
+            assertEquals(2000, topicIds.size());
+            assertEquals(2000, new HashSet<>(topicIds).size());
+
+            int total = 0;
+            for (int u = 0; u < USERS; u++) {
+                total += partitioned.countUnread("user-" + u);
+            }
+            assertEquals(USERS * 1600 + 400, total);
+        }
+    }
+
+    @Test
+    public void unknownTargetsAreRejectedWithoutUsingIds(){
+
+        try (PartitionedController partitioned = new ControllerBuilder().setPartitions(2).buildPartitioned()) {
+
+            partitioned.registerUser("Albano");
+            partitioned.registerTopic("Programming");
+
+            assertNull(partitioned.getUnexpiredAlertsByTopic("Math"));
+            assertNull(partitioned.getUnexpiredAlertsByUser("WoowUp"));
+            assertEquals(0, partitioned.sendAlertByTopic("Algebra", AlertType.INFORMATIVE, "Math"));
+            assertEquals(0, partitioned.sendAlertByUser("Java", AlertType.URGENT, "Programming", "Albano"));
+            assertEquals(0, partitioned.sendAlertByUser("Java", AlertType.URGENT, "Programming", "WoowUp"));
+
+            partitioned.selectTopic("Albano", "Programming");
+            assertEquals(1, partitioned.sendAlertByTopic("Java", AlertType.INFORMATIVE, "Programming"));
+            assertEquals(2, partitioned.sendAlertByUser("Kotlin", AlertType.URGENT, "Programming", "Albano"));
+            assertEquals(2, partitioned.getUnexpiredAlertsByTopic("Programming").size());
+        }
+    }
+
+    @Test
+    public void partitionsAreRecoveredFromTheirJournals(){
+
+        Path journalPath = folder.getRoot().toPath().resolve("partitioned.journal");
+        ControllerBuilder builder = new ControllerBuilder().setPartitions(3).setJournalPath(journalPath);
+        int lastId;
+
+        try (PartitionedController partitioned = builder.buildPartitioned()) {
+            partitioned.registerTopic("Programming");
+            partitioned.registerUsers(userNames());
+            partitioned.subscribeUsers("Programming", userNames());
+            partitioned.sendAlertByTopic("Java", AlertType.INFORMATIVE, "Programming");
+            lastId = partitioned.sendAlertByUser("Go", AlertType.URGENT, "Programming", "user-7");
+        }
+
+        try (PartitionedController partitioned = builder.buildPartitioned()) {
+            assertEquals(2, partitioned.countUnread("user-7"));
+            assertEquals(1, partitioned.countUnread("user-8"));
+            assertTrue(partitioned.sendAlertByTopic("Kotlin", AlertType.INFORMATIVE, "Programming") > lastId);
+        }
+    }
+
+    @Test
+    public void generalAlertsMissingFromSomePartitionsAreRestored(){
+
+        Path journalPath = folder.getRoot().toPath().resolve("partitioned.journal");
+        ControllerBuilder builder = new ControllerBuilder().setPartitions(3).setJournalPath(journalPath);
+        int lastId;
+
+        try (PartitionedController partitioned = builder.buildPartitioned()) {
+            partitioned.registerTopic("Programming");
+            partitioned.registerUsers(userNames());
+            partitioned.subscribeUsers("Programming", userNames());
+            partitioned.sendAlertByTopic("Java", AlertType.INFORMATIVE, "Programming");
+
+            // Simula una caida a mitad de un envio por tema: solo la primera particion lo registro
+            lastId = partitioned.getPartition(0).sendAlertByTopic("Kotlin", AlertType.URGENT, "Programming");
+        }
+
+        try (PartitionedController partitioned = builder.buildPartitioned()) {
+            for (String userName : userNames()) {
+                assertEquals(Arrays.asList("Kotlin", "Java"), messages(partitioned.getUnexpiredAlertsByUser(userName)));
+                assertEquals(lastId, partitioned.getUnexpiredAlertsByUser(userName).get(0).getId());
+            }
+            assertTrue(partitioned.sendAlertByTopic("Go", AlertType.INFORMATIVE, "Programming") > lastId);
+        }
+    }
+
+    private static List<String> userNames() {
+
+        List<String> userNames = new ArrayList<>();
+        for (int u = 0; u < USERS; u++) {
+            userNames.add("user-" + u);
+        }
+        return userNames;
+    }
+
+    private static Alert find(List<Alert> alerts, Alert other) {
+        return alerts.stream().filter(alert -> alert.getMessage().equals(other.getMessage())).findFirst().orElseThrow();
+    }
+
+    private static List<String> messages(List<Alert> alerts) {
+        return alerts.stream().map(Alert::getMessage).collect(Collectors.toList());
+    }
+
+    private static List<Integer> ids(List<Alert> alerts) {
+        return alerts.stream().map(Alert::getId).collect(Collectors.toList());
+    }
+
+}
@@ -0,0 +1,152 @@
+import controller.Controller;
+import controller.ControllerBuilder;
+import entities.alert.Alert;
+import entities.alert.AlertType;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Verifica la replicacion por envio del diario sobre localhost: el seguidor recibe la instantanea
+ * al conectarse, aplica los cambios posteriores en orden y atiende las lecturas con su propio estado
+ */
+public class ReplicationTest {
+
+    private static final int USERS = 20;
+
+    private static final int TOPICS = 4;
+
+    @Test
+    public void followerServesReadsFromReplicatedState() throws Exception {
+
+        ServerSocketChannel server = ServerSocketChannel.open()
+                .bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+        try (Controller leader = new ControllerBuilder().setReplicationListener(server).build()) {
+
+            leader.registerUser("Albano");
+            leader.registerTopic("Programming");
+            leader.selectTopic("Albano", "Programming");
+            int java = leader.sendAlertByTopic("Java", AlertType.INFORMATIVE, "Programming");
+
+            SocketChannel channel = SocketChannel.open(server.getLocalAddress());
+            try (Controller follower = new ControllerBuilder().setReplicationSource(channel).build()) {
+
+                leader.registerUser("WoowUp");
+                leader.selectTopic("WoowUp", "Programming");
+                leader.sendAlertByTopic("Kotlin", AlertType.URGENT, "Programming");
+                leader.sendAlertByUser("Go", AlertType.INFORMATIVE, "Programming", "WoowUp");
+                leader.markAlertAsRead("Albano", java);
+
+                assertTrue(follower.awaitReplication(leader.getReplicationSequence(), 10, TimeUnit.SECONDS));
+
+                assertEquals(messages(leader.getUnexpiredAlertsByUser("Albano")),
+                        messages(follower.getUnexpiredAlertsByUser("Albano")));
+                assertEquals(messages(leader.getUnexpiredAlertsByUser("WoowUp")),
+                        messages(follower.getUnexpiredAlertsByUser("WoowUp")));
+                assertEquals(messages(leader.getUnexpiredAlertsByTopic("Programming")),
+                        messages(follower.getUnexpiredAlertsByTopic("Programming")));
+                assertEquals(List.of("Kotlin"), messages(follower.getUnexpiredAlertsByUser("Albano")));
+            }
+        }
+    }
+
+    @Test
+    public void followerRejectsLocalWrites() throws Exception {
+
+        ServerSocketChannel server = ServerSocketChannel.open()
+                .bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+        try (Controller leader = new ControllerBuilder().setReplicationListener(server).build()) {
+
+            leader.registerUser("Albano");
+            leader.registerTopic("Programming");
+            leader.selectTopic("Albano", "Programming");
+
+            SocketChannel channel = SocketChannel.open(server.getLocalAddress());
+            try (Controller follower = new ControllerBuilder().setReplicationSource(channel).build()) {
+
+                assertTrue(follower.awaitReplication(leader.getReplicationSequence(), 10, TimeUnit.SECONDS));
+
+                assertFalse(follower.registerUser("WoowUp"));
+                assertFalse(follower.registerTopic("Math"));
+                assertFalse(follower.unselectTopic("Albano", "Programming"));
+                assertEquals(0, follower.sendAlertByTopic("Local", AlertType.URGENT, "Programming"));
+                assertEquals(0, follower.sendAlertByUser("Local", AlertType.URGENT, "Programming", "Albano"));
+                assertEquals(0, follower.sendAlertByTopicAsync("Local", AlertType.URGENT, "Programming")
+                        .get(10, TimeUnit.SECONDS).intValue());
+
+                int java = leader.sendAlertByTopic("Java", AlertType.INFORMATIVE, "Programming");
+                assertTrue(follower.awaitReplication(leader.getReplicationSequence(), 10, TimeUnit.SECONDS));
+
+                assertFalse(follower.markAlertAsRead("Albano", java));
+                assertEquals(0, follower.markAllAsRead("Albano"));
+                assertEquals(List.of("Java"), messages(follower.getUnexpiredAlertsByUser("Albano")));
+                assertEquals(java, follower.getUnexpiredAlertsByTopic("Programming").get(0).getId());
+                assertNull(follower.getUnexpiredAlertsByTopic("Math"));
+            }
+        }
+    }
+
+    @Test
+    public void followerJoiningDuringWritesConverges() throws Exception {
+
+        ServerSocketChannel server = ServerSocketChannel.open()
+                .bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+        try (Controller leader = new ControllerBuilder().setReplicationListener(server).build()) {
+
+            for (int t = 0; t < TOPICS; t++) {
+                leader.registerTopic("topic-" + t);
+            }
+            for (int u = 0; u < USERS; u++) {
+                leader.registerUser("user-" + u);
+                leader.selectTopic("user-" + u, "topic-" + (u % TOPICS));
+            }
+
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            Future<?> writes = executor.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < 5_000; i++) {
+                    String userName = "user-" + random.nextInt(USERS);
+                    if (i % 3 == 0) {
+                        leader.markAllAsRead(userName);
+                    } else {
+                        leader.sendAlertByTopic("Alert " + i, AlertType.INFORMATIVE, "topic-" + random.nextInt(TOPICS));
+                    }
+                }
+            });
+
+            SocketChannel channel = SocketChannel.open(server.getLocalAddress());
+            try (Controller follower = new ControllerBuilder().setReplicationSource(channel).build()) {
+
+                writes.get(30, TimeUnit.SECONDS);
+                executor.shutdown();
+
+                assertTrue(follower.awaitReplication(leader.getReplicationSequence(), 10, TimeUnit.SECONDS));
+
+                for (int u = 0; u < USERS; u++) {
+                    assertEquals(messages(leader.getUnexpiredAlertsByUser("user-" + u)),
+                            messages(follower.getUnexpiredAlertsByUser("user-" + u)));
+                }
+                for (int t = 0; t < TOPICS; t++) {
+                    assertEquals(messages(leader.getUnexpiredAlertsByTopic("topic-" + t)),
+                            messages(follower.getUnexpiredAlertsByTopic("topic-" + t)));
+                }
+            }
+        }
+    }
+
+    private static List<String> messages(List<Alert> alerts) {
+        return alerts.stream().map(Alert::getMessage).collect(Collectors.toList());
+    }
+
+}
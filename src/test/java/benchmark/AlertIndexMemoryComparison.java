@@ -0,0 +1,71 @@
+package benchmark;
+
+import entities.alert.Alert;
+import entities.alert.AlertBuilder;
+import util.IntObjectHashMap;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compara la memoria que ocupa el indice de alertas por id con IntObjectHashMap contra un HashMap de Integer,
+ * las alertas se crean antes de medir para contar solo el costo del indice
+ * Se ejecuta como programa luego de mvn test-compile:
+ * java -cp target/test-classes:target/classes benchmark.AlertIndexMemoryComparison [cantidad]
+ */
+public class AlertIndexMemoryComparison {
+
+    public static void main(String[] args) {
+
+        int entries = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+        Alert[] alerts = new Alert[entries];
+        for (int i = 0; i < entries; i++) {
+            alerts[i] = new AlertBuilder().setId(i + 1).setMessage("alert").build();
+        }
+
+        long before = usedMemory();
+        IntObjectHashMap<Alert> primitive = new IntObjectHashMap<>();
+        for (Alert alert : alerts) {
+            primitive.put(alert.getId(), alert);
+        }
+        long primitiveBytes = usedMemory() - before;
+
+        before = usedMemory();
+        Map<Integer, Alert> boxed = new HashMap<>();
+        for (Alert alert : alerts) {
+            boxed.put(alert.getId(), alert);
+        }
+        long boxedBytes = usedMemory() - before;
+
+        System.out.printf("entries=%d%n", entries);
+        System.out.printf("IntObjectHashMap: %,d bytes (%.1f bytes/entry)%n", primitiveBytes, (double) primitiveBytes / entries);
+        System.out.printf("HashMap<Integer, Alert>: %,d bytes (%.1f bytes/entry)%n", boxedBytes, (double) boxedBytes / entries);
+
+        // Mantiene vivos los indices hasta despues de medir
+        if (primitive.size() + boxed.size() != 2 * entries) {
+            throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * Devuelve la memoria de heap en uso luego de forzar varias recolecciones
+     * @return Bytes en uso
+     */
+    private static long usedMemory() {
+
+        Runtime runtime = Runtime.getRuntime();
+
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+}
@@ -0,0 +1,139 @@
+package benchmark;
+
+import controller.Controller;
+import entities.alert.AlertCursor;
+import entities.alert.AlertType;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark de los caminos calientes del controlador: registro, suscripcion, envios, marca de leida y lecturas
+ * Se parametriza por cantidad de usuarios, de temas, suscripciones por usuario y profundidad de la bandeja,
+ * la cantidad de suscriptores por tema resulta de users * subscriptionsPerUser / topics
+ * Con el perfil benchmark se ejecuta con el profiler de GC para reportar la tasa de asignacion
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class ControllerBenchmark {
+
+    @Param({"10000", "100000"})
+    private int users;
+
+    @Param({"100", "1000"})
+    private int topics;
+
+    @Param({"1", "10"})
+    private int subscriptionsPerUser;
+
+    @Param({"10", "1000"})
+    private int inboxDepth;
+
+    private Controller controller;
+
+    private String[] userNames;
+
+    private String[] topicNames;
+
+    private String[][] userTopics;
+
+    private int[] alertIds;
+
+    private SplittableRandom random;
+
+    private int registered;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+
+        controller = new Controller();
+        random = new SplittableRandom(42);
+
+        topicNames = new String[topics];
+        for (int t = 0; t < topics; t++) {
+            topicNames[t] = "topic-" + t;
+            controller.registerTopic(topicNames[t]);
+        }
+
+        userNames = new String[users];
+        userTopics = new String[users][];
+        for (int u = 0; u < users; u++) {
+            userNames[u] = "user-" + u;
+            controller.registerUser(userNames[u]);
+
+            userTopics[u] = new String[Math.min(subscriptionsPerUser, topics)];
+            for (int s = 0; s < userTopics[u].length; s++) {
+                userTopics[u][s] = topicNames[random.nextInt(topics)];
+                controller.selectTopic(userNames[u], userTopics[u][s]);
+            }
+        }
+
+        // Cada usuario ve todas las alertas de sus temas, asi cada bandeja queda con inboxDepth alertas aprox.
+        int alertsPerTopic = Math.max(1, inboxDepth / Math.max(1, subscriptionsPerUser));
+        List<Integer> ids = new ArrayList<>();
+        for (int a = 0; a < alertsPerTopic; a++) {
+            for (String topicName : topicNames) {
+                AlertType type = random.nextInt(4) == 0 ? AlertType.URGENT : AlertType.INFORMATIVE;
+                ids.add(controller.sendAlertByTopic("Alert " + a, type, topicName));
+            }
+        }
+
+        alertIds = ids.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        controller.close();
+    }
+
+    @Benchmark
+    public boolean registerUser() {
+        return controller.registerUser("new-user-" + registered++);
+    }
+
+    @Benchmark
+    public boolean selectTopic() {
+        return controller.selectTopic(userNames[random.nextInt(users)], topicNames[random.nextInt(topics)]);
+    }
+
+    @Benchmark
+    public int sendAlertByTopic() {
+        return controller.sendAlertByTopic("Benchmark alert", AlertType.INFORMATIVE,
+                topicNames[random.nextInt(topics)]);
+    }
+
+    @Benchmark
+    public int sendAlertByUser() {
+        int user = random.nextInt(users);
+        return controller.sendAlertByUser("Benchmark alert", AlertType.URGENT,
+                userTopics[user][0], userNames[user]);
+    }
+
+    @Benchmark
+    public boolean markAlertAsRead() {
+        return controller.markAlertAsRead(userNames[random.nextInt(users)], alertIds[random.nextInt(alertIds.length)]);
+    }
+
+    @Benchmark
+    public Object getUnexpiredAlertsByUser() {
+        return controller.getUnexpiredAlertsByUser(userNames[random.nextInt(users)]);
+    }
+
+    @Benchmark
+    public Object getUnexpiredAlertsByUserFirstPage() {
+        return controller.getUnexpiredAlertsByUser(userNames[random.nextInt(users)], AlertCursor.start(), 20);
+    }
+
+    @Benchmark
+    public Object getUnexpiredAlertsByTopic() {
+        return controller.getUnexpiredAlertsByTopic(topicNames[random.nextInt(topics)]);
+    }
+
+}
@@ -0,0 +1,350 @@
+package benchmark;
+
+import controller.Controller;
+import controller.ControllerBuilder;
+import entities.alert.AlertCursor;
+import entities.alert.AlertPage;
+import entities.alert.AlertType;
+import metrics.Histogram;
+import metrics.HistogramSnapshot;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Generador de carga sintetica para pruebas de resistencia: registra usuarios y temas, suscribe a cada usuario
+ * a temas elegidos con distribucion de Zipf (pocos temas muy populares y muchos con pocos suscriptores) y luego
+ * mezcla envios y lecturas a tasa fija durante el tiempo configurado
+ * La latencia de cada operacion se mide desde el momento en que debia empezar segun la tasa y no desde que
+ * empezo, asi las demoras del sistema no se esconden atrasando las operaciones siguientes
+ * Cada intervalo informa por operacion la tasa y los percentiles, y ademas el heap usado y las pausas de GC,
+ * al terminar se informa el total de la ejecucion
+ * La configuracion con la semilla se guarda en un archivo para repetir la misma carga, ver Workload
+ * Se ejecuta como programa luego de mvn test-compile:
+ * java -Xmx8g -cp target/test-classes:target/classes benchmark.LoadGenerator [clave=valor...] [workload=archivo]
+ */
+public class LoadGenerator {
+
+    private static final int BATCH_SIZE = 10_000;
+
+    private static final int PAGE_SIZE = 20;
+
+    private enum Operation {
+        SEND_URGENT, SEND_INFORMATIVE, READ_PAGE, READ_FULL, COUNT_UNREAD, MARK_ONE, MARK_ALL
+    }
+
+    private static final Operation[] OPERATIONS = Operation.values();
+
+    private final Workload workload;
+
+    private final Controller controller;
+
+    private final ZipfianGenerator topicRanks;
+
+    private final int users;
+
+    private final int topics;
+
+    private final double[] cumulativeWeights;
+
+    private final double totalRate;
+
+    private final Histogram[] totals;
+
+    private final AtomicReferenceArray<Histogram> intervals;
+
+    private int[][] userTopics;
+
+    private volatile boolean running;
+
+    private LoadGenerator(Workload workload, Controller controller) {
+
+        this.workload = workload;
+        this.controller = controller;
+        this.users = workload.getInt("users");
+        this.topics = workload.getInt("topics");
+        this.topicRanks = new ZipfianGenerator(topics, workload.getDouble("zipfExponent"));
+
+        double readRate = workload.getDouble("readRate");
+        double[] readWeights = {workload.getDouble("pageReads"), workload.getDouble("fullReads"),
+                workload.getDouble("countReads"), workload.getDouble("markOne"), workload.getDouble("markAll")};
+        double readWeightSum = 0;
+        for (double weight : readWeights) {
+            readWeightSum += weight;
+        }
+
+        double[] rates = new double[OPERATIONS.length];
+        rates[Operation.SEND_URGENT.ordinal()] = workload.getDouble("urgentRate");
+        rates[Operation.SEND_INFORMATIVE.ordinal()] = workload.getDouble("informativeRate");
+        for (int i = 0; i < readWeights.length; i++) {
+            rates[Operation.READ_PAGE.ordinal() + i] = readWeightSum == 0 ? 0 : readRate * readWeights[i] / readWeightSum;
+        }
+
+        double sum = 0;
+        this.cumulativeWeights = new double[OPERATIONS.length];
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            sum += rates[i];
+            cumulativeWeights[i] = sum;
+        }
+        this.totalRate = sum;
+
+        this.totals = new Histogram[OPERATIONS.length];
+        this.intervals = new AtomicReferenceArray<>(OPERATIONS.length);
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            totals[i] = new Histogram();
+            intervals.set(i, new Histogram());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        Workload workload = Workload.parse(args);
+        Path saved = workload.save();
+        System.out.println("Workload " + workload);
+        System.out.println("Saved to " + saved.toAbsolutePath());
+
+        try (Controller controller = new ControllerBuilder()
+                .setOffHeapStore(workload.getBoolean("offHeap"))
+                .build()) {
+
+            LoadGenerator generator = new LoadGenerator(workload, controller);
+            SplittableRandom random = new SplittableRandom(workload.getLong("seed"));
+
+            generator.setUp(random);
+            generator.run(random);
+        }
+    }
+
+    /**
+     * Registra los temas y los usuarios en lotes y suscribe cada usuario a sus temas
+     */
+    private void setUp(SplittableRandom random) {
+
+        long start = System.nanoTime();
+
+        for (int i = 0; i < topics; i++) {
+            controller.registerTopic(topicName(i));
+        }
+
+        int subscriptions = workload.getInt("subscriptionsPerUser");
+        userTopics = new int[users][];
+        List<String> batch = new ArrayList<>(BATCH_SIZE);
+
+        for (int first = 0; first < users; first += BATCH_SIZE) {
+            int last = Math.min(users, first + BATCH_SIZE);
+
+            batch.clear();
+            for (int i = first; i < last; i++) {
+                batch.add(userName(i));
+            }
+            controller.registerUsers(batch);
+
+            for (int i = first; i < last; i++) {
+                int[] chosen = new int[Math.min(subscriptions, topics)];
+                List<String> names = new ArrayList<>(chosen.length);
+                for (int j = 0; j < chosen.length; j++) {
+                    chosen[j] = topicRanks.next(random);
+                    names.add(topicName(chosen[j]));
+                }
+                userTopics[i] = chosen;
+                controller.selectTopics(userName(i), names);
+            }
+        }
+
+        System.out.printf("Set up %d users and %d topics in %d ms%n", users, topics,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * Arranca los hilos de carga, informa cada intervalo y al final el total
+     */
+    private void run(SplittableRandom random) throws InterruptedException {
+
+        int threads = workload.getInt("threads");
+        long durationNanos = TimeUnit.SECONDS.toNanos(workload.getLong("durationSeconds"));
+        long reportNanos = TimeUnit.SECONDS.toNanos(workload.getLong("reportSeconds"));
+        long periodNanos = totalRate <= 0 ? Long.MAX_VALUE : (long) (1e9 * threads / totalRate);
+
+        running = true;
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            SplittableRandom workerRandom = random.split();
+            workers[i] = new Thread(() -> work(workerRandom, periodNanos), "load-" + i);
+            workers[i].start();
+        }
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long start = System.nanoTime();
+        long lastReport = start;
+        long[] gc = gcTotals();
+        long[] startGc = gc;
+
+        while (System.nanoTime() - start < durationNanos) {
+            long next = Math.min(lastReport + reportNanos, start + durationNanos);
+            LockSupport.parkNanos(next - System.nanoTime());
+            if (System.nanoTime() < next) {
+                continue;
+            }
+
+            long now = System.nanoTime();
+            long[] currentGc = gcTotals();
+            System.out.printf("%n[%d s] heap %d MB, gc %d collections %d ms%n",
+                    TimeUnit.NANOSECONDS.toSeconds(now - start),
+                    memory.getHeapMemoryUsage().getUsed() >> 20,
+                    currentGc[0] - gc[0], currentGc[1] - gc[1]);
+            for (int i = 0; i < OPERATIONS.length; i++) {
+                report(OPERATIONS[i], intervals.getAndSet(i, new Histogram()).snapshot(), now - lastReport);
+            }
+            gc = currentGc;
+            lastReport = now;
+        }
+
+        running = false;
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        long elapsed = System.nanoTime() - start;
+        long[] endGc = gcTotals();
+        System.out.printf("%nTotal %d s, heap %d MB, gc %d collections %d ms%n",
+                TimeUnit.NANOSECONDS.toSeconds(elapsed), memory.getHeapMemoryUsage().getUsed() >> 20,
+                endGc[0] - startGc[0], endGc[1] - startGc[1]);
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            report(OPERATIONS[i], totals[i].snapshot(), elapsed);
+        }
+    }
+
+    /**
+     * Ejecuta operaciones a intervalos fijos, si se atrasa ejecuta las pendientes sin esperar
+     */
+    private void work(SplittableRandom random, long periodNanos) {
+
+        long intended = System.nanoTime();
+
+        while (running) {
+            long wait = intended - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+                continue;
+            }
+
+            Operation operation = choose(random);
+            execute(operation, random);
+
+            long latency = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - intended);
+            totals[operation.ordinal()].record(latency);
+            intervals.get(operation.ordinal()).record(latency);
+
+            intended += periodNanos;
+        }
+    }
+
+    private Operation choose(SplittableRandom random) {
+
+        double value = random.nextDouble() * totalRate;
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            if (value < cumulativeWeights[i]) {
+                return OPERATIONS[i];
+            }
+        }
+        return OPERATIONS[OPERATIONS.length - 1];
+    }
+
+    private void execute(Operation operation, SplittableRandom random) {
+
+        int user = random.nextInt(users);
+
+        switch (operation) {
+            case SEND_URGENT:
+                send(AlertType.URGENT, random);
+                break;
+            case SEND_INFORMATIVE:
+                send(AlertType.INFORMATIVE, random);
+                break;
+            case READ_PAGE:
+                controller.getUnexpiredAlertsByUser(userName(user), AlertCursor.start(), PAGE_SIZE);
+                break;
+            case READ_FULL:
+                controller.getUnexpiredAlertsByUser(userName(user));
+                break;
+            case COUNT_UNREAD:
+                controller.countUnread(userName(user));
+                break;
+            case MARK_ONE:
+                AlertPage page = controller.getUnexpiredAlertsByUser(userName(user), AlertCursor.start(), 1);
+                if (page != null && !page.getAlerts().isEmpty()) {
+                    controller.markAlertAsRead(userName(user), page.getAlerts().get(0).getId());
+                }
+                break;
+            default:
+                controller.markAllAsRead(userName(user));
+                break;
+        }
+    }
+
+    /**
+     * Envia una alerta a un tema elegido por popularidad, o una parte de las veces a un usuario en uno de sus temas
+     */
+    private void send(AlertType type, SplittableRandom random) {
+
+        LocalDateTime expiration = null;
+        if (random.nextDouble() >= workload.getDouble("neverExpiresFraction")) {
+            double seconds = -Math.log(1.0 - random.nextDouble()) * workload.getDouble("meanExpirySeconds");
+            expiration = LocalDateTime.now().plusNanos((long) (seconds * 1e9));
+        }
+
+        if (random.nextDouble() < workload.getDouble("personalFraction")) {
+            int user = random.nextInt(users);
+            int[] chosen = userTopics[user];
+            if (chosen.length > 0) {
+                String topic = topicName(chosen[random.nextInt(chosen.length)]);
+                controller.sendAlertByUser("load", type, topic, userName(user), expiration);
+                return;
+            }
+        }
+
+        controller.sendAlertByTopic("load", type, topicName(topicRanks.next(random)), expiration);
+    }
+
+    private static void report(Operation operation, HistogramSnapshot snapshot, long elapsedNanos) {
+
+        if (snapshot.getCount() == 0) {
+            return;
+        }
+
+        System.out.printf("  %-16s %10.1f ops/s  p50 %8d us  p99 %8d us  p999 %8d us  max %8d us%n",
+                operation, snapshot.getCount() * 1e9 / elapsedNanos, snapshot.getP50(), snapshot.getP99(),
+                snapshot.getP999(), snapshot.getMax());
+    }
+
+    /**
+     * Devuelve la cantidad y el tiempo acumulado de las recolecciones de todos los recolectores
+     */
+    private static long[] gcTotals() {
+
+        long[] totals = new long[2];
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            totals[0] += Math.max(0, collector.getCollectionCount());
+            totals[1] += Math.max(0, collector.getCollectionTime());
+        }
+        return totals;
+    }
+
+    private static String userName(int index) {
+        return "user-" + index;
+    }
+
+    private static String topicName(int rank) {
+        return "topic-" + rank;
+    }
+
+}
@@ -0,0 +1,69 @@
+package benchmark;
+
+import controller.Controller;
+import controller.ControllerBuilder;
+import entities.alert.AlertType;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+
+/**
+ * Compara el heap en uso y el tiempo de una recoleccion completa con muchas alertas retenidas,
+ * guardando los mensajes y fechas en el heap y fuera del heap
+ * Se ejecuta como programa luego de mvn test-compile:
+ * java -Xmx4g -cp target/test-classes:target/classes benchmark.OffHeapGcComparison [cantidad]
+ */
+public class OffHeapGcComparison {
+
+    private static final int TOPICS = 100;
+
+    public static void main(String[] args) {
+
+        int alerts = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+
+        measure("heap", new ControllerBuilder(), alerts);
+        measure("off-heap", new ControllerBuilder().setOffHeapStore(true), alerts);
+    }
+
+    private static void measure(String name, ControllerBuilder builder, int alerts) {
+
+        try (Controller controller = builder.build()) {
+
+            LocalDateTime expirationDate = LocalDateTime.now().plusDays(1);
+
+            for (int i = 0; i < TOPICS; i++) {
+                controller.registerTopic("topic-" + i);
+            }
+            for (int i = 0; i < alerts; i++) {
+                controller.sendAlertByTopic("New courses available, alert number " + i, AlertType.INFORMATIVE,
+                        "topic-" + (i % TOPICS), expirationDate);
+            }
+
+            long before = gcMillis();
+            long start = System.nanoTime();
+            System.gc();
+            long fullGcMillis = (System.nanoTime() - start) / 1_000_000;
+            Runtime runtime = Runtime.getRuntime();
+
+            System.out.printf("%s: alerts=%d heap used=%,d bytes full gc=%d ms (collector time %d ms)%n", name, alerts,
+                    runtime.totalMemory() - runtime.freeMemory(), fullGcMillis, gcMillis() - before);
+        }
+    }
+
+    /**
+     * Devuelve el tiempo acumulado de todos los recolectores
+     * @return Milisegundos de recoleccion
+     */
+    private static long gcMillis() {
+
+        long millis = 0;
+
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, collector.getCollectionTime());
+        }
+
+        return millis;
+    }
+
+}
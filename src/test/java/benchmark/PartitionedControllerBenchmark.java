@@ -0,0 +1,105 @@
+package benchmark;
+
+import controller.ControllerBuilder;
+import controller.PartitionedController;
+import entities.alert.AlertType;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark del controlador particionado con todos los procesadores enviando y leyendo a la vez
+ * Se parametriza por cantidad de particiones, con una sola particion todos los cambios pasan por un unico hilo
+ * escritor, al aumentarlas el rendimiento de las operaciones por usuario deberia crecer casi linealmente
+ * hasta la cantidad de procesadores, los envios por tema se reparten en un envio por particion
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@Threads(Threads.MAX)
+@State(Scope.Benchmark)
+public class PartitionedControllerBenchmark {
+
+    @Param({"1", "2", "4", "8"})
+    private int partitions;
+
+    @Param({"100000"})
+    private int users;
+
+    @Param({"1000"})
+    private int topics;
+
+    private PartitionedController controller;
+
+    private String[] userNames;
+
+    private String[] topicNames;
+
+    private String[] userTopics;
+
+    /**
+     * Generador de numeros aleatorios de cada hilo del benchmark
+     */
+    @State(Scope.Thread)
+    public static class ThreadRandom {
+
+        private final SplittableRandom random = new SplittableRandom(Thread.currentThread().getId());
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+
+        controller = new ControllerBuilder().setPartitions(partitions).buildPartitioned();
+        SplittableRandom random = new SplittableRandom(42);
+
+        topicNames = new String[topics];
+        for (int t = 0; t < topics; t++) {
+            topicNames[t] = "topic-" + t;
+            controller.registerTopic(topicNames[t]);
+        }
+
+        userNames = new String[users];
+        userTopics = new String[users];
+        for (int u = 0; u < users; u++) {
+            userNames[u] = "user-" + u;
+            userTopics[u] = topicNames[random.nextInt(topics)];
+            controller.registerUser(userNames[u]);
+            controller.selectTopic(userNames[u], userTopics[u]);
+        }
+
+        for (String topicName : topicNames) {
+            controller.sendAlertByTopic("Alert", AlertType.INFORMATIVE, topicName);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        controller.close();
+    }
+
+    @Benchmark
+    public int sendAlertByUser(ThreadRandom state) {
+        int user = state.random.nextInt(users);
+        return controller.sendAlertByUser("Benchmark alert", AlertType.URGENT, userTopics[user], userNames[user]);
+    }
+
+    @Benchmark
+    public int sendAlertByTopic(ThreadRandom state) {
+        return controller.sendAlertByTopic("Benchmark alert", AlertType.INFORMATIVE,
+                topicNames[state.random.nextInt(topics)]);
+    }
+
+    @Benchmark
+    public int markAllAsRead(ThreadRandom state) {
+        return controller.markAllAsRead(userNames[state.random.nextInt(users)]);
+    }
+
+    @Benchmark
+    public Object getUnexpiredAlertsByUser(ThreadRandom state) {
+        return controller.getUnexpiredAlertsByUser(userNames[state.random.nextInt(users)]);
+    }
+
+}
@@ -0,0 +1,70 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import service.TopicsService;
+import service.UsersService;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark de busqueda en los registros de usuarios y temas,
+ * la latencia de findUser y findTopic debe mantenerse constante de 1k a 10M entradas
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class RegistryLookupBenchmark {
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    private int entries;
+
+    private UsersService usersService;
+
+    private TopicsService topicsService;
+
+    private String[] names;
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+
+        usersService = new UsersService();
+        topicsService = new TopicsService();
+        names = new String[entries];
+
+        for (int i = 0; i < entries; i++) {
+            names[i] = "name-" + i;
+            usersService.registerUser(names[i]);
+            topicsService.registerTopic(names[i]);
+        }
+    }
+
+    /**
+     * Recorre los nombres con un salto primo para no favorecer la localidad de cache
+     * @return Siguiente nombre a buscar
+     */
+    private String nextName() {
+        next = (next + 7919) % entries;
+        return names[next];
+    }
+
+    @Benchmark
+    public Object findUser() {
+        return usersService.findUser(nextName());
+    }
+
+    @Benchmark
+    public Object findTopic() {
+        return topicsService.findTopic(nextName());
+    }
+
+    @Benchmark
+    public Object registerDuplicateUser() {
+        return usersService.registerUser(nextName());
+    }
+
+}
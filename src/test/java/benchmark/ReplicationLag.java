@@ -0,0 +1,64 @@
+package benchmark;
+
+import controller.Controller;
+import controller.ControllerBuilder;
+import entities.alert.AlertType;
+import metrics.Histogram;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mide el retraso de replicacion sobre localhost: el tiempo desde que el lider termina un envio hasta que
+ * el seguidor lo aplico, con una rafaga de envios por medicion para que el envio en bloque se note
+ * Se ejecuta como programa luego de mvn test-compile:
+ * java -cp target/test-classes:target/classes benchmark.ReplicationLag [mediciones] [envios por rafaga]
+ */
+public class ReplicationLag {
+
+    private static final int TOPICS = 100;
+
+    private static final int USERS = 10_000;
+
+    public static void main(String[] args) throws Exception {
+
+        int samples = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int burst = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+
+        ServerSocketChannel server = ServerSocketChannel.open()
+                .bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+        try (Controller leader = new ControllerBuilder().setReplicationListener(server).build();
+             Controller follower = new ControllerBuilder()
+                     .setReplicationSource(SocketChannel.open(server.getLocalAddress())).build()) {
+
+            for (int i = 0; i < TOPICS; i++) {
+                leader.registerTopic("topic-" + i);
+            }
+            for (int i = 0; i < USERS; i++) {
+                leader.registerUser("user-" + i);
+                leader.selectTopic("user-" + i, "topic-" + (i % TOPICS));
+            }
+
+            Histogram lag = new Histogram();
+            long start = System.nanoTime();
+
+            for (int i = 0; i < samples; i++) {
+                for (int j = 0; j < burst; j++) {
+                    leader.sendAlertByTopic("alert " + i, AlertType.INFORMATIVE, "topic-" + ((i + j) % TOPICS));
+                }
+                long sent = System.nanoTime();
+                follower.awaitReplication(leader.getReplicationSequence(), 10, TimeUnit.SECONDS);
+                lag.record((System.nanoTime() - sent) / 1_000);
+            }
+
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("%d alerts in %d ms, lag in us: %s%n", samples * burst, elapsed / 1_000_000,
+                    lag.snapshot());
+        }
+    }
+
+}
@@ -0,0 +1,63 @@
+package benchmark;
+
+import controller.Controller;
+import controller.ControllerBuilder;
+import entities.alert.AlertType;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Mide cuanto tarda en escribirse y cargarse una instantanea con muchas alertas repartidas en varios temas
+ * y una parte de alertas personales
+ * Se ejecuta como programa luego de mvn test-compile:
+ * java -Xmx4g -cp target/test-classes:target/classes benchmark.SnapshotLoadTime [cantidad]
+ */
+public class SnapshotLoadTime {
+
+    private static final int TOPICS = 100;
+
+    private static final int USERS = 10_000;
+
+    public static void main(String[] args) throws Exception {
+
+        int alerts = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Path directory = Files.createTempDirectory("alerts");
+        Path snapshotPath = directory.resolve("alerts.snapshot");
+
+        try (Controller controller = new ControllerBuilder().setSnapshotPath(snapshotPath).build()) {
+
+            for (int i = 0; i < TOPICS; i++) {
+                controller.registerTopic("topic-" + i);
+            }
+            for (int i = 0; i < USERS; i++) {
+                controller.registerUser("user-" + i);
+                controller.selectTopic("user-" + i, "topic-" + (i % TOPICS));
+            }
+            for (int i = 0; i < alerts; i++) {
+                AlertType type = i % 10 == 0 ? AlertType.URGENT : AlertType.INFORMATIVE;
+                if (i % 4 == 0) {
+                    controller.sendAlertByUser("alert " + i, type, "topic-" + (i % TOPICS), "user-" + (i % USERS));
+                } else {
+                    controller.sendAlertByTopic("alert " + i, type, "topic-" + (i % TOPICS));
+                }
+            }
+
+            long start = System.nanoTime();
+            controller.snapshot();
+            System.out.printf("write: %d ms, %d MB%n", (System.nanoTime() - start) / 1_000_000,
+                    Files.size(snapshotPath) >> 20);
+        }
+
+        System.gc();
+        long start = System.nanoTime();
+        try (Controller controller = new ControllerBuilder().setSnapshotPath(snapshotPath).build()) {
+            System.out.printf("load: %d ms (%d alerts)%n", (System.nanoTime() - start) / 1_000_000,
+                    controller.getUnexpiredAlertsByTopic("topic-0").size() * TOPICS);
+        }
+
+        Files.delete(snapshotPath);
+        Files.delete(directory);
+    }
+
+}
@@ -0,0 +1,122 @@
+package benchmark;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+import java.util.SplittableRandom;
+
+/**
+ * Configuracion de una carga sintetica del generador de carga, se lee de argumentos clave=valor y opcionalmente
+ * de un archivo guardado por una ejecucion anterior (workload=archivo), los argumentos pisan al archivo
+ * Se guarda completa con la semilla, asi repetir la ejecucion con el archivo genera las mismas operaciones
+ */
+public class Workload {
+
+    private static final String[][] DEFAULTS = {
+            {"users", "1000000"},
+            {"topics", "20000"},
+            {"subscriptionsPerUser", "5"},
+            {"zipfExponent", "0.99"},
+            {"urgentRate", "200"},
+            {"informativeRate", "2000"},
+            {"personalFraction", "0.2"},
+            {"neverExpiresFraction", "0.5"},
+            {"meanExpirySeconds", "60"},
+            {"readRate", "5000"},
+            {"pageReads", "0.5"},
+            {"fullReads", "0.1"},
+            {"countReads", "0.2"},
+            {"markOne", "0.15"},
+            {"markAll", "0.05"},
+            {"threads", "8"},
+            {"durationSeconds", "600"},
+            {"reportSeconds", "10"},
+            {"offHeap", "false"},
+            {"out", "workload.properties"}
+    };
+
+    private final Properties properties;
+
+    private Workload(Properties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * Lee la configuracion de los argumentos, si no hay semilla se elige una al azar
+     * @param args Argumentos clave=valor
+     * @return Configuracion
+     * @throws IOException si no se puede leer el archivo de la configuracion
+     * @throws IllegalArgumentException si un argumento no es clave=valor
+     */
+    public static Workload parse(String[] args) throws IOException {
+
+        Properties properties = new Properties();
+        for (String[] entry : DEFAULTS) {
+            properties.setProperty(entry[0], entry[1]);
+        }
+
+        Properties overrides = new Properties();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Expected key=value but got " + arg);
+            }
+            overrides.setProperty(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+
+        String file = overrides.getProperty("workload");
+        if (file != null) {
+            try (Reader reader = Files.newBufferedReader(Paths.get(file))) {
+                properties.load(reader);
+            }
+        }
+        properties.putAll(overrides);
+        properties.remove("workload");
+
+        if (!properties.containsKey("seed")) {
+            properties.setProperty("seed", Long.toString(new SplittableRandom().nextLong()));
+        }
+
+        return new Workload(properties);
+    }
+
+    /**
+     * Guarda la configuracion completa con la semilla en el archivo de salida
+     * @return Archivo guardado
+     * @throws IOException si no se puede escribir el archivo
+     */
+    public Path save() throws IOException {
+
+        Path path = Paths.get(properties.getProperty("out"));
+        try (Writer writer = Files.newBufferedWriter(path)) {
+            properties.store(writer, "Load generator workload, rerun with workload=" + path);
+        }
+        return path;
+    }
+
+    public int getInt(String key) {
+        return Integer.parseInt(properties.getProperty(key));
+    }
+
+    public long getLong(String key) {
+        return Long.parseLong(properties.getProperty(key));
+    }
+
+    public double getDouble(String key) {
+        return Double.parseDouble(properties.getProperty(key));
+    }
+
+    public boolean getBoolean(String key) {
+        return Boolean.parseBoolean(properties.getProperty(key));
+    }
+
+    @Override
+    public String toString() {
+        return properties.toString();
+    }
+
+}
@@ -0,0 +1,87 @@
+package benchmark;
+
+import java.util.SplittableRandom;
+
+/**
+ * Generador de rangos con distribucion de Zipf por muestreo de inversion con rechazo (Hormann y Derflinger),
+ * cada muestra cuesta O(1) sin tablas, por lo que sirve para millones de elementos
+ * El rango 0 es el mas probable, con exponente 0 la distribucion es uniforme
+ */
+public class ZipfianGenerator {
+
+    private final int n;
+
+    private final double exponent;
+
+    private final double hIntegralX1;
+
+    private final double hIntegralN;
+
+    private final double s;
+
+    /**
+     * Construye el generador
+     * @param n Cantidad de elementos
+     * @param exponent Exponente de la distribucion, mayor o igual a 0
+     * @throws IllegalArgumentException si n es menor a 1 o el exponente es negativo
+     */
+    public ZipfianGenerator(int n, double exponent) {
+
+        if (n < 1 || exponent < 0) {
+            throw new IllegalArgumentException("n must be positive and exponent not negative");
+        }
+
+        this.n = n;
+        this.exponent = exponent;
+        this.hIntegralX1 = hIntegral(1.5) - 1.0;
+        this.hIntegralN = hIntegral(n + 0.5);
+        this.s = 2.0 - hIntegralInverse(hIntegral(2.5) - h(2.0));
+    }
+
+    /**
+     * Devuelve el proximo rango
+     * @param random Generador de numeros aleatorios
+     * @return Rango entre 0 y n - 1
+     */
+    public int next(SplittableRandom random) {
+
+        while (true) {
+            double u = hIntegralN + random.nextDouble() * (hIntegralX1 - hIntegralN);
+            double x = hIntegralInverse(u);
+            int k = (int) (x + 0.5);
+
+            if (k < 1) {
+                k = 1;
+            } else if (k > n) {
+                k = n;
+            }
+
+            if (k - x <= s || u >= hIntegral(k + 0.5) - h(k)) {
+                return k - 1;
+            }
+        }
+    }
+
+    private double h(double x) {
+        return Math.exp(-exponent * Math.log(x));
+    }
+
+    private double hIntegral(double x) {
+        double logX = Math.log(x);
+        return helper2((1.0 - exponent) * logX) * logX;
+    }
+
+    private double hIntegralInverse(double x) {
+        double t = Math.max(-1.0, x * (1.0 - exponent));
+        return Math.exp(helper1(t) * x);
+    }
+
+    private static double helper1(double x) {
+        return Math.abs(x) > 1e-8 ? Math.log1p(x) / x : 1.0 - x * (0.5 - x * (1.0 / 3.0 - 0.25 * x));
+    }
+
+    private static double helper2(double x) {
+        return Math.abs(x) > 1e-8 ? Math.expm1(x) / x : 1.0 + x * 0.5 * (1.0 + x * (1.0 / 3.0) * (1.0 + 0.25 * x));
+    }
+
+}
@@ -0,0 +1,63 @@
+package entities.alert;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Verifica que la coleccion de alertas se mantiene en el orden de AlertComparator al insertar y quitar
+ */
+public class AlertQueueTest {
+
+    @Test
+    public void keepsComparatorOrder(){
+
+        AlertQueue queue = new AlertQueue();
+        List<Alert> expected = new ArrayList<>();
+        Random random = new Random(3);
+
+        for (int id = 1; id <= 2_000; id++) {
+
+            // Algunas alertas llegan fuera de orden
+            int alertId = random.nextInt(10) == 0 ? id + 5_000 : id;
+            Alert alert = new AlertBuilder().setId(alertId)
+                    .setType(random.nextBoolean() ? AlertType.URGENT : AlertType.INFORMATIVE).build();
+
+            if (queue.add(alert)) {
+                expected.add(alert);
+            }
+
+            if (random.nextInt(4) == 0) {
+                Alert removed = expected.remove(random.nextInt(expected.size()));
+                assertSame(removed, queue.remove(removed.getId()));
+            }
+        }
+
+        expected.sort(AlertComparator.INSTANCE);
+
+        List<Alert> actual = new ArrayList<>();
+        queue.forEach(actual::add);
+
+        assertEquals(expected, actual);
+        assertEquals(expected.size(), queue.size());
+    }
+
+    @Test
+    public void iteratesOnlyAlertsAfterCursor(){
+
+        AlertQueue queue = new AlertQueue();
+        for (int id = 1; id <= 6; id++) {
+            queue.add(new AlertBuilder().setId(id).setType(id % 2 == 0 ? AlertType.URGENT : AlertType.INFORMATIVE).build());
+        }
+
+        List<Integer> ids = new ArrayList<>();
+        queue.iterator(3).forEachRemaining(x -> ids.add(x.getId()));
+
+        assertEquals(List.of(6, 4, 5), ids);
+    }
+
+}
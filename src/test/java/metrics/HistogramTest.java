@@ -0,0 +1,59 @@
+package metrics;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compara los percentiles del histograma con los de los valores ordenados
+ */
+public class HistogramTest {
+
+    @Test
+    public void percentilesAreWithinBucketError(){
+
+        Histogram histogram = new Histogram();
+        Random random = new Random(42);
+        long[] values = new long[100_000];
+
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) Math.exp(random.nextDouble() * 20);
+            histogram.record(values[i]);
+        }
+
+        Arrays.sort(values);
+        HistogramSnapshot snapshot = histogram.snapshot();
+
+        assertEquals(values.length, snapshot.getCount());
+        assertEquals(values[values.length - 1], snapshot.getMax());
+        assertWithinError(values[(int) Math.ceil(0.50 * values.length) - 1], snapshot.getP50());
+        assertWithinError(values[(int) Math.ceil(0.90 * values.length) - 1], snapshot.getP90());
+        assertWithinError(values[(int) Math.ceil(0.99 * values.length) - 1], snapshot.getP99());
+        assertWithinError(values[(int) Math.ceil(0.999 * values.length) - 1], snapshot.getP999());
+    }
+
+    @Test
+    public void smallValuesAreExact(){
+
+        Histogram histogram = new Histogram();
+
+        for (int i = 0; i < 10; i++) {
+            histogram.record(i);
+        }
+
+        HistogramSnapshot snapshot = histogram.snapshot();
+
+        assertEquals(4, snapshot.getP50());
+        assertEquals(9, snapshot.getMax());
+        assertEquals(4.5, snapshot.getMean(), 0);
+        assertEquals(0, new Histogram().snapshot().getP99());
+    }
+
+    private static void assertWithinError(long expected, long actual){
+        assertTrue(expected + " vs " + actual, actual >= expected && actual <= expected + expected / 8 + 1);
+    }
+
+}
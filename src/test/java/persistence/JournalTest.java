@@ -0,0 +1,138 @@
+package persistence;
+
+import entities.alert.Alert;
+import entities.alert.AlertDestination;
+import entities.alert.AlertType;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Escribe registros en el diario y verifica que se reproduzcan igual, incluso si el ultimo quedo incompleto
+ */
+public class JournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recordsAreReplayedInOrder() throws Exception {
+
+        Path path = folder.getRoot().toPath().resolve("journal.log");
+        long expirationMillis = 1_893_553_445_006L;
+
+        try (Journal journal = Journal.open(path, SyncPolicy.ALWAYS, 0, x -> fail())) {
+            journal.append(JournalRecord.registerUser("Albano"));
+            journal.append(JournalRecord.registerTopic("Programaci\u00f3n"));
+            journal.append(JournalRecord.selectTopic("Albano", "Programaci\u00f3n", 7));
+            journal.append(JournalRecord.sendAlert(8, AlertType.URGENT, AlertDestination.PERSONAL, "Programaci\u00f3n",
+                    "Albano", "Java", expirationMillis));
+            journal.append(JournalRecord.sendAlert(9, AlertType.INFORMATIVE, AlertDestination.GENERAL,
+                    "Programaci\u00f3n", null, null, Alert.NEVER_EXPIRES));
+            journal.append(JournalRecord.markAsRead("Albano", 8, 9));
+            journal.append(JournalRecord.unselectTopic("Albano", "Programaci\u00f3n"));
+        }
+
+        List<JournalRecord> records = new ArrayList<>();
+        Journal.open(path, SyncPolicy.INTERVAL, 10, records::add).close();
+
+        assertEquals(7, records.size());
+        assertEquals(RecordType.REGISTER_USER, records.get(0).getType());
+        assertEquals("Programaci\u00f3n", records.get(1).getTopicName());
+        assertEquals(7, records.get(2).getAlertId());
+
+        JournalRecord personal = records.get(3);
+        assertEquals(8, personal.getAlertId());
+        assertEquals(AlertType.URGENT, personal.getAlertType());
+        assertEquals(AlertDestination.PERSONAL, personal.getDestination());
+        assertEquals("Albano", personal.getUserName());
+        assertEquals("Java", personal.getMessage());
+        assertEquals(expirationMillis, personal.getExpirationMillis());
+
+        assertNull(records.get(4).getMessage());
+        assertEquals(Alert.NEVER_EXPIRES, records.get(4).getExpirationMillis());
+        assertArrayEquals(new int[]{8, 9}, records.get(5).getAlertIds());
+        assertEquals(RecordType.UNSELECT_TOPIC, records.get(6).getType());
+    }
+
+    @Test
+    public void deferredSyncWaitsAtTheOutermostOperation() throws Exception {
+
+        Path path = folder.getRoot().toPath().resolve("journal.log");
+
+        try (Journal journal = Journal.open(path, SyncPolicy.ALWAYS, 0, x -> fail())) {
+            journal.deferSync();
+            journal.append(JournalRecord.registerUser("Albano"));
+            journal.deferSync();
+            assertEquals("Programming", journal.append(JournalRecord.registerTopic("Programming"),
+                    () -> "Programming"));
+            journal.awaitDeferredSync();
+            journal.awaitDeferredSync();
+            journal.append(JournalRecord.registerUser("WoowUp"));
+        }
+
+        List<JournalRecord> records = new ArrayList<>();
+        Journal.open(path, SyncPolicy.INTERVAL, 10, records::add).close();
+
+        assertEquals(3, records.size());
+        assertEquals("WoowUp", records.get(2).getUserName());
+    }
+
+    @Test
+    public void tornTailIsDiscarded() throws Exception {
+
+        Path path = folder.getRoot().toPath().resolve("journal.log");
+
+        try (Journal journal = Journal.open(path, SyncPolicy.NONE, 10, x -> fail())) {
+            journal.append(JournalRecord.registerUser("Albano"));
+            journal.append(JournalRecord.registerUser("Lucas"));
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        List<JournalRecord> records = new ArrayList<>();
+        try (Journal journal = Journal.open(path, SyncPolicy.INTERVAL, 10, records::add)) {
+            journal.append(JournalRecord.registerUser("Martin"));
+        }
+        assertEquals(1, records.size());
+
+        records.clear();
+        Journal.open(path, SyncPolicy.INTERVAL, 10, records::add).close();
+
+        assertEquals(2, records.size());
+        assertEquals("Albano", records.get(0).getUserName());
+        assertEquals("Martin", records.get(1).getUserName());
+    }
+
+    @Test
+    public void largeRecordsBypassTheBuffer() throws Exception {
+
+        Path path = folder.getRoot().toPath().resolve("journal.log");
+        String message = "x".repeat(3 << 20);
+
+        try (Journal journal = Journal.open(path, SyncPolicy.INTERVAL, 10, x -> fail())) {
+            journal.append(JournalRecord.registerTopic("Programming"));
+            journal.append(JournalRecord.sendAlert(1, AlertType.INFORMATIVE, AlertDestination.GENERAL,
+                    "Programming", null, message, Alert.NEVER_EXPIRES));
+            journal.append(JournalRecord.registerTopic("Music"));
+        }
+
+        List<JournalRecord> records = new ArrayList<>();
+        Journal.open(path, SyncPolicy.INTERVAL, 10, records::add).close();
+
+        assertEquals(3, records.size());
+        assertEquals(message, records.get(1).getMessage());
+        assertEquals("Music", records.get(2).getTopicName());
+    }
+
+}
@@ -0,0 +1,146 @@
+package service;
+
+import entities.alert.Alert;
+import entities.alert.AlertBuilder;
+import entities.alert.AlertType;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+import static org.junit.Assert.*;
+
+/**
+ * Verifica que las entregas respeten la demanda y que al desbordar el buffer nunca se descarten urgentes
+ */
+public class AlertPublisherTest {
+
+    @Test
+    public void deliversOnDemandUrgentFirst(){
+
+        AlertPublisher publisher = new AlertPublisher(8, PushOverflowPolicy.DROP_OLDEST_INFORMATIVE, Runnable::run);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        publisher.publish(alert(1, AlertType.INFORMATIVE));
+        publisher.publish(alert(2, AlertType.URGENT));
+        assertTrue(subscriber.received.isEmpty());
+
+        subscriber.subscription.request(1);
+        assertEquals(List.of(2), subscriber.ids());
+
+        subscriber.subscription.request(5);
+        publisher.publish(alert(3, AlertType.INFORMATIVE));
+        assertEquals(List.of(2, 1, 3), subscriber.ids());
+
+        publisher.close();
+        assertTrue(subscriber.completed);
+        assertFalse(publisher.hasSubscribers());
+    }
+
+    @Test
+    public void overflowNeverDropsUrgent(){
+
+        AlertPublisher publisher = new AlertPublisher(3, PushOverflowPolicy.DROP_OLDEST_INFORMATIVE, Runnable::run);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        publisher.publish(alert(1, AlertType.INFORMATIVE));
+        publisher.publish(alert(2, AlertType.INFORMATIVE));
+        publisher.publish(alert(3, AlertType.URGENT));
+        publisher.publish(alert(4, AlertType.INFORMATIVE));
+        publisher.publish(alert(5, AlertType.URGENT));
+        publisher.publish(alert(6, AlertType.URGENT));
+        publisher.publish(alert(7, AlertType.INFORMATIVE));
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertEquals(List.of(3, 5, 6, 4, 7), subscriber.ids());
+        assertEquals(2, publisher.countDropped());
+
+        AlertPublisher cancelling = new AlertPublisher(1, PushOverflowPolicy.CANCEL, Runnable::run);
+        RecordingSubscriber slow = new RecordingSubscriber();
+        cancelling.subscribe(slow);
+        cancelling.publish(alert(1, AlertType.INFORMATIVE));
+        cancelling.publish(alert(2, AlertType.INFORMATIVE));
+
+        assertTrue(slow.error instanceof IllegalStateException);
+        assertFalse(cancelling.hasSubscribers());
+    }
+
+    @Test
+    public void onSubscribeIsSignalledBeforeTermination(){
+
+        AlertPublisher publisher = new AlertPublisher(8, PushOverflowPolicy.CANCEL, Runnable::run);
+        List<String> signals = new ArrayList<>();
+
+        publisher.subscribe(new RecordingSubscriber() {
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                // Un pedido invalido y un cierre antes de volver no deben adelantar onError ni onComplete
+                subscription.request(0);
+                publisher.close();
+                signals.add("onSubscribe");
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                signals.add("onError");
+            }
+
+            @Override
+            public void onComplete() {
+                signals.add("onComplete");
+            }
+        });
+
+        assertEquals(List.of("onSubscribe", "onError"), signals);
+        assertFalse(publisher.hasSubscribers());
+    }
+
+    private static Alert alert(int id, AlertType type) {
+        return new AlertBuilder().setId(id).setMessage("Alert " + id).setType(type).build();
+    }
+
+    private static class RecordingSubscriber implements Flow.Subscriber<Alert> {
+
+        private Flow.Subscription subscription;
+
+        private final List<Alert> received = new ArrayList<>();
+
+        private boolean completed;
+
+        private Throwable error;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(Alert item) {
+            received.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+
+        private List<Integer> ids() {
+            List<Integer> ids = new ArrayList<>();
+            for (Alert alert : received) {
+                ids.add(alert.getId());
+            }
+            return ids;
+        }
+
+    }
+
+}
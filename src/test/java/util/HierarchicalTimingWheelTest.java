@@ -0,0 +1,57 @@
+package util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Verifica que la rueda de tiempo vence cada elemento en el primer avance posterior a su vencimiento
+ */
+public class HierarchicalTimingWheelTest {
+
+    @Test
+    public void expiresEachItemOnTime(){
+
+        long start = 1_000_000;
+        HierarchicalTimingWheel<Long> wheel = new HierarchicalTimingWheel<>(10, start);
+        Random random = new Random(7);
+
+        for (int i = 0; i < 10_000; i++) {
+            // Vencimientos desde el pasado hasta varios niveles de la rueda
+            long deadline = start - 1_000 + (long) (random.nextDouble() * random.nextDouble() * 50_000_000);
+            wheel.schedule(deadline, deadline);
+        }
+
+        List<Long> expired = new ArrayList<>();
+        long now = start;
+
+        while (wheel.size() > 0) {
+            now += 1 + random.nextInt(100_000);
+            long current = now;
+            wheel.advance(now, deadline -> {
+                assertTrue("expired too early", deadline <= current);
+                expired.add(deadline);
+            });
+            for (Long deadline : expired) {
+                assertTrue("expired too late", deadline > current - 100_000 - 10);
+            }
+            expired.clear();
+        }
+    }
+
+    @Test
+    public void expiresPastItemsOnNextAdvance(){
+
+        HierarchicalTimingWheel<String> wheel = new HierarchicalTimingWheel<>(1000, 5_000);
+        wheel.schedule("past", 0);
+
+        assertEquals(0, wheel.advance(5_500, x -> { }));
+        assertEquals(1, wheel.advance(6_000, x -> assertEquals("past", x)));
+        assertEquals(0, wheel.size());
+    }
+
+}
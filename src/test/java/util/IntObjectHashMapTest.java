@@ -0,0 +1,44 @@
+package util;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compara el mapa de claves int con un HashMap ante una secuencia aleatoria de operaciones
+ */
+public class IntObjectHashMapTest {
+
+    @Test
+    public void behavesLikeHashMap(){
+
+        IntObjectHashMap<String> map = new IntObjectHashMap<>();
+        Map<Integer, String> expected = new HashMap<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 200_000; i++) {
+
+            int key = random.nextInt(5_000) - 100;
+            int operation = random.nextInt(3);
+
+            if (operation == 0) {
+                assertEquals(expected.put(key, "v" + i), map.put(key, "v" + i));
+            } else if (operation == 1) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                assertEquals(expected.get(key), map.get(key));
+            }
+
+            assertEquals(expected.size(), map.size());
+        }
+
+        for (Map.Entry<Integer, String> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+    }
+
+}
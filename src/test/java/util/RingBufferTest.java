@@ -0,0 +1,44 @@
+package util;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Verifica que el buffer circular mantenga el orden de llegada al dar la vuelta y al crecer
+ */
+public class RingBufferTest {
+
+    @Test
+    public void keepsArrivalOrder(){
+
+        RingBuffer<Integer> buffer = new RingBuffer<>(4);
+        Deque<Integer> expected = new ArrayDeque<>();
+        Random random = new Random(42);
+        int next = 0;
+
+        for (int i = 0; i < 100_000; i++) {
+
+            if (expected.isEmpty() || random.nextInt(3) > 0) {
+                buffer.add(next, next * 10L);
+                expected.addLast(next++);
+            } else {
+                int first = expected.pollFirst();
+                assertEquals(first * 10L, buffer.peekFirstStamp());
+                assertEquals(Integer.valueOf(first), buffer.pollFirst());
+            }
+
+            assertEquals(expected.size(), buffer.size());
+        }
+
+        while (!expected.isEmpty()) {
+            assertEquals(expected.pollFirst(), buffer.pollFirst());
+        }
+        assertTrue(buffer.isEmpty());
+    }
+
+}
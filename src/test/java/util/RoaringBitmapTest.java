@@ -0,0 +1,67 @@
+package util;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compara el mapa de bits comprimido con un TreeSet, incluyendo el pasaje de contenedores
+ * de arreglo a mapa de bits y de vuelta
+ */
+public class RoaringBitmapTest {
+
+    @Test
+    public void behavesLikeTreeSet(){
+
+        RoaringBitmap bitmap = new RoaringBitmap();
+        TreeSet<Integer> expected = new TreeSet<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 300_000; i++) {
+
+            int value = random.nextInt(200_000);
+            int operation = random.nextInt(4);
+
+            if (operation < 2) {
+                assertEquals(expected.add(value), bitmap.add(value));
+            } else if (operation == 2) {
+                assertEquals(expected.remove(value), bitmap.remove(value));
+            } else {
+                assertEquals(expected.contains(value), bitmap.contains(value));
+            }
+
+            assertEquals(expected.size(), bitmap.getCardinality());
+        }
+
+        assertArrayEquals(expected.stream().mapToInt(Integer::intValue).toArray(), bitmap.toArray());
+    }
+
+    @Test
+    public void denseContainersAreConvertedBack(){
+
+        RoaringBitmap bitmap = new RoaringBitmap();
+
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(bitmap.add(i));
+        }
+        assertEquals(10_000, bitmap.getCardinality());
+        assertTrue(bitmap.sizeInBytes() < 10_000 * 2);
+
+        for (int i = 0; i < 10_000; i += 2) {
+            assertTrue(bitmap.remove(i));
+        }
+        assertEquals(5_000, bitmap.getCardinality());
+        assertTrue(bitmap.contains(1));
+        assertFalse(bitmap.contains(2));
+
+        for (int i = 1; i < 10_000; i += 2) {
+            assertTrue(bitmap.remove(i));
+        }
+        assertTrue(bitmap.isEmpty());
+        assertArrayEquals(new int[0], bitmap.toArray());
+    }
+
+}
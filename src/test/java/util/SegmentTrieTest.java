@@ -0,0 +1,108 @@
+package util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Verifica que el trie resuelva los comodines igual que comparar cada patron contra cada nombre
+ */
+public class SegmentTrieTest {
+
+    private static final String[] SEGMENTS = {"a", "b", "c", "*", "#"};
+
+    @Test
+    public void matchesWildcards(){
+
+        assertTrue(SegmentTrie.matches("programming.*", "programming.java"));
+        assertFalse(SegmentTrie.matches("programming.*", "programming.java.jvm"));
+        assertFalse(SegmentTrie.matches("programming.*", "programming"));
+        assertTrue(SegmentTrie.matches("programming.#", "programming"));
+        assertTrue(SegmentTrie.matches("programming.#", "programming.java.jvm"));
+        assertTrue(SegmentTrie.matches("#.jvm", "programming.java.jvm"));
+        assertFalse(SegmentTrie.matches("programming.#", "math"));
+    }
+
+    @Test
+    public void agreesWithPairwiseMatching(){
+
+        Random random = new Random(42);
+        SegmentTrie<String> patterns = new SegmentTrie<>();
+        SegmentTrie<String> names = new SegmentTrie<>();
+        List<String> patternList = new ArrayList<>();
+        List<String> nameList = new ArrayList<>();
+
+        for (int i = 0; i < 200; i++) {
+            String pattern = randomKey(random, SEGMENTS.length);
+            patterns.add(pattern, pattern);
+            patternList.add(pattern);
+
+            String name = randomKey(random, 3);
+            names.add(name, name);
+            nameList.add(name);
+        }
+
+        for (String name : nameList) {
+            Set<String> expected = new HashSet<>();
+            for (String pattern : patternList) {
+                if (SegmentTrie.matches(pattern, name)) {
+                    expected.add(pattern);
+                }
+            }
+            Set<String> actual = new HashSet<>();
+            patterns.matchPatterns(name, actual::add);
+            assertEquals(expected, actual);
+        }
+
+        for (String pattern : patternList) {
+            Set<String> expected = new HashSet<>();
+            for (String name : nameList) {
+                if (SegmentTrie.matches(pattern, name)) {
+                    expected.add(name);
+                }
+            }
+            List<String> actual = new ArrayList<>();
+            names.matchNames(pattern, actual::add);
+            assertEquals(expected.size(), actual.size());
+            assertEquals(expected, new HashSet<>(actual));
+        }
+    }
+
+    @Test
+    public void removePrunesEmptyBranches(){
+
+        SegmentTrie<Integer> trie = new SegmentTrie<>();
+
+        assertTrue(trie.add("a.b.c", 1));
+        assertFalse(trie.add("a.b.c", 1));
+        assertTrue(trie.add("a.b", 2));
+        assertTrue(trie.remove("a.b.c", 1));
+        assertFalse(trie.remove("a.b.c", 1));
+
+        List<Integer> found = new ArrayList<>();
+        trie.matchNames("#", found::add);
+        assertEquals(List.of(2), found);
+    }
+
+    private static String randomKey(Random random, int bound) {
+
+        int length = 1 + random.nextInt(4);
+        StringBuilder key = new StringBuilder();
+
+        for (int i = 0; i < length; i++) {
+            if (i > 0) {
+                key.append('.');
+            }
+            key.append(SEGMENTS[random.nextInt(bound)]);
+        }
+
+        return key.toString();
+    }
+
+}
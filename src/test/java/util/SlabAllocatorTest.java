@@ -0,0 +1,82 @@
+package util;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Verifica que los bloques reservados no se pisen entre si y que los liberados se reutilicen
+ */
+public class SlabAllocatorTest {
+
+    @Test
+    public void blocksDoNotOverlap(){
+
+        SlabAllocator allocator = new SlabAllocator(1 << 16);
+        Map<Integer, Integer> sizes = new HashMap<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 100_000; i++) {
+
+            if (sizes.isEmpty() || random.nextInt(3) > 0) {
+                int size = 1 + random.nextInt(random.nextInt(10) == 0 ? 4096 : 128);
+                int handle = allocator.allocate(size);
+                assertTrue(handle >= 0);
+                assertNull(sizes.put(handle, size));
+                fill(allocator, handle, size, (byte) handle);
+            } else {
+                int handle = sizes.keySet().iterator().next();
+                int size = sizes.remove(handle);
+                check(allocator, handle, size, (byte) handle);
+                allocator.free(handle, size);
+            }
+        }
+
+        for (Map.Entry<Integer, Integer> entry : sizes.entrySet()) {
+            check(allocator, entry.getKey(), entry.getValue(), (byte) (int) entry.getKey());
+        }
+    }
+
+    @Test
+    public void freedBlocksAreReused(){
+
+        SlabAllocator allocator = new SlabAllocator(1 << 10);
+
+        int first = allocator.allocate(40);
+        assertEquals(48, allocator.getAllocatedBytes());
+        allocator.free(first, 40);
+        assertEquals(0, allocator.getAllocatedBytes());
+        assertEquals(first, allocator.allocate(33));
+
+        assertTrue(allocator.allocate(1 << 10) >= 0);
+        assertEquals(2 << 10, allocator.getCapacityBytes());
+        assertEquals(-1, allocator.allocate((1 << 10) + 1));
+    }
+
+    private static void fill(SlabAllocator allocator, int handle, int size, byte value) {
+
+        ByteBuffer slab = allocator.slab(handle);
+        int offset = allocator.offset(handle);
+
+        assertTrue(offset + size <= slab.capacity());
+        for (int i = 0; i < size; i++) {
+            slab.put(offset + i, value);
+        }
+    }
+
+    private static void check(SlabAllocator allocator, int handle, int size, byte value) {
+
+        ByteBuffer slab = allocator.slab(handle);
+        int offset = allocator.offset(handle);
+
+        for (int i = 0; i < size; i++) {
+            assertEquals(value, slab.get(offset + i));
+        }
+    }
+
+}